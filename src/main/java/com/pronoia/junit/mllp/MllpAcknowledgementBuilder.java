@@ -0,0 +1,295 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds HL7 acknowledgements directly from the bytes of the received message.
+ *
+ * The MSH segment of the received message is scanned in place to find the field offsets, and the acknowledgement is
+ * written to a reusable output buffer - the sending and receiving application/facility fields are swapped, the
+ * message type is changed to ACK and the message control ID (MSH-10) is copied to MSA-2.  No intermediate Strings
+ * are created, so building an acknowledgement does not allocate once the output buffer has grown to fit.
+ *
+ * The output buffer is also used to assemble the complete response (MLLP envelope and any out-of-band data).
+ *
+ * Instances are not thread-safe - each connection uses its own builder.
+ */
+class MllpAcknowledgementBuilder {
+    static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * The highest MSH field number that is indexed when the MSH segment is scanned.
+     */
+    static final int MAX_INDEXED_FIELD = 12;
+
+    static final byte[] APPLICATION_ACCEPT = ascii("AA");
+    static final byte[] APPLICATION_ERROR = ascii("AE");
+    static final byte[] APPLICATION_REJECT = ascii("AR");
+
+    static final byte[] DEFAULT_NACK = ascii("MSH|^~\\&|||||||NACK||P|2.2" + MllpServerResource.SEGMENT_DELIMITER
+        + "MSA|AR|" + MllpServerResource.SEGMENT_DELIMITER);
+
+    static final byte[] ACK = ascii("ACK");
+    static final byte[] MSA = ascii("MSA");
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    byte[] buffer;
+    int length;
+
+    // Offsets of the MSH segment of the last message that was scanned
+    byte[] mshBytes;
+    int mshStart;
+    int mshEnd;
+    byte fieldSeparator;
+    final int[] fieldStart = new int[MAX_INDEXED_FIELD + 1];
+    final int[] fieldEnd = new int[MAX_INDEXED_FIELD + 1];
+
+    final MllpAcknowledgementTemplateCache templateCache;
+    final MllpAcknowledgementTemplateCache.TemplateKey templateProbe = new MllpAcknowledgementTemplateCache.TemplateKey();
+    final MllpAcknowledgementRuleIndex.FieldKey ruleProbe = new MllpAcknowledgementRuleIndex.FieldKey();
+
+    MllpAcknowledgementBuilder() {
+        this(DEFAULT_BUFFER_SIZE, null);
+    }
+
+    MllpAcknowledgementBuilder(int initialBufferSize) {
+        this(initialBufferSize, null);
+    }
+
+    /**
+     * @param initialBufferSize the initial size of the output buffer
+     * @param templateCache     the acknowledgement template cache - null disables the use of templates
+     */
+    MllpAcknowledgementBuilder(int initialBufferSize, MllpAcknowledgementTemplateCache templateCache) {
+        this.buffer = new byte[initialBufferSize];
+        this.templateCache = templateCache;
+    }
+
+    /**
+     * Scan the MSH segment of a HL7 message and record the offsets of the fields.
+     *
+     * Fields that are not present in the segment are recorded as empty fields at the end of the segment.
+     *
+     * @param hl7Message the bytes containing the HL7 message
+     * @param offset     the offset of the HL7 message
+     * @param length     the length of the HL7 message
+     *
+     * @return true if the MSH segment was found; false if the end of the segment could not be found
+     */
+    boolean scanMsh(byte[] hl7Message, int offset, int length) {
+        mshBytes = hl7Message;
+        mshStart = offset;
+        mshEnd = -1;
+
+        int endOfMessage = offset + length;
+        for (int i = offset; i < endOfMessage; ++i) {
+            if (MllpServerResource.SEGMENT_DELIMITER == hl7Message[i]) {
+                mshEnd = i;
+                break;
+            }
+        }
+
+        if (-1 == mshEnd || 4 > mshEnd - mshStart) {
+            mshEnd = -1;
+            return false;
+        }
+
+        fieldSeparator = hl7Message[offset + 3];
+
+        // MSH-1 is the field separator itself, so MSH-2 starts after it
+        int fieldNumber = 2;
+        fieldStart[fieldNumber] = offset + 4;
+        for (int i = offset + 4; i < mshEnd && fieldNumber <= MAX_INDEXED_FIELD; ++i) {
+            if (fieldSeparator == hl7Message[i]) {
+                fieldEnd[fieldNumber] = i;
+                if (++fieldNumber <= MAX_INDEXED_FIELD) {
+                    fieldStart[fieldNumber] = i + 1;
+                }
+            }
+        }
+        if (fieldNumber <= MAX_INDEXED_FIELD) {
+            fieldEnd[fieldNumber] = mshEnd;
+            while (++fieldNumber <= MAX_INDEXED_FIELD) {
+                fieldStart[fieldNumber] = mshEnd;
+                fieldEnd[fieldNumber] = mshEnd;
+            }
+        }
+
+        return true;
+    }
+
+    int getFieldStart(int fieldNumber) {
+        return fieldStart[fieldNumber];
+    }
+
+    int getFieldEnd(int fieldNumber) {
+        return fieldEnd[fieldNumber];
+    }
+
+    int getFieldLength(int fieldNumber) {
+        return fieldEnd[fieldNumber] - fieldStart[fieldNumber];
+    }
+
+    /**
+     * Append a HL7 Application Acknowledgement for a HL7 message to the output buffer.
+     *
+     * @param hl7Message          the bytes containing the HL7 message that is being acknowledged
+     * @param offset              the offset of the HL7 message
+     * @param length              the length of the HL7 message
+     * @param acknowledgementCode APPLICATION_ACCEPT, APPLICATION_ERROR or APPLICATION_REJECT
+     */
+    void appendAcknowledgement(byte[] hl7Message, int offset, int length, byte[] acknowledgementCode) {
+        if (!scanMsh(hl7Message, offset, length)) {
+            log.error("Failed to find the end of the  MSH Segment");
+            append(DEFAULT_NACK, 0, DEFAULT_NACK.length);
+            return;
+        }
+
+        if (null != templateCache) {
+            MllpAcknowledgementTemplateCache.Template template = templateCache.getTemplate(this, templateProbe);
+            if (null != template) {
+                append(template.bytes, 0, template.dateTimeOffset);
+                appendField(7);
+                append(template.bytes, template.dateTimeOffset, template.messageControlIdOffset - template.dateTimeOffset);
+                appendField(10);
+                append(template.bytes, template.messageControlIdOffset, template.bytes.length - template.messageControlIdOffset);
+                appendMessageAcknowledgement(acknowledgementCode);
+                return;
+            }
+        }
+
+        // Build the MSH Segment
+        append(hl7Message, mshStart, 3);
+        append(fieldSeparator);
+        appendField(2);
+        append(fieldSeparator);
+        appendField(5);
+        append(fieldSeparator);
+        appendField(6);
+        append(fieldSeparator);
+        appendField(3);
+        append(fieldSeparator);
+        appendField(4);
+        append(fieldSeparator);
+        appendField(7);
+        append(fieldSeparator);
+        appendField(8);
+        append(fieldSeparator);
+        append(ACK, 0, ACK.length);
+        if (3 < getFieldLength(9)) {
+            append(hl7Message, fieldStart[9] + 3, getFieldLength(9) - 3);
+        }
+        // The rest of the segment - starting with the separator before MSH-10 - is copied as received
+        append(hl7Message, fieldEnd[9], mshEnd - fieldEnd[9]);
+        append((byte) MllpServerResource.SEGMENT_DELIMITER);
+
+        // Build the MSA Segment
+        append(MSA, 0, MSA.length);
+        append(fieldSeparator);
+        appendMessageAcknowledgement(acknowledgementCode);
+    }
+
+    /**
+     * Append the fields of the MSA segment that follow the segment ID.
+     *
+     * @param acknowledgementCode APPLICATION_ACCEPT, APPLICATION_ERROR or APPLICATION_REJECT
+     */
+    void appendMessageAcknowledgement(byte[] acknowledgementCode) {
+        append(acknowledgementCode, 0, acknowledgementCode.length);
+        append(fieldSeparator);
+        appendField(10);
+        append(fieldSeparator);
+        append((byte) MllpServerResource.SEGMENT_DELIMITER);
+    }
+
+    void appendField(int fieldNumber) {
+        append(mshBytes, fieldStart[fieldNumber], getFieldLength(fieldNumber));
+    }
+
+    void append(byte value) {
+        ensureCapacity(1);
+        buffer[length++] = value;
+    }
+
+    void append(byte[] bytes, int offset, int count) {
+        if (0 < count) {
+            ensureCapacity(count);
+            System.arraycopy(bytes, offset, buffer, length, count);
+            length += count;
+        }
+    }
+
+    /**
+     * Discard the contents of the output buffer.
+     */
+    void reset() {
+        length = 0;
+    }
+
+    /**
+     * Remove the end of the output buffer.
+     *
+     * @param offset the offset of the first byte to remove
+     *
+     * @return a copy of the removed bytes
+     */
+    byte[] removeFrom(int offset) {
+        byte[] removed = Arrays.copyOfRange(buffer, offset, length);
+        length = offset;
+        return removed;
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Get a range of the output buffer as a String - intended for logging.
+     *
+     * @param offset the offset of the range
+     * @param count  the number of bytes in the range
+     *
+     * @return the range of the output buffer
+     */
+    String toString(int offset, int count) {
+        return new String(buffer, offset, count, StandardCharsets.ISO_8859_1);
+    }
+
+    private void ensureCapacity(int additionalBytes) {
+        int requiredCapacity = length + additionalBytes;
+        if (requiredCapacity > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, requiredCapacity)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
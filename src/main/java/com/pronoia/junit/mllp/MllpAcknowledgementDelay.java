@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how long the MllpServerResource waits before sending the response to a message.
+ *
+ * The delays are applied by a shared scheduler, so a delayed response does not prevent further frames from being
+ * read on the connection.  The responses on a connection are always sent in the order the messages were received, so
+ * a response is never sent before the response to an earlier message.
+ */
+public interface MllpAcknowledgementDelay {
+    /**
+     * Get the delay for the response to a message.
+     *
+     * @param messageCount the number of messages received on the connection, including this one
+     *
+     * @return the delay, in nanoseconds
+     */
+    long getDelayNanos(int messageCount);
+
+    /**
+     * Create a delay that is the same for every message.
+     *
+     * @param delay the delay, in milliseconds
+     *
+     * @return the fixed delay
+     */
+    static MllpAcknowledgementDelay fixed(long delay) {
+        return new Fixed(TimeUnit.MILLISECONDS.toNanos(delay));
+    }
+
+    /**
+     * Create a delay that is uniformly distributed between two values.
+     *
+     * @param minimumDelay the minimum delay, in milliseconds
+     * @param maximumDelay the maximum delay, in milliseconds
+     *
+     * @return the uniform delay
+     */
+    static MllpAcknowledgementDelay uniform(long minimumDelay, long maximumDelay) {
+        return new Uniform(TimeUnit.MILLISECONDS.toNanos(minimumDelay), TimeUnit.MILLISECONDS.toNanos(maximumDelay));
+    }
+
+    /**
+     * Create a delay with a log-normal distribution matching a latency profile.
+     *
+     * @param p50Delay the median delay, in milliseconds
+     * @param p99Delay the 99th percentile delay, in milliseconds
+     *
+     * @return the delay distribution
+     */
+    static MllpAcknowledgementDelay percentiles(double p50Delay, double p99Delay) {
+        return new LogNormal(p50Delay * 1000000.0, p99Delay * 1000000.0);
+    }
+
+    /**
+     * Create a delay that replays the distribution of a recorded latency histogram.
+     *
+     * @param histogram the recorded latencies, in nanoseconds - for example the acknowledgement latency of a server
+     *
+     * @return the delay distribution
+     */
+    static MllpAcknowledgementDelay replay(MllpLatencyHistogram histogram) {
+        return new Replay(histogram);
+    }
+
+    /**
+     * Nested class for a fixed delay
+     */
+    class Fixed implements MllpAcknowledgementDelay {
+        final long delayNanos;
+
+        Fixed(long delayNanos) {
+            this.delayNanos = Math.max(0, delayNanos);
+        }
+
+        @Override
+        public long getDelayNanos(int messageCount) {
+            return delayNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "fixed(" + delayNanos + "ns)";
+        }
+    }
+
+    /**
+     * Nested class for a uniformly distributed delay
+     */
+    class Uniform implements MllpAcknowledgementDelay {
+        final long minimumDelayNanos;
+        final long maximumDelayNanos;
+
+        Uniform(long minimumDelayNanos, long maximumDelayNanos) {
+            if (minimumDelayNanos > maximumDelayNanos) {
+                throw new IllegalArgumentException("The minimum delay must not be greater than the maximum delay");
+            }
+            this.minimumDelayNanos = Math.max(0, minimumDelayNanos);
+            this.maximumDelayNanos = Math.max(0, maximumDelayNanos);
+        }
+
+        @Override
+        public long getDelayNanos(int messageCount) {
+            if (minimumDelayNanos == maximumDelayNanos) {
+                return minimumDelayNanos;
+            }
+            return ThreadLocalRandom.current().nextLong(minimumDelayNanos, maximumDelayNanos + 1);
+        }
+
+        @Override
+        public String toString() {
+            return "uniform(" + minimumDelayNanos + "ns, " + maximumDelayNanos + "ns)";
+        }
+    }
+
+    /**
+     * Nested class for a log-normal delay, described by its median and 99th percentile
+     */
+    class LogNormal implements MllpAcknowledgementDelay {
+        // The 99th percentile of the standard normal distribution
+        static final double Z_99 = 2.3263478740408408;
+
+        final double mu;
+        final double sigma;
+
+        LogNormal(double p50DelayNanos, double p99DelayNanos) {
+            if (0 >= p50DelayNanos || p99DelayNanos < p50DelayNanos) {
+                throw new IllegalArgumentException("The median delay must be greater than 0 and not greater than the 99th percentile delay");
+            }
+            this.mu = Math.log(p50DelayNanos);
+            this.sigma = Math.log(p99DelayNanos / p50DelayNanos) / Z_99;
+        }
+
+        @Override
+        public long getDelayNanos(int messageCount) {
+            return (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("percentiles(p50=%.0fns, p99=%.0fns)", Math.exp(mu), Math.exp(mu + sigma * Z_99));
+        }
+    }
+
+    /**
+     * Nested class that samples the delay from a latency histogram
+     */
+    class Replay implements MllpAcknowledgementDelay {
+        final int[] buckets;
+        final long[] cumulativeCounts;
+
+        Replay(MllpLatencyHistogram histogram) {
+            int bucketCount = 0;
+            for (int i = 0; i < MllpLatencyHistogram.BUCKET_COUNT; ++i) {
+                if (0 < histogram.counts.get(i)) {
+                    ++bucketCount;
+                }
+            }
+            if (0 == bucketCount) {
+                throw new IllegalArgumentException("The histogram does not contain any values");
+            }
+
+            buckets = new int[bucketCount];
+            cumulativeCounts = new long[bucketCount];
+            long total = 0;
+            int next = 0;
+            for (int i = 0; i < MllpLatencyHistogram.BUCKET_COUNT && next < bucketCount; ++i) {
+                long count = histogram.counts.get(i);
+                if (0 < count) {
+                    total += count;
+                    buckets[next] = i;
+                    cumulativeCounts[next++] = total;
+                }
+            }
+        }
+
+        @Override
+        public long getDelayNanos(int messageCount) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long sample = random.nextLong(cumulativeCounts[cumulativeCounts.length - 1]);
+
+            int low = 0;
+            int high = cumulativeCounts.length - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sample < cumulativeCounts[middle]) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+
+            long lowestValue = MllpLatencyHistogram.lowestValueOf(buckets[low]);
+            long highestValue = MllpLatencyHistogram.highestValueOf(buckets[low]);
+            return (lowestValue == highestValue || Long.MAX_VALUE == highestValue) ? lowestValue : random.nextLong(lowestValue, highestValue + 1);
+        }
+
+        @Override
+        public String toString() {
+            return "replay(" + cumulativeCounts[cumulativeCounts.length - 1] + " values)";
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Selects the acknowledgement code for messages by the values of their MSH fields.
+ *
+ * A rule matches a message when every field the rule specifies has the same value in the MSH segment of the message;
+ * fields that are not specified match any value.  Rules are looked up in a hash index, so the number of rules does not
+ * affect the cost of acknowledging a message.  When several rules match, the rule that specifies the most fields is
+ * used, and of those the rule added first.
+ *
+ * Example - reject the ORU^R01 messages sent by LAB:
+ * <pre>
+ *     mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationReject().messageType("ORU^R01").sendingApplication("LAB"));
+ * </pre>
+ */
+public class MllpAcknowledgementRule {
+    static final int SENDING_APPLICATION = 0;
+    static final int SENDING_FACILITY = 1;
+    static final int MESSAGE_TYPE = 2;
+    static final int TRIGGER_EVENT = 3;
+    static final int PROCESSING_ID = 4;
+    static final int FIELD_COUNT = 5;
+
+    final byte[] acknowledgementCode;
+    final String[] values = new String[FIELD_COUNT];
+
+    MllpAcknowledgementRule(byte[] acknowledgementCode) {
+        this.acknowledgementCode = acknowledgementCode;
+    }
+
+    /**
+     * Create a rule that sends an application error acknowledgement (AE).
+     *
+     * @return the rule
+     */
+    public static MllpAcknowledgementRule applicationError() {
+        return new MllpAcknowledgementRule(MllpAcknowledgementBuilder.APPLICATION_ERROR);
+    }
+
+    /**
+     * Create a rule that sends an application reject acknowledgement (AR).
+     *
+     * @return the rule
+     */
+    public static MllpAcknowledgementRule applicationReject() {
+        return new MllpAcknowledgementRule(MllpAcknowledgementBuilder.APPLICATION_REJECT);
+    }
+
+    /**
+     * Match the message type (MSH-9).
+     *
+     * @param messageType the message code (i.e. ADT), or the message code and trigger event separated by a '^'
+     *                    (i.e. ADT^A01)
+     *
+     * @return this rule
+     */
+    public MllpAcknowledgementRule messageType(String messageType) {
+        if (null == messageType) {
+            values[MESSAGE_TYPE] = null;
+            values[TRIGGER_EVENT] = null;
+            return this;
+        }
+        int componentSeparator = messageType.indexOf('^');
+        if (-1 == componentSeparator) {
+            values[MESSAGE_TYPE] = messageType;
+        } else {
+            values[MESSAGE_TYPE] = messageType.substring(0, componentSeparator);
+            values[TRIGGER_EVENT] = messageType.substring(componentSeparator + 1);
+        }
+        return this;
+    }
+
+    /**
+     * Match the sending application (MSH-3).
+     *
+     * @param sendingApplication the complete value of the field
+     *
+     * @return this rule
+     */
+    public MllpAcknowledgementRule sendingApplication(String sendingApplication) {
+        values[SENDING_APPLICATION] = sendingApplication;
+        return this;
+    }
+
+    /**
+     * Match the sending facility (MSH-4).
+     *
+     * @param sendingFacility the complete value of the field
+     *
+     * @return this rule
+     */
+    public MllpAcknowledgementRule sendingFacility(String sendingFacility) {
+        values[SENDING_FACILITY] = sendingFacility;
+        return this;
+    }
+
+    /**
+     * Match the processing ID (the first component of MSH-11).
+     *
+     * @param processingId the processing ID (i.e. P, T or D)
+     *
+     * @return this rule
+     */
+    public MllpAcknowledgementRule processingId(String processingId) {
+        values[PROCESSING_ID] = processingId;
+        return this;
+    }
+
+    /**
+     * Get the acknowledgement code sent for the matching messages.
+     *
+     * @return AE or AR
+     */
+    public String getAcknowledgementCode() {
+        return new String(acknowledgementCode, StandardCharsets.ISO_8859_1);
+    }
+
+    int getFieldMask() {
+        int fieldMask = 0;
+        for (int field = 0; field < FIELD_COUNT; ++field) {
+            if (null != values[field]) {
+                fieldMask |= 1 << field;
+            }
+        }
+        return fieldMask;
+    }
+
+    @Override
+    public String toString() {
+        return "MllpAcknowledgementRule{" + getAcknowledgementCode() + " " + Arrays.toString(values) + '}';
+    }
+}
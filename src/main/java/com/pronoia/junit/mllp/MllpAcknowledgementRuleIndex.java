@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash index of MllpAcknowledgementRules.
+ *
+ * The rules are grouped by the set of fields they specify, and each group is a hash map keyed by the values of those
+ * fields.  A lookup probes one map per group, most specific group first, using the field offsets recorded when the
+ * acknowledgement builder scanned the MSH segment - so no Strings are created for the lookup.
+ *
+ * The index is immutable - a new index is built when the rules change.
+ */
+class MllpAcknowledgementRuleIndex {
+    static final MllpAcknowledgementRuleIndex EMPTY = new MllpAcknowledgementRuleIndex(Collections.<MllpAcknowledgementRule>emptyList());
+
+    final List<MllpAcknowledgementRule> rules;
+    final RuleGroup[] groups;
+
+    MllpAcknowledgementRuleIndex(List<MllpAcknowledgementRule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+
+        Map<Integer, RuleGroup> groupsByMask = new HashMap<>();
+        for (MllpAcknowledgementRule rule : rules) {
+            RuleGroup group = groupsByMask.computeIfAbsent(rule.getFieldMask(), RuleGroup::new);
+            FieldKey key = FieldKey.of(rule.values, group.fieldMask);
+            if (!group.codes.containsKey(key)) {
+                group.codes.put(key, rule.acknowledgementCode);
+            }
+        }
+
+        List<RuleGroup> sortedGroups = new ArrayList<>(groupsByMask.values());
+        sortedGroups.sort((first, second) -> (first.fieldCount != second.fieldCount)
+            ? Integer.compare(second.fieldCount, first.fieldCount) : Integer.compare(first.fieldMask, second.fieldMask));
+        this.groups = sortedGroups.toArray(new RuleGroup[sortedGroups.size()]);
+    }
+
+    boolean isEmpty() {
+        return 0 == groups.length;
+    }
+
+    /**
+     * Find the acknowledgement code for the MSH segment scanned by an acknowledgement builder.
+     *
+     * @param builder the builder that scanned the MSH segment
+     * @param probe   a reusable key owned by the caller
+     *
+     * @return the acknowledgement code, or null if no rule matches
+     */
+    byte[] lookup(MllpAcknowledgementBuilder builder, FieldKey probe) {
+        probe.set(builder);
+        for (RuleGroup group : groups) {
+            probe.setFieldMask(group.fieldMask);
+            byte[] acknowledgementCode = group.codes.get(probe);
+            if (null != acknowledgementCode) {
+                return acknowledgementCode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rules that specify the same set of fields.
+     */
+    static class RuleGroup {
+        final int fieldMask;
+        final int fieldCount;
+        final Map<FieldKey, byte[]> codes = new HashMap<>();
+
+        RuleGroup(int fieldMask) {
+            this.fieldMask = fieldMask;
+            this.fieldCount = Integer.bitCount(fieldMask);
+        }
+    }
+
+    /**
+     * Index key made up of the values of the fields in a field mask.  Keys stored in the index hold the values of a
+     * rule; the probe keys used for lookups refer directly to the ranges of the received message.
+     */
+    static class FieldKey {
+        byte[] bytes;
+        final int[] starts = new int[MllpAcknowledgementRule.FIELD_COUNT];
+        final int[] ends = new int[MllpAcknowledgementRule.FIELD_COUNT];
+        int fieldMask;
+        int hash;
+
+        static FieldKey of(String[] values, int fieldMask) {
+            StringBuilder concatenated = new StringBuilder();
+            FieldKey key = new FieldKey();
+            for (int field = 0; field < MllpAcknowledgementRule.FIELD_COUNT; ++field) {
+                key.starts[field] = concatenated.length();
+                if (null != values[field]) {
+                    concatenated.append(values[field]);
+                }
+                key.ends[field] = concatenated.length();
+            }
+            key.bytes = concatenated.toString().getBytes(StandardCharsets.ISO_8859_1);
+            key.setFieldMask(fieldMask);
+            return key;
+        }
+
+        /**
+         * Record the ranges of the fields of the MSH segment scanned by an acknowledgement builder.
+         */
+        void set(MllpAcknowledgementBuilder builder) {
+            bytes = builder.mshBytes;
+            setRange(MllpAcknowledgementRule.SENDING_APPLICATION, builder.getFieldStart(3), builder.getFieldEnd(3));
+            setRange(MllpAcknowledgementRule.SENDING_FACILITY, builder.getFieldStart(4), builder.getFieldEnd(4));
+
+            byte componentSeparator = (builder.getFieldLength(2) > 0) ? bytes[builder.getFieldStart(2)] : (byte) '^';
+            int messageCodeEnd = indexOf(componentSeparator, builder.getFieldStart(9), builder.getFieldEnd(9));
+            setRange(MllpAcknowledgementRule.MESSAGE_TYPE, builder.getFieldStart(9), messageCodeEnd);
+            int triggerEventStart = Math.min(messageCodeEnd + 1, builder.getFieldEnd(9));
+            setRange(MllpAcknowledgementRule.TRIGGER_EVENT, triggerEventStart, indexOf(componentSeparator, triggerEventStart, builder.getFieldEnd(9)));
+            setRange(MllpAcknowledgementRule.PROCESSING_ID, builder.getFieldStart(11), indexOf(componentSeparator, builder.getFieldStart(11), builder.getFieldEnd(11)));
+        }
+
+        private void setRange(int field, int start, int end) {
+            starts[field] = start;
+            ends[field] = end;
+        }
+
+        private int indexOf(byte value, int start, int end) {
+            for (int i = start; i < end; ++i) {
+                if (value == bytes[i]) {
+                    return i;
+                }
+            }
+            return end;
+        }
+
+        void setFieldMask(int fieldMask) {
+            this.fieldMask = fieldMask;
+
+            int computedHash = 1;
+            for (int field = 0; field < MllpAcknowledgementRule.FIELD_COUNT; ++field) {
+                if (0 != (fieldMask & (1 << field))) {
+                    for (int i = starts[field]; i < ends[field]; ++i) {
+                        computedHash = 31 * computedHash + bytes[i];
+                    }
+                    computedHash = 31 * computedHash + field;
+                }
+            }
+            hash = computedHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FieldKey)) {
+                return false;
+            }
+
+            FieldKey other = (FieldKey) obj;
+            if (hash != other.hash || fieldMask != other.fieldMask) {
+                return false;
+            }
+
+            for (int field = 0; field < MllpAcknowledgementRule.FIELD_COUNT; ++field) {
+                if (0 != (fieldMask & (1 << field))) {
+                    int length = ends[field] - starts[field];
+                    if (length != other.ends[field] - other.starts[field]) {
+                        return false;
+                    }
+                    for (int i = 0; i < length; ++i) {
+                        if (bytes[starts[field] + i] != other.bytes[other.starts[field] + i]) {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            return true;
+        }
+    }
+}
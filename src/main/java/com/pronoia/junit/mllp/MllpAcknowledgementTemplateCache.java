@@ -0,0 +1,251 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, least-recently-used cache of pre-encoded acknowledgement templates.
+ *
+ * For a given feed, most of the acknowledgement is the same for every message - only MSH-7 (date/time of message),
+ * MSH-10 (message control ID) and the MSA fields change.  A template holds the encoded acknowledgement with gaps for
+ * those fields, so the acknowledgement can be written by copying the template and patching in the changing fields.
+ *
+ * Templates are keyed by the routing fields (MSH-3, MSH-4, MSH-5, MSH-6, MSH-9 and MSH-12) together with the other
+ * MSH fields that are copied to the acknowledgement, so a template is only reused when the acknowledgement it
+ * produces is identical to one built from the message.
+ *
+ * The cache is shared by all the connections of a MllpServerResource, and every lookup takes the lock of the cache, so
+ * it is only enabled on request - building the acknowledgement directly from the message does not allocate.
+ */
+class MllpAcknowledgementTemplateCache {
+    final int maximumSize;
+    final Map<TemplateKey, Template> templates;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    MllpAcknowledgementTemplateCache(final int maximumSize) {
+        this.maximumSize = maximumSize;
+        this.templates = new LinkedHashMap<TemplateKey, Template>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TemplateKey, Template> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Find the template for the MSH segment scanned by an acknowledgement builder, creating it if it isn't cached.
+     *
+     * @param builder the builder that scanned the MSH segment
+     * @param probe   a reusable key owned by the caller
+     *
+     * @return the template, or null if the MSH segment does not contain a MSH-10 field
+     */
+    Template getTemplate(MllpAcknowledgementBuilder builder, TemplateKey probe) {
+        // Without MSH-10, the acknowledgement does not have the separator the template expects
+        if (builder.getFieldStart(10) == builder.getFieldEnd(9)) {
+            return null;
+        }
+
+        byte[] mshBytes = builder.mshBytes;
+        probe.set(mshBytes,
+            builder.mshStart, builder.getFieldStart(7),
+            builder.getFieldEnd(7), builder.getFieldStart(10),
+            builder.getFieldEnd(10), builder.mshEnd);
+
+        Template template;
+        synchronized (templates) {
+            template = templates.get(probe);
+        }
+
+        if (null != template) {
+            hits.increment();
+            return template;
+        }
+
+        misses.increment();
+        template = new Template(builder);
+        synchronized (templates) {
+            templates.put(probe.copy(), template);
+        }
+
+        return template;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    int size() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+
+    /**
+     * Pre-encoded acknowledgement, with gaps for MSH-7 and MSH-10.  The template ends with the field separator
+     * following the MSA segment ID, so the acknowledgement code, MSA-2 and the segment delimiter are appended
+     * after it.
+     */
+    static class Template {
+        final byte[] bytes;
+        final int dateTimeOffset;
+        final int messageControlIdOffset;
+
+        Template(MllpAcknowledgementBuilder builder) {
+            byte[] mshBytes = builder.mshBytes;
+            byte fieldSeparator = builder.fieldSeparator;
+            int messageTypeSuffixLength = Math.max(0, builder.getFieldLength(9) - 3);
+            int trailingFieldsLength = builder.mshEnd - builder.getFieldEnd(10);
+
+            bytes = new byte[builder.getFieldStart(7) - builder.mshStart
+                + 1 + builder.getFieldLength(8) + 1 + MllpAcknowledgementBuilder.ACK.length + messageTypeSuffixLength + 1
+                + trailingFieldsLength + 1 + MllpAcknowledgementBuilder.MSA.length + 1];
+
+            int position = 0;
+            position = copy(mshBytes, builder.mshStart, 3, position);
+            bytes[position++] = fieldSeparator;
+            position = copyField(builder, 2, position);
+            bytes[position++] = fieldSeparator;
+            position = copyField(builder, 5, position);
+            bytes[position++] = fieldSeparator;
+            position = copyField(builder, 6, position);
+            bytes[position++] = fieldSeparator;
+            position = copyField(builder, 3, position);
+            bytes[position++] = fieldSeparator;
+            position = copyField(builder, 4, position);
+            bytes[position++] = fieldSeparator;
+            dateTimeOffset = position;
+
+            bytes[position++] = fieldSeparator;
+            position = copyField(builder, 8, position);
+            bytes[position++] = fieldSeparator;
+            position = copy(MllpAcknowledgementBuilder.ACK, 0, MllpAcknowledgementBuilder.ACK.length, position);
+            position = copy(mshBytes, builder.getFieldStart(9) + 3, messageTypeSuffixLength, position);
+            bytes[position++] = fieldSeparator;
+            messageControlIdOffset = position;
+
+            position = copy(mshBytes, builder.getFieldEnd(10), trailingFieldsLength, position);
+            bytes[position++] = MllpServerResource.SEGMENT_DELIMITER;
+            position = copy(MllpAcknowledgementBuilder.MSA, 0, MllpAcknowledgementBuilder.MSA.length, position);
+            bytes[position] = fieldSeparator;
+        }
+
+        private int copyField(MllpAcknowledgementBuilder builder, int fieldNumber, int position) {
+            return copy(builder.mshBytes, builder.getFieldStart(fieldNumber), builder.getFieldLength(fieldNumber), position);
+        }
+
+        private int copy(byte[] source, int offset, int count, int position) {
+            if (0 < count) {
+                System.arraycopy(source, offset, bytes, position, count);
+            }
+            return position + count;
+        }
+    }
+
+    /**
+     * Cache key made up of up to three ranges of bytes.  Keys stored in the cache are copied into a single array;
+     * the probe keys used for lookups refer directly to the ranges of the received message.
+     */
+    static class TemplateKey {
+        byte[] bytes;
+        final int[] ranges = new int[6];
+        int length;
+        int hash;
+
+        void set(byte[] bytes, int start1, int end1, int start2, int end2, int start3, int end3) {
+            this.bytes = bytes;
+            ranges[0] = start1;
+            ranges[1] = end1;
+            ranges[2] = start2;
+            ranges[3] = end2;
+            ranges[4] = start3;
+            ranges[5] = end3;
+            length = (end1 - start1) + (end2 - start2) + (end3 - start3);
+
+            int computedHash = 1;
+            for (int range = 0; range < ranges.length; range += 2) {
+                for (int i = ranges[range]; i < ranges[range + 1]; ++i) {
+                    computedHash = 31 * computedHash + bytes[i];
+                }
+            }
+            hash = computedHash;
+        }
+
+        TemplateKey copy() {
+            byte[] keyBytes = new byte[length];
+            int position = 0;
+            for (int range = 0; range < ranges.length; range += 2) {
+                int count = ranges[range + 1] - ranges[range];
+                System.arraycopy(bytes, ranges[range], keyBytes, position, count);
+                position += count;
+            }
+
+            TemplateKey key = new TemplateKey();
+            key.set(keyBytes, 0, length, length, length, length, length);
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TemplateKey)) {
+                return false;
+            }
+
+            TemplateKey other = (TemplateKey) obj;
+            if (hash != other.hash || length != other.length) {
+                return false;
+            }
+
+            int range = 0;
+            int index = ranges[0];
+            int otherRange = 0;
+            int otherIndex = other.ranges[0];
+            for (int i = 0; i < length; ++i) {
+                while (index >= ranges[range + 1]) {
+                    range += 2;
+                    index = ranges[range];
+                }
+                while (otherIndex >= other.ranges[otherRange + 1]) {
+                    otherRange += 2;
+                    otherIndex = other.ranges[otherRange];
+                }
+                if (bytes[index++] != other.bytes[otherIndex++]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
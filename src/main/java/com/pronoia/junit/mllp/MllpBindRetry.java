@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.IOException;
+import java.net.BindException;
+
+import org.slf4j.Logger;
+
+/**
+ * Retries a bind to a fixed port with exponential back-off until a total deadline passes.
+ *
+ * The first retry waits initialInterval milliseconds and each following retry waits twice as long as the one before
+ * it, up to maxInterval milliseconds.  The last wait is shortened so the retries never run past the deadline.
+ */
+class MllpBindRetry {
+    final long initialInterval;
+    final long maxInterval;
+    final long timeout;
+
+    MllpBindRetry(long initialInterval, long maxInterval, long timeout) {
+        this.initialInterval = Math.max(1, initialInterval);
+        this.maxInterval = Math.max(this.initialInterval, maxInterval);
+        this.timeout = Math.max(0, timeout);
+    }
+
+    /**
+     * Run the bind action until it succeeds or the deadline passes.
+     *
+     * @param bindAction the action that binds the listener
+     * @param log        the logger for the retry messages
+     *
+     * @throws BindException if the action still fails when the deadline passes, or the wait is interrupted
+     * @throws IOException   if the action fails for any other reason
+     */
+    void bind(BindAction bindAction, Logger log) throws IOException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        long interval = initialInterval;
+        int bindAttemptCounter = 0;
+
+        while (true) {
+            try {
+                bindAction.bind();
+                return;
+            } catch (BindException bindEx) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (0 >= remaining) {
+                    throw bindEx;
+                }
+                long wait = Math.min(interval, remaining);
+                log.warn("Bind Attempt {} failed - retrying in {} milliseconds ", ++bindAttemptCounter, wait);
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException interruptedEx) {
+                    log.warn("Sleeping for bind retry interrupted");
+                    Thread.currentThread().interrupt();
+                    throw bindEx;
+                }
+                interval = Math.min(interval * 2, maxInterval);
+            }
+        }
+    }
+
+    /**
+     * Binds the listener - called once for every attempt.
+     */
+    interface BindAction {
+        void bind() throws IOException;
+    }
+}
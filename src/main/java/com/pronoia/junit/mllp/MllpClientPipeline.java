@@ -0,0 +1,387 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends frames for a MllpClientResource without waiting for their acknowledgements, and completes a future for each
+ * frame when its acknowledgement is received.
+ *
+ * Acknowledgements are matched to frames by MSA-2 and MSH-10, so they can arrive in any order; frames with the same
+ * MSH-10 are acknowledged in the order they were sent.  The number of frames in flight is limited - a send blocks
+ * until an acknowledgement frees a slot.  A background thread reads the acknowledgements with the frame decoder of the
+ * client, and fails the futures of frames that are not acknowledged within the timeout.
+ */
+class MllpClientPipeline implements Runnable {
+    static final long MAXIMUM_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final MllpClientResource client;
+    final MllpFrameDecoder frameDecoder;
+    final Socket socket;
+    final InputStream inputStream;
+    final Semaphore permits;
+    final Thread readerThread;
+
+    // Only used by senders holding the write lock, to find MSH-10
+    final MllpAcknowledgementBuilder mshScanner = new MllpAcknowledgementBuilder(0);
+    final Object writeLock = new Object();
+
+    // Guarded by this - inFlight is in send order
+    final ArrayDeque<InFlightFrame> inFlight = new ArrayDeque<>();
+    final Map<String, ArrayDeque<InFlightFrame>> inFlightByControlId = new HashMap<>();
+    long unmatchedAcknowledgements;
+
+    volatile boolean running = true;
+    int currentSoTimeout = -1;
+
+    MllpClientPipeline(MllpClientResource client, int maxInFlight) {
+        this.client = client;
+        this.frameDecoder = client.frameDecoder;
+        this.socket = client.clientSocket;
+        this.inputStream = client.inputStream;
+        this.permits = new Semaphore(maxInFlight);
+        this.readerThread = new Thread(this, "MllpClientResource$Pipeline - " + client.mllpHost + ":" + client.mllpPort);
+        this.readerThread.setDaemon(true);
+    }
+
+    void start() {
+        readerThread.start();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Send a frame once a slot is available.
+     *
+     * @param hl7Bytes      the payload of the frame
+     * @param timeoutMillis the time to wait for a slot, and then for the acknowledgement - 0 waits forever, like a
+     *                      socket timeout of 0
+     *
+     * @return the frame - its future completes with the acknowledgement payload
+     */
+    InFlightFrame send(byte[] hl7Bytes, long timeoutMillis) {
+        try {
+            if (0 >= timeoutMillis) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new MllpJUnitResourceTimeoutException(String.format("No acknowledgements received for the frames in flight after %d milliseconds", timeoutMillis));
+            }
+        } catch (InterruptedException interruptedEx) {
+            Thread.currentThread().interrupt();
+            throw new MllpJUnitResourceException("Interrupted waiting for a frame to be acknowledged", interruptedEx);
+        }
+
+        InFlightFrame frame;
+        synchronized (writeLock) {
+            String controlId = messageControlId(hl7Bytes);
+            long sendNanos = System.nanoTime();
+            frame = new InFlightFrame(controlId, sendNanos, (0 < timeoutMillis) ? sendNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : NO_DEADLINE);
+            synchronized (this) {
+                if (!running) {
+                    permits.release();
+                    throw new MllpJUnitResourceException("Cannot send message - the pipeline is closed");
+                }
+                // Registered before the frame is written, so the acknowledgement cannot arrive first
+                inFlight.add(frame);
+                inFlightByControlId.computeIfAbsent(controlId, key -> new ArrayDeque<>()).add(frame);
+            }
+            try {
+                client.sendFramedData(hl7Bytes);
+            } catch (RuntimeException sendEx) {
+                if (remove(frame)) {
+                    permits.release();
+                }
+                throw sendEx;
+            }
+        }
+
+        return frame;
+    }
+
+    synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    synchronized long getUnmatchedAcknowledgements() {
+        return unmatchedAcknowledgements;
+    }
+
+    /**
+     * Stop reading and fail the frames in flight.  The caller closes the socket, which releases the reader thread.
+     */
+    void close() {
+        running = false;
+        failAll(new MllpJUnitResourceException("Connection closed before the acknowledgement was received"));
+    }
+
+    /**
+     * Wait for the reader thread to stop, so the frame decoder can be used by the next connection.
+     *
+     * @param timeoutMillis the maximum time to wait, in milliseconds
+     */
+    void awaitReader(long timeoutMillis) {
+        if (Thread.currentThread() == readerThread) {
+            // Called from a callback of an acknowledgement future - the reader stops when the callback returns
+            return;
+        }
+        try {
+            readerThread.join(timeoutMillis);
+        } catch (InterruptedException interruptedEx) {
+            Thread.currentThread().interrupt();
+        }
+        if (readerThread.isAlive()) {
+            log.warn("Pipeline reader did not stop within {} milliseconds", timeoutMillis);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                switch (frameDecoder.decode()) {
+                case MllpFrameDecoder.FRAME:
+                    client.recordReceivedFrame();
+                    acknowledge(frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), frameDecoder.getFrameLength());
+                    break;
+                case MllpFrameDecoder.NEED_MORE_DATA:
+                    if (!fill()) {
+                        return;
+                    }
+                    break;
+                default:
+                    log.warn("Discarding corrupt data received while waiting for acknowledgements");
+                }
+            }
+        } catch (RuntimeException unexpectedEx) {
+            log.error("Pipeline reader failed", unexpectedEx);
+            running = false;
+            failAll(unexpectedEx);
+        }
+    }
+
+    /**
+     * Read more data, expiring overdue frames while waiting.
+     *
+     * @return false if the connection was closed
+     */
+    private boolean fill() {
+        try {
+            int soTimeout = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(expireOverdue()));
+            if (soTimeout != currentSoTimeout) {
+                socket.setSoTimeout(soTimeout);
+                currentSoTimeout = soTimeout;
+            }
+            if (MllpClientResource.END_OF_STREAM == frameDecoder.fill(inputStream)) {
+                running = false;
+                failAll(new MllpJUnitResourceException("Connection closed by the server before the acknowledgement was received"));
+                return false;
+            }
+        } catch (SocketTimeoutException pollEx) {
+            // Check the deadlines
+        } catch (IOException readEx) {
+            if (running) {
+                log.warn("Exception reading acknowledgements", readEx);
+                running = false;
+                failAll(new MllpJUnitResourceException("Unable to read HL7 acknowledgement", readEx));
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fail the frames whose deadline has passed.
+     *
+     * @return the time until the next deadline, in nanoseconds - at most MAXIMUM_POLL_INTERVAL_NANOS
+     */
+    long expireOverdue() {
+        List<InFlightFrame> expired = null;
+        long now = System.nanoTime();
+        long untilNextDeadline = MAXIMUM_POLL_INTERVAL_NANOS;
+        synchronized (this) {
+            // The timeout can change between sends, so every frame is checked - there are at most maxInFlight
+            for (Iterator<InFlightFrame> frames = inFlight.iterator(); frames.hasNext(); ) {
+                InFlightFrame frame = frames.next();
+                if (NO_DEADLINE == frame.deadlineNanos) {
+                    continue;
+                }
+                long remaining = frame.deadlineNanos - now;
+                if (0 < remaining) {
+                    untilNextDeadline = Math.min(untilNextDeadline, remaining);
+                    continue;
+                }
+                frames.remove();
+                removeByControlId(frame);
+                if (null == expired) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(frame);
+            }
+        }
+        if (null != expired) {
+            for (InFlightFrame frame : expired) {
+                permits.release();
+                frame.future.completeExceptionally(new MllpJUnitResourceTimeoutException(
+                    String.format("Timeout waiting for the acknowledgement of message control ID '%s'", frame.controlId)));
+            }
+        }
+        return untilNextDeadline;
+    }
+
+    private void acknowledge(byte[] bytes, int offset, int length) {
+        String controlId = acknowledgementControlId(bytes, offset, length);
+        InFlightFrame frame = null;
+        synchronized (this) {
+            ArrayDeque<InFlightFrame> frames = (null != controlId) ? inFlightByControlId.get(controlId) : null;
+            if (null != frames) {
+                frame = frames.peek();
+                remove(frame);
+            } else {
+                ++unmatchedAcknowledgements;
+            }
+        }
+
+        if (null == frame) {
+            log.warn("Received an acknowledgement for message control ID '{}' that is not in flight", controlId);
+            return;
+        }
+        permits.release();
+        byte[] acknowledgement = new byte[length];
+        System.arraycopy(bytes, offset, acknowledgement, 0, length);
+        frame.future.complete(acknowledgement);
+    }
+
+    private synchronized boolean remove(InFlightFrame frame) {
+        if (!removeByControlId(frame)) {
+            return false;
+        }
+        inFlight.remove(frame);
+        return true;
+    }
+
+    private boolean removeByControlId(InFlightFrame frame) {
+        ArrayDeque<InFlightFrame> frames = inFlightByControlId.get(frame.controlId);
+        if (null == frames || !frames.remove(frame)) {
+            return false;
+        }
+        if (frames.isEmpty()) {
+            inFlightByControlId.remove(frame.controlId);
+        }
+        return true;
+    }
+
+    private void failAll(Exception cause) {
+        List<InFlightFrame> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(inFlight);
+            inFlight.clear();
+            inFlightByControlId.clear();
+        }
+        for (InFlightFrame frame : failed) {
+            permits.release();
+            frame.future.completeExceptionally(cause);
+        }
+    }
+
+    private String messageControlId(byte[] hl7Bytes) {
+        if (!mshScanner.scanMsh(hl7Bytes, 0, hl7Bytes.length)) {
+            return "";
+        }
+        return new String(hl7Bytes, mshScanner.getFieldStart(10), mshScanner.getFieldLength(10), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Find MSA-2 (message control ID) in an acknowledgement.
+     *
+     * @return the value of MSA-2, or null if the acknowledgement does not have a MSA segment
+     */
+    static String acknowledgementControlId(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        if (4 > length) {
+            return null;
+        }
+        byte fieldSeparator = bytes[offset + 3];
+
+        int segmentStart = offset;
+        while (segmentStart + 3 < end) {
+            if ('M' == bytes[segmentStart] && 'S' == bytes[segmentStart + 1] && 'A' == bytes[segmentStart + 2] && fieldSeparator == bytes[segmentStart + 3]) {
+                int position = skipField(bytes, segmentStart + 4, end, fieldSeparator);
+                if (position >= end || fieldSeparator != bytes[position]) {
+                    return "";
+                }
+                int fieldStart = position + 1;
+                int fieldEnd = skipField(bytes, fieldStart, end, fieldSeparator);
+                return new String(bytes, fieldStart, fieldEnd - fieldStart, StandardCharsets.ISO_8859_1);
+            }
+            while (segmentStart < end && MllpServerResource.SEGMENT_DELIMITER != bytes[segmentStart]) {
+                ++segmentStart;
+            }
+            // Tolerate CR LF segment delimiters
+            while (segmentStart < end && (MllpServerResource.SEGMENT_DELIMITER == bytes[segmentStart] || '\n' == bytes[segmentStart])) {
+                ++segmentStart;
+            }
+        }
+
+        return null;
+    }
+
+    private static int skipField(byte[] bytes, int position, int end, byte fieldSeparator) {
+        while (position < end && fieldSeparator != bytes[position] && MllpServerResource.SEGMENT_DELIMITER != bytes[position]) {
+            ++position;
+        }
+        return position;
+    }
+
+    /**
+     * Nested class for a frame that has been sent and not acknowledged
+     */
+    static class InFlightFrame {
+        final String controlId;
+        // When the frame was written - after the wait for a slot
+        final long sendNanos;
+        final long deadlineNanos;
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        InFlightFrame(String controlId, long sendNanos, long deadlineNanos) {
+            this.controlId = controlId;
+            this.sendNanos = sendNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLContext;
+
+import org.junit.rules.ExternalResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed number of MllpClientResource connections to the same host and port, shared by the threads of a test.
+ *
+ * Each call runs with a connection that no other thread is using.  Threads start looking for an idle connection at a
+ * slot chosen from their thread id and claim it with a compare-and-set, so threads sending in parallel rarely touch the
+ * same slot; a semaphore counting the idle connections makes callers wait when every connection is busy.
+ *
+ * A connection is replaced in the background when a call with it fails or leaves it disconnected - the acknowledgement
+ * of a failed call may still be on its way, so the connection cannot be reused.  The saturation of the pool is
+ * available from the acquire metrics and the acquire wait histogram.
+ *
+ * Example:
+ * <pre>
+ *     &#64;Rule
+ *     public MllpClientPoolResource mllpClients = new MllpClientPoolResource(mllpServer.getListenPort(), 8);
+ *
+ *     String acknowledgement = mllpClients.sendFramedDataAndWaitForAcknowledgement(hl7Message);
+ * </pre>
+ */
+public class MllpClientPoolResource extends ExternalResource {
+    static final int IDLE = 0;
+    static final int BUSY = 1;
+    static final int BROKEN = 2;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    String mllpHost = "0.0.0.0";
+    int mllpPort = -1;
+    int size = 4;
+
+    int connectTimeout = 5000;
+    int soTimeout = 5000;
+    int acquireTimeout = 5000;
+    int reconnectDelay = 1000;
+    SSLContext sslContext;
+
+    MllpClientResource[] clients;
+    AtomicIntegerArray states;
+    Semaphore idleConnections;
+    ScheduledExecutorService reconnectExecutor;
+
+    final LongAdder acquireCount = new LongAdder();
+    final LongAdder contendedAcquireCount = new LongAdder();
+    final LongAdder acquireTimeoutCount = new LongAdder();
+    final LongAdder replacedConnectionCount = new LongAdder();
+    final LongAdder inUseCount = new LongAdder();
+    final LongAccumulator maxInUseCount = new LongAccumulator(Math::max, 0);
+
+    // Nanoseconds callers waited for an idle connection
+    final MllpLatencyHistogram acquireWait = new MllpLatencyHistogram();
+
+    /**
+     * Use this constructor to avoid having the connections started by JUnit (since the port is still -1)
+     */
+    public MllpClientPoolResource() {
+    }
+
+    public MllpClientPoolResource(int port, int size) {
+        this.mllpPort = port;
+        setSize(size);
+    }
+
+    public MllpClientPoolResource(String host, int port, int size) {
+        this.mllpHost = host;
+        this.mllpPort = port;
+        setSize(size);
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        if (0 < mllpPort) {
+            this.startup();
+        }
+
+        super.before();
+    }
+
+    @Override
+    protected void after() {
+        super.after();
+        this.shutdown();
+    }
+
+    /**
+     * Open the connections.
+     */
+    public synchronized void startup() {
+        if (null != clients) {
+            throw new IllegalStateException("The client pool is already started");
+        }
+
+        clients = new MllpClientResource[size];
+        states = new AtomicIntegerArray(size);
+        idleConnections = new Semaphore(0);
+        reconnectExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MllpClientPoolResource$Reconnect - " + mllpHost + ":" + mllpPort);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int slot = 0; slot < size; ++slot) {
+            clients[slot] = createClient();
+            try {
+                clients[slot].connect();
+            } catch (MllpJUnitResourceException connectEx) {
+                shutdown();
+                throw connectEx;
+            }
+        }
+        idleConnections.release(size);
+    }
+
+    /**
+     * Close the connections.  Calls in progress fail when their connection is closed.
+     */
+    public synchronized void shutdown() {
+        if (null == clients) {
+            return;
+        }
+
+        reconnectExecutor.shutdownNow();
+        for (MllpClientResource client : clients) {
+            if (null != client) {
+                client.disconnect();
+            }
+        }
+        clients = null;
+    }
+
+    public boolean isStarted() {
+        return null != clients;
+    }
+
+    /**
+     * Run a callback with a connection that no other thread is using.
+     *
+     * @param callback the callback - the connection must not be used after it returns
+     * @param <T>      the type of the result
+     *
+     * @return the result of the callback
+     *
+     * @throws MllpJUnitResourceTimeoutException if no connection becomes idle within acquireTimeout milliseconds
+     * @throws Exception                         the exception thrown by the callback
+     */
+    public <T> T execute(ClientCallback<T> callback) throws Exception {
+        int slot = acquire();
+        MllpClientResource client = clients[slot];
+        boolean reusable = false;
+        try {
+            T result = callback.call(client);
+            reusable = client.isConnected();
+            return result;
+        } finally {
+            release(slot, client, reusable);
+        }
+    }
+
+    public String sendFramedDataAndWaitForAcknowledgement(String hl7Data) throws Exception {
+        return execute(client -> client.sendFramedDataAndWaitForAcknowledgement(hl7Data));
+    }
+
+    public String sendFramedDataAndWaitForAcknowledgement(String hl7Data, Charset charset) throws Exception {
+        return execute(client -> client.sendFramedDataAndWaitForAcknowledgement(hl7Data, charset));
+    }
+
+    public String sendFramedDataAndWaitForAcknowledgement(byte[] hl7Bytes) throws Exception {
+        return execute(client -> client.sendFramedDataAndWaitForAcknowledgement(hl7Bytes));
+    }
+
+    int acquire() throws InterruptedException {
+        Semaphore idle = idleConnections;
+        if (null == clients) {
+            throw new IllegalStateException("The client pool is not started");
+        }
+
+        acquireCount.increment();
+        long waitNanos = 0;
+        if (!idle.tryAcquire()) {
+            contendedAcquireCount.increment();
+            long startNanos = System.nanoTime();
+            if (!idle.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+                acquireTimeoutCount.increment();
+                throw new MllpJUnitResourceTimeoutException(String.format("No idle connection to %s:%d after %d milliseconds", mllpHost, mllpPort, acquireTimeout));
+            }
+            waitNanos = System.nanoTime() - startNanos;
+        }
+        acquireWait.record(waitNanos);
+
+        inUseCount.increment();
+        maxInUseCount.accumulate(inUseCount.sum());
+
+        // The permit guarantees an idle slot - start at a slot chosen by the thread so parallel callers rarely collide
+        int start = (int) (Thread.currentThread().getId() % size);
+        while (true) {
+            for (int i = 0; i < size; ++i) {
+                int slot = (start + i) % size;
+                if (IDLE == states.get(slot) && states.compareAndSet(slot, IDLE, BUSY)) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    void release(int slot, MllpClientResource client, boolean reusable) {
+        inUseCount.decrement();
+        if (reusable) {
+            states.set(slot, IDLE);
+            idleConnections.release();
+            return;
+        }
+
+        states.set(slot, BROKEN);
+        client.disconnect();
+        log.warn("Replacing connection {} to {}:{}", slot, mllpHost, mllpPort);
+        scheduleReplacement(slot, 0);
+    }
+
+    private void scheduleReplacement(int slot, long delay) {
+        ScheduledExecutorService executor = reconnectExecutor;
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.schedule(() -> replace(slot), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void replace(int slot) {
+        MllpClientResource[] currentClients = clients;
+        if (null == currentClients) {
+            return;
+        }
+
+        MllpClientResource client = createClient();
+        try {
+            client.connect();
+        } catch (MllpJUnitResourceException connectEx) {
+            log.warn("Unable to replace connection {} to {}:{} - retrying in {} milliseconds", slot, mllpHost, mllpPort, reconnectDelay);
+            scheduleReplacement(slot, reconnectDelay);
+            return;
+        }
+
+        currentClients[slot] = client;
+        replacedConnectionCount.increment();
+        states.set(slot, IDLE);
+        idleConnections.release();
+    }
+
+    MllpClientResource createClient() {
+        MllpClientResource client = new MllpClientResource(mllpHost, mllpPort, true);
+        client.setConnectTimeout(connectTimeout);
+        client.setSoTimeout(soTimeout);
+        client.setSslContext(sslContext);
+        return client;
+    }
+
+    /**
+     * Get the number of connections that are connected and not in use.
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleCount() {
+        Semaphore idle = idleConnections;
+        return (null != idle) ? idle.availablePermits() : 0;
+    }
+
+    public long getInUseCount() {
+        return inUseCount.sum();
+    }
+
+    /**
+     * Get the largest number of connections that were in use at the same time.
+     *
+     * @return the high-water mark of the connections in use
+     */
+    public long getMaxInUseCount() {
+        return maxInUseCount.get();
+    }
+
+    /**
+     * Get the number of connections that are being replaced.
+     *
+     * @return the number of broken connections
+     */
+    public int getBrokenCount() {
+        AtomicIntegerArray currentStates = states;
+        int broken = 0;
+        if (null != currentStates) {
+            for (int slot = 0; slot < currentStates.length(); ++slot) {
+                if (BROKEN == currentStates.get(slot)) {
+                    ++broken;
+                }
+            }
+        }
+        return broken;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    /**
+     * Get the number of calls that had to wait because every connection was in use.
+     *
+     * @return the number of contended acquires
+     */
+    public long getContendedAcquireCount() {
+        return contendedAcquireCount.sum();
+    }
+
+    public long getAcquireTimeoutCount() {
+        return acquireTimeoutCount.sum();
+    }
+
+    public long getReplacedConnectionCount() {
+        return replacedConnectionCount.sum();
+    }
+
+    /**
+     * Get the distribution of the time calls waited for an idle connection.
+     *
+     * @return the live histogram, in nanoseconds
+     */
+    public MllpLatencyHistogram getAcquireWait() {
+        return acquireWait;
+    }
+
+    /**
+     * Reset the acquire metrics.  The high-water mark restarts from the connections currently in use.
+     */
+    public void resetMetrics() {
+        acquireCount.reset();
+        contendedAcquireCount.reset();
+        acquireTimeoutCount.reset();
+        replacedConnectionCount.reset();
+        maxInUseCount.reset();
+        maxInUseCount.accumulate(inUseCount.sum());
+        acquireWait.reset();
+    }
+
+    public String getMllpHost() {
+        return mllpHost;
+    }
+
+    public void setMllpHost(String mllpHost) {
+        this.mllpHost = mllpHost;
+    }
+
+    public int getMllpPort() {
+        return mllpPort;
+    }
+
+    public void setMllpPort(int mllpPort) {
+        this.mllpPort = mllpPort;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Set the number of connections.  Applies when the pool is started.
+     *
+     * @param size the number of connections - values less than 1 are treated as 1
+     */
+    public void setSize(int size) {
+        this.size = Math.max(1, size);
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    public void setSoTimeout(int soTimeout) {
+        this.soTimeout = soTimeout;
+    }
+
+    public int getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    /**
+     * Set the time to wait for an idle connection.
+     *
+     * @param acquireTimeout the timeout, in milliseconds - negative values are treated as 0
+     */
+    public void setAcquireTimeout(int acquireTimeout) {
+        this.acquireTimeout = Math.max(0, acquireTimeout);
+    }
+
+    public int getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    /**
+     * Set the delay between attempts to replace a broken connection when the server cannot be reached.
+     *
+     * @param reconnectDelay the delay, in milliseconds - negative values are treated as 0
+     */
+    public void setReconnectDelay(int reconnectDelay) {
+        this.reconnectDelay = Math.max(0, reconnectDelay);
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Nested interface for the work done with a pooled connection
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    public interface ClientCallback<T> {
+        T call(MllpClientResource client) throws Exception;
+    }
+}
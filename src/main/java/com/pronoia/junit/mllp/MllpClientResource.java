@@ -26,8 +26,14 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
 
 import org.junit.rules.ExternalResource;
 import org.slf4j.Logger;
@@ -40,13 +46,24 @@ public class MllpClientResource extends ExternalResource {
     static final char END_OF_BLOCK = 0x1c;
     static final char END_OF_DATA = 0x0d;
     static final int END_OF_STREAM = -1;
+    static final long PIPELINE_READER_JOIN_TIMEOUT = 5000;
 
     Logger log = LoggerFactory.getLogger(this.getClass());
 
     Socket clientSocket;
+    // The channel of a plain connection - null when the connection uses TLS
+    SocketChannel clientChannel;
     InputStream inputStream;
     OutputStream outputStream;
 
+    // Keeps the bytes received after a frame for the next receive
+    final MllpFrameDecoder frameDecoder = new MllpFrameDecoder();
+
+    // Envelope and payload of a framed send, written with one gathering write
+    final ByteBuffer frameHeader = ByteBuffer.allocate(1);
+    final ByteBuffer frameTrailer = ByteBuffer.allocate(2);
+    final ByteBuffer[] frameBuffers = new ByteBuffer[3];
+
     String mllpHost = "0.0.0.0";
     int mllpPort = -1;
 
@@ -61,6 +78,20 @@ public class MllpClientResource extends ExternalResource {
 
     boolean lazyConnect;
 
+    SSLContext sslContext;
+    String[] sslEnabledProtocols;
+    boolean sslSessionResumption = true;
+    final MllpTlsSessions tlsSessions = new MllpTlsSessions(1024);
+
+    long fullHandshakeCount;
+    long resumedHandshakeCount;
+
+    MllpSessionRecorder sessionRecorder;
+    long recordedConnectionId;
+
+    int maxInFlight = 16;
+    MllpClientPipeline pipeline;
+
 
     /**
      * Use this constructor to avoid having the connection started by JUnit (since the port is still -1)
@@ -110,7 +141,14 @@ public class MllpClientResource extends ExternalResource {
 
     public void connect(int connectTimeout) {
         try {
-            clientSocket = new Socket();
+            if (null == sslContext) {
+                clientChannel = SocketChannel.open();
+                clientSocket = clientChannel.socket();
+            } else {
+                // The channel is only used for gathering writes, which TLS connections cannot use
+                clientChannel = null;
+                clientSocket = new Socket();
+            }
 
             clientSocket.connect(new InetSocketAddress(mllpHost, mllpPort), connectTimeout);
 
@@ -119,8 +157,30 @@ public class MllpClientResource extends ExternalResource {
             clientSocket.setReuseAddress(reuseAddress);
             clientSocket.setTcpNoDelay(tcpNoDelay);
 
+            if (null != sslContext) {
+                // Layering over the connected socket gives the session cache the peer host and port it needs for resumption
+                SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory().createSocket(clientSocket, mllpHost, mllpPort, true);
+                clientSocket = sslSocket;
+                if (null != sslEnabledProtocols) {
+                    sslSocket.setEnabledProtocols(sslEnabledProtocols);
+                }
+                sslSocket.startHandshake();
+                if (tlsSessions.recordHandshake(sslSocket.getSession(), sslSessionResumption)) {
+                    ++resumedHandshakeCount;
+                } else {
+                    ++fullHandshakeCount;
+                }
+            }
+
             inputStream = clientSocket.getInputStream();
             outputStream = new BufferedOutputStream(clientSocket.getOutputStream(), 2048);
+            frameDecoder.reset();
+            pipeline = null;
+
+            if (null != sessionRecorder) {
+                recordedConnectionId = sessionRecorder.nextConnectionId();
+                sessionRecorder.recordConnect(recordedConnectionId);
+            }
         } catch (IOException e) {
             String errorMessage = String.format("Unable to establish connection to %s:%s", mllpHost, mllpPort);
             log.error(errorMessage, e);
@@ -144,16 +204,29 @@ public class MllpClientResource extends ExternalResource {
     }
 
     public void disconnect() {
+        MllpClientPipeline closedPipeline = pipeline;
+        if (null != closedPipeline) {
+            closedPipeline.close();
+        }
         try {
             if (null != clientSocket && null != inputStream) {
                 clientSocket.close();
+                if (null != sessionRecorder) {
+                    sessionRecorder.recordDisconnect(recordedConnectionId);
+                }
             }
         } catch (IOException e) {
             log.warn(String.format("Exception encountered closing connection to {}:{}", mllpHost, mllpPort), e);
         } finally {
+            if (null != closedPipeline) {
+                // Closing the socket releases the reader - wait for it to stop using the frame decoder
+                closedPipeline.awaitReader(PIPELINE_READER_JOIN_TIMEOUT);
+                pipeline = null;
+            }
             inputStream = null;
             outputStream = null;
             clientSocket = null;
+            clientChannel = null;
         }
     }
 
@@ -218,6 +291,26 @@ public class MllpClientResource extends ExternalResource {
     }
 
     public void sendFramedData(byte[] hl7Bytes, boolean disconnectAfterSend) {
+        this.sendFramedData(ByteBuffer.wrap(hl7Bytes), disconnectAfterSend);
+    }
+
+    public void sendFramedData(ByteBuffer hl7Buffer) {
+        boolean disconnectAfterSend = false;
+        this.sendFramedData(hl7Buffer, disconnectAfterSend);
+    }
+
+    /**
+     * Send the remaining bytes of a buffer in a MLLP frame.
+     *
+     * On a plain connection the START_OF_BLOCK, the payload and the END_OF_BLOCK and END_OF_DATA are written to the
+     * socket channel with one gathering write, so the payload is not copied and a frame that fits in one segment is
+     * sent in one segment.  Direct and read-only buffers are accepted.  TLS connections write the frame through the
+     * output stream, which copies the payload when the buffer is not backed by an accessible array.
+     *
+     * @param hl7Buffer           the payload - the position of the buffer is not changed, so it can be sent again
+     * @param disconnectAfterSend true to close the connection after the frame is sent
+     */
+    public void sendFramedData(ByteBuffer hl7Buffer, boolean disconnectAfterSend) {
         if (null == clientSocket) {
             this.connect();
         }
@@ -228,24 +321,69 @@ public class MllpClientResource extends ExternalResource {
         if (null == outputStream) {
             throw new MllpJUnitResourceException("Cannot send message - output stream is null");
         }
+
+        ByteBuffer payload = hl7Buffer.duplicate();
+        int payloadPosition = payload.position();
         try {
+            frameHeader.clear();
             if (sendStartOfBlock) {
-                outputStream.write(START_OF_BLOCK);
+                frameHeader.put((byte) START_OF_BLOCK);
             } else {
                 log.warn("Not sending START_OF_BLOCK");
             }
-            outputStream.write(hl7Bytes, 0, hl7Bytes.length);
+            frameHeader.flip();
+            frameTrailer.clear();
             if (sendEndOfBlock) {
-                outputStream.write(END_OF_BLOCK);
+                frameTrailer.put((byte) END_OF_BLOCK);
             } else {
                 log.warn("Not sending END_OF_BLOCK");
             }
             if (sendEndOfData) {
-                outputStream.write(END_OF_DATA);
+                frameTrailer.put((byte) END_OF_DATA);
             } else {
                 log.warn("Not sending END_OF_DATA");
             }
-            outputStream.flush();
+            frameTrailer.flip();
+
+            if (null != clientChannel) {
+                // Bytes from sendData are still in the output stream buffer
+                outputStream.flush();
+                frameBuffers[0] = frameHeader;
+                frameBuffers[1] = payload;
+                frameBuffers[2] = frameTrailer;
+                try {
+                    long remaining = frameHeader.remaining() + payload.remaining() + frameTrailer.remaining();
+                    while (0 < remaining) {
+                        long written = clientChannel.write(frameBuffers);
+                        if (0 == written) {
+                            // Before Java 13 a timed read (i.e. by the pipeline reader) switches the channel to
+                            // non-blocking mode while holding the blocking lock - wait for the read instead of spinning
+                            synchronized (clientChannel.blockingLock()) {
+                                written = clientChannel.write(frameBuffers);
+                            }
+                        }
+                        remaining -= written;
+                    }
+                } finally {
+                    frameBuffers[1] = null;
+                }
+            } else {
+                outputStream.write(frameHeader.array(), 0, frameHeader.limit());
+                writePayload(payload);
+                outputStream.write(frameTrailer.array(), 0, frameTrailer.limit());
+                outputStream.flush();
+            }
+
+            if (null != sessionRecorder) {
+                payload.position(payloadPosition);
+                if (payload.hasArray()) {
+                    sessionRecorder.recordFrame(recordedConnectionId, true, payload.array(), payload.arrayOffset() + payloadPosition, payload.remaining());
+                } else {
+                    byte[] payloadBytes = new byte[payload.remaining()];
+                    payload.get(payloadBytes);
+                    sessionRecorder.recordFrame(recordedConnectionId, true, payloadBytes, 0, payloadBytes.length);
+                }
+            }
         } catch (IOException e) {
             log.error("Unable to send HL7 message", e);
             throw new MllpJUnitResourceException("Unable to send HL7 message", e);
@@ -257,6 +395,21 @@ public class MllpClientResource extends ExternalResource {
         }
     }
 
+    private void writePayload(ByteBuffer payload) throws IOException {
+        if (payload.hasArray()) {
+            outputStream.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+            payload.position(payload.limit());
+            return;
+        }
+
+        byte[] chunk = new byte[Math.min(payload.remaining(), 8192)];
+        while (payload.hasRemaining()) {
+            int chunkLength = Math.min(payload.remaining(), chunk.length);
+            payload.get(chunk, 0, chunkLength);
+            outputStream.write(chunk, 0, chunkLength);
+        }
+    }
+
 
     public void sendFramedData(String hl7Message) {
         boolean disconnectAfterSend = false;
@@ -317,6 +470,9 @@ public class MllpClientResource extends ExternalResource {
                 log.warn("Not sending END_OF_DATA");
             }
             outputStream.flush();
+            if (null != sessionRecorder) {
+                sessionRecorder.recordFrame(recordedConnectionId, true, hl7Bytes, 0, hl7Bytes.length);
+            }
         } catch (IOException e) {
             log.error("Unable to send HL7 message", e);
             throw new MllpJUnitResourceException("Unable to send HL7 message", e);
@@ -353,6 +509,83 @@ public class MllpClientResource extends ExternalResource {
     }
 
     public byte[] receiveFramedBytes(int timeout) throws SocketException, SocketTimeoutException {
+        if (!readFrame(timeout)) {
+            return null;
+        }
+
+        int frameOffset = frameDecoder.getFrameOffset();
+        return Arrays.copyOfRange(frameDecoder.getBuffer(), frameOffset, frameOffset + frameDecoder.getFrameLength());
+    }
+
+    /**
+     * Receive the payload of a frame into a caller-supplied array, so frames can be received without allocating.
+     *
+     * @param destination the array to receive the payload
+     * @param offset      the position in the array for the first byte of the payload
+     * @param timeout     the maximum time to wait for the frame, in milliseconds
+     *
+     * @return the length of the payload, or -1 if the server closed the connection
+     *
+     * @throws SocketException        if the timeout cannot be set
+     * @throws SocketTimeoutException never - a timeout raises a MllpJUnitResourceTimeoutException
+     */
+    public int receiveFramedBytes(byte[] destination, int offset, int timeout) throws SocketException, SocketTimeoutException {
+        if (!readFrame(timeout)) {
+            return END_OF_STREAM;
+        }
+
+        int frameLength = frameDecoder.getFrameLength();
+        checkFrameFits(frameLength, destination.length - offset);
+        System.arraycopy(frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), destination, offset, frameLength);
+        return frameLength;
+    }
+
+    public int receiveFramedBytes(ByteBuffer destination) throws SocketException, SocketTimeoutException {
+        return receiveFramedBytes(destination, soTimeout);
+    }
+
+    /**
+     * Receive the payload of a frame into a caller-supplied buffer, so frames can be received without allocating.
+     *
+     * The payload is written at the position of the buffer, and the position is advanced past it.
+     *
+     * @param destination the buffer to receive the payload
+     * @param timeout     the maximum time to wait for the frame, in milliseconds
+     *
+     * @return the length of the payload, or -1 if the server closed the connection
+     *
+     * @throws SocketException        if the timeout cannot be set
+     * @throws SocketTimeoutException never - a timeout raises a MllpJUnitResourceTimeoutException
+     */
+    public int receiveFramedBytes(ByteBuffer destination, int timeout) throws SocketException, SocketTimeoutException {
+        if (!readFrame(timeout)) {
+            return END_OF_STREAM;
+        }
+
+        int frameLength = frameDecoder.getFrameLength();
+        checkFrameFits(frameLength, destination.remaining());
+        destination.put(frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), frameLength);
+        return frameLength;
+    }
+
+    private static void checkFrameFits(int frameLength, int available) {
+        if (frameLength > available) {
+            throw new MllpJUnitResourceException(String.format("Received frame of %d bytes does not fit in the %d bytes available - the frame was discarded", frameLength, available));
+        }
+    }
+
+    /**
+     * Read until the frame decoder holds a complete frame.
+     *
+     * Bytes are read from the socket in bulk, and the bytes following the frame stay in the decoder for the next call -
+     * a server may send several frames in one segment.
+     *
+     * @param timeout the maximum time to wait for the frame, in milliseconds
+     *
+     * @return true if a frame is available from the decoder; false if the server closed the connection
+     */
+    private boolean readFrame(int timeout) throws SocketException {
+        checkNotPipelined();
         if (!isConnected()) {
             throw new MllpJUnitResourceException("Cannot receive acknowledgement - client is not connected");
         }
@@ -361,58 +594,69 @@ public class MllpClientResource extends ExternalResource {
         }
 
         clientSocket.setSoTimeout(timeout);
-        ByteArrayOutputStream receivedBytes = new ByteArrayOutputStream();
         try {
-            int firstByte = inputStream.read();
-            if (START_OF_BLOCK != firstByte) {
-                if (isConnected()) {
-                    if (END_OF_STREAM == firstByte) {
+            while (true) {
+                switch (frameDecoder.decode()) {
+                case MllpFrameDecoder.FRAME:
+                    recordReceivedFrame();
+                    return true;
+                case MllpFrameDecoder.OUT_OF_BAND_DATA:
+                    log.error("Acknowledgement did not start with START_OF_BLOCK: {}", frameDecoder.getOutOfBandByte());
+                    throw new MllpJUnitResourceCorruptFrameException("Message did not start with START_OF_BLOCK");
+                case MllpFrameDecoder.START_OF_BLOCK_BEFORE_END_OF_BLOCK:
+                    throw new MllpJUnitResourceCorruptFrameException("Received START_OF_BLOCK before END_OF_BLOCK");
+                case MllpFrameDecoder.MISSING_END_OF_DATA:
+                    throw new MllpJUnitResourceCorruptFrameException("END_OF_BLOCK was not followed by END_OF_DATA");
+                default:
+                    if (END_OF_STREAM == frameDecoder.fill(inputStream)) {
+                        if (frameDecoder.isInFrame()) {
+                            frameDecoder.reset();
+                            throw new MllpJUnitResourceCorruptFrameException("Reached end of stream before END_OF_BLOCK");
+                        }
                         log.warn("END_OF_STREAM reached while waiting for START_OF_BLOCK - closing socket");
                         try {
                             clientSocket.close();
                         } catch (Exception ex) {
                             log.warn("Exception encountered closing socket after receiving END_OF_STREAM while waiting for START_OF_BLOCK");
                         }
-                        return null;
-                    } else {
-                        log.error("Acknowledgement did not start with START_OF_BLOCK: {}", firstByte);
-                        throw new MllpJUnitResourceCorruptFrameException("Message did not start with START_OF_BLOCK");
+                        return false;
                     }
-                } else {
-                    throw new MllpJUnitResourceException("Connection terminated");
-                }
-            }
-            boolean readingMessage = true;
-            while (readingMessage) {
-                int nextByte = inputStream.read();
-                switch (nextByte) {
-                case -1:
-                    throw new MllpJUnitResourceCorruptFrameException("Reached end of stream before END_OF_BLOCK");
-                case START_OF_BLOCK:
-                    throw new MllpJUnitResourceCorruptFrameException("Received START_OF_BLOCK before END_OF_BLOCK");
-                case END_OF_BLOCK:
-                    if (END_OF_DATA != inputStream.read()) {
-                        throw new MllpJUnitResourceCorruptFrameException("END_OF_BLOCK was not followed by END_OF_DATA");
-                    }
-                    readingMessage = false;
-                    break;
-                default:
-                    receivedBytes.write(nextByte);
                 }
             }
         } catch (SocketTimeoutException timeoutEx) {
-            if (0 < receivedBytes.size()) {
-                log.error("Timeout waiting for acknowledgement", timeoutEx);
+            if (frameDecoder.isInFrame()) {
+                log.error("Timeout while reading acknowledgement\n" + frameDecoder.getPartialFrameAsString().replace('\r', '\n'), timeoutEx);
             } else {
-                log.error("Timeout while reading acknowledgement\n" + receivedBytes.toString().replace('\r', '\n'), timeoutEx);
+                log.error("Timeout waiting for acknowledgement", timeoutEx);
             }
+            // The partial frame is discarded
+            frameDecoder.reset();
             throw new MllpJUnitResourceTimeoutException("Timeout while reading acknowledgement", timeoutEx);
         } catch (IOException e) {
+            frameDecoder.reset();
             log.error("Unable to read HL7 acknowledgement", e);
             throw new MllpJUnitResourceException("Unable to read HL7 acknowledgement", e);
         }
+    }
+
+    /**
+     * The pipeline reader owns the frame decoder and the socket timeout until the connection is closed.
+     */
+    private void checkNotPipelined() {
+        if (null != pipeline) {
+            throw new IllegalStateException("Acknowledgements are received by the pipeline after sendFramedDataPipelined - use the returned futures");
+        }
+    }
 
-        return receivedBytes.toByteArray();
+    void recordReceivedFrame() {
+        if (null != sessionRecorder) {
+            try {
+                sessionRecorder.recordFrame(recordedConnectionId, false, frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), frameDecoder.getFrameLength());
+            } catch (IOException e) {
+                log.error("Unable to record HL7 acknowledgement", e);
+                throw new MllpJUnitResourceException("Unable to record HL7 acknowledgement", e);
+            }
+        }
     }
 
     public String receiveFramedData() throws SocketException, SocketTimeoutException {
@@ -446,14 +690,18 @@ public class MllpClientResource extends ExternalResource {
     }
 
     public byte[] receiveBytes(int timeout) throws SocketException, SocketTimeoutException {
+        checkNotPipelined();
         clientSocket.setSoTimeout(timeout);
 
         ByteArrayOutputStream availableInput = new ByteArrayOutputStream();
 
         try {
-            do {
+            if (0 == frameDecoder.drainTo(availableInput)) {
+                availableInput.write(inputStream.read());
+            }
+            while (0 < inputStream.available()) {
                 availableInput.write(inputStream.read());
-            } while (0 < inputStream.available());
+            }
         } catch (SocketTimeoutException timeoutEx) {
             log.error("Timeout while receiving available input", timeoutEx);
             throw new MllpJUnitResourceTimeoutException("Timeout while receiving available input", timeoutEx);
@@ -498,9 +746,11 @@ public class MllpClientResource extends ExternalResource {
     }
 
     public byte[] eatBytes(int timeout) throws SocketException {
+        checkNotPipelined();
         clientSocket.setSoTimeout(timeout);
 
         ByteArrayOutputStream availableInput = new ByteArrayOutputStream();
+        frameDecoder.drainTo(availableInput);
         try {
             while (0 < inputStream.available()) {
                 availableInput.write(inputStream.read());
@@ -565,6 +815,77 @@ public class MllpClientResource extends ExternalResource {
         return receiveFramedData(acknwoledgementTimeout);
     }
 
+    /**
+     * Send a frame without waiting for the acknowledgement of the frames sent before it.
+     *
+     * Up to maxInFlight frames can be waiting for an acknowledgement - the send blocks until an acknowledgement frees a
+     * slot.  Acknowledgements are matched to frames by MSA-2 and MSH-10, and are received by a background thread until
+     * the client disconnects, so the receive methods cannot be used on the connection after the first pipelined send.
+     *
+     * The future fails with a MllpJUnitResourceTimeoutException if the acknowledgement is not received within
+     * soTimeout milliseconds, or with a MllpJUnitResourceException if the connection is closed first.  As with the
+     * socket, a soTimeout of 0 waits forever - for a slot, and for the acknowledgement.
+     *
+     * @param hl7Bytes the payload of the frame
+     *
+     * @return the future acknowledgement payload
+     */
+    public CompletableFuture<byte[]> sendFramedDataPipelined(byte[] hl7Bytes) {
+        return sendPipelinedFrame(hl7Bytes).future;
+    }
+
+    /**
+     * Send a pipelined frame, and return the frame so the caller can see when it was actually written.
+     */
+    MllpClientPipeline.InFlightFrame sendPipelinedFrame(byte[] hl7Bytes) {
+        if (null == clientSocket) {
+            this.connect();
+        }
+
+        MllpClientPipeline currentPipeline;
+        synchronized (this) {
+            if (null == pipeline) {
+                if (!isConnected()) {
+                    throw new MllpJUnitResourceException("Cannot send message - client is not connected");
+                }
+                pipeline = new MllpClientPipeline(this, maxInFlight);
+                pipeline.start();
+            }
+            currentPipeline = pipeline;
+        }
+
+        return currentPipeline.send(hl7Bytes, soTimeout);
+    }
+
+    public CompletableFuture<String> sendFramedDataPipelined(String hl7Data) {
+        return sendFramedDataPipelined(hl7Data, DEFAULT_CHARSET);
+    }
+
+    public CompletableFuture<String> sendFramedDataPipelined(String hl7Data, Charset charset) {
+        return sendFramedDataPipelined(hl7Data.getBytes(charset)).thenApply(acknowledgement -> new String(acknowledgement, charset));
+    }
+
+    /**
+     * Get the number of pipelined frames waiting for an acknowledgement.
+     *
+     * @return the number of frames in flight
+     */
+    public int getInFlightCount() {
+        MllpClientPipeline currentPipeline = pipeline;
+        return (null != currentPipeline) ? currentPipeline.getInFlightCount() : 0;
+    }
+
+    /**
+     * Get the number of acknowledgements received by the pipeline that did not match a frame in flight - including
+     * acknowledgements that arrived after their frame timed out.
+     *
+     * @return the number of unmatched acknowledgements on the current connection
+     */
+    public long getUnmatchedAcknowledgementCount() {
+        MllpClientPipeline currentPipeline = pipeline;
+        return (null != currentPipeline) ? currentPipeline.getUnmatchedAcknowledgements() : 0;
+    }
+
     public String getMllpHost() {
         return mllpHost;
     }
@@ -621,6 +942,19 @@ public class MllpClientResource extends ExternalResource {
         this.soTimeout = soTimeout;
     }
 
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Set the maximum number of pipelined frames waiting for an acknowledgement.  Applies to the next connection.
+     *
+     * @param maxInFlight the maximum number of frames in flight - values less than 1 are treated as 1
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
     public boolean isReuseAddress() {
         return reuseAddress;
     }
@@ -644,4 +978,79 @@ public class MllpClientResource extends ExternalResource {
     public void setLazyConnect(boolean lazyConnect) {
         this.lazyConnect = lazyConnect;
     }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Enable TLS.
+     *
+     * Sessions are cached by the context, so connections made with the same context resume the previous session when
+     * the server allows it.
+     *
+     * @param sslContext the initialized context - null disables TLS
+     */
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    public String[] getSslEnabledProtocols() {
+        return sslEnabledProtocols;
+    }
+
+    public void setSslEnabledProtocols(String... sslEnabledProtocols) {
+        this.sslEnabledProtocols = sslEnabledProtocols;
+    }
+
+    public boolean isSslSessionResumption() {
+        return sslSessionResumption;
+    }
+
+    /**
+     * Enable/disable TLS session resumption.
+     *
+     * When disabled, the session is invalidated after the handshake, so the next connection needs a full handshake.
+     *
+     * @param sslSessionResumption true to resume the previous session when reconnecting
+     */
+    public void setSslSessionResumption(boolean sslSessionResumption) {
+        this.sslSessionResumption = sslSessionResumption;
+    }
+
+    /**
+     * Get the number of TLS handshakes that negotiated a new session.
+     *
+     * @return the number of full handshakes made by this client
+     */
+    public long getFullHandshakeCount() {
+        return fullHandshakeCount;
+    }
+
+    /**
+     * Get the number of TLS handshakes that resumed a cached session.  TLS 1.3 resumption is counted as a full
+     * handshake - see MllpServerResource.getResumedHandshakeCount().
+     *
+     * @return the number of resumed handshakes made by this client
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakeCount;
+    }
+
+    public MllpSessionRecorder getSessionRecorder() {
+        return sessionRecorder;
+    }
+
+    /**
+     * Record the sessions of the client.
+     *
+     * Each connection is assigned an ID by the recorder, and the connection events and the frames sent and received
+     * with the framed send and receive methods are written to it.  A recorder can be shared by several clients.  The
+     * recorder is not closed by the resource.
+     *
+     * @param sessionRecorder the recorder - null stops recording
+     */
+    public void setSessionRecorder(MllpSessionRecorder sessionRecorder) {
+        this.sessionRecorder = sessionRecorder;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the connections handled by a MllpServerResource, and enforces the maximum number of concurrent connections.
+ *
+ * Every admitted connection must be released exactly once when it ends.  Connections queued by the QUEUE overflow
+ * policy are started, in the order they were accepted, as admitted connections are released.
+ */
+class MllpConnectionLimiter {
+    final AtomicInteger liveConnections = new AtomicInteger();
+    final AtomicLong totalConnections = new AtomicLong();
+    final AtomicLong overflowConnections = new AtomicLong();
+
+    final Queue<QueuedConnection> queuedConnections = new ConcurrentLinkedQueue<>();
+
+    volatile int maxConnections;
+
+    /**
+     * Count a newly accepted connection, and try to admit it.
+     *
+     * @return true if the connection was admitted; false if the maximum number of connections are open
+     */
+    boolean admit() {
+        totalConnections.incrementAndGet();
+        if (tryAcquire()) {
+            return true;
+        }
+        overflowConnections.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Release an admitted connection, and start the next queued connection.
+     */
+    void release() {
+        liveConnections.decrementAndGet();
+        startQueued();
+    }
+
+    /**
+     * Queue a connection until it can be admitted.
+     *
+     * @param socket the socket of the connection - reset if the queue is cleared
+     * @param start  starts handling the connection once it has been admitted
+     */
+    void enqueue(Socket socket, Runnable start) {
+        queuedConnections.add(new QueuedConnection(socket, start));
+        startQueued();
+    }
+
+    /**
+     * Remove the queued connections.
+     *
+     * @return the sockets of the removed connections
+     */
+    List<Socket> clear() {
+        List<Socket> sockets = new ArrayList<>();
+        QueuedConnection queued;
+        while (null != (queued = queuedConnections.poll())) {
+            sockets.add(queued.socket);
+        }
+        return sockets;
+    }
+
+    /**
+     * Reset the counters - only called when no connections are open.
+     */
+    void reset() {
+        liveConnections.set(0);
+        totalConnections.set(0);
+        overflowConnections.set(0);
+    }
+
+    int getQueuedCount() {
+        return queuedConnections.size();
+    }
+
+    private void startQueued() {
+        while (!queuedConnections.isEmpty() && tryAcquire()) {
+            QueuedConnection queued = queuedConnections.poll();
+            if (null == queued) {
+                liveConnections.decrementAndGet();
+                break;
+            }
+            queued.start.run();
+        }
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = liveConnections.get();
+            int max = maxConnections;
+            if (0 < max && current >= max) {
+                return false;
+            }
+            if (liveConnections.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Nested class that holds a connection waiting for a free slot
+     */
+    static class QueuedConnection {
+        final Socket socket;
+        final Runnable start;
+
+        QueuedConnection(Socket socket, Runnable start) {
+            this.socket = socket;
+            this.start = start;
+        }
+    }
+}
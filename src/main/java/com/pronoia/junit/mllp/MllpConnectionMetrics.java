@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for a single connection to a MllpServerResource.
+ *
+ * Most of the counters are updated by the thread handling the connection; the bytes sent and the resets are also
+ * updated by the thread writing delayed and asynchronous responses.  Every update is also added to the aggregate
+ * MllpServerMetrics of the server.  The counters may be read from any thread.
+ */
+public class MllpConnectionMetrics {
+    final MllpServerMetrics serverMetrics;
+
+    final long connectionId;
+    final String localAddress;
+    final String remoteAddress;
+    final long connectTimestamp;
+
+    // Only the thread handling the connection updates these counters, so volatile is sufficient
+    volatile long framesReceived;
+    volatile long bytesReceived;
+    volatile long applicationAcceptSent;
+    volatile long applicationErrorSent;
+    volatile long applicationRejectSent;
+    volatile long corruptFrames;
+
+    // Also updated by the response writer, and when the connection is reset from another thread
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder resets = new LongAdder();
+
+    // Receive times of the frames whose acknowledgements have not been flushed yet
+    long[] pendingReceiveTimes = new long[4];
+    int pendingCount;
+
+    MllpConnectionMetrics(MllpServerMetrics serverMetrics, long connectionId, String localAddress, String remoteAddress) {
+        this.serverMetrics = serverMetrics;
+        this.connectionId = connectionId;
+        this.localAddress = localAddress;
+        this.remoteAddress = remoteAddress;
+        this.connectTimestamp = System.currentTimeMillis();
+    }
+
+    MllpConnectionMetrics(MllpConnectionMetrics source) {
+        this.serverMetrics = null;
+        this.connectionId = source.connectionId;
+        this.localAddress = source.localAddress;
+        this.remoteAddress = source.remoteAddress;
+        this.connectTimestamp = source.connectTimestamp;
+        this.framesReceived = source.framesReceived;
+        this.bytesReceived = source.bytesReceived;
+        this.bytesSent.add(source.bytesSent.sum());
+        this.applicationAcceptSent = source.applicationAcceptSent;
+        this.applicationErrorSent = source.applicationErrorSent;
+        this.applicationRejectSent = source.applicationRejectSent;
+        this.corruptFrames = source.corruptFrames;
+        this.resets.add(source.resets.sum());
+    }
+
+    void recordBytesReceived(int count) {
+        if (0 < count) {
+            bytesReceived += count;
+            serverMetrics.bytesReceived.add(count);
+        }
+    }
+
+    /**
+     * Record a received frame, and start measuring the time until its acknowledgement is flushed.
+     */
+    void recordFrameReceived() {
+        ++framesReceived;
+        serverMetrics.framesReceived.increment();
+        addPendingReceiveTime(System.nanoTime());
+    }
+
+    /**
+     * Track a frame as pending until the next flush.
+     *
+     * @param receiveNanos the System.nanoTime() the frame was received
+     */
+    void addPendingReceiveTime(long receiveNanos) {
+        if (pendingCount == pendingReceiveTimes.length) {
+            long[] newPendingReceiveTimes = new long[pendingReceiveTimes.length * 2];
+            System.arraycopy(pendingReceiveTimes, 0, newPendingReceiveTimes, 0, pendingCount);
+            pendingReceiveTimes = newPendingReceiveTimes;
+        }
+        pendingReceiveTimes[pendingCount++] = receiveNanos;
+    }
+
+    void recordAcknowledgementCode(byte[] acknowledgementCode) {
+        if (MllpAcknowledgementBuilder.APPLICATION_ERROR == acknowledgementCode) {
+            ++applicationErrorSent;
+            serverMetrics.applicationErrorSent.increment();
+        } else if (MllpAcknowledgementBuilder.APPLICATION_REJECT == acknowledgementCode) {
+            ++applicationRejectSent;
+            serverMetrics.applicationRejectSent.increment();
+        } else {
+            ++applicationAcceptSent;
+            serverMetrics.applicationAcceptSent.increment();
+        }
+    }
+
+    /**
+     * Record that the responses to all of the pending frames have been written and flushed.
+     *
+     * @param count the number of bytes written
+     */
+    void recordFlushed(int count) {
+        if (0 < count) {
+            bytesSent.add(count);
+            serverMetrics.bytesSent.add(count);
+        }
+        if (0 < pendingCount) {
+            long now = System.nanoTime();
+            for (int i = 0; i < pendingCount; ++i) {
+                serverMetrics.acknowledgementLatency.record(now - pendingReceiveTimes[i]);
+            }
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * Stop tracking the most recently received frame as pending, because its response will be written by another
+     * thread.
+     *
+     * @return the System.nanoTime() the frame was received
+     */
+    long detachPendingReceiveTime() {
+        return (0 < pendingCount) ? pendingReceiveTimes[--pendingCount] : System.nanoTime();
+    }
+
+    /**
+     * Record that a response written by another thread has been flushed.
+     *
+     * @param count        the number of bytes written
+     * @param receiveNanos the System.nanoTime() the frame was received
+     */
+    void recordFlushed(int count, long receiveNanos) {
+        if (0 < count) {
+            bytesSent.add(count);
+            serverMetrics.bytesSent.add(count);
+        }
+        serverMetrics.acknowledgementLatency.record(System.nanoTime() - receiveNanos);
+    }
+
+    void recordCorruptFrame() {
+        ++corruptFrames;
+        serverMetrics.corruptFrames.increment();
+    }
+
+    void recordReset() {
+        resets.increment();
+        serverMetrics.connectionResets.increment();
+    }
+
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    public String getLocalAddress() {
+        return localAddress;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public long getConnectTimestamp() {
+        return connectTimestamp;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getApplicationAcceptSent() {
+        return applicationAcceptSent;
+    }
+
+    public long getApplicationErrorSent() {
+        return applicationErrorSent;
+    }
+
+    public long getApplicationRejectSent() {
+        return applicationRejectSent;
+    }
+
+    public long getCorruptFrames() {
+        return corruptFrames;
+    }
+
+    public long getResets() {
+        return resets.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Connection %d %s -> %s: frames=%d bytesReceived=%d bytesSent=%d AA=%d AE=%d AR=%d corrupt=%d resets=%d",
+            connectionId, localAddress, remoteAddress, framesReceived, bytesReceived, getBytesSent(),
+            applicationAcceptSent, applicationErrorSent, applicationRejectSent, corruptFrames, getResets());
+    }
+}
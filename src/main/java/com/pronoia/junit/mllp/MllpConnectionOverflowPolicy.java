@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+/**
+ * What a MllpServerResource does with a new connection when the maximum number of concurrent connections are open.
+ */
+public enum MllpConnectionOverflowPolicy {
+    /**
+     * Close the new connection normally.
+     */
+    REJECT,
+
+    /**
+     * Reset the new connection.
+     */
+    RESET,
+
+    /**
+     * Keep the new connection open without reading from it, and handle it when another connection ends.
+     */
+    QUEUE
+}
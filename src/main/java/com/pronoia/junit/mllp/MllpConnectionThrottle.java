@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bandwidth limits for a single connection to a MllpServerResource.
+ *
+ * Every setting defaults to the value configured on the MllpServerResource, and can be overridden for the connection.
+ * The settings can be changed while the connection is open, and take effect on the next read or write.
+ */
+public class MllpConnectionThrottle {
+    public static final int INHERIT = -1;
+
+    final MllpServerResource resource;
+    final long connectionId;
+
+    volatile long readBytesPerSecond = INHERIT;
+    volatile long writeBytesPerSecond = INHERIT;
+    volatile int writePacketSize = INHERIT;
+    volatile int throttleBurstSize = INHERIT;
+
+    final MllpTokenBucket readBucket = new MllpTokenBucket();
+    final MllpTokenBucket writeBucket = new MllpTokenBucket();
+
+    MllpConnectionThrottle(MllpServerResource resource, long connectionId) {
+        this.resource = resource;
+        this.connectionId = connectionId;
+    }
+
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    public long getReadBytesPerSecond() {
+        return readBytesPerSecond;
+    }
+
+    /**
+     * Override the rate bytes are read from this connection.
+     *
+     * @param readBytesPerSecond the rate - 0 disables the limit; INHERIT uses the setting of the MllpServerResource
+     */
+    public void setReadBytesPerSecond(long readBytesPerSecond) {
+        this.readBytesPerSecond = Math.max(INHERIT, readBytesPerSecond);
+    }
+
+    public long getWriteBytesPerSecond() {
+        return writeBytesPerSecond;
+    }
+
+    /**
+     * Override the rate responses are written to this connection.
+     *
+     * @param writeBytesPerSecond the rate - 0 disables the limit; INHERIT uses the setting of the MllpServerResource
+     */
+    public void setWriteBytesPerSecond(long writeBytesPerSecond) {
+        this.writeBytesPerSecond = Math.max(INHERIT, writeBytesPerSecond);
+    }
+
+    public int getWritePacketSize() {
+        return writePacketSize;
+    }
+
+    /**
+     * Override the size of the packets responses are split into on this connection.
+     *
+     * @param writePacketSize the packet size - 0 writes each response at once; INHERIT uses the setting of the MllpServerResource
+     */
+    public void setWritePacketSize(int writePacketSize) {
+        this.writePacketSize = Math.max(INHERIT, writePacketSize);
+    }
+
+    public int getThrottleBurstSize() {
+        return throttleBurstSize;
+    }
+
+    /**
+     * Override the burst size of the read and write limits on this connection.
+     *
+     * @param throttleBurstSize the burst size - 0 uses a tenth of the rate; INHERIT uses the setting of the MllpServerResource
+     */
+    public void setThrottleBurstSize(int throttleBurstSize) {
+        this.throttleBurstSize = Math.max(INHERIT, throttleBurstSize);
+    }
+
+    long effectiveReadBytesPerSecond() {
+        long value = readBytesPerSecond;
+        return (INHERIT == value) ? resource.readBytesPerSecond : value;
+    }
+
+    long effectiveWriteBytesPerSecond() {
+        long value = writeBytesPerSecond;
+        return (INHERIT == value) ? resource.writeBytesPerSecond : value;
+    }
+
+    int effectiveWritePacketSize() {
+        int value = writePacketSize;
+        return (INHERIT == value) ? resource.writePacketSize : value;
+    }
+
+    long effectiveBurstSize(long bytesPerSecond) {
+        int value = throttleBurstSize;
+        if (INHERIT == value) {
+            value = resource.throttleBurstSize;
+        }
+        return (0 < value) ? value : Math.max(1, bytesPerSecond / 10);
+    }
+
+    /**
+     * Get the maximum number of bytes to read with the next read.
+     *
+     * @return the number of bytes, or Integer.MAX_VALUE if reads are not limited
+     */
+    int readChunkSize() {
+        long bytesPerSecond = effectiveReadBytesPerSecond();
+        readBucket.configure(bytesPerSecond, effectiveBurstSize(bytesPerSecond));
+        return readBucket.isLimited() ? (int) Math.min(Integer.MAX_VALUE, readBucket.getBurstSize()) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get the time to wait before reading a number of bytes.
+     */
+    long readDelayNanos(int chunkSize) {
+        return readBucket.nanosUntilAvailable(chunkSize);
+    }
+
+    void recordRead(int count) {
+        if (0 < count) {
+            readBucket.take(count);
+        }
+    }
+
+    /**
+     * Get the maximum number of bytes to write with the next write.
+     *
+     * @return the number of bytes, or Integer.MAX_VALUE if writes are not limited or split into packets
+     */
+    int writeChunkSize() {
+        long bytesPerSecond = effectiveWriteBytesPerSecond();
+        writeBucket.configure(bytesPerSecond, effectiveBurstSize(bytesPerSecond));
+        int packetSize = effectiveWritePacketSize();
+        if (0 < packetSize) {
+            return packetSize;
+        }
+        return writeBucket.isLimited() ? (int) Math.min(Integer.MAX_VALUE, writeBucket.getBurstSize()) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get the time to wait before writing a number of bytes.
+     */
+    long writeDelayNanos(int chunkSize) {
+        return writeBucket.nanosUntilAvailable(chunkSize);
+    }
+
+    void recordWrite(int count) {
+        if (0 < count) {
+            writeBucket.take(count);
+        }
+    }
+
+    /**
+     * Block the calling thread while a connection is throttled - used by the thread-per-connection engine.
+     *
+     * @param delayNanos the time to wait
+     *
+     * @return false if the thread was interrupted
+     */
+    static boolean pause(long delayNanos) {
+        if (0 < delayNanos) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            } catch (InterruptedException interruptedEx) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+/**
+ * The faults the MllpServerResource can inject into a response.
+ *
+ * A set of faults is passed around as an int with the bit of every fault in the set turned on.
+ */
+public enum MllpFault {
+    SEND_OUT_OF_BAND_DATA,
+    EXCLUDE_START_OF_BLOCK,
+    EXCLUDE_ACKNOWLEDGEMENT,
+    EXCLUDE_END_OF_BLOCK,
+    EXCLUDE_END_OF_DATA,
+    DISCONNECT_BEFORE_ACKNOWLEDGEMENT,
+    DISCONNECT_AFTER_ACKNOWLEDGEMENT,
+    SEND_APPLICATION_ERROR_ACKNOWLEDGEMENT,
+    SEND_APPLICATION_REJECT_ACKNOWLEDGEMENT;
+
+    final int mask = 1 << ordinal();
+
+    /**
+     * Determine if the fault is in a set of faults.
+     *
+     * @param faults the set of faults
+     *
+     * @return true if the fault is in the set
+     */
+    public boolean isSet(int faults) {
+        return 0 != (faults & mask);
+    }
+}
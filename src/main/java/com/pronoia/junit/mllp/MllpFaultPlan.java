@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A seeded set of fault-injection rules for the MllpServerResource.
+ *
+ * The plan is compiled into a decision table when it is set on the resource, so changes to the plan after it is set
+ * have no effect until it is set again.  Random decisions only depend on the seed, the rule, the connection and the
+ * message count, so a failing run is replayed exactly by setting a plan with the same rules and seed - the seed is
+ * logged when the resource is started.
+ */
+public class MllpFaultPlan {
+    final long seed;
+    final List<MllpFaultRule> rules = new ArrayList<>();
+
+    /**
+     * Create a plan with a random seed.
+     */
+    public MllpFaultPlan() {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Create a plan with a fixed seed.
+     *
+     * @param seed the seed for the random decisions
+     */
+    public MllpFaultPlan(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Add a rule to the plan.
+     *
+     * @param rule the rule
+     *
+     * @return this plan
+     */
+    public MllpFaultPlan add(MllpFaultRule rule) {
+        if (null == rule) {
+            throw new IllegalArgumentException("The rule must be specified");
+        }
+        rules.add(rule);
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public List<MllpFaultRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    @Override
+    public String toString() {
+        return "MllpFaultPlan{seed=" + seed + ", rules=" + rules + '}';
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+/**
+ * A rule of a MllpFaultPlan that decides which messages get a fault.
+ *
+ * A rule either injects the fault on every n-th message, or on messages chosen at random with a fixed probability
+ * using the seed of the plan - so the same plan injects the same faults into the same sequence of messages.  The
+ * messages are counted per connection by default, or across all of the connections of the resource.
+ *
+ * Example - reject a burst of three messages on five percent of the bursts during the second minute of the run:
+ * <pre>
+ *     MllpFaultRule.withProbability(MllpFault.SEND_APPLICATION_REJECT_ACKNOWLEDGEMENT, 0.05).burst(3).between(60000, 120000)
+ * </pre>
+ */
+public class MllpFaultRule {
+    final MllpFault fault;
+    final int modulus;
+    final double probability;
+
+    int burstLength = 1;
+    long windowStart;
+    long windowEnd = Long.MAX_VALUE;
+    Scope scope = Scope.CONNECTION;
+
+    MllpFaultRule(MllpFault fault, int modulus, double probability) {
+        if (null == fault) {
+            throw new IllegalArgumentException("The fault must be specified");
+        }
+        this.fault = fault;
+        this.modulus = modulus;
+        this.probability = probability;
+    }
+
+    /**
+     * Create a rule that injects the fault on every n-th message.
+     *
+     * @param fault   the fault
+     * @param modulus inject on every n-th message: 1 = every message
+     *
+     * @return the rule
+     */
+    public static MllpFaultRule everyNth(MllpFault fault, int modulus) {
+        if (1 > modulus) {
+            throw new IllegalArgumentException("The modulus must be greater than 0: " + modulus);
+        }
+        return new MllpFaultRule(fault, modulus, 0);
+    }
+
+    /**
+     * Create a rule that injects the fault on messages chosen at random.
+     *
+     * @param fault       the fault
+     * @param probability the probability a message is chosen, between 0 and 1
+     *
+     * @return the rule
+     */
+    public static MllpFaultRule withProbability(MllpFault fault, double probability) {
+        if (0 > probability || 1 < probability) {
+            throw new IllegalArgumentException("The probability must be between 0 and 1: " + probability);
+        }
+        return new MllpFaultRule(fault, 0, probability);
+    }
+
+    /**
+     * Inject the fault into runs of messages rather than single messages.
+     *
+     * For an every n-th rule, the run starts at every n-th message.  For a probability rule, the messages are divided
+     * into runs of this length and whole runs are chosen at random.
+     *
+     * @param burstLength the number of messages in a run
+     *
+     * @return this rule
+     */
+    public MllpFaultRule burst(int burstLength) {
+        if (1 > burstLength) {
+            throw new IllegalArgumentException("The burst length must be greater than 0: " + burstLength);
+        }
+        if (0 < modulus && burstLength > modulus) {
+            throw new IllegalArgumentException("The burst length must not be greater than the modulus: " + burstLength);
+        }
+        this.burstLength = burstLength;
+        return this;
+    }
+
+    /**
+     * Only inject the fault during a time window.
+     *
+     * The window is measured from the time the resource is started, so time windows are not reproduced exactly when a
+     * run is replayed.
+     *
+     * @param startMillis the start of the window, in milliseconds after startup
+     * @param endMillis   the end of the window (exclusive), in milliseconds after startup
+     *
+     * @return this rule
+     */
+    public MllpFaultRule between(long startMillis, long endMillis) {
+        if (0 > startMillis || startMillis >= endMillis) {
+            throw new IllegalArgumentException(String.format("Invalid time window: %d - %d", startMillis, endMillis));
+        }
+        this.windowStart = startMillis;
+        this.windowEnd = endMillis;
+        return this;
+    }
+
+    /**
+     * Set how the messages are counted.
+     *
+     * @param scope CONNECTION to count the messages of each connection separately, SERVER to count across connections
+     *
+     * @return this rule
+     */
+    public MllpFaultRule scope(Scope scope) {
+        this.scope = (null != scope) ? scope : Scope.CONNECTION;
+        return this;
+    }
+
+    public MllpFault getFault() {
+        return fault;
+    }
+
+    public int getModulus() {
+        return modulus;
+    }
+
+    public double getProbability() {
+        return probability;
+    }
+
+    public int getBurstLength() {
+        return burstLength;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(fault.name());
+        if (0 < modulus) {
+            builder.append(" every ").append(modulus);
+        } else {
+            builder.append(" with probability ").append(probability);
+        }
+        if (1 < burstLength) {
+            builder.append(" burst ").append(burstLength);
+        }
+        if (0 < windowStart || Long.MAX_VALUE != windowEnd) {
+            builder.append(" between ").append(windowStart).append(" and ").append(windowEnd).append(" ms");
+        }
+        return builder.append(" per ").append(scope.name().toLowerCase()).toString();
+    }
+
+    /**
+     * How the messages are counted.
+     */
+    public enum Scope {
+        CONNECTION,
+        SERVER
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The compiled form of the fault-injection settings of a MllpServerResource.
+ *
+ * The rules are flattened into parallel arrays that are evaluated once for every message, returning the set of faults
+ * for the message.  Rules that apply to every message are folded into a constant mask.
+ */
+class MllpFaultTable {
+    static final MllpFaultTable EMPTY = new MllpFaultTable(0, Collections.<MllpFaultRule>emptyList());
+
+    static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    static final double UNIT = 1L << 53;
+
+    final int alwaysMask;
+
+    final int ruleCount;
+    final int[] masks;
+    final int[] moduli;
+    final long[] thresholds;
+    final int[] burstLengths;
+    final long[] windowStarts;
+    final long[] windowEnds;
+    final boolean[] serverScope;
+    final long[] ruleSeeds;
+
+    final boolean usesServerScope;
+    final boolean usesTimeWindows;
+
+    MllpFaultTable(long seed, List<MllpFaultRule> rules) {
+        int always = 0;
+        int count = 0;
+
+        masks = new int[rules.size()];
+        moduli = new int[rules.size()];
+        thresholds = new long[rules.size()];
+        burstLengths = new int[rules.size()];
+        windowStarts = new long[rules.size()];
+        windowEnds = new long[rules.size()];
+        serverScope = new boolean[rules.size()];
+        ruleSeeds = new long[rules.size()];
+
+        boolean server = false;
+        boolean windows = false;
+        for (int i = 0; i < rules.size(); ++i) {
+            MllpFaultRule rule = rules.get(i);
+            boolean unbounded = 0 == rule.windowStart && Long.MAX_VALUE == rule.windowEnd;
+            if (unbounded && (1 == rule.modulus || (0 == rule.modulus && 1.0 == rule.probability))) {
+                always |= rule.fault.mask;
+                continue;
+            }
+            if (0 == rule.modulus && 0.0 == rule.probability) {
+                continue;
+            }
+            masks[count] = rule.fault.mask;
+            moduli[count] = rule.modulus;
+            thresholds[count] = (long) (rule.probability * UNIT);
+            burstLengths[count] = rule.burstLength;
+            windowStarts[count] = rule.windowStart;
+            windowEnds[count] = rule.windowEnd;
+            serverScope[count] = MllpFaultRule.Scope.SERVER == rule.scope;
+            ruleSeeds[count] = mix(seed + (i + 1) * GOLDEN_GAMMA);
+            server |= serverScope[count];
+            windows |= !unbounded;
+            ++count;
+        }
+
+        this.alwaysMask = always;
+        this.ruleCount = count;
+        this.usesServerScope = server;
+        this.usesTimeWindows = windows;
+    }
+
+    boolean isEmpty() {
+        return 0 == alwaysMask && 0 == ruleCount;
+    }
+
+    /**
+     * Evaluate the rules for a message.
+     *
+     * @param connectionId            the id of the connection the message was received on
+     * @param connectionMessageCount  the number of messages received on the connection, including this one
+     * @param serverMessageCount      the number of messages received on all connections, including this one - only
+     *                                used if usesServerScope is true
+     * @param elapsedMillis           the time since the resource was started - only used if usesTimeWindows is true
+     *
+     * @return the set of faults for the message
+     */
+    int evaluate(long connectionId, int connectionMessageCount, long serverMessageCount, long elapsedMillis) {
+        int faults = alwaysMask;
+        for (int i = 0; i < ruleCount; ++i) {
+            if (0 != (faults & masks[i]) || elapsedMillis < windowStarts[i] || elapsedMillis >= windowEnds[i]) {
+                continue;
+            }
+
+            long index = serverScope[i] ? serverMessageCount : connectionMessageCount;
+            boolean inject;
+            if (0 < moduli[i]) {
+                inject = index >= moduli[i] && index % moduli[i] < burstLengths[i];
+            } else {
+                long burst = (index - 1) / burstLengths[i];
+                long key = serverScope[i] ? burst : mix(connectionId * GOLDEN_GAMMA) + burst;
+                inject = (mix(ruleSeeds[i] ^ mix(key)) >>> 11) < thresholds[i];
+            }
+            if (inject) {
+                faults |= masks[i];
+            }
+        }
+        return faults;
+    }
+
+    /**
+     * The SplitMix64 finalizer.
+     */
+    static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,325 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental MLLP frame decoder.
+ *
+ * Received bytes are read into a reusable buffer in bulk, and the buffer is scanned for the START_OF_BLOCK,
+ * END_OF_BLOCK and END_OF_DATA characters.  Bytes that do not yet form a complete frame are kept in the buffer
+ * for the next read, so frames split across several reads - or several frames received in one read - are handled.
+ *
+ * The decoder only reports what it found; the caller decides how to log or handle corrupt frames.  The payload of
+ * the frame is valid until the next call to one of the fill methods.
+ *
+ * Instances are not thread-safe - each connection uses its own decoder.
+ */
+class MllpFrameDecoder {
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * The buffered bytes do not contain a complete frame - more data must be read.
+     */
+    static final int NEED_MORE_DATA = 0;
+
+    /**
+     * A complete frame was decoded - the payload is available from getFrameOffset() and getFrameLength().
+     */
+    static final int FRAME = 1;
+
+    /**
+     * A byte other than START_OF_BLOCK was received between frames - the byte is available from getOutOfBandByte().
+     */
+    static final int OUT_OF_BAND_DATA = 2;
+
+    /**
+     * A START_OF_BLOCK was received before the END_OF_BLOCK of the current frame - the discarded payload is available
+     * from getFrameOffset() and getFrameLength().
+     */
+    static final int START_OF_BLOCK_BEFORE_END_OF_BLOCK = 3;
+
+    /**
+     * The END_OF_BLOCK was not followed by END_OF_DATA - the unexpected byte is available from getOutOfBandByte() and
+     * the discarded payload is available from getFrameOffset() and getFrameLength().
+     */
+    static final int MISSING_END_OF_DATA = 4;
+
+    byte[] buffer;
+    ByteBuffer bufferView;
+
+    int position;
+    int limit;
+
+    boolean inFrame;
+    int frameStart;
+
+    int frameOffset;
+    int frameLength;
+    int outOfBandByte;
+
+    MllpFrameDecoder() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    MllpFrameDecoder(int initialBufferSize) {
+        buffer = new byte[initialBufferSize];
+        bufferView = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Read the available bytes from a stream into the buffer, blocking until at least one byte is available.
+     *
+     * @param inputStream the source stream
+     *
+     * @return the number of bytes read, or -1 if the end of the stream was reached
+     *
+     * @throws IOException when the underlying read raises an exception
+     */
+    int fill(InputStream inputStream) throws IOException {
+        return fill(inputStream, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read up to a maximum number of the available bytes from a stream into the buffer, blocking until at least one
+     * byte is available.
+     *
+     * @param inputStream the source stream
+     * @param maxBytes    the maximum number of bytes to read
+     *
+     * @return the number of bytes read, or -1 if the end of the stream was reached
+     *
+     * @throws IOException when the underlying read raises an exception
+     */
+    int fill(InputStream inputStream, int maxBytes) throws IOException {
+        prepareForRead();
+        int bytesRead = inputStream.read(buffer, limit, Math.min(buffer.length - limit, Math.max(1, maxBytes)));
+        if (0 < bytesRead) {
+            limit += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Read the available bytes from a channel into the buffer.
+     *
+     * @param channel the source channel
+     *
+     * @return the number of bytes read, or -1 if the end of the stream was reached
+     *
+     * @throws IOException when the underlying read raises an exception
+     */
+    int fill(ReadableByteChannel channel) throws IOException {
+        return fill(channel, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read up to a maximum number of the available bytes from a channel into the buffer.
+     *
+     * @param channel  the source channel
+     * @param maxBytes the maximum number of bytes to read
+     *
+     * @return the number of bytes read, or -1 if the end of the stream was reached
+     *
+     * @throws IOException when the underlying read raises an exception
+     */
+    int fill(ReadableByteChannel channel, int maxBytes) throws IOException {
+        prepareForRead();
+        bufferView.limit(limit + Math.min(buffer.length - limit, Math.max(1, maxBytes))).position(limit);
+        int bytesRead = channel.read(bufferView);
+        if (0 < bytesRead) {
+            limit += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Decode the next item from the buffered bytes.
+     *
+     * @return one of NEED_MORE_DATA, FRAME, OUT_OF_BAND_DATA, START_OF_BLOCK_BEFORE_END_OF_BLOCK or MISSING_END_OF_DATA
+     */
+    int decode() {
+        final byte[] bytes = buffer;
+
+        if (!inFrame) {
+            if (position >= limit) {
+                return NEED_MORE_DATA;
+            }
+            int nextByte = bytes[position++] & 0xFF;
+            if (MllpServerResource.START_OF_BLOCK != nextByte) {
+                outOfBandByte = nextByte;
+                return OUT_OF_BAND_DATA;
+            }
+            inFrame = true;
+            frameStart = position;
+        }
+
+        int scanPosition = position;
+        while (scanPosition < limit) {
+            byte nextByte = bytes[scanPosition];
+            if (MllpServerResource.END_OF_BLOCK == nextByte) {
+                if (scanPosition + 1 >= limit) {
+                    // Wait for the byte after END_OF_BLOCK
+                    position = scanPosition;
+                    return NEED_MORE_DATA;
+                }
+                inFrame = false;
+                frameOffset = frameStart;
+                frameLength = scanPosition - frameStart;
+                position = scanPosition + 2;
+                int trailingByte = bytes[scanPosition + 1] & 0xFF;
+                if (MllpServerResource.END_OF_DATA != trailingByte) {
+                    outOfBandByte = trailingByte;
+                    return MISSING_END_OF_DATA;
+                }
+                return FRAME;
+            } else if (MllpServerResource.START_OF_BLOCK == nextByte) {
+                inFrame = false;
+                frameOffset = frameStart;
+                frameLength = scanPosition - frameStart;
+                position = scanPosition + 1;
+                return START_OF_BLOCK_BEFORE_END_OF_BLOCK;
+            }
+            ++scanPosition;
+        }
+
+        position = scanPosition;
+        return NEED_MORE_DATA;
+    }
+
+    /**
+     * Determine if the START_OF_BLOCK of a frame has been received, but the frame is not complete.
+     *
+     * @return true if a partial frame is buffered
+     */
+    boolean isInFrame() {
+        return inFrame;
+    }
+
+    /**
+     * Determine if there are buffered bytes that have not been decoded.
+     *
+     * @return true if there are buffered bytes that have not been decoded
+     */
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int getFrameOffset() {
+        return frameOffset;
+    }
+
+    int getFrameLength() {
+        return frameLength;
+    }
+
+    int getOutOfBandByte() {
+        return outOfBandByte;
+    }
+
+    /**
+     * Get the payload of the last frame as a String.
+     *
+     * Each byte is mapped to the char with the same value, which matches the behaviour of reading the payload
+     * one byte at a time.
+     *
+     * @return the payload of the last frame
+     */
+    String getFrameAsString() {
+        return new String(buffer, frameOffset, frameLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Get the payload of the partial frame as a String.
+     *
+     * @return the payload received since the START_OF_BLOCK, or an empty String if a frame is not being received
+     */
+    String getPartialFrameAsString() {
+        if (!inFrame) {
+            return "";
+        }
+        return new String(buffer, frameStart, limit - frameStart, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Move the bytes that have not been decoded - including a partial frame - to a stream, and empty the buffer.  Used
+     * when the caller switches from decoding frames to reading the raw bytes.
+     *
+     * @param outputStream the destination stream
+     *
+     * @return the number of bytes moved
+     */
+    int drainTo(ByteArrayOutputStream outputStream) {
+        int count = 0;
+        if (inFrame) {
+            outputStream.write(MllpServerResource.START_OF_BLOCK);
+            outputStream.write(buffer, frameStart, limit - frameStart);
+            count = 1 + limit - frameStart;
+        } else if (position < limit) {
+            outputStream.write(buffer, position, limit - position);
+            count = limit - position;
+        }
+        reset();
+        return count;
+    }
+
+    /**
+     * Discard all buffered bytes.
+     */
+    void reset() {
+        position = 0;
+        limit = 0;
+        inFrame = false;
+        frameStart = 0;
+    }
+
+    /**
+     * Make room in the buffer for a read - keeping any partial frame - and grow it if the partial frame fills it.
+     */
+    private void prepareForRead() {
+        int keepFrom = inFrame ? frameStart : position;
+        if (0 < keepFrom) {
+            int keepLength = limit - keepFrom;
+            if (0 < keepLength) {
+                System.arraycopy(buffer, keepFrom, buffer, 0, keepLength);
+            }
+            position -= keepFrom;
+            frameStart -= keepFrom;
+            if (0 > frameStart) {
+                frameStart = 0;
+            }
+            limit = keepLength;
+        }
+
+        if (limit == buffer.length) {
+            byte[] newBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, limit);
+            buffer = newBuffer;
+            bufferView = ByteBuffer.wrap(buffer);
+        }
+    }
+}
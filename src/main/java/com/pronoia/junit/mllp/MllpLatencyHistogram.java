@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory, log-linear histogram of latencies.
+ *
+ * Values are grouped by their highest set bit, and each group is divided into SUB_BUCKET_COUNT linear sub-buckets,
+ * so the relative error of a recorded value is at most 1 / SUB_BUCKET_COUNT (about 3%) across the whole range of a
+ * long.  The counts are held in a fixed array of atomic counters, so values can be recorded concurrently without
+ * locking and the memory used does not depend on the number of values recorded.
+ *
+ * The unit of the values is chosen by the caller - the server records nanoseconds.
+ */
+public class MllpLatencyHistogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Record a value.  Negative values are recorded as 0.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    /**
+     * Add the counts of another histogram to this histogram.
+     *
+     * @param other the histogram to add
+     */
+    public void add(MllpLatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            long count = other.counts.get(i);
+            if (0 < count) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    /**
+     * Create a copy of the current counts.
+     *
+     * @return a new histogram with the current counts of this histogram
+     */
+    public MllpLatencyHistogram copy() {
+        MllpLatencyHistogram copy = new MllpLatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            counts.set(i, 0);
+        }
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Get the smallest recorded value, to the precision of the histogram.
+     *
+     * @return the lowest value of the lowest non-empty bucket, or 0 if no values have been recorded
+     */
+    public long getMinValue() {
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            if (0 < counts.get(i)) {
+                return lowestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the largest recorded value, to the precision of the histogram.
+     *
+     * @return the highest value of the highest non-empty bucket, or 0 if no values have been recorded
+     */
+    public long getMaxValue() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; --i) {
+            if (0 < counts.get(i)) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the mean of the recorded values, using the midpoint of each bucket.
+     *
+     * @return the mean, or 0 if no values have been recorded
+     */
+    public double getMean() {
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            long count = counts.get(i);
+            if (0 < count) {
+                total += count;
+                sum += count * ((lowestValueOf(i) / 2.0) + (highestValueOf(i) / 2.0));
+            }
+        }
+        return (0 < total) ? sum / total : 0;
+    }
+
+    /**
+     * Get the value below which a percentage of the recorded values fall.
+     *
+     * @param percentile the percentile - between 0 and 100
+     *
+     * @return the highest value of the bucket containing the percentile, or 0 if no values have been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (0 == total) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil((Math.min(100.0, Math.max(0.0, percentile)) / 100.0) * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            cumulative += snapshot[i];
+            if (cumulative >= target) {
+                return highestValueOf(i);
+            }
+        }
+        return getMaxValue();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d min=%d p50=%d p90=%d p99=%d p99.9=%d max=%d",
+            getCount(), getMinValue(), getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99),
+            getValueAtPercentile(99.9), getMaxValue());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long lowestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long nextLowest = lowestValueOf(index) + (1L << shift);
+        return (0 > nextLowest) ? Long.MAX_VALUE : nextLowest - 1;
+    }
+}
@@ -0,0 +1,385 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends messages to a MLLP server at a fixed rate, whatever the server's response time.
+ *
+ * Message n is scheduled to be sent at n / rate seconds after the start of the run, and the messages are spread over
+ * the connections in turn.  The messages are pipelined, so a connection does not wait for an acknowledgement before
+ * sending its next message unless maxInFlight messages are already waiting.  The latency of each message is measured
+ * from its scheduled send time, not from when it was actually sent - when the server stalls, the messages that should
+ * have been sent during the stall are charged for the time they waited, so the tail latency is not understated.
+ * Messages that are not acknowledged are recorded when they time out or fail, and the messages a failed connection
+ * could not send are reported next to the percentiles.
+ *
+ * The time from actually sending each message until its acknowledgement is also recorded, along with how far behind
+ * the schedule each send was.
+ */
+public class MllpLoadGenerator {
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    String mllpHost = "0.0.0.0";
+    int mllpPort;
+
+    double rate = 100;
+    long messageCount = 1000;
+    int connectionCount = 1;
+    int maxInFlight = 64;
+    int acknowledgementTimeout = 15000;
+    LongFunction<byte[]> messageGenerator = MllpLoadGenerator::defaultMessage;
+
+    public MllpLoadGenerator(int mllpPort) {
+        this.mllpPort = mllpPort;
+    }
+
+    public MllpLoadGenerator(String mllpHost, int mllpPort) {
+        this.mllpHost = mllpHost;
+        this.mllpPort = mllpPort;
+    }
+
+    public String getMllpHost() {
+        return mllpHost;
+    }
+
+    public void setMllpHost(String mllpHost) {
+        this.mllpHost = mllpHost;
+    }
+
+    public int getMllpPort() {
+        return mllpPort;
+    }
+
+    public void setMllpPort(int mllpPort) {
+        this.mllpPort = mllpPort;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Set the target rate.
+     *
+     * @param rate the number of messages to send per second, over all the connections
+     */
+    public void setRate(double rate) {
+        if (0 >= rate) {
+            throw new IllegalArgumentException("The rate must be greater than 0: " + rate);
+        }
+        this.rate = rate;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Set the number of messages to send.  The run lasts messageCount / rate seconds, plus the time to receive the
+     * last acknowledgements.
+     *
+     * @param messageCount the number of messages - negative values are treated as 0
+     */
+    public void setMessageCount(long messageCount) {
+        this.messageCount = Math.max(0, messageCount);
+    }
+
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public void setConnectionCount(int connectionCount) {
+        this.connectionCount = Math.max(1, connectionCount);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Set the maximum number of messages waiting for an acknowledgement on each connection.  When a connection reaches
+     * the limit its sends fall behind the schedule, and the delay is included in the latency.
+     *
+     * @param maxInFlight the limit per connection - values less than 1 are treated as 1
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    public int getAcknowledgementTimeout() {
+        return acknowledgementTimeout;
+    }
+
+    public void setAcknowledgementTimeout(int acknowledgementTimeout) {
+        if (0 > acknowledgementTimeout) {
+            this.acknowledgementTimeout = 0;
+        } else {
+            this.acknowledgementTimeout = acknowledgementTimeout;
+        }
+    }
+
+    public LongFunction<byte[]> getMessageGenerator() {
+        return messageGenerator;
+    }
+
+    /**
+     * Set the source of the messages.  The messages are matched to their acknowledgements by MSH-10, so each message
+     * should have a unique message control ID.
+     *
+     * @param messageGenerator creates the payload of message n - called on the connection threads
+     */
+    public void setMessageGenerator(LongFunction<byte[]> messageGenerator) {
+        this.messageGenerator = (null != messageGenerator) ? messageGenerator : MllpLoadGenerator::defaultMessage;
+    }
+
+    /**
+     * Send the messages, and wait for their acknowledgements.
+     *
+     * @return the outcome of the run
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the connections
+     */
+    public Result run() throws InterruptedException {
+        Result result = new Result();
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long startNanos = System.nanoTime();
+
+        List<Thread> connectionThreads = new ArrayList<>(connectionCount);
+        for (int connection = 0; connection < connectionCount; ++connection) {
+            int firstMessage = connection;
+            Thread connectionThread = new Thread(() -> runConnection(firstMessage, startNanos, intervalNanos, result),
+                "MllpLoadGenerator$Connection-" + connection);
+            connectionThread.setDaemon(true);
+            connectionThreads.add(connectionThread);
+            connectionThread.start();
+        }
+
+        try {
+            for (Thread connectionThread : connectionThreads) {
+                connectionThread.join();
+            }
+        } catch (InterruptedException interruptedEx) {
+            for (Thread connectionThread : connectionThreads) {
+                connectionThread.interrupt();
+            }
+            throw interruptedEx;
+        }
+
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        log.info("Sent {} messages at {} per second on {} connections: {}", messageCount, rate, connectionCount, result);
+
+        return result;
+    }
+
+    void runConnection(int firstMessage, long startNanos, long intervalNanos, Result result) {
+        MllpClientResource client = new MllpClientResource(mllpHost, mllpPort);
+        client.setSoTimeout(acknowledgementTimeout);
+        client.setMaxInFlight(maxInFlight);
+        LongAdder outstanding = new LongAdder();
+        long message = firstMessage;
+        try {
+            client.connect();
+            for (; message < messageCount; message += connectionCount) {
+                long intendedNanos = startNanos + message * intervalNanos;
+                if (!awaitSendTime(intendedNanos)) {
+                    break;
+                }
+                byte[] payload = messageGenerator.apply(message);
+
+                outstanding.increment();
+                MllpClientPipeline.InFlightFrame frame;
+                try {
+                    frame = client.sendPipelinedFrame(payload);
+                } catch (RuntimeException sendEx) {
+                    outstanding.decrement();
+                    throw sendEx;
+                }
+                // The frame is written after the wait for a slot - that wait is lag, not service time
+                long sendNanos = frame.sendNanos;
+                result.sendLag.record(sendNanos - intendedNanos);
+                result.messagesSent.increment();
+                frame.future.whenComplete((bytes, failure) -> {
+                    long completionNanos = System.nanoTime();
+                    // Unacknowledged messages are recorded when they fail, so a stall longer than the timeout stays in the tail
+                    result.latency.record(completionNanos - intendedNanos);
+                    if (null == failure) {
+                        result.serviceTime.record(completionNanos - sendNanos);
+                        result.acknowledgementsReceived.increment();
+                    } else if (unwrap(failure) instanceof MllpJUnitResourceTimeoutException) {
+                        result.acknowledgementTimeouts.increment();
+                    } else {
+                        result.acknowledgementFailures.increment();
+                    }
+                    outstanding.decrement();
+                });
+            }
+
+            // Frames in flight are acknowledged or expire within the acknowledgement timeout
+            while (0 < outstanding.sum() && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        } catch (Exception connectionEx) {
+            log.warn("Load on connection {} failed", firstMessage, connectionEx);
+            result.addFailure(connectionEx);
+        } finally {
+            client.disconnect();
+            if (message < messageCount) {
+                result.messagesNotSent.add((messageCount - 1 - message) / connectionCount + 1);
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return (failure instanceof CompletionException && null != failure.getCause()) ? failure.getCause() : failure;
+    }
+
+    private static boolean awaitSendTime(long sendNanos) {
+        for (long remaining = sendNanos - System.nanoTime(); 0 < remaining; remaining = sendNanos - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] defaultMessage(long messageNumber) {
+        return String.format("MSH|^~\\&|LOAD|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|%d|P|2.3" + '\r'
+            + "PID|1||%d" + '\r', messageNumber, messageNumber).getBytes(MllpClientResource.DEFAULT_CHARSET);
+    }
+
+    /**
+     * Nested class that holds the outcome of a run
+     */
+    public static class Result {
+        final LongAdder messagesSent = new LongAdder();
+        final LongAdder acknowledgementsReceived = new LongAdder();
+        final LongAdder acknowledgementTimeouts = new LongAdder();
+        final LongAdder acknowledgementFailures = new LongAdder();
+        final LongAdder messagesNotSent = new LongAdder();
+        final MllpLatencyHistogram latency = new MllpLatencyHistogram();
+        final MllpLatencyHistogram serviceTime = new MllpLatencyHistogram();
+        final MllpLatencyHistogram sendLag = new MllpLatencyHistogram();
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+        long elapsedNanos;
+
+        void addFailure(Exception failure) {
+            failures.add(failure);
+        }
+
+        public long getMessagesSent() {
+            return messagesSent.sum();
+        }
+
+        public long getAcknowledgementsReceived() {
+            return acknowledgementsReceived.sum();
+        }
+
+        public long getAcknowledgementTimeouts() {
+            return acknowledgementTimeouts.sum();
+        }
+
+        /**
+         * @return the number of messages whose connection was closed before the acknowledgement was received
+         */
+        public long getAcknowledgementFailures() {
+            return acknowledgementFailures.sum();
+        }
+
+        /**
+         * @return the number of scheduled messages that were not sent because their connection failed - they are not
+         *         in the latency histogram
+         */
+        public long getMessagesNotSent() {
+            return messagesNotSent.sum();
+        }
+
+        /**
+         * Get the number of sent messages that were not acknowledged - timeouts and acknowledgement failures.
+         *
+         * @return the number of unacknowledged messages
+         */
+        public long getUnacknowledged() {
+            return getAcknowledgementTimeouts() + getAcknowledgementFailures();
+        }
+
+        /**
+         * @return the time from the scheduled send time of each sent message until its acknowledgement was received,
+         *         in nanoseconds - unacknowledged messages are recorded at the time they timed out or failed, so the
+         *         values above the acknowledgement timeout are lower bounds
+         */
+        public MllpLatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the time from actually writing each acknowledged message - after any wait for a slot - until its
+         *         acknowledgement was received, in nanoseconds - this understates the latency when the sends fall behind
+         *         the schedule
+         */
+        public MllpLatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        /**
+         * @return how far behind the schedule each message was written, including any wait for a slot, in nanoseconds
+         */
+        public MllpLatencyHistogram getSendLag() {
+            return sendLag;
+        }
+
+        /**
+         * @return the exceptions that ended the load on a connection
+         */
+        public List<Exception> getFailures() {
+            synchronized (failures) {
+                return Collections.unmodifiableList(new ArrayList<>(failures));
+            }
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * @return the number of acknowledgements received per second over the run
+         */
+        public double getAchievedRate() {
+            return (0 < elapsedNanos) ? getAcknowledgementsReceived() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("messagesSent=%d acknowledgementsReceived=%d failures=%d elapsed=%dms"
+                    + " latency(ns)=[%s unacknowledged=%d (timeouts=%d) notSent=%d] serviceTime(ns)=[%s] sendLag(ns)=[%s]",
+                getMessagesSent(), getAcknowledgementsReceived(), failures.size(), getElapsedMillis(),
+                latency, getUnacknowledged(), getAcknowledgementTimeouts(), getMessagesNotSent(), serviceTime, sendLag);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only, memory-mapped journal of received messages.
+ *
+ * The journal is written to a directory as a sequence of segments.  Each segment has a data file holding the
+ * payloads of the frames and an index file with a fixed-size record for every frame - the offset and length of the
+ * payload, the ID of the connection that received it, the receive time and the location of MSH-10 within the
+ * payload.  Both files are memory-mapped, so appending a frame is a copy into the page cache, and a new segment is
+ * started when either file is full.
+ *
+ * Use a MllpMessageJournalReader to read the journal back.
+ */
+public class MllpMessageJournal implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    static final String DATA_FILE_SUFFIX = ".data";
+    static final String INDEX_FILE_SUFFIX = ".index";
+    static final String SEGMENT_FILE_FORMAT = "segment-%08d";
+
+    /*
+     * Index record layout - the committed marker is written last, so a reader never sees a partial record.
+     */
+    static final int INDEX_RECORD_SIZE = 40;
+    static final int INDEX_DATA_OFFSET = 0;                 // long
+    static final int INDEX_LENGTH = 8;                      // int
+    static final int INDEX_CONNECTION_ID = 12;              // long
+    static final int INDEX_RECEIVE_TIMESTAMP = 20;          // long
+    static final int INDEX_MESSAGE_CONTROL_ID_OFFSET = 28;  // int - relative to the start of the payload
+    static final int INDEX_MESSAGE_CONTROL_ID_LENGTH = 32;  // int
+    static final int INDEX_COMMITTED = 36;                  // int
+    static final int COMMITTED = 1;
+
+    /**
+     * The number of index records in a segment is the segment size divided by this value.
+     */
+    static final int AVERAGE_MESSAGE_SIZE = 256;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final File directory;
+    final int segmentSize;
+
+    // Only used to find MSH-10 - its output buffer is never written
+    final MllpAcknowledgementBuilder mshScanner = new MllpAcknowledgementBuilder(0);
+
+    int segmentNumber;
+    MappedByteBuffer dataBuffer;
+    MappedByteBuffer indexBuffer;
+
+    long entryCount;
+    boolean closed;
+
+    public MllpMessageJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open a journal.  If the directory already contains a journal, new entries are written to new segments
+     * following the existing ones.
+     *
+     * @param directory   the journal directory - created if it doesn't exist
+     * @param segmentSize the size of the data file of each segment, in bytes
+     *
+     * @throws IOException if the first segment cannot be created
+     */
+    public MllpMessageJournal(File directory, int segmentSize) throws IOException {
+        if (AVERAGE_MESSAGE_SIZE > segmentSize) {
+            throw new IllegalArgumentException("Segment size must be at least " + AVERAGE_MESSAGE_SIZE + " bytes: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        int[] existingSegments = MllpMessageJournalReader.listSegments(directory);
+        segmentNumber = (0 < existingSegments.length) ? existingSegments[existingSegments.length - 1] + 1 : 0;
+        openSegment(segmentSize);
+    }
+
+    /**
+     * Append a received frame to the journal.
+     *
+     * @param connectionId     the ID of the connection that received the frame
+     * @param receiveTimestamp the time the frame was received, in milliseconds since the epoch
+     * @param hl7Message       the bytes containing the payload of the frame
+     * @param offset           the offset of the payload
+     * @param length           the length of the payload
+     *
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized void append(long connectionId, long receiveTimestamp, byte[] hl7Message, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed: " + directory);
+        }
+
+        if (dataBuffer.remaining() < length || INDEX_RECORD_SIZE > indexBuffer.remaining()) {
+            closeSegment();
+            ++segmentNumber;
+            openSegment(Math.max(segmentSize, length));
+        }
+
+        int dataOffset = dataBuffer.position();
+        dataBuffer.put(hl7Message, offset, length);
+
+        int messageControlIdOffset = 0;
+        int messageControlIdLength = 0;
+        if (mshScanner.scanMsh(hl7Message, offset, length)) {
+            messageControlIdOffset = mshScanner.getFieldStart(10) - offset;
+            messageControlIdLength = mshScanner.getFieldLength(10);
+        }
+
+        int indexOffset = indexBuffer.position();
+        indexBuffer.putLong(indexOffset + INDEX_DATA_OFFSET, dataOffset);
+        indexBuffer.putInt(indexOffset + INDEX_LENGTH, length);
+        indexBuffer.putLong(indexOffset + INDEX_CONNECTION_ID, connectionId);
+        indexBuffer.putLong(indexOffset + INDEX_RECEIVE_TIMESTAMP, receiveTimestamp);
+        indexBuffer.putInt(indexOffset + INDEX_MESSAGE_CONTROL_ID_OFFSET, messageControlIdOffset);
+        indexBuffer.putInt(indexOffset + INDEX_MESSAGE_CONTROL_ID_LENGTH, messageControlIdLength);
+        indexBuffer.putInt(indexOffset + INDEX_COMMITTED, COMMITTED);
+        indexBuffer.position(indexOffset + INDEX_RECORD_SIZE);
+
+        ++entryCount;
+    }
+
+    /**
+     * Get the number of entries appended since the journal was opened.
+     *
+     * @return the number of entries
+     */
+    public synchronized long getEntryCount() {
+        return entryCount;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Write the journal to disk and release the mapped segment.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            closeSegment();
+        }
+    }
+
+    private void openSegment(int dataSize) throws IOException {
+        String segmentName = String.format(SEGMENT_FILE_FORMAT, segmentNumber);
+        dataBuffer = map(new File(directory, segmentName + DATA_FILE_SUFFIX), dataSize);
+        indexBuffer = map(new File(directory, segmentName + INDEX_FILE_SUFFIX), (dataSize / AVERAGE_MESSAGE_SIZE) * INDEX_RECORD_SIZE);
+        log.info("Opened journal segment {} in {}", segmentName, directory);
+    }
+
+    private void closeSegment() {
+        if (null != dataBuffer) {
+            dataBuffer.force();
+            indexBuffer.force();
+            dataBuffer = null;
+            indexBuffer = null;
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
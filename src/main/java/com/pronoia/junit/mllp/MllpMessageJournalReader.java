@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams the entries of a MllpMessageJournal.
+ *
+ * Segments are mapped one at a time as the iteration reaches them, and the payload of an entry is only copied out of
+ * the mapped data file when it is requested, so a journal much larger than the heap can be verified.
+ */
+public class MllpMessageJournalReader implements Iterable<MllpMessageJournalReader.Entry>, Closeable {
+    final File directory;
+
+    public MllpMessageJournalReader(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Iterator<Entry> iterator() {
+        return new EntryIterator(listSegments(directory));
+    }
+
+    /**
+     * Count the entries in the journal, without reading the payloads.
+     *
+     * @return the number of entries
+     */
+    public long count() {
+        long count = 0;
+        for (Iterator<Entry> entries = iterator(); entries.hasNext(); entries.next()) {
+            ++count;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        // Mapped segments are released when they are no longer referenced
+    }
+
+    static int[] listSegments(File directory) {
+        String[] dataFiles = directory.list((dir, name) -> name.startsWith("segment-") && name.endsWith(MllpMessageJournal.DATA_FILE_SUFFIX));
+        if (null == dataFiles) {
+            return new int[0];
+        }
+
+        int[] segments = new int[dataFiles.length];
+        for (int i = 0; i < dataFiles.length; ++i) {
+            String name = dataFiles[i];
+            segments[i] = Integer.parseInt(name.substring("segment-".length(), name.length() - MllpMessageJournal.DATA_FILE_SUFFIX.length()));
+        }
+        Arrays.sort(segments);
+
+        return segments;
+    }
+
+    static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        }
+    }
+
+    /**
+     * An entry of the journal
+     */
+    public static class Entry {
+        final int segment;
+        final MappedByteBuffer dataBuffer;
+        final int dataOffset;
+        final int length;
+        final long connectionId;
+        final long receiveTimestamp;
+        final int messageControlIdOffset;
+        final int messageControlIdLength;
+
+        Entry(int segment, MappedByteBuffer dataBuffer, MappedByteBuffer indexBuffer, int indexOffset) {
+            this.segment = segment;
+            this.dataBuffer = dataBuffer;
+            this.dataOffset = (int) indexBuffer.getLong(indexOffset + MllpMessageJournal.INDEX_DATA_OFFSET);
+            this.length = indexBuffer.getInt(indexOffset + MllpMessageJournal.INDEX_LENGTH);
+            this.connectionId = indexBuffer.getLong(indexOffset + MllpMessageJournal.INDEX_CONNECTION_ID);
+            this.receiveTimestamp = indexBuffer.getLong(indexOffset + MllpMessageJournal.INDEX_RECEIVE_TIMESTAMP);
+            this.messageControlIdOffset = indexBuffer.getInt(indexOffset + MllpMessageJournal.INDEX_MESSAGE_CONTROL_ID_OFFSET);
+            this.messageControlIdLength = indexBuffer.getInt(indexOffset + MllpMessageJournal.INDEX_MESSAGE_CONTROL_ID_LENGTH);
+        }
+
+        public int getSegment() {
+            return segment;
+        }
+
+        public int getOffset() {
+            return dataOffset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getConnectionId() {
+            return connectionId;
+        }
+
+        public long getReceiveTimestamp() {
+            return receiveTimestamp;
+        }
+
+        /**
+         * Get the message control ID (MSH-10) of the message.
+         *
+         * @return the message control ID, or an empty String if the payload does not have a MSH segment
+         */
+        public String getMessageControlId() {
+            return new String(copy(dataOffset + messageControlIdOffset, messageControlIdLength), MllpClientResource.DEFAULT_CHARSET);
+        }
+
+        /**
+         * Copy the payload of the frame out of the journal.
+         *
+         * @return the payload bytes
+         */
+        public byte[] getPayload() {
+            return copy(dataOffset, length);
+        }
+
+        private byte[] copy(int offset, int count) {
+            byte[] bytes = new byte[count];
+            ByteBuffer source = dataBuffer.duplicate();
+            source.position(offset);
+            source.get(bytes);
+            return bytes;
+        }
+    }
+
+    class EntryIterator implements Iterator<Entry> {
+        final int[] segments;
+        int segmentIndex = -1;
+
+        MappedByteBuffer dataBuffer;
+        MappedByteBuffer indexBuffer;
+        int indexOffset;
+
+        EntryIterator(int[] segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (null == indexBuffer || !isCommitted()) {
+                if (++segmentIndex >= segments.length) {
+                    indexBuffer = null;
+                    return false;
+                }
+                openSegment(segments[segmentIndex]);
+            }
+            return true;
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry entry = new Entry(segments[segmentIndex], dataBuffer, indexBuffer, indexOffset);
+            indexOffset += MllpMessageJournal.INDEX_RECORD_SIZE;
+            return entry;
+        }
+
+        private boolean isCommitted() {
+            return indexOffset + MllpMessageJournal.INDEX_RECORD_SIZE <= indexBuffer.capacity()
+                && MllpMessageJournal.COMMITTED == indexBuffer.getInt(indexOffset + MllpMessageJournal.INDEX_COMMITTED);
+        }
+
+        private void openSegment(int segment) {
+            String segmentName = String.format(MllpMessageJournal.SEGMENT_FILE_FORMAT, segment);
+            try {
+                dataBuffer = map(new File(directory, segmentName + MllpMessageJournal.DATA_FILE_SUFFIX));
+                indexBuffer = map(new File(directory, segmentName + MllpMessageJournal.INDEX_FILE_SUFFIX));
+                indexOffset = 0;
+            } catch (IOException ioEx) {
+                throw new MllpJUnitResourceException("Unable to open journal segment " + segmentName + " in " + directory, ioEx);
+            }
+        }
+    }
+}
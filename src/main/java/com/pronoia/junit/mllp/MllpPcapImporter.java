@@ -0,0 +1,593 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts MLLP sessions from pcap and pcapng packet captures.
+ *
+ * Ethernet (with VLAN tags), loopback, raw IP and Linux cooked captures of IPv4 and IPv6 are supported.  The TCP
+ * segments of each connection to the server port are reassembled in sequence order - retransmissions are dropped and
+ * out-of-order segments are held until the gap is filled - and the reassembled streams are decoded with a
+ * MllpFrameDecoder.  Fragmented IP packets are skipped.
+ */
+class MllpPcapImporter {
+    static final int PCAP_MAGIC_MICROSECONDS = 0xa1b2c3d4;
+    static final int PCAP_MAGIC_NANOSECONDS = 0xa1b23c4d;
+    static final int PCAP_HEADER_SIZE = 24;
+    static final int PCAP_RECORD_HEADER_SIZE = 16;
+
+    static final int PCAPNG_SECTION_HEADER_BLOCK = 0x0a0d0d0a;
+    static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+    static final int PCAPNG_INTERFACE_DESCRIPTION_BLOCK = 1;
+    static final int PCAPNG_OBSOLETE_PACKET_BLOCK = 2;
+    static final int PCAPNG_SIMPLE_PACKET_BLOCK = 3;
+    static final int PCAPNG_ENHANCED_PACKET_BLOCK = 6;
+    static final int PCAPNG_OPTION_END = 0;
+    static final int PCAPNG_OPTION_TIMESTAMP_RESOLUTION = 9;
+
+    static final int LINKTYPE_NULL = 0;
+    static final int LINKTYPE_ETHERNET = 1;
+    static final int LINKTYPE_RAW = 101;
+    static final int LINKTYPE_LOOP = 108;
+    static final int LINKTYPE_LINUX_SLL = 113;
+    static final int LINKTYPE_IPV4 = 228;
+    static final int LINKTYPE_IPV6 = 229;
+    static final int LINKTYPE_LINUX_SLL2 = 276;
+
+    static final int ETHERTYPE_IPV4 = 0x0800;
+    static final int ETHERTYPE_IPV6 = 0x86dd;
+    static final int ETHERTYPE_VLAN = 0x8100;
+    static final int ETHERTYPE_QINQ = 0x88a8;
+
+    static final int IP_PROTOCOL_TCP = 6;
+
+    static final int TCP_FIN = 0x01;
+    static final int TCP_SYN = 0x02;
+    static final int TCP_RST = 0x04;
+    static final int TCP_ACK = 0x10;
+
+    // Out-of-order segments held per direction while waiting for a missing segment
+    static final int MAXIMUM_PENDING_SEGMENTS = 1024;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final int serverPort;
+
+    final Map<ConnectionKey, TcpConnection> connections = new HashMap<>();
+    final List<MllpSessionEvent> events = new ArrayList<>();
+    long connectionIdCounter;
+    long firstPacketNanos = -1;
+    long lastPacketNanos;
+    long packetCount;
+
+    MllpPcapImporter(int serverPort) {
+        if (0 >= serverPort || 0xffff < serverPort) {
+            throw new IllegalArgumentException("Invalid server port: " + serverPort);
+        }
+        this.serverPort = serverPort;
+    }
+
+    MllpSessionRecording importCapture(File captureFile) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(captureFile, "r")) {
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        }
+        if (4 > buffer.limit()) {
+            throw new IOException("Not a pcap or pcapng capture: " + captureFile);
+        }
+
+        int magic = buffer.order(ByteOrder.BIG_ENDIAN).getInt(0);
+        if (PCAPNG_SECTION_HEADER_BLOCK == magic) {
+            readPcapng(buffer);
+        } else if (isPcapMagic(magic)) {
+            readPcap(buffer);
+        } else if (isPcapMagic(Integer.reverseBytes(magic))) {
+            readPcap(buffer.order(ByteOrder.LITTLE_ENDIAN));
+        } else {
+            throw new IOException("Not a pcap or pcapng capture: " + captureFile);
+        }
+
+        // A connection that was closed by only one side is disconnected when that side closed it
+        for (TcpConnection connection : connections.values()) {
+            if (0 <= connection.finNanos) {
+                addEvent(MllpSessionEvent.Type.DISCONNECT, connection.finNanos, connection.id, null);
+            }
+        }
+        connections.clear();
+
+        // Stable, so the events of a packet keep their order
+        events.sort(Comparator.comparingLong(MllpSessionEvent::getTimestampNanos));
+
+        log.info("Imported {} events on {} connections from {} packets in {}", events.size(), connectionIdCounter, packetCount, captureFile);
+
+        return new MllpSessionRecording((0 <= firstPacketNanos) ? firstPacketNanos / 1000000 : 0, events);
+    }
+
+    private static boolean isPcapMagic(int magic) {
+        return PCAP_MAGIC_MICROSECONDS == magic || PCAP_MAGIC_NANOSECONDS == magic;
+    }
+
+    private void readPcap(ByteBuffer buffer) throws IOException {
+        if (PCAP_HEADER_SIZE > buffer.limit()) {
+            throw new IOException("Truncated pcap header");
+        }
+        boolean nanosecondTimestamps = PCAP_MAGIC_NANOSECONDS == buffer.getInt(0);
+        int linkType = buffer.getInt(20) & 0xffff;
+
+        int position = PCAP_HEADER_SIZE;
+        while (position + PCAP_RECORD_HEADER_SIZE <= buffer.limit()) {
+            long seconds = buffer.getInt(position) & 0xffffffffL;
+            long fraction = buffer.getInt(position + 4) & 0xffffffffL;
+            int capturedLength = buffer.getInt(position + 8);
+            int dataOffset = position + PCAP_RECORD_HEADER_SIZE;
+            if (0 > capturedLength || dataOffset + capturedLength > buffer.limit()) {
+                log.warn("Capture is truncated after {} packets", packetCount);
+                break;
+            }
+            long epochNanos = seconds * 1000000000L + (nanosecondTimestamps ? fraction : fraction * 1000L);
+            packet(linkType, epochNanos, buffer, dataOffset, dataOffset + capturedLength);
+            position = dataOffset + capturedLength;
+        }
+    }
+
+    private void readPcapng(ByteBuffer buffer) throws IOException {
+        List<int[]> interfaces = new ArrayList<>();     // {link type} - indexed by interface ID
+        List<long[]> resolutions = new ArrayList<>();   // {timestamp units per second}
+
+        int position = 0;
+        while (position + 12 <= buffer.limit()) {
+            // The section header block type reads the same in both byte orders
+            int blockType = buffer.getInt(position);
+            if (PCAPNG_SECTION_HEADER_BLOCK == blockType) {
+                boolean bigEndian = PCAPNG_BYTE_ORDER_MAGIC == buffer.order(ByteOrder.BIG_ENDIAN).getInt(position + 8);
+                buffer.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                interfaces.clear();
+                resolutions.clear();
+            }
+            int blockLength = buffer.getInt(position + 4);
+            if (12 > blockLength || position + blockLength > buffer.limit()) {
+                log.warn("Capture is truncated after {} packets", packetCount);
+                break;
+            }
+            int blockEnd = position + blockLength - 4;
+
+            switch (blockType) {
+            case PCAPNG_INTERFACE_DESCRIPTION_BLOCK:
+                interfaces.add(new int[] {buffer.getShort(position + 8) & 0xffff});
+                resolutions.add(new long[] {timestampUnitsPerSecond(buffer, position + 16, blockEnd)});
+                break;
+            case PCAPNG_ENHANCED_PACKET_BLOCK:
+            case PCAPNG_OBSOLETE_PACKET_BLOCK: {
+                int interfaceId = (PCAPNG_ENHANCED_PACKET_BLOCK == blockType) ? buffer.getInt(position + 8) : buffer.getShort(position + 8) & 0xffff;
+                if (0 > interfaceId || interfaces.size() <= interfaceId) {
+                    break;
+                }
+                long timestamp = ((buffer.getInt(position + 12) & 0xffffffffL) << 32) | (buffer.getInt(position + 16) & 0xffffffffL);
+                int capturedLength = buffer.getInt(position + 20);
+                int dataOffset = position + 28;
+                if (0 <= capturedLength && dataOffset + capturedLength <= blockEnd) {
+                    packet(interfaces.get(interfaceId)[0], toNanos(timestamp, resolutions.get(interfaceId)[0]), buffer, dataOffset, dataOffset + capturedLength);
+                }
+                break;
+            }
+            case PCAPNG_SIMPLE_PACKET_BLOCK: {
+                // Simple packets do not have a timestamp - use the time of the previous packet
+                if (interfaces.isEmpty()) {
+                    break;
+                }
+                int dataOffset = position + 12;
+                int capturedLength = Math.min(buffer.getInt(position + 8), blockEnd - dataOffset);
+                packet(interfaces.get(0)[0], lastPacketNanos, buffer, dataOffset, dataOffset + capturedLength);
+                break;
+            }
+            default:
+                // Name resolution, statistics and custom blocks are not needed
+            }
+
+            position += blockLength;
+        }
+    }
+
+    private static long timestampUnitsPerSecond(ByteBuffer buffer, int position, int end) {
+        while (position + 4 <= end) {
+            int code = buffer.getShort(position) & 0xffff;
+            int length = buffer.getShort(position + 2) & 0xffff;
+            if (PCAPNG_OPTION_END == code) {
+                break;
+            }
+            if (PCAPNG_OPTION_TIMESTAMP_RESOLUTION == code && 1 <= length) {
+                int resolution = buffer.get(position + 4) & 0xff;
+                int exponent = resolution & 0x7f;
+                if (0 == (resolution & 0x80)) {
+                    long unitsPerSecond = 1;
+                    for (int i = 0; i < exponent && i < 18; ++i) {
+                        unitsPerSecond *= 10;
+                    }
+                    return unitsPerSecond;
+                }
+                return 1L << Math.min(exponent, 62);
+            }
+            position += 4 + ((length + 3) & ~3);
+        }
+        return 1000000L;
+    }
+
+    private static long toNanos(long timestamp, long unitsPerSecond) {
+        if (1000000000L == unitsPerSecond) {
+            return timestamp;
+        }
+        long seconds = timestamp / unitsPerSecond;
+        long remainder = timestamp % unitsPerSecond;
+        return seconds * 1000000000L + (long) (remainder * (1000000000.0 / unitsPerSecond));
+    }
+
+    void packet(int linkType, long epochNanos, ByteBuffer buffer, int offset, int end) throws IOException {
+        ++packetCount;
+        if (0 > firstPacketNanos) {
+            firstPacketNanos = epochNanos;
+        }
+        lastPacketNanos = epochNanos;
+
+        switch (linkType) {
+        case LINKTYPE_ETHERNET: {
+            if (14 > end - offset) {
+                return;
+            }
+            int etherType = unsignedShort(buffer, offset + 12);
+            int position = offset + 14;
+            while ((ETHERTYPE_VLAN == etherType || ETHERTYPE_QINQ == etherType) && position + 4 <= end) {
+                etherType = unsignedShort(buffer, position + 2);
+                position += 4;
+            }
+            if (ETHERTYPE_IPV4 == etherType) {
+                ipv4(epochNanos, buffer, position, end);
+            } else if (ETHERTYPE_IPV6 == etherType) {
+                ipv6(epochNanos, buffer, position, end);
+            }
+            break;
+        }
+        case LINKTYPE_NULL:
+        case LINKTYPE_LOOP: {
+            if (4 > end - offset) {
+                return;
+            }
+            // The address family is in the byte order of the capturing host for LINKTYPE_NULL
+            int family = buffer.get(offset) & 0xff | buffer.get(offset + 3) & 0xff;
+            if (2 == family) {
+                ipv4(epochNanos, buffer, offset + 4, end);
+            } else if (24 == family || 28 == family || 30 == family) {
+                ipv6(epochNanos, buffer, offset + 4, end);
+            }
+            break;
+        }
+        case LINKTYPE_RAW:
+        case LINKTYPE_IPV4:
+        case LINKTYPE_IPV6:
+            ip(epochNanos, buffer, offset, end);
+            break;
+        case LINKTYPE_LINUX_SLL:
+            if (16 <= end - offset) {
+                etherType(epochNanos, unsignedShort(buffer, offset + 14), buffer, offset + 16, end);
+            }
+            break;
+        case LINKTYPE_LINUX_SLL2:
+            if (20 <= end - offset) {
+                etherType(epochNanos, unsignedShort(buffer, offset), buffer, offset + 20, end);
+            }
+            break;
+        default:
+            if (1 == packetCount) {
+                log.warn("Unsupported link type {} - packets are skipped", linkType);
+            }
+        }
+    }
+
+    private void etherType(long epochNanos, int etherType, ByteBuffer buffer, int offset, int end) throws IOException {
+        if (ETHERTYPE_IPV4 == etherType) {
+            ipv4(epochNanos, buffer, offset, end);
+        } else if (ETHERTYPE_IPV6 == etherType) {
+            ipv6(epochNanos, buffer, offset, end);
+        }
+    }
+
+    private void ip(long epochNanos, ByteBuffer buffer, int offset, int end) throws IOException {
+        if (offset >= end) {
+            return;
+        }
+        int version = (buffer.get(offset) & 0xff) >> 4;
+        if (4 == version) {
+            ipv4(epochNanos, buffer, offset, end);
+        } else if (6 == version) {
+            ipv6(epochNanos, buffer, offset, end);
+        }
+    }
+
+    private void ipv4(long epochNanos, ByteBuffer buffer, int offset, int end) throws IOException {
+        if (20 > end - offset) {
+            return;
+        }
+        int headerLength = (buffer.get(offset) & 0x0f) * 4;
+        int totalLength = unsignedShort(buffer, offset + 2);
+        int fragment = unsignedShort(buffer, offset + 6) & 0x3fff;
+        if (0 != fragment || IP_PROTOCOL_TCP != (buffer.get(offset + 9) & 0xff)) {
+            return;
+        }
+        // A total length of 0 is reported for segmentation offload - use the captured length
+        int ipEnd = (0 == totalLength) ? end : Math.min(end, offset + totalLength);
+        tcp(epochNanos, bytes(buffer, offset + 12, 4), bytes(buffer, offset + 16, 4), buffer, offset + headerLength, ipEnd);
+    }
+
+    private void ipv6(long epochNanos, ByteBuffer buffer, int offset, int end) throws IOException {
+        if (40 > end - offset) {
+            return;
+        }
+        int payloadLength = unsignedShort(buffer, offset + 4);
+        int nextHeader = buffer.get(offset + 6) & 0xff;
+        int position = offset + 40;
+        int ipEnd = (0 == payloadLength) ? end : Math.min(end, position + payloadLength);
+
+        // Skip the hop-by-hop, routing, destination options and authentication headers
+        while (0 == nextHeader || 43 == nextHeader || 60 == nextHeader || 51 == nextHeader) {
+            if (position + 2 > ipEnd) {
+                return;
+            }
+            int headerLength = (51 == nextHeader) ? ((buffer.get(position + 1) & 0xff) + 2) * 4 : ((buffer.get(position + 1) & 0xff) + 1) * 8;
+            nextHeader = buffer.get(position) & 0xff;
+            position += headerLength;
+        }
+        if (IP_PROTOCOL_TCP != nextHeader) {
+            return;
+        }
+        tcp(epochNanos, bytes(buffer, offset + 8, 16), bytes(buffer, offset + 24, 16), buffer, position, ipEnd);
+    }
+
+    private void tcp(long epochNanos, byte[] sourceAddress, byte[] destinationAddress, ByteBuffer buffer, int offset, int end) throws IOException {
+        if (20 > end - offset) {
+            return;
+        }
+        int sourcePort = unsignedShort(buffer, offset);
+        int destinationPort = unsignedShort(buffer, offset + 2);
+        long sequenceNumber = (long) unsignedShort(buffer, offset + 4) << 16 | unsignedShort(buffer, offset + 6);
+        int dataOffset = ((buffer.get(offset + 12) & 0xff) >> 4) * 4;
+        int flags = buffer.get(offset + 13) & 0xff;
+
+        boolean toServer;
+        ConnectionKey key;
+        if (serverPort == destinationPort) {
+            toServer = true;
+            key = new ConnectionKey(sourceAddress, sourcePort, destinationAddress);
+        } else if (serverPort == sourcePort) {
+            toServer = false;
+            key = new ConnectionKey(destinationAddress, destinationPort, sourceAddress);
+        } else {
+            return;
+        }
+
+        long timestampNanos = epochNanos - firstPacketNanos;
+        int payloadStart = offset + dataOffset;
+        int payloadLength = Math.max(0, end - payloadStart);
+        boolean syn = 0 != (flags & TCP_SYN);
+
+        TcpConnection connection = connections.get(key);
+        if (null != connection && syn && toServer && 0 == (flags & TCP_ACK)
+            && (connection.toServer.started || connection.toClient.started || 0 <= connection.finNanos)) {
+            // The client port was reused for a new connection
+            closeConnection(key, connection, timestampNanos);
+            connection = null;
+        }
+        if (null == connection) {
+            if (!syn && 0 == payloadLength) {
+                // The end of a connection that was not captured, or was already closed
+                return;
+            }
+            connection = new TcpConnection(++connectionIdCounter);
+            connections.put(key, connection);
+            addEvent(MllpSessionEvent.Type.CONNECT, timestampNanos, connection.id, null);
+        }
+
+        HalfStream halfStream = toServer ? connection.toServer : connection.toClient;
+        if (syn) {
+            halfStream.synchronize(sequenceNumber + 1);
+        }
+        if (0 < payloadLength) {
+            byte[] payload = new byte[payloadLength];
+            for (int i = 0; i < payloadLength; ++i) {
+                payload[i] = buffer.get(payloadStart + i);
+            }
+            halfStream.accept(sequenceNumber, payload, timestampNanos);
+        }
+
+        if (0 != (flags & TCP_RST)) {
+            closeConnection(key, connection, timestampNanos);
+        } else if (0 != (flags & TCP_FIN)) {
+            if (toServer) {
+                connection.clientFin = true;
+            } else {
+                connection.serverFin = true;
+            }
+            if (0 > connection.finNanos) {
+                connection.finNanos = timestampNanos;
+            }
+            if (connection.clientFin && connection.serverFin) {
+                closeConnection(key, connection, timestampNanos);
+            }
+        }
+    }
+
+    private void closeConnection(ConnectionKey key, TcpConnection connection, long timestampNanos) {
+        connections.remove(key);
+        addEvent(MllpSessionEvent.Type.DISCONNECT, timestampNanos, connection.id, null);
+    }
+
+    void addEvent(MllpSessionEvent.Type type, long timestampNanos, long connectionId, byte[] payload) {
+        events.add(new MllpSessionEvent(type, timestampNanos, connectionId, payload));
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset) & 0xff) << 8 | buffer.get(offset + 1) & 0xff;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Nested class that identifies a TCP connection by the client address and port, and the server address
+     */
+    static class ConnectionKey {
+        final byte[] clientAddress;
+        final int clientPort;
+        final byte[] serverAddress;
+        final int hash;
+
+        ConnectionKey(byte[] clientAddress, int clientPort, byte[] serverAddress) {
+            this.clientAddress = clientAddress;
+            this.clientPort = clientPort;
+            this.serverAddress = serverAddress;
+            this.hash = 31 * (31 * Arrays.hashCode(clientAddress) + clientPort) + Arrays.hashCode(serverAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ConnectionKey)) {
+                return false;
+            }
+            ConnectionKey other = (ConnectionKey) obj;
+            return clientPort == other.clientPort && Arrays.equals(clientAddress, other.clientAddress) && Arrays.equals(serverAddress, other.serverAddress);
+        }
+    }
+
+    /**
+     * Nested class holding the reassembly state of both directions of a TCP connection
+     */
+    class TcpConnection {
+        final long id;
+        final HalfStream toServer;
+        final HalfStream toClient;
+        boolean clientFin;
+        boolean serverFin;
+        long finNanos = -1;
+
+        TcpConnection(long id) {
+            this.id = id;
+            this.toServer = new HalfStream(id, MllpSessionEvent.Type.FRAME_TO_SERVER);
+            this.toClient = new HalfStream(id, MllpSessionEvent.Type.FRAME_TO_CLIENT);
+        }
+    }
+
+    /**
+     * Nested class that reassembles one direction of a TCP connection and decodes the MLLP frames.
+     *
+     * Sequence numbers are unwrapped to 64 bits relative to the next expected byte, so wrap-around is handled.
+     */
+    class HalfStream {
+        final long connectionId;
+        final MllpSessionEvent.Type frameType;
+        final MllpFrameDecoder decoder = new MllpFrameDecoder();
+        final TreeMap<Long, byte[]> pendingSegments = new TreeMap<>();
+
+        boolean started;
+        long nextSequence = -1;
+
+        HalfStream(long connectionId, MllpSessionEvent.Type frameType) {
+            this.connectionId = connectionId;
+            this.frameType = frameType;
+        }
+
+        void synchronize(long sequenceNumber) {
+            if (0 > nextSequence) {
+                nextSequence = sequenceNumber & 0xffffffffL;
+            }
+        }
+
+        void accept(long sequenceNumber, byte[] payload, long timestampNanos) throws IOException {
+            started = true;
+            if (0 > nextSequence) {
+                // The connection was open when the capture started
+                nextSequence = sequenceNumber;
+            }
+            long position = nextSequence + (int) (sequenceNumber - (nextSequence & 0xffffffffL));
+            if (position > nextSequence) {
+                if (MAXIMUM_PENDING_SEGMENTS > pendingSegments.size()) {
+                    pendingSegments.putIfAbsent(position, payload);
+                }
+                return;
+            }
+
+            deliver(position, payload, timestampNanos);
+            for (Iterator<Map.Entry<Long, byte[]>> pending = pendingSegments.entrySet().iterator(); pending.hasNext(); ) {
+                Map.Entry<Long, byte[]> segment = pending.next();
+                if (segment.getKey() > nextSequence) {
+                    break;
+                }
+                pending.remove();
+                deliver(segment.getKey(), segment.getValue(), timestampNanos);
+            }
+        }
+
+        private void deliver(long position, byte[] payload, long timestampNanos) throws IOException {
+            int skip = (int) Math.min(nextSequence - position, payload.length);
+            if (skip == payload.length) {
+                // Retransmission
+                return;
+            }
+            nextSequence += payload.length - skip;
+
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(payload, skip, payload.length - skip);
+            while (0 < inputStream.available()) {
+                decoder.fill(inputStream);
+                for (int result = decoder.decode(); MllpFrameDecoder.NEED_MORE_DATA != result; result = decoder.decode()) {
+                    if (MllpFrameDecoder.FRAME == result) {
+                        byte[] frame = Arrays.copyOfRange(decoder.getBuffer(), decoder.getFrameOffset(), decoder.getFrameOffset() + decoder.getFrameLength());
+                        addEvent(frameType, timestampNanos, connectionId, frame);
+                    }
+                }
+            }
+        }
+    }
+}
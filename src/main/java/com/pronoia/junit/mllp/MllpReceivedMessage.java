@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.charset.Charset;
+
+/**
+ * A HL7 message received by a MllpServerResource.
+ */
+public class MllpReceivedMessage {
+    final byte[] payload;
+    final long receiveTimestamp;
+    final long connectionId;
+
+    MllpReceivedMessage(byte[] payload, long receiveTimestamp, long connectionId) {
+        this.payload = payload;
+        this.receiveTimestamp = receiveTimestamp;
+        this.connectionId = connectionId;
+    }
+
+    /**
+     * Get the payload of the MLLP frame, as received.
+     *
+     * @return the payload bytes
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public String getPayload(Charset charset) {
+        return new String(payload, charset);
+    }
+
+    /**
+     * Get the time the frame was received.
+     *
+     * @return the receive time, in milliseconds since the epoch
+     */
+    public long getReceiveTimestamp() {
+        return receiveTimestamp;
+    }
+
+    /**
+     * Get the ID of the connection that received the frame.  IDs are assigned in the order the connections are
+     * accepted, starting at 1.
+     *
+     * @return the connection ID
+     */
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    @Override
+    public String toString() {
+        return getPayload(MllpClientResource.DEFAULT_CHARSET).replace('\r', '\n');
+    }
+}
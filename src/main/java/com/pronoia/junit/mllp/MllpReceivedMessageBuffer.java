@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, lock-free ring buffer of received messages.
+ *
+ * Connection handlers add messages without taking a lock - each slot carries a sequence number that is claimed with
+ * a compare-and-set, so handlers only contend when they claim the same slot.  When the buffer is full, new messages
+ * are dropped and counted.
+ *
+ * Threads waiting for messages block on a monitor.  Handlers only take the monitor to wake them when a thread is
+ * actually waiting, so the monitor does not add contention while messages are received.
+ */
+class MllpReceivedMessageBuffer {
+    final int capacity;
+    final AtomicReferenceArray<MllpReceivedMessage> elements;
+    final AtomicLongArray sequences;
+
+    final AtomicLong tail = new AtomicLong();
+    final AtomicLong head = new AtomicLong();
+    final AtomicLong published = new AtomicLong();
+    final LongAdder dropped = new LongAdder();
+
+    final Object monitor = new Object();
+    final AtomicInteger waiters = new AtomicInteger();
+
+    MllpReceivedMessageBuffer(int capacity) {
+        if (1 > capacity) {
+            throw new IllegalArgumentException("Capacity must be greater than 0: " + capacity);
+        }
+        this.capacity = capacity;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add a message to the buffer.
+     *
+     * @param message the received message
+     *
+     * @return true if the message was added; false if the buffer is full and the message was dropped
+     */
+    boolean offer(MllpReceivedMessage message) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position % capacity);
+            long difference = sequences.get(index) - position;
+            if (0 == difference) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, message);
+                    sequences.set(index, position + 1);
+                    published.incrementAndGet();
+                    if (0 < waiters.get()) {
+                        synchronized (monitor) {
+                            monitor.notifyAll();
+                        }
+                    }
+                    return true;
+                }
+                position = tail.get();
+            } else if (0 > difference) {
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest message from the buffer.
+     *
+     * @return the oldest message, or null if the buffer is empty
+     */
+    MllpReceivedMessage poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) (position % capacity);
+            long difference = sequences.get(index) - (position + 1);
+            if (0 == difference) {
+                if (head.compareAndSet(position, position + 1)) {
+                    MllpReceivedMessage message = elements.get(index);
+                    elements.set(index, null);
+                    sequences.set(index, position + capacity);
+                    return message;
+                }
+                position = head.get();
+            } else if (0 > difference) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Remove all the messages from the buffer.
+     *
+     * @return the removed messages, oldest first
+     */
+    List<MllpReceivedMessage> drain() {
+        List<MllpReceivedMessage> messages = new ArrayList<>(size());
+        MllpReceivedMessage message;
+        while (null != (message = poll())) {
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Get the number of messages in the buffer.
+     *
+     * @return the number of messages in the buffer
+     */
+    int size() {
+        return (int) Math.max(0, published.get() - head.get());
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Wait until the buffer holds at least a number of messages.
+     *
+     * @param messageCount the number of messages
+     * @param timeout      the maximum time to wait
+     * @param unit         the unit of the timeout
+     *
+     * @return true if the buffer holds at least messageCount messages; false if the timeout expired
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    boolean await(int messageCount, long timeout, TimeUnit unit) throws InterruptedException {
+        if (size() >= messageCount) {
+            return true;
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiters.incrementAndGet();
+        try {
+            synchronized (monitor) {
+                while (size() < messageCount) {
+                    long remaining = deadline - System.nanoTime();
+                    if (0 >= remaining) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+                }
+                return true;
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+}
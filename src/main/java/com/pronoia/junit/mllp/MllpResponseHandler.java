@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Produces the responses of a MllpServerResource in place of the generated acknowledgements.
+ *
+ * Handlers are called on the response handler executor, never on the threads reading from the connections, and the
+ * responses are sent in the order the messages were received on each connection, however long each handler takes to
+ * complete.  The MLLP envelope and out-of-band data are added by the resource, so the envelope fault-injection
+ * settings and the acknowledgement delay still apply; the delay starts when the handler completes.
+ *
+ * If the handler throws an exception or the stage completes exceptionally, an application error acknowledgement (AE)
+ * is sent instead.
+ *
+ * Example - answer queries from a slow back-end on its own thread pool:
+ * <pre>
+ *     mllpServer.setResponseHandler((hl7Message, connectionId) -&gt; CompletableFuture.supplyAsync(() -&gt; lookup(hl7Message), backEndPool));
+ * </pre>
+ */
+@FunctionalInterface
+public interface MllpResponseHandler {
+    /**
+     * Handle a received HL7 message.
+     *
+     * @param hl7Message   the HL7 message, without the MLLP envelope - the array is not used by the resource after the
+     *                     call, so the handler can keep it
+     * @param connectionId the id of the connection the message was received on
+     *
+     * @return a stage that completes with the HL7 response, without the MLLP envelope - completing with null (or
+     *         returning null) sends nothing
+     *
+     * @throws Exception if the message cannot be handled
+     */
+    CompletionStage<byte[]> handleMessage(byte[] hl7Message, long connectionId) throws Exception;
+}
@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The responses of a single connection that are waiting to be sent.
+ *
+ * Each response is due at a time determined by its delay, but never before the response to an earlier message, so
+ * the responses are always sent in the order they were scheduled.  The shared scheduler only waits for the responses to
+ * become due - it hands the drain to the write executor of the connection, so a connection that is slow to write (or
+ * throttled) never delays the responses of another connection.  At most one drain is scheduled or running at any time,
+ * and responses are passed to the writer while holding the drain lock, so the order is kept.
+ *
+ * A response can also be reserved before its bytes are known - used for responses produced asynchronously by a
+ * MllpResponseHandler.  The reserved response holds its place in the queue, and the responses after it wait until it
+ * is completed.
+ */
+class MllpScheduledResponses {
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final ScheduledExecutorService scheduler;
+    final Executor writeExecutor;
+    final Writer writer;
+
+    final ArrayDeque<Response> pending = new ArrayDeque<>();
+    final Object drainLock = new Object();
+
+    long lastDueNanos = Long.MIN_VALUE;
+    boolean drainScheduled;
+    boolean closeScheduled;
+    boolean discarded;
+
+    /**
+     * @param scheduler     the shared scheduler that waits for responses to become due - no responses are written on it
+     * @param writeExecutor the executor of the connection that writes the responses
+     * @param writer        writes a response - called on the write executor
+     */
+    MllpScheduledResponses(ScheduledExecutorService scheduler, Executor writeExecutor, Writer writer) {
+        this.scheduler = scheduler;
+        this.writeExecutor = writeExecutor;
+        this.writer = writer;
+    }
+
+    /**
+     * Schedule a response.
+     *
+     * @param bytes        the bytes to send - may be null if nothing should be sent
+     * @param receiveNanos the System.nanoTime() the message was received
+     * @param delayNanos   the minimum time from now until the response is sent
+     * @param close        true if the connection should be closed after the response is sent
+     */
+    void schedule(byte[] bytes, long receiveNanos, long delayNanos, boolean close) {
+        long now = System.nanoTime();
+        synchronized (pending) {
+            if (closeScheduled || discarded) {
+                return;
+            }
+            long dueNanos = now + Math.max(0, delayNanos);
+            if (Long.MIN_VALUE != lastDueNanos && dueNanos - lastDueNanos < 0) {
+                dueNanos = lastDueNanos;
+            }
+            lastDueNanos = dueNanos;
+            pending.add(new Response(bytes, receiveNanos, dueNanos, close));
+            if (close) {
+                closeScheduled = true;
+            }
+            if (!drainScheduled) {
+                scheduleDrain(dueNanos - now);
+            }
+        }
+    }
+
+    /**
+     * Reserve the place of a response that will be completed later.
+     *
+     * @param receiveNanos the System.nanoTime() the message was received
+     * @param close        true if the connection should be closed after the response is sent
+     *
+     * @return the reserved response, or null if the connection is closing or the responses were discarded
+     */
+    Response reserve(long receiveNanos, boolean close) {
+        synchronized (pending) {
+            if (closeScheduled || discarded) {
+                return null;
+            }
+            Response response = new Response(null, receiveNanos, 0, close);
+            response.ready = false;
+            pending.add(response);
+            if (close) {
+                closeScheduled = true;
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Complete a reserved response.
+     *
+     * @param response   the reserved response
+     * @param bytes      the bytes to send - may be null if nothing should be sent
+     * @param delayNanos the minimum time from now until the response is sent
+     */
+    void complete(Response response, byte[] bytes, long delayNanos) {
+        long now = System.nanoTime();
+        synchronized (pending) {
+            if (discarded) {
+                return;
+            }
+            response.bytes = bytes;
+            response.dueNanos = now + Math.max(0, delayNanos);
+            response.ready = true;
+            if (!drainScheduled) {
+                scheduleDrain(response.dueNanos - now);
+            }
+        }
+    }
+
+    /**
+     * Close the connection after all of the scheduled responses have been sent.
+     *
+     * @return true if the connection will be closed by the writer; false if the pending responses were discarded
+     */
+    boolean closeAfterPending() {
+        synchronized (pending) {
+            if (discarded) {
+                return false;
+            }
+            schedule(null, 0, 0, true);
+            return !discarded;
+        }
+    }
+
+    /**
+     * Determine if any responses are waiting to be sent.
+     *
+     * @return true if there are pending responses
+     */
+    boolean hasPending() {
+        synchronized (pending) {
+            return !pending.isEmpty();
+        }
+    }
+
+    /**
+     * Discard the pending responses - used when the connection is reset.
+     */
+    void discard() {
+        synchronized (pending) {
+            pending.clear();
+            discarded = true;
+        }
+    }
+
+    private void scheduleDrain(long delayNanos) {
+        try {
+            if (0 < delayNanos) {
+                scheduler.schedule(this::dispatchDrain, delayNanos, TimeUnit.NANOSECONDS);
+            } else {
+                writeExecutor.execute(this::drain);
+            }
+            drainScheduled = true;
+        } catch (RejectedExecutionException rejectedEx) {
+            log.warn("Response scheduler is shutdown - discarding {} pending responses", pending.size());
+            pending.clear();
+            discarded = true;
+        }
+    }
+
+    /**
+     * Hand the drain to the write executor - run on the scheduler when the first pending response is due.
+     */
+    private void dispatchDrain() {
+        try {
+            writeExecutor.execute(this::drain);
+        } catch (RejectedExecutionException rejectedEx) {
+            log.warn("Response writer is shutdown - discarding pending responses");
+            discard();
+        }
+    }
+
+    void drain() {
+        synchronized (drainLock) {
+            while (true) {
+                Response response;
+                synchronized (pending) {
+                    response = pending.peek();
+                    if (null == response || !response.ready) {
+                        // A reserved response schedules the drain when it is completed
+                        drainScheduled = false;
+                        return;
+                    }
+                    long remainingNanos = response.dueNanos - System.nanoTime();
+                    if (0 < remainingNanos) {
+                        scheduleDrain(remainingNanos);
+                        return;
+                    }
+                    pending.poll();
+                }
+                try {
+                    writer.write(response);
+                } catch (Exception ex) {
+                    log.error("Exception encountered sending a scheduled response - discarding pending responses", ex);
+                    discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends scheduled responses for a connection - called on the write executor
+     */
+    interface Writer {
+        void write(Response response) throws Exception;
+    }
+
+    /**
+     * Nested class that holds a scheduled response
+     */
+    static class Response {
+        byte[] bytes;
+        final long receiveNanos;
+        long dueNanos;
+        final boolean close;
+        boolean ready = true;
+
+        Response(byte[] bytes, long receiveNanos, long dueNanos, boolean close) {
+            this.bytes = bytes;
+            this.receiveNanos = receiveNanos;
+            this.dueNanos = dueNanos;
+            this.close = close;
+        }
+    }
+}
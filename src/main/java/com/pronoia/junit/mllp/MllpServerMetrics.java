@@ -0,0 +1,333 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate counters and acknowledgement latency for a MllpServerResource.
+ *
+ * The counters of every open connection are also available, and a consistent copy of everything can be taken with
+ * getSnapshot().  An instance is registered as a JMX MBean by the MllpServerResource when it is started.
+ */
+public class MllpServerMetrics implements MllpServerMetricsMBean {
+    final LongAdder connectionsAccepted = new LongAdder();
+    final LongAdder framesReceived = new LongAdder();
+    final LongAdder bytesReceived = new LongAdder();
+    final LongAdder bytesSent = new LongAdder();
+    final LongAdder applicationAcceptSent = new LongAdder();
+    final LongAdder applicationErrorSent = new LongAdder();
+    final LongAdder applicationRejectSent = new LongAdder();
+    final LongAdder corruptFrames = new LongAdder();
+    final LongAdder connectionResets = new LongAdder();
+    final LongAdder fullHandshakes = new LongAdder();
+    final LongAdder resumedHandshakes = new LongAdder();
+
+    // Nanoseconds from receiving a frame until its response is flushed
+    final MllpLatencyHistogram acknowledgementLatency = new MllpLatencyHistogram();
+
+    final ConcurrentMap<Long, MllpConnectionMetrics> openConnections = new ConcurrentHashMap<>();
+
+    /**
+     * Start tracking a new connection.
+     *
+     * @return the counters for the connection
+     */
+    MllpConnectionMetrics openConnection(long connectionId, String localAddress, String remoteAddress) {
+        MllpConnectionMetrics connectionMetrics = new MllpConnectionMetrics(this, connectionId, localAddress, remoteAddress);
+        connectionsAccepted.increment();
+        openConnections.put(connectionId, connectionMetrics);
+        return connectionMetrics;
+    }
+
+    /**
+     * Stop tracking a connection.  The counts remain in the aggregate counters.
+     */
+    void closeConnection(MllpConnectionMetrics connectionMetrics) {
+        openConnections.remove(connectionMetrics.connectionId, connectionMetrics);
+    }
+
+    /**
+     * Get the counters for the connections that are currently open.
+     *
+     * @return the live counters of the open connections
+     */
+    public List<MllpConnectionMetrics> getConnections() {
+        return Collections.unmodifiableList(new ArrayList<>(openConnections.values()));
+    }
+
+    /**
+     * Get the distribution of the time from receiving a frame until its response was flushed.
+     *
+     * @return the live latency histogram, in nanoseconds
+     */
+    public MllpLatencyHistogram getAcknowledgementLatency() {
+        return acknowledgementLatency;
+    }
+
+    /**
+     * Take a copy of the current metrics.
+     *
+     * @return a snapshot that will not change
+     */
+    public Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return openConnections.size();
+    }
+
+    @Override
+    public long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getApplicationAcceptSent() {
+        return applicationAcceptSent.sum();
+    }
+
+    @Override
+    public long getApplicationErrorSent() {
+        return applicationErrorSent.sum();
+    }
+
+    @Override
+    public long getApplicationRejectSent() {
+        return applicationRejectSent.sum();
+    }
+
+    @Override
+    public long getCorruptFrames() {
+        return corruptFrames.sum();
+    }
+
+    @Override
+    public long getConnectionResets() {
+        return connectionResets.sum();
+    }
+
+    /**
+     * Count a completed TLS handshake.
+     *
+     * @param resumed true if an existing TLS session was resumed
+     */
+    void recordHandshake(boolean resumed) {
+        if (resumed) {
+            resumedHandshakes.increment();
+        } else {
+            fullHandshakes.increment();
+        }
+    }
+
+    @Override
+    public long getFullHandshakes() {
+        return fullHandshakes.sum();
+    }
+
+    @Override
+    public long getResumedHandshakes() {
+        return resumedHandshakes.sum();
+    }
+
+    @Override
+    public long getAcknowledgementLatencyCount() {
+        return acknowledgementLatency.getCount();
+    }
+
+    @Override
+    public double getAcknowledgementLatencyMeanMicros() {
+        return acknowledgementLatency.getMean() / 1000.0;
+    }
+
+    @Override
+    public long getAcknowledgementLatency50thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(acknowledgementLatency.getValueAtPercentile(50.0));
+    }
+
+    @Override
+    public long getAcknowledgementLatency99thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(acknowledgementLatency.getValueAtPercentile(99.0));
+    }
+
+    @Override
+    public long getAcknowledgementLatency999thPercentileMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(acknowledgementLatency.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public long getAcknowledgementLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(acknowledgementLatency.getMaxValue());
+    }
+
+    /**
+     * Reset the aggregate counters and the latency histogram.  The counters of open connections are not reset.
+     */
+    @Override
+    public void reset() {
+        connectionsAccepted.reset();
+        framesReceived.reset();
+        bytesReceived.reset();
+        bytesSent.reset();
+        applicationAcceptSent.reset();
+        applicationErrorSent.reset();
+        applicationRejectSent.reset();
+        corruptFrames.reset();
+        connectionResets.reset();
+        fullHandshakes.reset();
+        resumedHandshakes.reset();
+        acknowledgementLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("connections=%d/%d frames=%d bytesReceived=%d bytesSent=%d AA=%d AE=%d AR=%d corrupt=%d resets=%d handshakes=%d/%d latency(ns)=[%s]",
+            getOpenConnections(), getConnectionsAccepted(), getFramesReceived(), getBytesReceived(), getBytesSent(),
+            getApplicationAcceptSent(), getApplicationErrorSent(), getApplicationRejectSent(), getCorruptFrames(), getConnectionResets(),
+            getResumedHandshakes(), getFullHandshakes() + getResumedHandshakes(), acknowledgementLatency);
+    }
+
+    /**
+     * Nested class that holds a copy of the metrics at a point in time
+     */
+    public static class Snapshot {
+        final long timestamp = System.currentTimeMillis();
+        final long connectionsAccepted;
+        final long framesReceived;
+        final long bytesReceived;
+        final long bytesSent;
+        final long applicationAcceptSent;
+        final long applicationErrorSent;
+        final long applicationRejectSent;
+        final long corruptFrames;
+        final long connectionResets;
+        final long fullHandshakes;
+        final long resumedHandshakes;
+        final MllpLatencyHistogram acknowledgementLatency;
+        final List<MllpConnectionMetrics> connections;
+
+        Snapshot(MllpServerMetrics metrics) {
+            connectionsAccepted = metrics.getConnectionsAccepted();
+            framesReceived = metrics.getFramesReceived();
+            bytesReceived = metrics.getBytesReceived();
+            bytesSent = metrics.getBytesSent();
+            applicationAcceptSent = metrics.getApplicationAcceptSent();
+            applicationErrorSent = metrics.getApplicationErrorSent();
+            applicationRejectSent = metrics.getApplicationRejectSent();
+            corruptFrames = metrics.getCorruptFrames();
+            connectionResets = metrics.getConnectionResets();
+            fullHandshakes = metrics.getFullHandshakes();
+            resumedHandshakes = metrics.getResumedHandshakes();
+            acknowledgementLatency = metrics.acknowledgementLatency.copy();
+
+            List<MllpConnectionMetrics> connectionCopies = new ArrayList<>();
+            for (MllpConnectionMetrics connectionMetrics : metrics.openConnections.values()) {
+                connectionCopies.add(new MllpConnectionMetrics(connectionMetrics));
+            }
+            connections = Collections.unmodifiableList(connectionCopies);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getConnectionsAccepted() {
+            return connectionsAccepted;
+        }
+
+        public int getOpenConnections() {
+            return connections.size();
+        }
+
+        public long getFramesReceived() {
+            return framesReceived;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getApplicationAcceptSent() {
+            return applicationAcceptSent;
+        }
+
+        public long getApplicationErrorSent() {
+            return applicationErrorSent;
+        }
+
+        public long getApplicationRejectSent() {
+            return applicationRejectSent;
+        }
+
+        public long getCorruptFrames() {
+            return corruptFrames;
+        }
+
+        public long getConnectionResets() {
+            return connectionResets;
+        }
+
+        public long getFullHandshakes() {
+            return fullHandshakes;
+        }
+
+        public long getResumedHandshakes() {
+            return resumedHandshakes;
+        }
+
+        /**
+         * @return the acknowledgement latency histogram, in nanoseconds
+         */
+        public MllpLatencyHistogram getAcknowledgementLatency() {
+            return acknowledgementLatency;
+        }
+
+        /**
+         * @return copies of the counters of the connections that were open when the snapshot was taken
+         */
+        public List<MllpConnectionMetrics> getConnections() {
+            return connections;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+/**
+ * JMX management interface for the metrics of a MllpServerResource.
+ *
+ * Latencies are the time from receiving a complete frame until the response to it has been flushed to the socket.
+ */
+public interface MllpServerMetricsMBean {
+    long getConnectionsAccepted();
+
+    int getOpenConnections();
+
+    long getFramesReceived();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    long getApplicationAcceptSent();
+
+    long getApplicationErrorSent();
+
+    long getApplicationRejectSent();
+
+    long getCorruptFrames();
+
+    long getConnectionResets();
+
+    long getFullHandshakes();
+
+    long getResumedHandshakes();
+
+    long getAcknowledgementLatencyCount();
+
+    double getAcknowledgementLatencyMeanMicros();
+
+    long getAcknowledgementLatency50thPercentileMicros();
+
+    long getAcknowledgementLatency99thPercentileMicros();
+
+    long getAcknowledgementLatency999thPercentileMicros();
+
+    long getAcknowledgementLatencyMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,668 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selector-based engine for the MllpServerResource.
+ *
+ * Accepts, reads and writes acknowledgements for all connections on a fixed number of Selector threads, rather than
+ * starting a thread for every connection.  The responses are generated by the MllpServerResource, so the
+ * fault-injection settings behave the same as they do for the thread-per-connection engine.
+ *
+ * Additional listeners share the Selector threads.  Connections accepted by an additional listener use the
+ * fault-injection settings of the listener's MllpServerResource; everything else is shared with the owning resource.
+ */
+class MllpServerNioEngine {
+    static final int SELECT_TIMEOUT = 1000;
+    static final int READ_BUFFER_SIZE = 8192;
+    static final int SHUTDOWN_TIMEOUT = 5000;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final MllpServerResource resource;
+
+    ServerSocketChannel serverSocketChannel;
+
+    // The additional listener channels, and their fault-injection settings keyed by local port
+    final List<ServerSocketChannel> listenerChannels = new ArrayList<>();
+    final ConcurrentMap<Integer, MllpServerResource> listenerSettings = new ConcurrentHashMap<>();
+
+    String listenHost = "0.0.0.0";
+    int listenPort;
+    int backlog = 5;
+
+    boolean reuseAddress;
+    final MllpBindRetry bindRetry;
+
+    SelectorThread[] selectorThreads;
+    int nextSelectorThread;
+
+    MllpServerNioEngine(MllpServerResource resource, int listenPort, int backlog, int selectorThreadCount, boolean reuseAddress, MllpBindRetry bindRetry) throws IOException {
+        this.resource = resource;
+        this.listenPort = listenPort;
+        this.backlog = backlog;
+        this.reuseAddress = reuseAddress;
+        this.bindRetry = bindRetry;
+
+        bind();
+
+        selectorThreads = new SelectorThread[selectorThreadCount];
+        for (int i = 0; i < selectorThreadCount; ++i) {
+            selectorThreads[i] = new SelectorThread(i);
+        }
+    }
+
+    /**
+     * Open the TCP Listener
+     *
+     * @throws IOException
+     */
+    private void bind() throws IOException {
+        serverSocketChannel = openChannel(listenPort);
+
+        if (0 >= this.listenPort) {
+            this.listenPort = serverSocketChannel.socket().getLocalPort();
+        }
+    }
+
+    /**
+     * Open an additional TCP Listener that shares the Selector threads.
+     *
+     * @param listener the resource holding the port and fault-injection settings of the listener
+     *
+     * @return the port the listener is bound to
+     *
+     * @throws IOException
+     */
+    int bindListener(MllpServerResource listener) throws IOException {
+        ServerSocketChannel channel = openChannel(listener.listenPort);
+        int localPort = channel.socket().getLocalPort();
+        listenerChannels.add(channel);
+        listenerSettings.put(localPort, listener);
+        return localPort;
+    }
+
+    private ServerSocketChannel openChannel(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setReuseAddress(reuseAddress);
+
+        try {
+            if (0 >= port) {
+                channel.bind(null, backlog);
+            } else {
+                InetSocketAddress bindAddress = new InetSocketAddress(this.listenHost, port);
+                bindRetry.bind(() -> channel.bind(bindAddress, backlog), log);
+            }
+        } catch (IOException bindEx) {
+            channel.close();
+            throw bindEx;
+        }
+
+        log.info("Opened TCP Listener on port {}", channel.socket().getLocalPort());
+        return channel;
+    }
+
+    void start() {
+        // The primary listener is registered last, so the resource is only signalled ready once every listener is accepting
+        for (ServerSocketChannel listenerChannel : listenerChannels) {
+            selectorThreads[0].register(listenerChannel);
+        }
+        selectorThreads[0].register(serverSocketChannel);
+        for (SelectorThread selectorThread : selectorThreads) {
+            selectorThread.start();
+        }
+    }
+
+    void shutdown() {
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            log.warn("Error closing server socket channel");
+        }
+        for (ServerSocketChannel listenerChannel : listenerChannels) {
+            try {
+                listenerChannel.close();
+            } catch (IOException e) {
+                log.warn("Error closing server socket channel");
+            }
+        }
+
+        for (SelectorThread selectorThread : selectorThreads) {
+            selectorThread.shutdown();
+        }
+
+        for (SelectorThread selectorThread : selectorThreads) {
+            try {
+                selectorThread.join(SHUTDOWN_TIMEOUT);
+            } catch (InterruptedException interruptedEx) {
+                log.warn("Interrupted waiting for {} to stop", selectorThread.getName());
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    void interrupt() {
+        for (SelectorThread selectorThread : selectorThreads) {
+            selectorThread.interrupt();
+        }
+    }
+
+    int getListenPort() {
+        return listenPort;
+    }
+
+    /**
+     * Hand an accepted connection to the next Selector thread.
+     */
+    synchronized void dispatch(SocketChannel socketChannel) {
+        SelectorThread selectorThread = selectorThreads[nextSelectorThread];
+        nextSelectorThread = (nextSelectorThread + 1) % selectorThreads.length;
+        selectorThread.register(socketChannel);
+    }
+
+    /**
+     * Nested class that runs a Selector loop
+     *
+     * Channels to register and tasks to run on the Selector thread are passed to it through the pendingRegistrations
+     * queue.
+     */
+    class SelectorThread extends Thread {
+        final Selector selector;
+        final Queue<Object> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+        volatile boolean running = true;
+
+        SelectorThread(int index) throws IOException {
+            this.selector = Selector.open();
+            this.setDaemon(true);
+            this.setName("MllpServerResource$SelectorThread-" + index + " - " + serverSocketChannel.socket().getLocalSocketAddress().toString());
+        }
+
+        void register(Object channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        void execute(Runnable task) {
+            pendingRegistrations.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            log.info("Selector thread started for port {}", listenPort);
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT);
+                    processRegistrations();
+
+                    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext()) {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+                        try {
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            if (key.isAcceptable()) {
+                                accept((ServerSocketChannel) key.channel());
+                            } else {
+                                NioConnection connection = (NioConnection) key.attachment();
+                                if (key.isReadable()) {
+                                    connection.read();
+                                }
+                                if (key.isValid() && key.isWritable()) {
+                                    connection.write();
+                                }
+                            }
+                        } catch (CancelledKeyException cancelledKeyEx) {
+                            log.debug("Selection key cancelled", cancelledKeyEx);
+                        }
+                    }
+                }
+            } catch (ClosedSelectorException closedEx) {
+                log.warn("Selector closed unexpectedly");
+            } catch (IOException ioEx) {
+                log.error("IOException in Selector loop", ioEx);
+            } finally {
+                close();
+            }
+            log.info("Selector thread stopped for port {}", listenPort);
+        }
+
+        private void processRegistrations() throws IOException {
+            Object channel;
+            while (null != (channel = pendingRegistrations.poll())) {
+                if (channel instanceof Runnable) {
+                    ((Runnable) channel).run();
+                } else if (channel instanceof ServerSocketChannel) {
+                    ((ServerSocketChannel) channel).register(selector, SelectionKey.OP_ACCEPT);
+                    if (channel == serverSocketChannel) {
+                        resource.signalReady();
+                    }
+                } else {
+                    SocketChannel socketChannel = (SocketChannel) channel;
+                    NioConnection connection = new NioConnection(this, socketChannel);
+                    connection.selectionKey = socketChannel.register(selector, SelectionKey.OP_READ, connection);
+                    log.info("Handling Connection: {} -> {}", connection.localAddress, connection.remoteAddress);
+                }
+            }
+        }
+
+        private void accept(ServerSocketChannel channel) {
+            if (!resource.isActive()) {
+                log.info("No longer accepting connections - closing TCP Listener on port {}", channel.socket().getLocalPort());
+                try {
+                    channel.close();
+                } catch (IOException ioEx) {
+                    log.info("Exception encountered closing server socket channel", ioEx);
+                }
+                return;
+            }
+
+            SocketChannel socketChannel = null;
+            try {
+                socketChannel = channel.accept();
+                if (null == socketChannel) {
+                    return;
+                }
+                socketChannel.configureBlocking(false);
+                Socket clientSocket = socketChannel.socket();
+                clientSocket.setKeepAlive(true);
+                clientSocket.setTcpNoDelay(false);
+                clientSocket.setSoLinger(false, -1);
+                if (resource.connectionLimiter.admit()) {
+                    dispatch(socketChannel);
+                } else {
+                    final SocketChannel queuedChannel = socketChannel;
+                    resource.handleConnectionOverflow(clientSocket, () -> dispatch(queuedChannel));
+                }
+            } catch (IOException e) {
+                log.warn("IOException creating Client Socket");
+                if (socketChannel != null) {
+                    try {
+                        socketChannel.close();
+                    } catch (IOException e1) {
+                        log.warn("Exception encountered closing client socket after attempting to accept connection");
+                    }
+                }
+            }
+        }
+
+        private void close() {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof NioConnection) {
+                    ((NioConnection) attachment).shutdown(true);
+                }
+            }
+            Object channel;
+            while (null != (channel = pendingRegistrations.poll())) {
+                if (channel instanceof SocketChannel) {
+                    resource.resetConnection(((SocketChannel) channel).socket());
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ioEx) {
+                log.warn("Exception encountered closing selector", ioEx);
+            }
+        }
+    }
+
+    /**
+     * Nested class that holds the state of an established TCP connection
+     */
+    class NioConnection {
+        final SelectorThread selectorThread;
+        final SocketChannel socketChannel;
+        final MllpServerResource faultSettings;
+        final String localAddress;
+        final String remoteAddress;
+
+        SelectionKey selectionKey;
+
+        final MllpFrameDecoder frameDecoder = new MllpFrameDecoder(READ_BUFFER_SIZE);
+        final MllpAcknowledgementBuilder acknowledgementBuilder = resource.createAcknowledgementBuilder();
+
+        // Responses are appended to the output buffer of the acknowledgement builder until they are written
+        ByteBuffer writeView;
+        int writePosition;
+
+        boolean closeAfterWrite;
+
+        // Created when the first response on the connection is delayed - all later responses are scheduled to keep them in order
+        MllpScheduledResponses scheduledResponses;
+        boolean closeScheduled;
+
+        final long connectionId = resource.nextConnectionId();
+        final MllpConnectionMetrics connectionMetrics;
+        final MllpConnectionThrottle throttle;
+        int messageCounter;
+
+        // Set while reads or writes are paused by the throttle
+        boolean readThrottled;
+        boolean writeThrottled;
+        boolean tcpNoDelayEnabled;
+
+        NioConnection(SelectorThread selectorThread, SocketChannel socketChannel) {
+            this.selectorThread = selectorThread;
+            this.socketChannel = socketChannel;
+            this.faultSettings = listenerSettings.getOrDefault(socketChannel.socket().getLocalPort(), resource);
+            this.localAddress = socketChannel.socket().getLocalAddress().toString();
+            this.remoteAddress = String.valueOf(socketChannel.socket().getRemoteSocketAddress());
+            this.connectionMetrics = resource.metrics.openConnection(connectionId, String.valueOf(socketChannel.socket().getLocalSocketAddress()), remoteAddress);
+            this.throttle = resource.openConnectionThrottle(connectionId);
+            resource.recordConnectionEvent(connectionId, true);
+        }
+
+        void read() {
+            if (readThrottled) {
+                return;
+            }
+            int bytesRead;
+            try {
+                int chunkSize = throttle.readChunkSize();
+                if (Integer.MAX_VALUE != chunkSize) {
+                    long delayNanos = throttle.readDelayNanos(chunkSize);
+                    if (0 < delayNanos) {
+                        readThrottled = true;
+                        updateInterestOps();
+                        resumeAfter(delayNanos, () -> {
+                            readThrottled = false;
+                            updateInterestOps();
+                        });
+                        return;
+                    }
+                }
+                bytesRead = frameDecoder.fill(socketChannel, chunkSize);
+                if (0 < bytesRead) {
+                    connectionMetrics.recordBytesReceived(bytesRead);
+                    throttle.recordRead(bytesRead);
+                }
+            } catch (IOException ioEx) {
+                log.error("Unable to read from socket channel - resetting connection", ioEx);
+                shutdown(true);
+                return;
+            }
+
+            while (!closeAfterWrite && !closeScheduled && socketChannel.isOpen()) {
+                int decodeResult = frameDecoder.decode();
+                if (MllpFrameDecoder.NEED_MORE_DATA == decodeResult) {
+                    break;
+                }
+                switch (decodeResult) {
+                case MllpFrameDecoder.FRAME:
+                    if (0 < frameDecoder.getFrameLength()) {
+                        process(frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), frameDecoder.getFrameLength());
+                    }
+                    break;
+                case MllpFrameDecoder.OUT_OF_BAND_DATA:
+                    log.warn("START_OF_BLOCK character has not been received.  Out-of-band character received: {}", frameDecoder.getOutOfBandByte());
+                    break;
+                case MllpFrameDecoder.START_OF_BLOCK_BEFORE_END_OF_BLOCK:
+                    log.error("Received START_OF_BLOCK before END_OF_DATA.  Discarding data: {}", frameDecoder.getFrameAsString());
+                    connectionMetrics.recordCorruptFrame();
+                    break;
+                case MllpFrameDecoder.MISSING_END_OF_DATA:
+                    log.error("Received {} when expecting END_OF_DATA after END_OF_BLOCK.  Discarding Hl7MessageGenerator: {}",
+                        frameDecoder.getOutOfBandByte(), frameDecoder.getFrameAsString());
+                    connectionMetrics.recordCorruptFrame();
+                    break;
+                default:
+                    break;
+                }
+            }
+
+            if (bytesRead < 0) {
+                if (frameDecoder.isInFrame()) {
+                    log.error("Received END_OF_STREAM without END_OF_DATA.  Discarding data: {}", frameDecoder.getPartialFrameAsString());
+                    connectionMetrics.recordCorruptFrame();
+                }
+                if (null != scheduledResponses && scheduledResponses.closeAfterPending()) {
+                    closeScheduled = true;
+                } else {
+                    write();
+                    shutdown(false);
+                    return;
+                }
+            }
+
+            write();
+        }
+
+        void process(byte[] hl7Message, int offset, int length) {
+            ++messageCounter;
+            connectionMetrics.recordFrameReceived();
+            resource.recordReceivedMessage(connectionId, hl7Message, offset, length);
+
+            MllpAcknowledgementDelay delay = resource.acknowledgementDelay;
+            if ((null != delay || null != resource.responseHandler) && null == scheduledResponses) {
+                scheduledResponses = new MllpScheduledResponses(resource.responseScheduler, selectorThread::execute, this::writeScheduledResponse);
+            }
+            int faults = faultSettings.evaluateFaults(connectionId, messageCounter);
+            if (null != scheduledResponses) {
+                scheduleResponse(hl7Message, offset, length, delay, faults);
+                return;
+            }
+
+            if (MllpFault.DISCONNECT_BEFORE_ACKNOWLEDGEMENT.isSet(faults)) {
+                log.warn("Disconnecting before sending acknowledgement");
+                shutdown(false);
+                return;
+            }
+
+            faultSettings.generateResponse(hl7Message, offset, length, faults, acknowledgementBuilder, connectionMetrics);
+
+            if (MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT.isSet(faults)) {
+                closeAfterWrite = true;
+            }
+        }
+
+        /**
+         * Generate the response to a message and schedule it to be sent.
+         */
+        void scheduleResponse(byte[] hl7Message, int offset, int length, MllpAcknowledgementDelay delay, int faults) {
+            long receiveNanos = connectionMetrics.detachPendingReceiveTime();
+            if (MllpFault.DISCONNECT_BEFORE_ACKNOWLEDGEMENT.isSet(faults)) {
+                log.warn("Disconnecting before sending acknowledgement");
+                scheduledResponses.closeAfterPending();
+                closeScheduled = true;
+                return;
+            }
+
+            MllpResponseHandler handler = resource.responseHandler;
+            if (null != handler) {
+                long delayNanos = (null != delay) ? delay.getDelayNanos(messageCounter) : 0;
+                resource.scheduleHandlerResponse(scheduledResponses, handler, hl7Message, offset, length, connectionId, receiveNanos, faults, delayNanos);
+                if (MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT.isSet(faults)) {
+                    closeScheduled = true;
+                }
+                return;
+            }
+
+            int responseOffset = acknowledgementBuilder.getLength();
+            faultSettings.generateResponse(hl7Message, offset, length, faults, acknowledgementBuilder, connectionMetrics);
+            boolean close = MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT.isSet(faults);
+            long delayNanos = (null != delay) ? delay.getDelayNanos(messageCounter) : 0;
+            scheduledResponses.schedule(acknowledgementBuilder.removeFrom(responseOffset), receiveNanos, delayNanos, close);
+            if (close) {
+                closeScheduled = true;
+            }
+        }
+
+        /**
+         * Send a scheduled response - run on the Selector thread.
+         */
+        void writeScheduledResponse(MllpScheduledResponses.Response response) {
+            if (!socketChannel.isOpen()) {
+                return;
+            }
+            if (null != response.bytes) {
+                acknowledgementBuilder.append(response.bytes, 0, response.bytes.length);
+                connectionMetrics.addPendingReceiveTime(response.receiveNanos);
+            }
+            if (response.close) {
+                closeAfterWrite = true;
+            }
+            write();
+        }
+
+        void write() {
+            if (!socketChannel.isOpen()) {
+                return;
+            }
+            try {
+                int pendingLength = acknowledgementBuilder.getLength();
+                if (writePosition < pendingLength) {
+                    if (writeThrottled) {
+                        return;
+                    }
+                    if (null == writeView || writeView.array() != acknowledgementBuilder.getBuffer()) {
+                        writeView = ByteBuffer.wrap(acknowledgementBuilder.getBuffer());
+                    }
+                    while (writePosition < pendingLength) {
+                        int writeLimit = pendingLength;
+                        int chunkSize = throttle.writeChunkSize();
+                        if (Integer.MAX_VALUE != chunkSize) {
+                            writeLimit = (int) Math.min(pendingLength, (long) writePosition + chunkSize);
+                            long delayNanos = throttle.writeDelayNanos(writeLimit - writePosition);
+                            if (0 < delayNanos) {
+                                writeThrottled = true;
+                                updateInterestOps();
+                                resumeAfter(delayNanos, () -> {
+                                    writeThrottled = false;
+                                    write();
+                                });
+                                return;
+                            }
+                            if (!tcpNoDelayEnabled) {
+                                socketChannel.socket().setTcpNoDelay(true);
+                                tcpNoDelayEnabled = true;
+                            }
+                        }
+                        writeView.limit(writeLimit).position(writePosition);
+                        int bytesWritten = socketChannel.write(writeView);
+                        writePosition = writeView.position();
+                        throttle.recordWrite(bytesWritten);
+                        if (writePosition < writeLimit) {
+                            updateInterestOps();
+                            return;
+                        }
+                    }
+                    connectionMetrics.recordFlushed(pendingLength);
+                    acknowledgementBuilder.reset();
+                    writePosition = 0;
+                }
+            } catch (IOException ioEx) {
+                log.error("Error whiling writing to clientSocket - resetting connection", ioEx);
+                shutdown(true);
+                return;
+            }
+
+            if (closeAfterWrite) {
+                log.info("Closing Client");
+                shutdown(false);
+            } else {
+                updateInterestOps();
+            }
+        }
+
+        /**
+         * Select the events for the connection, based on whether there are responses waiting for the socket and
+         * whether reads and writes are throttled.
+         */
+        void updateInterestOps() {
+            if (!selectionKey.isValid()) {
+                return;
+            }
+            int interestOps = 0;
+            if (!closeScheduled && !closeAfterWrite && !readThrottled) {
+                interestOps |= SelectionKey.OP_READ;
+            }
+            if (writePosition < acknowledgementBuilder.getLength() && !writeThrottled) {
+                interestOps |= SelectionKey.OP_WRITE;
+            }
+            selectionKey.interestOps(interestOps);
+        }
+
+        /**
+         * Run a task on the Selector thread after the throttle delay.
+         */
+        void resumeAfter(long delayNanos, Runnable task) {
+            try {
+                resource.responseScheduler.schedule(() -> selectorThread.execute(() -> {
+                    if (socketChannel.isOpen()) {
+                        task.run();
+                    }
+                }), delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException rejectedEx) {
+                log.debug("Response scheduler is shutdown - not resuming throttled connection", rejectedEx);
+            }
+        }
+
+        void shutdown(boolean reset) {
+            if (null != scheduledResponses) {
+                scheduledResponses.discard();
+            }
+            if (socketChannel.isOpen()) {
+                selectionKey.cancel();
+                resource.metrics.closeConnection(connectionMetrics);
+                resource.closeConnectionThrottle(throttle);
+                resource.recordConnectionEvent(connectionId, false);
+                resource.connectionLimiter.release();
+                if (reset) {
+                    connectionMetrics.recordReset();
+                    resource.resetConnection(socketChannel.socket());
+                } else {
+                    resource.closeConnection(socketChannel.socket());
+                }
+                log.info("Connection Finished: {} -> {}", localAddress, remoteAddress);
+            }
+        }
+    }
+}
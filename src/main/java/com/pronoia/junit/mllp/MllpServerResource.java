@@ -16,18 +16,48 @@
  */
 package com.pronoia.junit.mllp;
 
-import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.BindException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 
 import org.junit.rules.ExternalResource;
 import org.slf4j.Logger;
@@ -40,6 +70,10 @@ public class MllpServerResource extends ExternalResource {
     public static final int END_OF_STREAM = -1;          //
     public static final char SEGMENT_DELIMITER = 0x0d;   // CR (carriage return)     - decimal 13, octal 015
 
+    static final byte[] OUT_OF_BAND_DATA = "Out Of Band Hl7MessageGenerator".getBytes(StandardCharsets.ISO_8859_1);
+
+    static MllpServerResource sharedInstance;
+
     Logger log = LoggerFactory.getLogger(this.getClass());
     int listenPort;
     int backlog = 5;
@@ -62,8 +96,82 @@ public class MllpServerResource extends ExternalResource {
 
     Pattern sendApplicationRejectAcknowledgementPattern;
     Pattern sendApplicationErrorAcknowledgementPattern;
+    volatile MllpAcknowledgementRuleIndex acknowledgementRules = MllpAcknowledgementRuleIndex.EMPTY;
+
+    // The modulus settings and the fault plan are compiled into the fault table whenever they change
+    volatile MllpFaultPlan faultPlan;
+    volatile MllpFaultTable faultTable = MllpFaultTable.EMPTY;
+    final AtomicLong serverMessageCounter = new AtomicLong();
+    volatile long startNanos = System.nanoTime();
+
+    boolean nioEngine;
+    int selectorThreadCount = 1;
+
+    boolean reuseAddress;
+
+    SSLContext sslContext;
+    String[] sslEnabledProtocols;
+    int sslSessionCacheSize = -1;
+    int sslSessionTimeout = -1;
+    boolean sslSessionResumption = true;
+    MllpTlsSessions tlsSessions;
+
+    long bindRetryInitialInterval = 50;
+    long bindRetryMaxInterval = 1000;
+    long bindTimeout = 30000;
+    long startupTimeout = 15000;
+    volatile CountDownLatch readyLatch = new CountDownLatch(1);
+
+    boolean virtualThreads;
+
+    boolean batchAcknowledgements;
+
+    volatile MllpAcknowledgementDelay acknowledgementDelay;
+    int responseSchedulerThreadCount = 1;
+    ScheduledExecutorService responseScheduler;
+
+    volatile MllpResponseHandler responseHandler;
+    volatile Executor responseHandlerExecutor;
+    ExecutorService defaultResponseHandlerExecutor;
+
+    volatile long readBytesPerSecond;
+    volatile long writeBytesPerSecond;
+    volatile int writePacketSize;
+    volatile int throttleBurstSize;
+    final ConcurrentMap<Long, MllpConnectionThrottle> connectionThrottles = new ConcurrentHashMap<>();
+
+    int acknowledgementTemplateCacheSize;
+    MllpAcknowledgementTemplateCache acknowledgementTemplateCache;
+
+    int receivedMessageCaptureCapacity;
+    volatile MllpReceivedMessageBuffer receivedMessageBuffer;
+
+    File journalDirectory;
+    int journalSegmentSize = MllpMessageJournal.DEFAULT_SEGMENT_SIZE;
+    volatile MllpMessageJournal journal;
+
+    volatile MllpSessionRecorder sessionRecorder;
+
+    final AtomicLong connectionIdCounter = new AtomicLong();
+
+    final MllpConnectionLimiter connectionLimiter = new MllpConnectionLimiter();
+    volatile MllpConnectionOverflowPolicy connectionOverflowPolicy = MllpConnectionOverflowPolicy.REJECT;
+
+    final MllpServerMetrics metrics = new MllpServerMetrics();
+    boolean registerMetricsMBean = true;
+    ObjectName metricsObjectName;
 
     ServerSocketThread serverSocketThread;
+    MllpServerNioEngine serverNioEngine;
+
+    // Additional listeners share the engine, metrics and connection limit of their owner
+    final List<MllpServerResource> listeners = new CopyOnWriteArrayList<>();
+    MllpServerResource owner;
+
+    // The shared resource is started by its first user and stays open until the JVM exits
+    boolean shared;
+    int sharedReferenceCount;
+    boolean sharedStarted;
 
     public MllpServerResource() {
     }
@@ -93,48 +201,1349 @@ public class MllpServerResource extends ExternalResource {
         this.backlog = backlog;
     }
 
-    public void startup() throws IOException {
-        log.info("startup");
-        this.active = true;
-        serverSocketThread = new ServerSocketThread(listenPort, backlog);
-        if (0 >= listenPort) {
-            listenPort = serverSocketThread.listenPort;
+    /**
+     * Add a listener on another port.
+     *
+     * The listener is bound and closed with this resource, and its connections are handled by the Selector threads of
+     * this resource - resources with additional listeners always use the NIO engine, so the thread count does not grow
+     * with the number of ports.  The fault-injection settings (the modulus and pattern settings) of the returned
+     * resource apply to the connections accepted by the listener.  All other settings, the metrics, the connection
+     * limit and the received messages are shared with this resource.
+     *
+     * This must be called before the resource is started.
+     *
+     * @param listenPort the port to listen on - 0 binds an ephemeral port
+     *
+     * @return the resource holding the fault-injection settings of the listener
+     */
+    public MllpServerResource addListener(int listenPort) {
+        MllpServerResource listener = new MllpServerResource(listenPort);
+        listener.owner = this;
+        listener.registerMetricsMBean = false;
+        listeners.add(listener);
+        return listener;
+    }
+
+    /**
+     * Get the additional listeners.
+     *
+     * @return the resources holding the fault-injection settings of the additional listeners, in the order they were added
+     */
+    public List<MllpServerResource> getListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
+    /**
+     * Get the resource that binds this listener.
+     *
+     * @return the owning resource, or null if this resource is not an additional listener
+     */
+    public MllpServerResource getOwner() {
+        return owner;
+    }
+
+    public boolean isNioEngine() {
+        return nioEngine;
+    }
+
+    /**
+     * Enable/disable the NIO engine.
+     *
+     * By default, a thread is started for every accepted connection.  When the NIO engine is enabled, the accept, read
+     * and acknowledgement write for all connections are handled by a small number of Selector threads instead.  The
+     * fault-injection settings behave the same with either engine.
+     *
+     * This must be set before the resource is started.
+     *
+     * @param nioEngine true to use the Selector-based engine
+     */
+    public void setNioEngine(boolean nioEngine) {
+        this.nioEngine = nioEngine;
+    }
+
+    public boolean isReuseAddress() {
+        return reuseAddress;
+    }
+
+    /**
+     * Enable/disable SO_REUSEADDR on the listener.
+     *
+     * When enabled, a fixed port can be bound again immediately after a previous listener on the port was closed,
+     * even if connections from the previous listener are still in TIME_WAIT.
+     *
+     * This must be set before the resource is started.
+     *
+     * @param reuseAddress true to enable SO_REUSEADDR
+     */
+    public void setReuseAddress(boolean reuseAddress) {
+        this.reuseAddress = reuseAddress;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Enable TLS.
+     *
+     * The listener accepts TLS connections using the key material of the context.  TLS is supported by the
+     * thread-per-connection engine - the resource cannot be started with both TLS and the NIO engine (or additional
+     * listeners).
+     *
+     * This must be set before the resource is started.
+     *
+     * @param sslContext the initialized context - null disables TLS
+     */
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    public String[] getSslEnabledProtocols() {
+        return sslEnabledProtocols;
+    }
+
+    /**
+     * Set the TLS protocols the listener accepts.
+     *
+     * Resumed handshakes are only counted for TLSv1.2 - see getResumedHandshakeCount().
+     *
+     * @param sslEnabledProtocols the protocols (i.e. TLSv1.2) - null uses the defaults of the context
+     */
+    public void setSslEnabledProtocols(String... sslEnabledProtocols) {
+        this.sslEnabledProtocols = sslEnabledProtocols;
+    }
+
+    public int getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    /**
+     * Set the size of the TLS session cache of the context.
+     *
+     * This must be set before the resource is started.
+     *
+     * @param sslSessionCacheSize the maximum number of cached sessions - 0 is unlimited; less than 0 keeps the size of
+     *                            the context
+     */
+    public void setSslSessionCacheSize(int sslSessionCacheSize) {
+        this.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    public int getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    /**
+     * Set how long TLS sessions are kept in the session cache of the context.
+     *
+     * This must be set before the resource is started.
+     *
+     * @param sslSessionTimeout the timeout in seconds - 0 is unlimited; less than 0 keeps the timeout of the context
+     */
+    public void setSslSessionTimeout(int sslSessionTimeout) {
+        this.sslSessionTimeout = sslSessionTimeout;
+    }
+
+    public boolean isSslSessionResumption() {
+        return sslSessionResumption;
+    }
+
+    /**
+     * Enable/disable TLS session resumption.
+     *
+     * When disabled, every session is invalidated after its handshake, so it cannot be resumed from the session cache.
+     * Clients holding a stateless session ticket can still resume - disable resumption on the client as well, or
+     * disable session tickets with the jdk.tls.server.enableSessionTicketExtension system property.
+     *
+     * @param sslSessionResumption true to allow clients to resume sessions
+     */
+    public void setSslSessionResumption(boolean sslSessionResumption) {
+        this.sslSessionResumption = sslSessionResumption;
+    }
+
+    /**
+     * Get the number of TLS handshakes that negotiated a new session.
+     *
+     * @return the number of full handshakes since the resource was started
+     */
+    public long getFullHandshakeCount() {
+        return metrics.getFullHandshakes();
+    }
+
+    /**
+     * Get the number of TLS handshakes that resumed a cached session.
+     *
+     * JSSE does not report resumption, so a handshake is counted as resumed when it negotiates the ID of an earlier
+     * session.  TLS 1.3 does not use session IDs, so TLS 1.3 resumption is counted as a full handshake - enable only
+     * TLSv1.2 to measure resumption.
+     *
+     * @return the number of resumed handshakes since the resource was started
+     */
+    public long getResumedHandshakeCount() {
+        return metrics.getResumedHandshakes();
+    }
+
+    private void configureSslSessionContext() {
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        if (0 <= sslSessionCacheSize) {
+            sessionContext.setSessionCacheSize(sslSessionCacheSize);
+        }
+        if (0 <= sslSessionTimeout) {
+            sessionContext.setSessionTimeout(sslSessionTimeout);
         }
-        serverSocketThread.setDaemon(true);
-        serverSocketThread.start();
     }
 
-    public void shutdown() {
-        log.info("shutdown");
-        this.active = false;
-        if (serverSocketThread != null) {
-            serverSocketThread.shutdown();
-            serverSocketThread = null;
+    public long getBindRetryInitialInterval() {
+        return bindRetryInitialInterval;
+    }
+
+    /**
+     * Set the wait before the first retry of a failed bind to a fixed port, in milliseconds.
+     *
+     * Each following retry waits twice as long as the one before it, up to the bindRetryMaxInterval.
+     *
+     * @param bindRetryInitialInterval the wait in milliseconds - values less than 1 are interpreted as 1
+     */
+    public void setBindRetryInitialInterval(long bindRetryInitialInterval) {
+        if (1 > bindRetryInitialInterval) {
+            this.bindRetryInitialInterval = 1;
+        } else {
+            this.bindRetryInitialInterval = bindRetryInitialInterval;
         }
     }
 
-    @Override
-    protected void before() throws Throwable {
-        startup();
-        super.before();
+    public long getBindRetryMaxInterval() {
+        return bindRetryMaxInterval;
     }
 
-    @Override
-    protected void after() {
-        super.after();
-        shutdown();
+    /**
+     * Set the longest wait between retries of a failed bind to a fixed port, in milliseconds.
+     *
+     * @param bindRetryMaxInterval the wait in milliseconds - values less than 1 are interpreted as 1
+     */
+    public void setBindRetryMaxInterval(long bindRetryMaxInterval) {
+        if (1 > bindRetryMaxInterval) {
+            this.bindRetryMaxInterval = 1;
+        } else {
+            this.bindRetryMaxInterval = bindRetryMaxInterval;
+        }
     }
 
-    public void interrupt() {
-        serverSocketThread.interrupt();
+    public long getBindTimeout() {
+        return bindTimeout;
+    }
+
+    /**
+     * Set the total time spent retrying a failed bind to a fixed port, in milliseconds.
+     *
+     * @param bindTimeout the time in milliseconds - 0 disables the retries
+     */
+    public void setBindTimeout(long bindTimeout) {
+        if (0 > bindTimeout) {
+            this.bindTimeout = 0;
+        } else {
+            this.bindTimeout = bindTimeout;
+        }
+    }
+
+    public long getStartupTimeout() {
+        return startupTimeout;
+    }
+
+    /**
+     * Set the time the JUnit rule waits for the listener to start accepting connections, in milliseconds.
+     *
+     * @param startupTimeout the time in milliseconds
+     */
+    public void setStartupTimeout(long startupTimeout) {
+        if (0 > startupTimeout) {
+            this.startupTimeout = 0;
+        } else {
+            this.startupTimeout = startupTimeout;
+        }
+    }
+
+    MllpBindRetry createBindRetry() {
+        return new MllpBindRetry(bindRetryInitialInterval, bindRetryMaxInterval, bindTimeout);
+    }
+
+    /**
+     * Determine if the listener is accepting connections.
+     *
+     * @return true if the listener is accepting connections
+     */
+    public boolean isReady() {
+        return 0 == readyLatch.getCount();
+    }
+
+    /**
+     * Wait for the listener to start accepting connections.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout argument
+     *
+     * @return true if the listener is accepting connections, false if the timeout elapsed first
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return readyLatch.await(timeout, unit);
+    }
+
+    /**
+     * Called by the engines once the listener is accepting connections.
+     */
+    void signalReady() {
+        readyLatch.countDown();
+    }
+
+    public int getSelectorThreadCount() {
+        return selectorThreadCount;
+    }
+
+    /**
+     * Set the number of Selector threads used by the NIO engine.
+     *
+     * @param selectorThreadCount the number of Selector threads - values less than 1 are interpreted as 1
+     */
+    public void setSelectorThreadCount(int selectorThreadCount) {
+        if (1 > selectorThreadCount) {
+            this.selectorThreadCount = 1;
+        } else {
+            this.selectorThreadCount = selectorThreadCount;
+        }
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Enable/disable running the connection handlers on virtual threads.
+     *
+     * When enabled, the blocking per-connection handlers are run on virtual threads rather than a platform thread
+     * for every connection.  Virtual threads require Java 21 or later - on earlier versions a warning is logged
+     * and platform threads are used.  This setting has no effect when the NIO engine is enabled.
+     *
+     * @param virtualThreads true to run connection handlers on virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isBatchAcknowledgements() {
+        return batchAcknowledgements;
+    }
+
+    /**
+     * Enable/disable batching the acknowledgements for pipelined messages.
+     *
+     * By default, the acknowledgement for each message is written and flushed before the next message is read.  When
+     * enabled, every complete frame that has already been read from the socket is processed, and all of the
+     * acknowledgements are written in order with a single write and flush.  The NIO engine always batches the
+     * acknowledgements this way.
+     *
+     * @param batchAcknowledgements true to batch the acknowledgements for frames that have already been received
+     */
+    public void setBatchAcknowledgements(boolean batchAcknowledgements) {
+        this.batchAcknowledgements = batchAcknowledgements;
+    }
+
+    public MllpAcknowledgementDelay getAcknowledgementDelay() {
+        return acknowledgementDelay;
+    }
+
+    /**
+     * Set the delay before the response to each message is sent.
+     *
+     * The responses are sent by a shared scheduler, so the connection continues to read further frames while a
+     * response is delayed.  Responses are always sent in the order the messages were received - a response is sent
+     * when its delay has elapsed and the response to the previous message has been sent.  The delay can be changed
+     * while the resource is running.
+     *
+     * @param acknowledgementDelay the delay - null disables delays
+     *
+     * @see MllpAcknowledgementDelay#fixed(long)
+     * @see MllpAcknowledgementDelay#uniform(long, long)
+     * @see MllpAcknowledgementDelay#percentiles(double, double)
+     * @see MllpAcknowledgementDelay#replay(MllpLatencyHistogram)
+     */
+    public void setAcknowledgementDelay(MllpAcknowledgementDelay acknowledgementDelay) {
+        this.acknowledgementDelay = acknowledgementDelay;
+    }
+
+    public int getResponseSchedulerThreadCount() {
+        return responseSchedulerThreadCount;
+    }
+
+    /**
+     * Set the number of threads used to send delayed responses.
+     *
+     * This must be set before the resource is started.
+     *
+     * @param responseSchedulerThreadCount the number of threads - values less than 1 are interpreted as 1
+     */
+    public void setResponseSchedulerThreadCount(int responseSchedulerThreadCount) {
+        if (1 > responseSchedulerThreadCount) {
+            this.responseSchedulerThreadCount = 1;
+        } else {
+            this.responseSchedulerThreadCount = responseSchedulerThreadCount;
+        }
+    }
+
+    public MllpResponseHandler getResponseHandler() {
+        return responseHandler;
+    }
+
+    /**
+     * Set a handler that produces the responses in place of the generated acknowledgements.
+     *
+     * This can be changed while the resource is running.
+     *
+     * @param responseHandler the handler - null restores the generated acknowledgements
+     */
+    public void setResponseHandler(MllpResponseHandler responseHandler) {
+        this.responseHandler = responseHandler;
+    }
+
+    public Executor getResponseHandlerExecutor() {
+        return responseHandlerExecutor;
+    }
+
+    /**
+     * Set the executor the response handler is called on.
+     *
+     * By default, the handler is called on a pool of daemon threads owned by the resource.  An executor set here is
+     * not shut down by the resource.
+     *
+     * @param responseHandlerExecutor the executor - null uses the default pool
+     */
+    public void setResponseHandlerExecutor(Executor responseHandlerExecutor) {
+        this.responseHandlerExecutor = responseHandlerExecutor;
+    }
+
+    /**
+     * Create the executor that writes the scheduled responses of a connection of the blocking engine.  The thread of the
+     * connection is blocked reading the next message, so the responses are written by a thread of their own that
+     * exits when it has been idle for a second.
+     */
+    private ExecutorService createResponseWriter(long connectionId) {
+        ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "MllpServerResource$ResponseWriter-" + connectionId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.allowCoreThreadTimeOut(true);
+        return writer;
+    }
+
+    private ExecutorService createResponseHandlerExecutor() {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "MllpServerResource$ResponseHandler-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Call the response handler for a message and schedule its response.
+     *
+     * The place of the response is reserved before the handler is called, so the responses stay in order.
+     *
+     * @param responses    the scheduled responses of the connection
+     * @param handler      the response handler
+     * @param hl7Message   the bytes containing the HL7 message
+     * @param offset       the offset of the HL7 message
+     * @param length       the length of the HL7 message
+     * @param connectionId the id of the connection
+     * @param receiveNanos the System.nanoTime() the message was received
+     * @param faults       the faults to inject into the response
+     * @param delayNanos   the acknowledgement delay, applied after the handler completes
+     */
+    void scheduleHandlerResponse(MllpScheduledResponses responses, MllpResponseHandler handler, byte[] hl7Message, int offset, int length,
+                                 long connectionId, long receiveNanos, int faults, long delayNanos) {
+        MllpScheduledResponses.Response reserved = responses.reserve(receiveNanos, MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT.isSet(faults));
+        if (null == reserved) {
+            return;
+        }
+
+        byte[] message = Arrays.copyOfRange(hl7Message, offset, offset + length);
+        invokeResponseHandler(handler, message, connectionId).whenComplete((body, failure) -> {
+            byte[] responseBody = body;
+            if (null != failure) {
+                log.error("Response handler failed - sending an application error acknowledgement", failure);
+                MllpAcknowledgementBuilder errorBuilder = createAcknowledgementBuilder();
+                errorBuilder.appendAcknowledgement(message, 0, message.length, MllpAcknowledgementBuilder.APPLICATION_ERROR);
+                responseBody = errorBuilder.removeFrom(0);
+            }
+            responses.complete(reserved, (null != responseBody) ? frameResponse(responseBody, faults) : null, delayNanos);
+        });
+    }
+
+    private CompletionStage<byte[]> invokeResponseHandler(MllpResponseHandler handler, byte[] message, long connectionId) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        Executor executor = responseHandlerExecutor;
+        if (null == executor) {
+            executor = defaultResponseHandlerExecutor;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    CompletionStage<byte[]> stage = handler.handleMessage(message, connectionId);
+                    if (null == stage) {
+                        result.complete(null);
+                    } else {
+                        stage.whenComplete((body, failure) -> {
+                            if (null != failure) {
+                                result.completeExceptionally(failure);
+                            } else {
+                                result.complete(body);
+                            }
+                        });
+                    }
+                } catch (Exception ex) {
+                    result.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException rejectedEx) {
+            result.completeExceptionally(rejectedEx);
+        }
+        return result;
+    }
+
+    /**
+     * Add the MLLP envelope and out-of-band data to a response produced by a response handler.
+     */
+    byte[] frameResponse(byte[] body, int faults) {
+        MllpAcknowledgementBuilder builder = new MllpAcknowledgementBuilder(body.length + OUT_OF_BAND_DATA.length + 3);
+        appendEnvelopeStart(builder, faults);
+        if (MllpFault.EXCLUDE_ACKNOWLEDGEMENT.isSet(faults)) {
+            log.info("NOT sending Acknowledgement body");
+        } else {
+            builder.append(body, 0, body.length);
+        }
+        appendEnvelopeEnd(builder, faults);
+        return builder.removeFrom(0);
+    }
+
+    private ScheduledExecutorService createResponseScheduler() {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(responseSchedulerThreadCount, runnable -> {
+            Thread thread = new Thread(runnable, "MllpServerResource$ResponseScheduler-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    public long getReadBytesPerSecond() {
+        return readBytesPerSecond;
+    }
+
+    /**
+     * Limit the rate bytes are read from each connection, to simulate a slow consumer.
+     *
+     * The limit applies to each connection separately, and can be overridden for a connection using
+     * getConnectionThrottle(long).  It can be changed while the resource is running.
+     *
+     * @param readBytesPerSecond the rate - 0 disables the limit
+     */
+    public void setReadBytesPerSecond(long readBytesPerSecond) {
+        if (0 > readBytesPerSecond) {
+            this.readBytesPerSecond = 0;
+        } else {
+            this.readBytesPerSecond = readBytesPerSecond;
+        }
+    }
+
+    public long getWriteBytesPerSecond() {
+        return writeBytesPerSecond;
+    }
+
+    /**
+     * Limit the rate responses are written to each connection, to trickle acknowledgements out.
+     *
+     * The limit applies to each connection separately, and can be overridden for a connection using
+     * getConnectionThrottle(long).  It can be changed while the resource is running.
+     *
+     * @param writeBytesPerSecond the rate - 0 disables the limit
+     */
+    public void setWriteBytesPerSecond(long writeBytesPerSecond) {
+        if (0 > writeBytesPerSecond) {
+            this.writeBytesPerSecond = 0;
+        } else {
+            this.writeBytesPerSecond = writeBytesPerSecond;
+        }
+    }
+
+    public int getWritePacketSize() {
+        return writePacketSize;
+    }
+
+    /**
+     * Split responses into packets of at most this size, each written and flushed separately.
+     *
+     * TCP_NODELAY is enabled on connections that split responses, so the packets are not coalesced by the TCP stack.
+     *
+     * @param writePacketSize the packet size - 0 writes each response at once
+     */
+    public void setWritePacketSize(int writePacketSize) {
+        if (0 > writePacketSize) {
+            this.writePacketSize = 0;
+        } else {
+            this.writePacketSize = writePacketSize;
+        }
+    }
+
+    public int getThrottleBurstSize() {
+        return throttleBurstSize;
+    }
+
+    /**
+     * Set the number of bytes that can be read or written at once before the rate limits apply.
+     *
+     * @param throttleBurstSize the burst size - 0 uses a tenth of the rate
+     */
+    public void setThrottleBurstSize(int throttleBurstSize) {
+        if (0 > throttleBurstSize) {
+            this.throttleBurstSize = 0;
+        } else {
+            this.throttleBurstSize = throttleBurstSize;
+        }
+    }
+
+    /**
+     * Get the bandwidth limits of an open connection, so they can be changed for that connection only.
+     *
+     * @param connectionId the ID of the connection - see MllpConnectionMetrics.getConnectionId()
+     *
+     * @return the limits for the connection, or null if the connection is not open
+     */
+    public MllpConnectionThrottle getConnectionThrottle(long connectionId) {
+        return connectionThrottles.get(connectionId);
+    }
+
+    MllpConnectionThrottle openConnectionThrottle(long connectionId) {
+        MllpConnectionThrottle throttle = new MllpConnectionThrottle(this, connectionId);
+        connectionThrottles.put(connectionId, throttle);
+        return throttle;
+    }
+
+    void closeConnectionThrottle(MllpConnectionThrottle throttle) {
+        connectionThrottles.remove(throttle.connectionId, throttle);
+    }
+
+    public int getAcknowledgementTemplateCacheSize() {
+        return acknowledgementTemplateCacheSize;
+    }
+
+    /**
+     * Set the maximum number of pre-encoded acknowledgement templates that are cached.
+     *
+     * Templates are keyed by the MSH routing fields of the received messages (MSH-3, MSH-4, MSH-5, MSH-6, MSH-9 and
+     * MSH-12), and the least-recently-used template is evicted when the cache is full.  The cache is shared by all of
+     * the connections, so it is disabled by default.  This must be set before the resource is started.
+     *
+     * @param acknowledgementTemplateCacheSize the maximum number of templates - 0 (the default) disables the cache
+     */
+    public void setAcknowledgementTemplateCacheSize(int acknowledgementTemplateCacheSize) {
+        if (0 > acknowledgementTemplateCacheSize) {
+            this.acknowledgementTemplateCacheSize = 0;
+        } else {
+            this.acknowledgementTemplateCacheSize = acknowledgementTemplateCacheSize;
+        }
+    }
+
+    /**
+     * Get the number of acknowledgements built from a cached template since the resource was started.
+     *
+     * @return the number of template cache hits
+     */
+    public long getAcknowledgementTemplateCacheHits() {
+        return (null != acknowledgementTemplateCache) ? acknowledgementTemplateCache.getHits() : 0;
+    }
+
+    /**
+     * Get the number of acknowledgements that required a new template since the resource was started.
+     *
+     * @return the number of template cache misses
+     */
+    public long getAcknowledgementTemplateCacheMisses() {
+        return (null != acknowledgementTemplateCache) ? acknowledgementTemplateCache.getMisses() : 0;
+    }
+
+    /**
+     * Create an acknowledgement builder for a new connection.
+     *
+     * @return a new acknowledgement builder
+     */
+    MllpAcknowledgementBuilder createAcknowledgementBuilder() {
+        return new MllpAcknowledgementBuilder(MllpAcknowledgementBuilder.DEFAULT_BUFFER_SIZE, acknowledgementTemplateCache);
+    }
+
+    public int getReceivedMessageCaptureCapacity() {
+        return receivedMessageCaptureCapacity;
+    }
+
+    /**
+     * Set the capacity of the buffer that captures received messages.
+     *
+     * When the capacity is greater than 0, the payload of every received frame is kept - together with the time it
+     * was received and the ID of the connection - until it is removed with drainReceived().  When the buffer is full,
+     * new messages are dropped and counted.  This must be set before the resource is started.
+     *
+     * @param receivedMessageCaptureCapacity the maximum number of captured messages - 0 disables capture
+     */
+    public void setReceivedMessageCaptureCapacity(int receivedMessageCaptureCapacity) {
+        if (0 > receivedMessageCaptureCapacity) {
+            this.receivedMessageCaptureCapacity = 0;
+        } else {
+            this.receivedMessageCaptureCapacity = receivedMessageCaptureCapacity;
+        }
+    }
+
+    /**
+     * Wait until at least a number of captured messages are available.
+     *
+     * @param messageCount the number of messages
+     * @param timeout      the maximum time to wait, in milliseconds
+     *
+     * @return true if messageCount messages are available; false if the timeout expired
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitMessageCount(int messageCount, long timeout) throws InterruptedException {
+        MllpReceivedMessageBuffer buffer = getReceivedMessageBuffer();
+        return buffer.await(messageCount, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Remove and return the captured messages.
+     *
+     * @return the captured messages, in the order they were received
+     */
+    public List<MllpReceivedMessage> drainReceived() {
+        MllpReceivedMessageBuffer buffer = receivedMessageBuffer;
+        if (null == buffer) {
+            return Collections.emptyList();
+        }
+        return buffer.drain();
+    }
+
+    /**
+     * Get the number of captured messages that have not been removed.
+     *
+     * @return the number of captured messages
+     */
+    public int getReceivedMessageCount() {
+        MllpReceivedMessageBuffer buffer = receivedMessageBuffer;
+        return (null != buffer) ? buffer.size() : 0;
+    }
+
+    /**
+     * Get the number of received messages that were not captured because the buffer was full.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDroppedMessageCount() {
+        MllpReceivedMessageBuffer buffer = receivedMessageBuffer;
+        return (null != buffer) ? buffer.getDroppedCount() : 0;
+    }
+
+    private MllpReceivedMessageBuffer getReceivedMessageBuffer() {
+        MllpReceivedMessageBuffer buffer = receivedMessageBuffer;
+        if (null == buffer) {
+            throw new IllegalStateException("Received message capture is not enabled - set the receivedMessageCaptureCapacity before starting the resource");
+        }
+        return buffer;
+    }
+
+    public MllpSessionRecorder getSessionRecorder() {
+        return sessionRecorder;
+    }
+
+    /**
+     * Record the sessions of the server.
+     *
+     * The connections accepted by the server and the frames they receive are written to the recorder, using the
+     * connection IDs assigned by the server.  The responses of the server are not recorded - record with a
+     * MllpClientResource to capture both directions.  The recorder is not closed by the resource.  This can be changed
+     * while the resource is running.
+     *
+     * @param sessionRecorder the recorder - null stops recording
+     */
+    public void setSessionRecorder(MllpSessionRecorder sessionRecorder) {
+        this.sessionRecorder = sessionRecorder;
+    }
+
+    /**
+     * Record a connection event.  Called by the server engines when a connection is accepted and when it is closed.
+     *
+     * @param connectionId the ID of the connection
+     * @param connected    true when the connection was accepted; false when it was closed
+     */
+    void recordConnectionEvent(long connectionId, boolean connected) {
+        MllpSessionRecorder recorder = sessionRecorder;
+        if (null != recorder) {
+            try {
+                if (connected) {
+                    recorder.recordConnect(connectionId);
+                } else {
+                    recorder.recordDisconnect(connectionId);
+                }
+            } catch (IOException ioEx) {
+                log.error("Unable to record connection event", ioEx);
+            }
+        }
+    }
+
+    public File getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * Set the directory for the journal of received messages.
+     *
+     * When set, every received frame is appended to a segmented, memory-mapped journal in the directory, together with
+     * the ID of the connection, the receive time and the location of MSH-10.  Use a MllpMessageJournalReader to read
+     * the journal.  This must be set before the resource is started.
+     *
+     * @param journalDirectory the journal directory - null disables the journal
+     */
+    public void setJournalDirectory(File journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    /**
+     * Set the size of the data file of each journal segment.
+     *
+     * @param journalSegmentSize the segment size, in bytes
+     */
+    public void setJournalSegmentSize(int journalSegmentSize) {
+        this.journalSegmentSize = journalSegmentSize;
+    }
+
+    /**
+     * Get the journal of received messages.
+     *
+     * @return the journal, or null if the journal is not enabled or the resource is not started
+     */
+    public MllpMessageJournal getJournal() {
+        return journal;
+    }
+
+    public int getMaxConnections() {
+        return connectionLimiter.maxConnections;
+    }
+
+    /**
+     * Set the maximum number of connections that are handled concurrently.
+     *
+     * When the maximum number of connections are open, new connections are handled according to the
+     * connectionOverflowPolicy.  This can be changed while the resource is running.
+     *
+     * @param maxConnections the maximum number of concurrent connections - 0 disables the limit
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (0 > maxConnections) {
+            connectionLimiter.maxConnections = 0;
+        } else {
+            connectionLimiter.maxConnections = maxConnections;
+        }
+    }
+
+    public MllpConnectionOverflowPolicy getConnectionOverflowPolicy() {
+        return connectionOverflowPolicy;
+    }
+
+    /**
+     * Set what is done with new connections when the maximum number of connections are open.
+     *
+     * @param connectionOverflowPolicy REJECT closes the new connection; RESET resets it; QUEUE keeps it open, without
+     *                                 reading from it, until another connection ends
+     */
+    public void setConnectionOverflowPolicy(MllpConnectionOverflowPolicy connectionOverflowPolicy) {
+        if (null == connectionOverflowPolicy) {
+            this.connectionOverflowPolicy = MllpConnectionOverflowPolicy.REJECT;
+        } else {
+            this.connectionOverflowPolicy = connectionOverflowPolicy;
+        }
+    }
+
+    /**
+     * Get the number of connections currently being handled.  Queued connections are not included.
+     *
+     * @return the number of live connections
+     */
+    public int getLiveConnectionCount() {
+        return connectionLimiter.liveConnections.get();
+    }
+
+    /**
+     * Get the number of connections accepted since the resource was started, including connections that exceeded the
+     * maximum number of connections.
+     *
+     * @return the total number of connections
+     */
+    public long getTotalConnectionCount() {
+        return connectionLimiter.totalConnections.get();
+    }
+
+    /**
+     * Get the number of connections that were accepted while the maximum number of connections were open.
+     *
+     * @return the number of rejected, reset and queued connections
+     */
+    public long getOverflowConnectionCount() {
+        return connectionLimiter.overflowConnections.get();
+    }
+
+    /**
+     * Get the number of connections waiting for another connection to end.
+     *
+     * @return the number of queued connections
+     */
+    public int getQueuedConnectionCount() {
+        return connectionLimiter.getQueuedCount();
+    }
+
+    /**
+     * Handle a new connection that was accepted while the maximum number of connections were open.
+     *
+     * @param socket the socket of the new connection
+     * @param start  starts handling the connection - used if the connection is queued
+     */
+    void handleConnectionOverflow(Socket socket, Runnable start) {
+        switch (connectionOverflowPolicy) {
+        case QUEUE:
+            log.info("Maximum of {} connections open - queueing connection from {}", connectionLimiter.maxConnections, socket.getRemoteSocketAddress());
+            connectionLimiter.enqueue(socket, () -> {
+                if (isActive()) {
+                    start.run();
+                } else {
+                    resetConnection(socket);
+                    connectionLimiter.release();
+                }
+            });
+            break;
+        case RESET:
+            log.warn("Maximum of {} connections open - resetting connection from {}", connectionLimiter.maxConnections, socket.getRemoteSocketAddress());
+            resetConnection(socket);
+            break;
+        default:
+            log.warn("Maximum of {} connections open - rejecting connection from {}", connectionLimiter.maxConnections, socket.getRemoteSocketAddress());
+            closeConnection(socket);
+        }
+    }
+
+    /**
+     * Get the live metrics of the server.
+     *
+     * The metrics are reset when the resource is started.
+     *
+     * @return the server metrics
+     */
+    public MllpServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Take a copy of the current metrics of the server.
+     *
+     * @return a snapshot of the server metrics
+     */
+    public MllpServerMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.getSnapshot();
+    }
+
+    public boolean isRegisterMetricsMBean() {
+        return registerMetricsMBean;
+    }
+
+    /**
+     * Enable/disable registering the server metrics with the platform MBeanServer.
+     *
+     * When enabled, the metrics are registered as "com.pronoia.junit.mllp:type=MllpServerResource,port=[listenPort]"
+     * when the resource is started, and unregistered when it is shutdown.
+     *
+     * @param registerMetricsMBean true to register the metrics MBean
+     */
+    public void setRegisterMetricsMBean(boolean registerMetricsMBean) {
+        this.registerMetricsMBean = registerMetricsMBean;
+    }
+
+    /**
+     * Get the name the metrics MBean is registered with.
+     *
+     * @return the ObjectName of the metrics MBean, or null if it is not registered
+     */
+    public ObjectName getMetricsObjectName() {
+        return metricsObjectName;
+    }
+
+    private void registerMetricsMBean() {
+        if (!registerMetricsMBean) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName("com.pronoia.junit.mllp:type=MllpServerResource,port=" + listenPort);
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mbeanServer.isRegistered(objectName)) {
+                log.warn("Metrics MBean {} is already registered - replacing it", objectName);
+                mbeanServer.unregisterMBean(objectName);
+            }
+            mbeanServer.registerMBean(metrics, objectName);
+            metricsObjectName = objectName;
+        } catch (JMException jmxEx) {
+            log.warn("Unable to register the metrics MBean", jmxEx);
+        }
+    }
+
+    private void unregisterMetricsMBean() {
+        if (null != metricsObjectName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsObjectName);
+            } catch (JMException jmxEx) {
+                log.warn("Unable to unregister the metrics MBean {}", metricsObjectName, jmxEx);
+            }
+            metricsObjectName = null;
+        }
+    }
+
+    /**
+     * Assign an ID to a new connection.
+     *
+     * @return the connection ID
+     */
+    long nextConnectionId() {
+        return connectionIdCounter.incrementAndGet();
+    }
+
+    /**
+     * Record a received frame.  Called by the server engines for every non-empty frame, before it is acknowledged.
+     *
+     * @param connectionId the ID of the connection that received the frame
+     * @param hl7Message   the bytes containing the payload of the frame
+     * @param offset       the offset of the payload
+     * @param length       the length of the payload
+     */
+    void recordReceivedMessage(long connectionId, byte[] hl7Message, int offset, int length) {
+        MllpReceivedMessageBuffer buffer = receivedMessageBuffer;
+        MllpMessageJournal currentJournal = journal;
+        MllpSessionRecorder recorder = sessionRecorder;
+        if (null == buffer && null == currentJournal && null == recorder) {
+            return;
+        }
+
+        long receiveTimestamp = System.currentTimeMillis();
+
+        if (null != buffer) {
+            byte[] payload = new byte[length];
+            System.arraycopy(hl7Message, offset, payload, 0, length);
+            if (!buffer.offer(new MllpReceivedMessage(payload, receiveTimestamp, connectionId))) {
+                log.debug("Received message capture buffer is full - message dropped");
+            }
+        }
+
+        if (null != currentJournal) {
+            try {
+                currentJournal.append(connectionId, receiveTimestamp, hl7Message, offset, length);
+            } catch (IOException ioEx) {
+                log.error("Unable to append received message to the journal", ioEx);
+            }
+        }
+
+        if (null != recorder) {
+            try {
+                recorder.recordFrame(connectionId, true, hl7Message, offset, length);
+            } catch (IOException ioEx) {
+                log.error("Unable to record received message", ioEx);
+            }
+        }
+    }
+
+    public void startup() throws IOException {
+        if (null != owner) {
+            throw new IllegalStateException("Additional listeners are started by their owner - start the owning resource instead");
+        }
+        if (null != sslContext && (nioEngine || !listeners.isEmpty())) {
+            throw new IllegalStateException("TLS is not supported by the NIO engine - disable the NIO engine and additional listeners to use TLS");
+        }
+        log.info("startup");
+        this.active = true;
+        boolean started = false;
+        try {
+            readyLatch = new CountDownLatch(1);
+            metrics.reset();
+            connectionIdCounter.set(0);
+            startNanos = System.nanoTime();
+            serverMessageCounter.set(0);
+            for (MllpServerResource listener : listeners) {
+                listener.serverMessageCounter.set(0);
+            }
+            if (null != faultPlan) {
+                log.info("Fault plan seed {}", faultPlan.getSeed());
+            }
+            connectionLimiter.reset();
+            if (0 < receivedMessageCaptureCapacity) {
+                receivedMessageBuffer = new MllpReceivedMessageBuffer(receivedMessageCaptureCapacity);
+            } else {
+                receivedMessageBuffer = null;
+            }
+            if (null != journalDirectory) {
+                journal = new MllpMessageJournal(journalDirectory, journalSegmentSize);
+            }
+            responseScheduler = createResponseScheduler();
+            defaultResponseHandlerExecutor = createResponseHandlerExecutor();
+            if (0 < acknowledgementTemplateCacheSize) {
+                acknowledgementTemplateCache = new MllpAcknowledgementTemplateCache(acknowledgementTemplateCacheSize);
+            } else {
+                acknowledgementTemplateCache = null;
+            }
+            if (nioEngine || !listeners.isEmpty()) {
+                serverNioEngine = new MllpServerNioEngine(this, listenPort, backlog, selectorThreadCount, reuseAddress, createBindRetry());
+                if (0 >= listenPort) {
+                    listenPort = serverNioEngine.listenPort;
+                }
+                try {
+                    for (MllpServerResource listener : listeners) {
+                        listener.listenPort = serverNioEngine.bindListener(listener);
+                    }
+                } catch (IOException bindEx) {
+                    serverNioEngine.shutdown();
+                    serverNioEngine = null;
+                    throw bindEx;
+                }
+                serverNioEngine.start();
+            } else {
+                if (virtualThreads && !MllpVirtualThreads.isSupported()) {
+                    log.warn("Virtual threads are not supported by Java {} - using platform threads", System.getProperty("java.specification.version"));
+                }
+                serverSocketThread = new ServerSocketThread(listenPort, backlog);
+                if (0 >= listenPort) {
+                    listenPort = serverSocketThread.listenPort;
+                }
+                serverSocketThread.setDaemon(true);
+                serverSocketThread.start();
+            }
+            registerMetricsMBean();
+            started = true;
+        } finally {
+            if (!started) {
+                // JUnit does not call after() when before() fails - release the threads and the journal now
+                shutdown();
+            }
+        }
+    }
+
+    public void shutdown() {
+        log.info("shutdown");
+        this.active = false;
+        if (serverSocketThread != null) {
+            serverSocketThread.shutdown();
+            serverSocketThread = null;
+        }
+        if (serverNioEngine != null) {
+            serverNioEngine.shutdown();
+            serverNioEngine = null;
+        }
+        for (Socket queuedSocket : connectionLimiter.clear()) {
+            resetConnection(queuedSocket);
+        }
+        if (responseScheduler != null) {
+            responseScheduler.shutdownNow();
+            responseScheduler = null;
+        }
+        if (defaultResponseHandlerExecutor != null) {
+            defaultResponseHandlerExecutor.shutdownNow();
+            defaultResponseHandlerExecutor = null;
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        unregisterMetricsMBean();
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        if (shared) {
+            acquireShared();
+        } else {
+            start();
+        }
+        super.before();
+    }
+
+    @Override
+    protected void after() {
+        super.after();
+        if (shared) {
+            releaseShared();
+        } else {
+            shutdown();
+        }
+    }
+
+    /**
+     * Get the MllpServerResource shared by every test in the JVM.
+     *
+     * The shared resource can be used as both a @ClassRule and a @Rule, in any number of test classes.  It is started
+     * by its first user and the listener stays open until the JVM exits, so tests do not pay for binding and closing a
+     * listener.  The uses are reference counted; when a use ends, the fault-injection settings and the captured state
+     * are reset (see resetTestState()) without closing the listener, so each test starts from the default behaviour.
+     *
+     * Settings that are only read at startup (i.e. the port, the engine or TLS) must be configured before the shared
+     * resource is first used.
+     *
+     * @return the shared resource
+     */
+    public static synchronized MllpServerResource shared() {
+        if (null == sharedInstance) {
+            MllpServerResource instance = new MllpServerResource();
+            instance.shared = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::shutdown, "MllpServerResource$SharedShutdown"));
+            sharedInstance = instance;
+        }
+        return sharedInstance;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Get the number of rules currently using the shared resource.
+     *
+     * @return the number of uses that have started and not ended
+     */
+    public synchronized int getSharedReferenceCount() {
+        return sharedReferenceCount;
+    }
+
+    private synchronized void acquireShared() throws Throwable {
+        if (!sharedStarted) {
+            start();
+            sharedStarted = true;
+        }
+        ++sharedReferenceCount;
+    }
+
+    private synchronized void releaseShared() {
+        if (0 < sharedReferenceCount) {
+            --sharedReferenceCount;
+        }
+        resetTestState();
+    }
+
+    private void start() throws Throwable {
+        startup();
+        if (!awaitReady(startupTimeout, TimeUnit.MILLISECONDS)) {
+            shutdown();
+            throw new MllpJUnitResourceTimeoutException(String.format("Listener on port %d was not accepting connections after %d milliseconds", listenPort, startupTimeout));
+        }
+    }
+
+    /**
+     * Restore the default behaviour of a running resource without closing the listener.
+     *
+     * The modulus and pattern settings, the fault plan, the acknowledgement rules, the acknowledgement delay, the
+     * response handler and the throttle rates are cleared - for the additional listeners as well - and the captured
+     * messages, the metrics and the server-wide message count are reset.  The connection limit, the connection overflow
+     * policy, acknowledgement batching and the session recorder are restored to their defaults; the recorder is not
+     * closed.  Open connections are not closed.
+     */
+    public synchronized void resetTestState() {
+        resetFaultSettings();
+        for (MllpServerResource listener : listeners) {
+            listener.resetFaultSettings();
+        }
+        acknowledgementDelay = null;
+        responseHandler = null;
+        readBytesPerSecond = 0;
+        writeBytesPerSecond = 0;
+        writePacketSize = 0;
+        throttleBurstSize = 0;
+        setMaxConnections(0);
+        connectionOverflowPolicy = MllpConnectionOverflowPolicy.REJECT;
+        batchAcknowledgements = false;
+        sessionRecorder = null;
+        if (null != receivedMessageBuffer) {
+            receivedMessageBuffer = new MllpReceivedMessageBuffer(receivedMessageCaptureCapacity);
+        }
+        metrics.reset();
+        startNanos = System.nanoTime();
+    }
+
+    synchronized void resetFaultSettings() {
+        excludeStartOfBlockModulus = 0;
+        excludeEndOfBlockModulus = 0;
+        excludeEndOfDataModulus = 0;
+        excludeAcknowledgementModulus = 0;
+        sendOutOfBandDataModulus = 0;
+        disconnectBeforeAcknowledgementModulus = 0;
+        disconnectAfterAcknowledgementModulus = 0;
+        sendApplicationRejectAcknowledgementModulus = 0;
+        sendApplicationErrorAcknowledgementModulus = 0;
+        sendApplicationRejectAcknowledgementPattern = null;
+        sendApplicationErrorAcknowledgementPattern = null;
+        acknowledgementRules = MllpAcknowledgementRuleIndex.EMPTY;
+        faultPlan = null;
+        serverMessageCounter.set(0);
+        compileFaultTable();
+    }
+
+    public void interrupt() {
+        if (serverSocketThread != null) {
+            serverSocketThread.interrupt();
+        }
+        if (serverNioEngine != null) {
+            serverNioEngine.interrupt();
+        }
+    }
+
+    public boolean sendApplicationRejectAcknowledgement(String hl7Message) {
+        return evaluatePatten(mshSegment(hl7Message), this.sendApplicationRejectAcknowledgementPattern);
+    }
+
+    public boolean sendApplicationErrorAcknowledgement(String hl7Message) {
+        return evaluatePatten(mshSegment(hl7Message), this.sendApplicationErrorAcknowledgementPattern);
+    }
+
+    private static String mshSegment(String hl7Message) {
+        if (null == hl7Message) {
+            return null;
+        }
+        int segmentEnd = hl7Message.indexOf(SEGMENT_DELIMITER);
+        return (-1 == segmentEnd) ? hl7Message : hl7Message.substring(0, segmentEnd);
+    }
+
+    /**
+     * Add a rule that selects the acknowledgement code by the values of the MSH fields of a message.
+     *
+     * The rules are evaluated after the modulus settings and the fault plan, and before the acknowledgement patterns.
+     * This can be changed while the resource is running.
+     *
+     * @param rule the rule
+     */
+    public synchronized void addAcknowledgementRule(MllpAcknowledgementRule rule) {
+        List<MllpAcknowledgementRule> rules = new ArrayList<>(acknowledgementRules.rules);
+        rules.add(rule);
+        acknowledgementRules = new MllpAcknowledgementRuleIndex(rules);
     }
 
-    public boolean sendApplicationRejectAcknowledgement(String hl7Message) {
-        return evaluatePatten(hl7Message, this.sendApplicationErrorAcknowledgementPattern);
+    public List<MllpAcknowledgementRule> getAcknowledgementRules() {
+        return acknowledgementRules.rules;
     }
 
-    public boolean sendApplicationErrorAcknowledgement(String hl7Message) {
-        return evaluatePatten(hl7Message, this.sendApplicationRejectAcknowledgementPattern);
+    public synchronized void clearAcknowledgementRules() {
+        acknowledgementRules = MllpAcknowledgementRuleIndex.EMPTY;
     }
 
     public boolean sendApplicationRejectAcknowledgement(int messageCount) {
@@ -197,6 +1606,77 @@ public class MllpServerResource extends ExternalResource {
     }
 
 
+    public MllpFaultPlan getFaultPlan() {
+        return faultPlan;
+    }
+
+    /**
+     * Set a plan of fault-injection rules.
+     *
+     * The rules of the plan are applied in addition to the modulus settings.  The plan is compiled when it is set, so
+     * changes to the plan after it is set have no effect until it is set again.  This can be changed while the
+     * resource is running.
+     *
+     * @param faultPlan the plan - null removes the plan
+     */
+    public void setFaultPlan(MllpFaultPlan faultPlan) {
+        this.faultPlan = faultPlan;
+        compileFaultTable();
+    }
+
+    /**
+     * Compile the modulus settings and the fault plan into the fault table.
+     */
+    synchronized void compileFaultTable() {
+        List<MllpFaultRule> rules = new ArrayList<>();
+        addModulusRule(rules, MllpFault.SEND_OUT_OF_BAND_DATA, sendOutOfBandDataModulus);
+        addModulusRule(rules, MllpFault.EXCLUDE_START_OF_BLOCK, excludeStartOfBlockModulus);
+        addModulusRule(rules, MllpFault.EXCLUDE_ACKNOWLEDGEMENT, excludeAcknowledgementModulus);
+        addModulusRule(rules, MllpFault.EXCLUDE_END_OF_BLOCK, excludeEndOfBlockModulus);
+        addModulusRule(rules, MllpFault.EXCLUDE_END_OF_DATA, excludeEndOfDataModulus);
+        addModulusRule(rules, MllpFault.DISCONNECT_BEFORE_ACKNOWLEDGEMENT, disconnectBeforeAcknowledgementModulus);
+        addModulusRule(rules, MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT, disconnectAfterAcknowledgementModulus);
+        addModulusRule(rules, MllpFault.SEND_APPLICATION_ERROR_ACKNOWLEDGEMENT, sendApplicationErrorAcknowledgementModulus);
+        addModulusRule(rules, MllpFault.SEND_APPLICATION_REJECT_ACKNOWLEDGEMENT, sendApplicationRejectAcknowledgementModulus);
+
+        MllpFaultPlan plan = faultPlan;
+        long seed = 0;
+        if (null != plan) {
+            rules.addAll(plan.rules);
+            seed = plan.seed;
+        }
+
+        faultTable = rules.isEmpty() ? MllpFaultTable.EMPTY : new MllpFaultTable(seed, rules);
+    }
+
+    private static void addModulusRule(List<MllpFaultRule> rules, MllpFault fault, int modulus) {
+        if (0 < modulus) {
+            rules.add(MllpFaultRule.everyNth(fault, modulus));
+        }
+    }
+
+    /**
+     * Determine the faults to inject into the response to a message.
+     *
+     * @param connectionId the id of the connection the message was received on
+     * @param messageCount the number of messages received on the connection, including this one
+     *
+     * @return the set of faults - see MllpFault
+     */
+    int evaluateFaults(long connectionId, int messageCount) {
+        MllpFaultTable table = faultTable;
+        if (table.isEmpty()) {
+            return 0;
+        }
+        long serverMessageCount = table.usesServerScope ? serverMessageCounter.incrementAndGet() : 0;
+        long elapsedMillis = 0;
+        if (table.usesTimeWindows) {
+            long start = (null != owner) ? owner.startNanos : startNanos;
+            elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        return table.evaluate(connectionId, messageCount, serverMessageCount, elapsedMillis);
+    }
+
     public boolean isActive() {
         return active;
     }
@@ -230,6 +1710,7 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.excludeStartOfBlockModulus = excludeStartOfBlockModulus;
         }
+        compileFaultTable();
     }
 
     public void enableMllpEnvelope() {
@@ -293,6 +1774,7 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.excludeEndOfBlockModulus = excludeEndOfBlockModulus;
         }
+        compileFaultTable();
     }
 
     public int getExcludeEndOfDataModulus() {
@@ -305,6 +1787,7 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.excludeEndOfDataModulus = excludeEndOfDataModulus;
         }
+        compileFaultTable();
     }
 
     public int getExcludeAcknowledgementModulus() {
@@ -317,6 +1800,7 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.excludeAcknowledgementModulus = excludeAcknowledgementModulus;
         }
+        compileFaultTable();
     }
 
 
@@ -330,6 +1814,7 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.sendOutOfBandDataModulus = sendOutOfBandDataModulus;
         }
+        compileFaultTable();
     }
 
     public int getDisconnectBeforeAcknowledgementModulus() {
@@ -342,6 +1827,7 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.disconnectBeforeAcknowledgementModulus = disconnectBeforeAcknowledgementModulus;
         }
+        compileFaultTable();
     }
 
     public int getDisconnectAfterAcknowledgementModulus() {
@@ -354,6 +1840,7 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.disconnectAfterAcknowledgementModulus = disconnectAfterAcknowledgementModulus;
         }
+        compileFaultTable();
     }
 
     public int getSendApplicationRejectAcknowledgementModulus() {
@@ -366,6 +1853,7 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.sendApplicationRejectAcknowledgementModulus = sendApplicationRejectAcknowledgementModulus;
         }
+        compileFaultTable();
     }
 
     public int getSendApplicationErrorAcknowledgementModulus() {
@@ -378,12 +1866,22 @@ public class MllpServerResource extends ExternalResource {
         } else {
             this.sendApplicationErrorAcknowledgementModulus = sendApplicationErrorAcknowledgementModulus;
         }
+        compileFaultTable();
     }
 
     public Pattern getSendApplicationRejectAcknowledgementPattern() {
         return sendApplicationRejectAcknowledgementPattern;
     }
 
+    /**
+     * Set the pattern used to select messages that are sent an application reject acknowledgement (AR).
+     *
+     * The pattern must match the complete MSH segment of the message, excluding the segment delimiter.  Patterns are
+     * only evaluated if neither the fault-injection settings nor the acknowledgement rules select a code - use an
+     * MllpAcknowledgementRule for selections based on the values of MSH fields.
+     *
+     * @param sendApplicationRejectAcknowledgementPattern the pattern - null disables the pattern
+     */
     public void setSendApplicationRejectAcknowledgementPattern(Pattern sendApplicationRejectAcknowledgementPattern) {
         this.sendApplicationRejectAcknowledgementPattern = sendApplicationRejectAcknowledgementPattern;
     }
@@ -392,6 +1890,15 @@ public class MllpServerResource extends ExternalResource {
         return sendApplicationErrorAcknowledgementPattern;
     }
 
+    /**
+     * Set the pattern used to select messages that are sent an application error acknowledgement (AE).
+     *
+     * The pattern must match the complete MSH segment of the message, excluding the segment delimiter.  Patterns are
+     * only evaluated if neither the fault-injection settings nor the acknowledgement rules select a code - use an
+     * MllpAcknowledgementRule for selections based on the values of MSH fields.
+     *
+     * @param sendApplicationErrorAcknowledgementPattern the pattern - null disables the pattern
+     */
     public void setSendApplicationErrorAcknowledgementPattern(Pattern sendApplicationErrorAcknowledgementPattern) {
         this.sendApplicationErrorAcknowledgementPattern = sendApplicationErrorAcknowledgementPattern;
     }
@@ -404,6 +1911,108 @@ public class MllpServerResource extends ExternalResource {
         this.serverSocketThread = serverSocketThread;
     }
 
+    /**
+     * Generates the bytes sent to the client in response to a HL7 message.
+     *
+     * The acknowledgement code, out-of-band data and MLLP envelope are controlled by the fault-injection
+     * settings of this resource, so every server engine responds the same way.  The response is appended to the
+     * output buffer of the acknowledgement builder.
+     *
+     * @param hl7Message             the bytes containing the HL7 message that is being acknowledged
+     * @param offset                 the offset of the HL7 message
+     * @param length                 the length of the HL7 message
+     * @param faults                 the faults to inject into the response - see evaluateFaults
+     * @param acknowledgementBuilder the builder for the connection
+     * @param connectionMetrics      the metrics for the connection
+     */
+    void generateResponse(byte[] hl7Message, int offset, int length, int faults, MllpAcknowledgementBuilder acknowledgementBuilder,
+                          MllpConnectionMetrics connectionMetrics) {
+        byte[] acknowledgementCode;
+        if (MllpFault.SEND_APPLICATION_ERROR_ACKNOWLEDGEMENT.isSet(faults)) {
+            acknowledgementCode = MllpAcknowledgementBuilder.APPLICATION_ERROR;
+        } else if (MllpFault.SEND_APPLICATION_REJECT_ACKNOWLEDGEMENT.isSet(faults)) {
+            acknowledgementCode = MllpAcknowledgementBuilder.APPLICATION_REJECT;
+        } else {
+            acknowledgementCode = selectAcknowledgementCode(hl7Message, offset, length, acknowledgementBuilder);
+        }
+
+        appendEnvelopeStart(acknowledgementBuilder, faults);
+
+        if (MllpFault.EXCLUDE_ACKNOWLEDGEMENT.isSet(faults)) {
+            log.info("NOT sending Acknowledgement body");
+        } else {
+            int acknowledgementOffset = acknowledgementBuilder.getLength();
+            acknowledgementBuilder.appendAcknowledgement(hl7Message, offset, length, acknowledgementCode);
+            connectionMetrics.recordAcknowledgementCode(acknowledgementCode);
+            if (log.isDebugEnabled()) {
+                log.debug("Buffering Acknowledgement\n\t{}",
+                    acknowledgementBuilder.toString(acknowledgementOffset, acknowledgementBuilder.getLength() - acknowledgementOffset).replace('\r', '\n'));
+            }
+        }
+
+        appendEnvelopeEnd(acknowledgementBuilder, faults);
+    }
+
+    private void appendEnvelopeStart(MllpAcknowledgementBuilder acknowledgementBuilder, int faults) {
+        if (MllpFault.SEND_OUT_OF_BAND_DATA.isSet(faults)) {
+            acknowledgementBuilder.append(OUT_OF_BAND_DATA, 0, OUT_OF_BAND_DATA.length);
+        }
+
+        if (MllpFault.EXCLUDE_START_OF_BLOCK.isSet(faults)) {
+            log.warn("NOT sending START_OF_BLOCK");
+        } else {
+            acknowledgementBuilder.append((byte) START_OF_BLOCK);
+        }
+    }
+
+    private void appendEnvelopeEnd(MllpAcknowledgementBuilder acknowledgementBuilder, int faults) {
+        if (MllpFault.EXCLUDE_END_OF_BLOCK.isSet(faults)) {
+            log.warn("NOT sending END_OF_BLOCK");
+        } else {
+            acknowledgementBuilder.append((byte) END_OF_BLOCK);
+        }
+
+        if (MllpFault.EXCLUDE_END_OF_DATA.isSet(faults)) {
+            log.warn("NOT sending END_OF_DATA");
+        } else {
+            acknowledgementBuilder.append((byte) END_OF_DATA);
+        }
+    }
+
+    /**
+     * Select the acknowledgement code using the acknowledgement rules, falling back to the patterns.
+     */
+    private byte[] selectAcknowledgementCode(byte[] hl7Message, int offset, int length, MllpAcknowledgementBuilder acknowledgementBuilder) {
+        MllpAcknowledgementRuleIndex rules = acknowledgementRules;
+        Pattern errorPattern = sendApplicationErrorAcknowledgementPattern;
+        Pattern rejectPattern = sendApplicationRejectAcknowledgementPattern;
+        if (rules.isEmpty() && null == errorPattern && null == rejectPattern) {
+            return MllpAcknowledgementBuilder.APPLICATION_ACCEPT;
+        }
+
+        boolean mshFound = acknowledgementBuilder.scanMsh(hl7Message, offset, length);
+        if (mshFound && !rules.isEmpty()) {
+            byte[] acknowledgementCode = rules.lookup(acknowledgementBuilder, acknowledgementBuilder.ruleProbe);
+            if (null != acknowledgementCode) {
+                return acknowledgementCode;
+            }
+        }
+
+        if (null != errorPattern || null != rejectPattern) {
+            // Only the MSH segment is matched, so large messages do not make the patterns more expensive
+            int segmentLength = mshFound ? acknowledgementBuilder.mshEnd - offset : length;
+            String mshSegment = new String(hl7Message, offset, segmentLength, StandardCharsets.ISO_8859_1);
+            if (evaluatePatten(mshSegment, errorPattern)) {
+                return MllpAcknowledgementBuilder.APPLICATION_ERROR;
+            }
+            if (evaluatePatten(mshSegment, rejectPattern)) {
+                return MllpAcknowledgementBuilder.APPLICATION_REJECT;
+            }
+        }
+
+        return MllpAcknowledgementBuilder.APPLICATION_ACCEPT;
+    }
+
     void closeConnection(Socket socket) {
         if (null != socket) {
             if (!socket.isClosed()) {
@@ -453,12 +2062,12 @@ public class MllpServerResource extends ExternalResource {
         int listenPort;
         int backlog = 5;
 
-        int maxBindAttempts = 12;
         int acceptTimeout = 15000;
 
         boolean raiseExceptionOnAcceptTimeout;
 
-        List<ClientSocketThread> clientSocketThreadList = new LinkedList<>();
+        // Handlers remove themselves when their connection ends
+        final ConcurrentMap<Long, ClientSocketThread> clientSocketThreads = new ConcurrentHashMap<>();
 
         ServerSocketThread() throws IOException {
             bind();
@@ -489,33 +2098,31 @@ public class MllpServerResource extends ExternalResource {
          */
         private void bind() throws IOException {
             this.setDaemon(true);
-            serverSocket = new ServerSocket();
+            if (null != sslContext) {
+                configureSslSessionContext();
+                tlsSessions = new MllpTlsSessions(Math.max(sslContext.getServerSessionContext().getSessionCacheSize(), 1024));
+                SSLServerSocket sslServerSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket();
+                if (null != sslEnabledProtocols) {
+                    sslServerSocket.setEnabledProtocols(sslEnabledProtocols);
+                }
+                serverSocket = sslServerSocket;
+            } else {
+                serverSocket = new ServerSocket();
+            }
 
             // Set TCP Parameters
             serverSocket.setSoTimeout(acceptTimeout);
-            serverSocket.setReuseAddress(false);
+            serverSocket.setReuseAddress(reuseAddress);
 
             if (0 >= listenPort) {
                 serverSocket.bind(null, backlog);
             } else {
                 InetSocketAddress bindAddress = new InetSocketAddress(this.listenHost, this.listenPort);
-                int bindAttemptCounter = 0;
-
-                while (!serverSocket.isBound()) {
-                    try {
-                        serverSocket.bind(bindAddress, backlog);
-                    } catch (BindException bindEx) {
-                        if (bindAttemptCounter < maxBindAttempts) {
-                            log.warn("Bind Attempt {} failed - retrying in {} milliseconds ", ++bindAttemptCounter, acceptTimeout);
-                            try {
-                                Thread.sleep(acceptTimeout);
-                            } catch (InterruptedException e) {
-                                log.warn("Sleeping for bind retry interrupted");
-                            }
-                        } else {
-                            throw bindEx;
-                        }
-                    }
+                try {
+                    createBindRetry().bind(() -> serverSocket.bind(bindAddress, backlog), log);
+                } catch (IOException bindEx) {
+                    serverSocket.close();
+                    throw bindEx;
                 }
             }
 
@@ -533,6 +2140,7 @@ public class MllpServerResource extends ExternalResource {
         public void run() {
             log.info("Accepting connections on port {}", serverSocket.getLocalPort());
             this.setName("MllpServerResource$ServerSocketThread - " + serverSocket.getLocalSocketAddress().toString());
+            signalReady();
             while (isActive() && serverSocket.isBound()) {
                 Socket clientSocket = null;
                 try {
@@ -541,10 +2149,12 @@ public class MllpServerResource extends ExternalResource {
                     clientSocket.setTcpNoDelay(false);
                     clientSocket.setSoLinger(false, -1);
                     clientSocket.setSoTimeout(5000);
-                    ClientSocketThread clientSocketThread = new ClientSocketThread(clientSocket);
-                    clientSocketThread.setDaemon(true);
-                    clientSocketThread.start();
-                    clientSocketThreadList.add(clientSocketThread);
+                    if (connectionLimiter.admit()) {
+                        startClientSocketThread(clientSocket);
+                    } else {
+                        final Socket queuedSocket = clientSocket;
+                        handleConnectionOverflow(clientSocket, () -> startClientSocketThread(queuedSocket));
+                    }
                 } catch (SocketTimeoutException timeoutEx) {
                     if (raiseExceptionOnAcceptTimeout) {
                         throw new MllpJUnitResourceTimeoutException("Timeout Accepting client connection", timeoutEx);
@@ -563,10 +2173,8 @@ public class MllpServerResource extends ExternalResource {
                 }
             }
             log.info("No longer accepting connections - closing TCP Listener on port {}", serverSocket.getLocalPort());
-            if (clientSocketThreadList != null && !clientSocketThreadList.isEmpty()) {
-                for (ClientSocketThread clientSocketThread : clientSocketThreadList) {
-                    clientSocketThread.shutdown(true);
-                }
+            for (ClientSocketThread clientSocketThread : clientSocketThreads.values()) {
+                clientSocketThread.shutdown(true);
             }
             try {
                 serverSocket.close();
@@ -584,14 +2192,47 @@ public class MllpServerResource extends ExternalResource {
                     log.warn("Error closing server socket");
                 }
             }
-            if (clientSocketThreadList != null && !clientSocketThreadList.isEmpty()) {
-                for (ClientSocketThread clientSocketThread : clientSocketThreadList) {
-                    clientSocketThread.shutdown(true);
-                }
-                clientSocketThreadList.clear();
+            for (ClientSocketThread clientSocketThread : clientSocketThreads.values()) {
+                clientSocketThread.shutdown(true);
             }
 
             this.interrupt();
+
+            // The listener is only released once the accept call returns, so wait for it before the port is bound again
+            if (Thread.currentThread() != this) {
+                try {
+                    this.join(acceptTimeout);
+                } catch (InterruptedException interruptedEx) {
+                    log.warn("Interrupted waiting for {} to stop", this.getName());
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Start a handler for an admitted connection.
+         *
+         * @param clientSocket the socket of the connection
+         */
+        void startClientSocketThread(Socket clientSocket) {
+            ClientSocketThread clientSocketThread = new ClientSocketThread(this, clientSocket);
+            clientSocketThreads.put(clientSocketThread.connectionId, clientSocketThread);
+            if (virtualThreads) {
+                // Falls back to a platform thread before Java 21 - the startup log warns about it
+                MllpVirtualThreads.start("MllpServerResource$ClientSocketThread - " + clientSocket.getRemoteSocketAddress(), clientSocketThread);
+            } else {
+                clientSocketThread.setDaemon(true);
+                clientSocketThread.start();
+            }
+        }
+
+        /**
+         * Get the handlers of the open connections.
+         *
+         * @return the handlers, in no particular order
+         */
+        public Collection<ClientSocketThread> getClientSocketThreads() {
+            return Collections.unmodifiableCollection(clientSocketThreads.values());
         }
 
         public String getListenHost() {
@@ -639,21 +2280,50 @@ public class MllpServerResource extends ExternalResource {
 
     /**
      * Nested class that handles the established TCP connections
+     *
+     * When virtual threads are enabled, the instance is not started - it is run as the task of a virtual thread.
      */
     class ClientSocketThread extends Thread {
         Logger log = LoggerFactory.getLogger(this.getClass());
 
+        final ServerSocketThread serverSocketThread;
         Socket clientSocket;
 
+        final MllpFrameDecoder frameDecoder = new MllpFrameDecoder();
+        final MllpAcknowledgementBuilder acknowledgementBuilder = createAcknowledgementBuilder();
+
+        final long connectionId = nextConnectionId();
+        final MllpConnectionMetrics connectionMetrics;
+        final MllpConnectionThrottle throttle = openConnectionThrottle(connectionId);
         int messageCounter;
+        boolean endOfStream;
+        boolean tcpNoDelayEnabled;
+        final AtomicBoolean finished = new AtomicBoolean();
+
+        // Created when the first response on the connection is delayed - all later responses are scheduled to keep them in order
+        MllpScheduledResponses scheduledResponses;
+        // Writes the scheduled responses, so a blocked or throttled write only holds up this connection
+        ExecutorService responseWriter;
 
         ClientSocketThread(Socket clientSocket) {
+            this(null, clientSocket);
+        }
+
+        ClientSocketThread(ServerSocketThread serverSocketThread, Socket clientSocket) {
+            this.serverSocketThread = serverSocketThread;
             this.clientSocket = clientSocket;
+            this.connectionMetrics = metrics.openConnection(connectionId, String.valueOf(clientSocket.getLocalSocketAddress()),
+                String.valueOf(clientSocket.getRemoteSocketAddress()));
+            recordConnectionEvent(connectionId, true);
         }
 
         public void shutdown(boolean reset) {
+            if (null != scheduledResponses) {
+                scheduledResponses.discard();
+            }
             if (clientSocket != null && clientSocket.isConnected() && !clientSocket.isClosed()) {
                 if (reset) {
+                    connectionMetrics.recordReset();
                     resetConnection(clientSocket);
                 } else {
                     closeConnection(clientSocket);
@@ -672,248 +2342,336 @@ public class MllpServerResource extends ExternalResource {
          */
         // TODO:  Enhance this to detect non-HL7 data (i.e. look for MSH after START_OF_BLOCK)
         public String getMessage(InputStream anInputStream) throws IOException {
-            try {
-                // TODO:  Enhance this to read a bunch of characters and log, rather than log them one at a time
-                boolean waitingForStartOfBlock = true;
-                while (waitingForStartOfBlock) {
-                    try {
-                        int potentialStartCharacter = anInputStream.read();
-                        switch (potentialStartCharacter) {
-                        case END_OF_STREAM:
-                            return null;
-                        case START_OF_BLOCK:
-                            waitingForStartOfBlock = false;
-                            break;
-                        default:
-                            log.warn("START_OF_BLOCK character has not been received.  Out-of-band character received: {}", potentialStartCharacter);
-                        }
-                    } catch (SocketTimeoutException timeoutEx) {
-                        log.info("Timeout before START_OF_BLOCK character received - no messages available");
-                        return null;
-                    }
-                }
-            } catch (SocketException socketEx) {
-                log.error("Unable to read from socket stream when expected START_OF_BLOCK - resetting connection ", socketEx);
-                resetConnection(clientSocket);
-                return null;
-            }
-
-            boolean endOfMessage = false;
-            StringBuilder parsedMessage = new StringBuilder(anInputStream.available() + 10);
-            while (!endOfMessage) {
-                int characterReceived = anInputStream.read();
-
-                switch (characterReceived) {
-                case START_OF_BLOCK:
-                    log.error("Received START_OF_BLOCK before END_OF_DATA.  Discarding data: {}", parsedMessage.toString());
-                    return null;
-                case END_OF_STREAM:
-                    log.error("Received END_OF_STREAM without END_OF_DATA.  Discarding data: {}", parsedMessage.toString());
-                    return null;
-                case END_OF_BLOCK:
-                    characterReceived = anInputStream.read();
-                    if (characterReceived != END_OF_DATA) {
-                        log.error("Received {} when expecting END_OF_DATA after END_OF_BLOCK.  Discarding Hl7MessageGenerator: {}",
-                            characterReceived, parsedMessage.toString());
-                        return null;
-                    }
-                    endOfMessage = true;
-                    break;
-                default:
-                    parsedMessage.append((char) characterReceived);
-                }
-
+            if (readFrame(anInputStream)) {
+                return frameDecoder.getFrameAsString();
             }
 
-            return parsedMessage.toString();
-        }        /**
-         * Receives HL7 messages and replies with HL7 Acknowledgements.
+            return null;
+        }
+
+        /**
+         * Read a MLLP-Framed message into the frame decoder.
          *
-         * The exact behaviour of this method is very configurable, allowing simulation of varies
-         * error conditions.
+         * Bytes are read from the stream in bulk, and any bytes following the frame are kept for the next call.
+         *
+         * @param anInputStream source input stream
+         *
+         * @return true if a frame was read - the payload is available from the frame decoder
+         *
+         * @throws IOException when the underlying Java Socket calls raise these exceptions
          */
-        public void run() {
-            String localAddress = clientSocket.getLocalAddress().toString();
-            String remoteAddress = clientSocket.getRemoteSocketAddress().toString();
-
-            log.info("Handling Connection: {} -> {}", localAddress, remoteAddress);
-
-            try {
-                while (null != clientSocket && clientSocket.isConnected() && !clientSocket.isClosed()) {
-                    InputStream instream = clientSocket.getInputStream();
-                    String parsedHL7Message = getMessage(instream);
-
-                    if (null != parsedHL7Message && parsedHL7Message.length() > 0) {
-                        ++messageCounter;
-                        if (disconnectBeforeAcknowledgement(messageCounter)) {
-                            log.warn("Disconnecting before sending acknowledgement");
-                            clientSocket.shutdownInput();
-                            clientSocket.shutdownOutput();
-                            clientSocket.close();
-                            break;
-                        }
-
-                        String acknowledgmentMessage;
-
-                        if (sendApplicationErrorAcknowledgement(messageCounter) || sendApplicationErrorAcknowledgement(parsedHL7Message)) {
-                            acknowledgmentMessage = generateAcknowledgementMessage(parsedHL7Message, "AE");
-                        } else if (sendApplicationRejectAcknowledgement(messageCounter) || sendApplicationRejectAcknowledgement(parsedHL7Message)) {
-                            acknowledgmentMessage = generateAcknowledgementMessage(parsedHL7Message, "AR");
-                        } else {
-                            acknowledgmentMessage = generateAcknowledgementMessage(parsedHL7Message);
-
-                        }
-                        BufferedOutputStream outstream = new BufferedOutputStream(clientSocket.getOutputStream());
-
-                        if (sendOutOfBandData(messageCounter)) {
-                            byte[] outOfBandDataBytes = "Out Of Band Hl7MessageGenerator".getBytes();
-                            outstream.write(outOfBandDataBytes, 0, outOfBandDataBytes.length);
+        boolean readFrame(InputStream anInputStream) throws IOException {
+            return readFrame(anInputStream, true);
+        }
 
+        /**
+         * Read a MLLP-Framed message into the frame decoder.
+         *
+         * @param anInputStream source input stream
+         * @param block         if false, only the bytes that have already been read are decoded
+         *
+         * @return true if a frame was read - the payload is available from the frame decoder
+         *
+         * @throws IOException when the underlying Java Socket calls raise these exceptions
+         */
+        boolean readFrame(InputStream anInputStream, boolean block) throws IOException {
+            while (true) {
+                switch (frameDecoder.decode()) {
+                case MllpFrameDecoder.FRAME:
+                    return true;
+                case MllpFrameDecoder.OUT_OF_BAND_DATA:
+                    log.warn("START_OF_BLOCK character has not been received.  Out-of-band character received: {}", frameDecoder.getOutOfBandByte());
+                    break;
+                case MllpFrameDecoder.START_OF_BLOCK_BEFORE_END_OF_BLOCK:
+                    log.error("Received START_OF_BLOCK before END_OF_DATA.  Discarding data: {}", frameDecoder.getFrameAsString());
+                    connectionMetrics.recordCorruptFrame();
+                    return false;
+                case MllpFrameDecoder.MISSING_END_OF_DATA:
+                    log.error("Received {} when expecting END_OF_DATA after END_OF_BLOCK.  Discarding Hl7MessageGenerator: {}",
+                        frameDecoder.getOutOfBandByte(), frameDecoder.getFrameAsString());
+                    connectionMetrics.recordCorruptFrame();
+                    return false;
+                default:
+                    if (!block) {
+                        return false;
+                    } else if (frameDecoder.isInFrame()) {
+                        if (END_OF_STREAM == fill(anInputStream)) {
+                            log.error("Received END_OF_STREAM without END_OF_DATA.  Discarding data: {}", frameDecoder.getPartialFrameAsString());
+                            connectionMetrics.recordCorruptFrame();
+                            endOfStream = true;
+                            return false;
                         }
-                        if (excludeStartOfBlock(messageCounter)) {
-                            log.warn("NOT sending START_OF_BLOCK");
-                        } else {
-                            outstream.write(START_OF_BLOCK);
-                        }
-
-                        if (excludeAcknowledgement(messageCounter)) {
-                            log.info("NOT sending Acknowledgement body");
-                        } else {
-                            log.debug("Buffering Acknowledgement\n\t{}", acknowledgmentMessage.replace('\r', '\n'));
-                            byte[] ackBytes = acknowledgmentMessage.getBytes();
-                            outstream.write(ackBytes, 0, ackBytes.length);
+                    } else {
+                        try {
+                            if (END_OF_STREAM == fill(anInputStream)) {
+                                endOfStream = true;
+                                return false;
+                            }
+                        } catch (SocketTimeoutException timeoutEx) {
+                            log.info("Timeout before START_OF_BLOCK character received - no messages available");
+                            return false;
+                        } catch (SocketException socketEx) {
+                            log.error("Unable to read from socket stream when expected START_OF_BLOCK - resetting connection ", socketEx);
+                            connectionMetrics.recordReset();
+                            resetConnection(clientSocket);
+                            return false;
                         }
+                    }
+                }
+            }
+        }
 
-                        if (excludeEndOfBlock(messageCounter)) {
-                            log.warn("NOT sending END_OF_BLOCK");
-                        } else {
-                            outstream.write(END_OF_BLOCK);
-                        }
+        /**
+         * Read bytes from the socket into the frame decoder, waiting first if reads are throttled.
+         *
+         * @param anInputStream source input stream
+         *
+         * @return the number of bytes read, or -1 if the end of the stream was reached
+         *
+         * @throws IOException when the underlying Java Socket calls raise these exceptions
+         */
+        int fill(InputStream anInputStream) throws IOException {
+            int chunkSize = throttle.readChunkSize();
+            if (Integer.MAX_VALUE != chunkSize) {
+                MllpConnectionThrottle.pause(throttle.readDelayNanos(chunkSize));
+            }
+            int bytesRead = frameDecoder.fill(anInputStream, chunkSize);
+            if (0 < bytesRead) {
+                connectionMetrics.recordBytesReceived(bytesRead);
+                throttle.recordRead(bytesRead);
+            }
+            return bytesRead;
+        }
 
-                        if (excludeEndOfData(messageCounter)) {
-                            log.warn("NOT sending END_OF_DATA");
-                        } else {
-                            outstream.write(END_OF_DATA);
-                        }
+        /**
+         * Write and flush bytes, splitting them into packets and waiting between them if writes are throttled.
+         *
+         * @param outstream the output stream of the client socket
+         * @param bytes     the bytes to write
+         * @param offset    the offset of the first byte
+         * @param length    the number of bytes
+         *
+         * @throws IOException when the underlying Java Socket calls raise these exceptions
+         */
+        void write(OutputStream outstream, byte[] bytes, int offset, int length) throws IOException {
+            int chunkSize = throttle.writeChunkSize();
+            if (Integer.MAX_VALUE == chunkSize) {
+                outstream.write(bytes, offset, length);
+                outstream.flush();
+                return;
+            }
 
-                        log.debug("Writing Acknowledgement\n\t{}", acknowledgmentMessage.replace('\r', '\n'));
-                        outstream.flush();
+            if (!tcpNoDelayEnabled) {
+                clientSocket.setTcpNoDelay(true);
+                tcpNoDelayEnabled = true;
+            }
+            int end = offset + length;
+            while (offset < end) {
+                int count = Math.min(chunkSize, end - offset);
+                MllpConnectionThrottle.pause(throttle.writeDelayNanos(count));
+                outstream.write(bytes, offset, count);
+                outstream.flush();
+                throttle.recordWrite(count);
+                offset += count;
+            }
+        }
 
-                        if (disconnectAfterAcknowledgement(messageCounter)) {
-                            log.info("Closing Client");
-                            clientSocket.shutdownInput();
-                            clientSocket.shutdownOutput();
-                            clientSocket.close();
-                            break;
-                        }
-                    }
+        /**
+         * Stop tracking the connection, and release its slot so a queued connection can be started.  Only the first
+         * call has any effect.
+         */
+        void connectionFinished() {
+            if (finished.compareAndSet(false, true)) {
+                metrics.closeConnection(connectionMetrics);
+                closeConnectionThrottle(throttle);
+                recordConnectionEvent(connectionId, false);
+                if (null != responseWriter) {
+                    responseWriter.shutdown();
                 }
-            } catch (IOException e) {
-                String errorMessage = "Error whiling reading and writing to clientSocket";
-                log.error(errorMessage, e);
-                throw new MllpJUnitResourceException(errorMessage, e);
-            } finally {
-                try {
-                    clientSocket.close();
-                } catch (IOException e) {
-                    String errorMessage = "Error whiling attempting to close to client Socket";
-                    log.error(errorMessage, e);
-                    throw new MllpJUnitResourceException(errorMessage, e);
+                if (null != serverSocketThread) {
+                    serverSocketThread.clientSocketThreads.remove(connectionId, this);
+                    connectionLimiter.release();
                 }
             }
-
-            log.info("Connection Finished: {} -> {}", localAddress, remoteAddress);
         }
 
         /**
-         * Generates a HL7 Application Accept Acknowledgement
+         * Write the buffered responses with a single write, and flush them.
          *
-         * @param hl7Message HL7 message that is being acknowledged
+         * @param outstream the output stream of the client socket
          *
-         * @return a HL7 Application Accept Acknowlegdement
+         * @throws IOException when the underlying Java Socket calls raise these exceptions
          */
-        private String generateAcknowledgementMessage(String hl7Message) {
-            return generateAcknowledgementMessage(hl7Message, "AA");
+        void flushAcknowledgements(OutputStream outstream) throws IOException {
+            int length = acknowledgementBuilder.getLength();
+            if (0 < length) {
+                write(outstream, acknowledgementBuilder.getBuffer(), 0, length);
+            }
+            connectionMetrics.recordFlushed(length);
+            acknowledgementBuilder.reset();
         }
 
         /**
-         * Generates a HL7 Application Acknowledgement
+         * Generate the response for the frame in the frame decoder and schedule it to be sent.
          *
-         * @param hl7Message          HL7 message that is being acknowledged
-         * @param acknowledgementCode AA, AE or AR
+         * @param delay  the acknowledgement delay - may be null if delays were disabled after responses were scheduled
+         * @param faults the faults to inject into the response
          *
-         * @return a HL7 Application Acknowledgement
+         * @return false if the connection will be closed after the response, so no more frames should be read
          */
-        private String generateAcknowledgementMessage(String hl7Message, String acknowledgementCode) {
-            final String defaulNackMessage =
-                "MSH|^~\\&|||||||NACK||P|2.2" + SEGMENT_DELIMITER
-                + "MSA|AR|" + SEGMENT_DELIMITER;
+        boolean scheduleResponse(MllpAcknowledgementDelay delay, int faults) {
+            long receiveNanos = connectionMetrics.detachPendingReceiveTime();
+            if (MllpFault.DISCONNECT_BEFORE_ACKNOWLEDGEMENT.isSet(faults)) {
+                log.warn("Disconnecting before sending acknowledgement");
+                scheduledResponses.closeAfterPending();
+                return false;
+            }
 
-            if (hl7Message == null) {
-                log.error("Invalid HL7 message for parsing operation. Please check your inputs");
-                return defaulNackMessage;
+            MllpResponseHandler handler = responseHandler;
+            if (null != handler) {
+                long delayNanos = (null != delay) ? delay.getDelayNanos(messageCounter) : 0;
+                scheduleHandlerResponse(scheduledResponses, handler, frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), frameDecoder.getFrameLength(),
+                    connectionId, receiveNanos, faults, delayNanos);
+                return !MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT.isSet(faults);
             }
 
-            if (!("AA".equals(acknowledgementCode) || "AE".equals(acknowledgementCode) || "AR".equals(acknowledgementCode))) {
-                throw new IllegalArgumentException("Acknowledgemnt Code must be AA, AE or AR: " + acknowledgementCode);
+            generateResponse(frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), frameDecoder.getFrameLength(), faults, acknowledgementBuilder,
+                connectionMetrics);
+            boolean close = MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT.isSet(faults);
+            long delayNanos = (null != delay) ? delay.getDelayNanos(messageCounter) : 0;
+            scheduledResponses.schedule(acknowledgementBuilder.removeFrom(0), receiveNanos, delayNanos, close);
+
+            return !close;
+        }
+
+        /**
+         * Send a scheduled response - called by the response writer of the connection.
+         *
+         * @param response the response
+         */
+        void writeScheduledResponse(MllpScheduledResponses.Response response) {
+            try {
+                if (null != response.bytes) {
+                    write(clientSocket.getOutputStream(), response.bytes, 0, response.bytes.length);
+                    connectionMetrics.recordFlushed(response.bytes.length, response.receiveNanos);
+                }
+                if (response.close) {
+                    log.info("Closing Client");
+                    connectionFinished();
+                    closeConnection(clientSocket);
+                }
+            } catch (IOException ioEx) {
+                log.error("Error whiling writing a scheduled response to clientSocket - resetting connection", ioEx);
+                scheduledResponses.discard();
+                connectionMetrics.recordReset();
+                connectionFinished();
+                resetConnection(clientSocket);
             }
+        }
+
+        /**
+         * Receives HL7 messages and replies with HL7 Acknowledgements.
+         *
+         * The exact behaviour of this method is very configurable, allowing simulation of varies
+         * error conditions.
+         */
+        public void run() {
+            String localAddress = clientSocket.getLocalAddress().toString();
+            String remoteAddress = clientSocket.getRemoteSocketAddress().toString();
 
-            String messageControlId;
+            log.info("Handling Connection: {} -> {}", localAddress, remoteAddress);
 
-            int endOfMshSegment = hl7Message.indexOf(SEGMENT_DELIMITER);
-            if (-1 != endOfMshSegment) {
-                String mshSegment = hl7Message.substring(0, endOfMshSegment);
-                char fieldSeparator = mshSegment.charAt(3);
-                String fieldSeparatorPattern = Pattern.quote("" + fieldSeparator);
-                String[] mshFields = mshSegment.split(fieldSeparatorPattern);
-                if (null == mshFields || 0 == mshFields.length) {
-                    log.error("Failed to split MSH Segment into fields");
-                } else {
-                    StringBuilder ackBuilder = new StringBuilder(mshSegment.length() + 25);
-                    // Build the MSH Segment
-                    ackBuilder
-                        .append(mshFields[0]).append(fieldSeparator)
-                        .append(mshFields[1]).append(fieldSeparator)
-                        .append(mshFields[4]).append(fieldSeparator)
-                        .append(mshFields[5]).append(fieldSeparator)
-                        .append(mshFields[2]).append(fieldSeparator)
-                        .append(mshFields[3]).append(fieldSeparator)
-                        .append(mshFields[6]).append(fieldSeparator)
-                        .append(mshFields[7]).append(fieldSeparator)
-                        .append("ACK")
-                        .append(mshFields[8].substring(3));
-                    for (int i = 9; i < mshFields.length; ++i) {
-                        ackBuilder.append(fieldSeparator).append(mshFields[i]);
+            try {
+                if (clientSocket instanceof SSLSocket) {
+                    SSLSocket sslSocket = (SSLSocket) clientSocket;
+                    sslSocket.startHandshake();
+                    metrics.recordHandshake(tlsSessions.recordHandshake(sslSocket.getSession(), sslSessionResumption));
+                }
+                while (null != clientSocket && clientSocket.isConnected() && !clientSocket.isClosed() && !endOfStream) {
+                    InputStream instream = clientSocket.getInputStream();
+
+                    if (!readFrame(instream)) {
+                        continue;
                     }
-                    // Empty fields at the end are not preserved by String.split, so preserve them
-                    int emptyFieldIndex = mshSegment.length() - 1;
-                    if (fieldSeparator == mshSegment.charAt(mshSegment.length() - 1)) {
-                        ackBuilder.append(fieldSeparator);
-                        while (emptyFieldIndex >= 1 && mshSegment.charAt(emptyFieldIndex) == mshSegment.charAt(emptyFieldIndex - 1)) {
-                            ackBuilder.append(fieldSeparator);
-                            --emptyFieldIndex;
-                        }
+
+                    OutputStream outstream = clientSocket.getOutputStream();
+                    boolean disconnected = false;
+                    acknowledgementBuilder.reset();
+                    MllpAcknowledgementDelay delay = acknowledgementDelay;
+                    if ((null != delay || null != responseHandler) && null == scheduledResponses) {
+                        responseWriter = createResponseWriter(connectionId);
+                        scheduledResponses = new MllpScheduledResponses(responseScheduler, responseWriter, this::writeScheduledResponse);
                     }
-                    ackBuilder.append(SEGMENT_DELIMITER);
+                    do {
+                        if (frameDecoder.getFrameLength() > 0) {
+                            ++messageCounter;
+                            connectionMetrics.recordFrameReceived();
+                            recordReceivedMessage(connectionId, frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), frameDecoder.getFrameLength());
+                            int faults = evaluateFaults(connectionId, messageCounter);
+                            if (null != scheduledResponses) {
+                                if (!scheduleResponse(delay, faults)) {
+                                    disconnected = true;
+                                    break;
+                                }
+                                continue;
+                            }
 
-                    // Build the MSA Segment
-                    ackBuilder
-                        .append("MSA").append(fieldSeparator)
-                        .append(acknowledgementCode).append(fieldSeparator)
-                        .append(mshFields[9]).append(fieldSeparator)
-                        .append(SEGMENT_DELIMITER);
+                            if (MllpFault.DISCONNECT_BEFORE_ACKNOWLEDGEMENT.isSet(faults)) {
+                                flushAcknowledgements(outstream);
+                                log.warn("Disconnecting before sending acknowledgement");
+                                clientSocket.shutdownInput();
+                                clientSocket.shutdownOutput();
+                                clientSocket.close();
+                                disconnected = true;
+                                break;
+                            }
+
+                            generateResponse(frameDecoder.getBuffer(), frameDecoder.getFrameOffset(), frameDecoder.getFrameLength(), faults, acknowledgementBuilder,
+                                connectionMetrics);
+
+                            if (MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT.isSet(faults)) {
+                                flushAcknowledgements(outstream);
+                                log.info("Closing Client");
+                                clientSocket.shutdownInput();
+                                clientSocket.shutdownOutput();
+                                clientSocket.close();
+                                disconnected = true;
+                                break;
+                            }
+                        }
+                    } while (batchAcknowledgements && frameDecoder.hasRemaining() && readFrame(instream, false));
 
-                    return ackBuilder.toString();
+                    if (disconnected) {
+                        break;
+                    }
+                    flushAcknowledgements(outstream);
+                }
+            } catch (IOException e) {
+                String errorMessage = "Error whiling reading and writing to clientSocket";
+                log.error(errorMessage, e);
+                connectionMetrics.recordReset();
+                if (null != scheduledResponses) {
+                    scheduledResponses.discard();
+                }
+                throw new MllpJUnitResourceException(errorMessage, e);
+            } finally {
+                if (null != scheduledResponses && scheduledResponses.closeAfterPending()) {
+                    // The socket is closed by the response scheduler after the pending responses have been sent
+                    log.debug("Closing connection after the scheduled responses are sent: {} -> {}", localAddress, remoteAddress);
+                } else {
+                    connectionFinished();
+                    try {
+                        clientSocket.close();
+                    } catch (IOException e) {
+                        String errorMessage = "Error whiling attempting to close to client Socket";
+                        log.error(errorMessage, e);
+                        throw new MllpJUnitResourceException(errorMessage, e);
+                    }
                 }
-            } else {
-                log.error("Failed to find the end of the  MSH Segment");
             }
 
-            return defaulNackMessage;
+            log.info("Connection Finished: {} -> {}", localAddress, remoteAddress);
         }
-
-
-
     }
 
 }
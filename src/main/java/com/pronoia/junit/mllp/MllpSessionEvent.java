@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.charset.Charset;
+
+/**
+ * A connection event or frame of a recorded MLLP session.
+ */
+public class MllpSessionEvent {
+    final Type type;
+    final long timestampNanos;
+    final long connectionId;
+    final byte[] payload;
+
+    public MllpSessionEvent(Type type, long timestampNanos, long connectionId, byte[] payload) {
+        if (null == type) {
+            throw new IllegalArgumentException("Event type must be specified");
+        }
+        if (type.isFrame() && null == payload) {
+            throw new IllegalArgumentException("A payload is required for " + type + " events");
+        }
+        this.type = type;
+        this.timestampNanos = timestampNanos;
+        this.connectionId = connectionId;
+        this.payload = type.isFrame() ? payload : null;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get the time of the event.
+     *
+     * @return the time since the recording started, in nanoseconds
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Get the ID of the connection.  IDs are assigned by the recorder - they are only unique within a recording.
+     *
+     * @return the connection ID
+     */
+    public long getConnectionId() {
+        return connectionId;
+    }
+
+    /**
+     * Get the payload of the frame.
+     *
+     * @return the payload bytes, or null if the event is not a frame
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public String getPayload(Charset charset) {
+        return (null != payload) ? new String(payload, charset) : null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s connection=%d timestamp=%dns%s", type, connectionId, timestampNanos,
+            (null != payload) ? " length=" + payload.length : "");
+    }
+
+    /**
+     * The types of session events
+     */
+    public enum Type {
+        CONNECT,
+        DISCONNECT,
+        FRAME_TO_SERVER,
+        FRAME_TO_CLIENT;
+
+        public boolean isFrame() {
+            return FRAME_TO_SERVER == this || FRAME_TO_CLIENT == this;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the connection events and frames of MLLP sessions to a compact binary file.
+ *
+ * A recorder can be attached to a MllpServerResource, to any number of MllpClientResources, or both; the events are
+ * written in the order they occur.  Use MllpSessionRecording.read() to read the file back, and a MllpSessionReplayer
+ * to drive the recorded traffic against a server.
+ *
+ * The file starts with a header holding a magic number, the format version and the wall-clock time the recording
+ * started.  Each event follows as a type byte, the connection ID and the nanoseconds since the previous event as
+ * variable-length integers, and - for frames - the length of the payload as a variable-length integer followed by
+ * the payload.
+ */
+public class MllpSessionRecorder implements Closeable {
+    static final int MAGIC = 0x4d4c5253;    // "MLRS"
+    static final int VERSION = 1;
+
+    final File file;
+    final DataOutputStream outputStream;
+    final long startTimestamp;
+    final long startNanos;
+
+    final AtomicLong connectionIdCounter = new AtomicLong();
+
+    long lastTimestampNanos;
+    long eventCount;
+    boolean closed;
+
+    /**
+     * Create a recorder, replacing the file if it exists.
+     *
+     * @param file the recording file
+     *
+     * @throws IOException if the file cannot be created
+     */
+    public MllpSessionRecorder(File file) throws IOException {
+        this(file, new FileOutputStream(file), System.currentTimeMillis());
+    }
+
+    MllpSessionRecorder(File file, OutputStream outputStream, long startTimestamp) throws IOException {
+        this.file = file;
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(outputStream, 64 * 1024));
+        this.startTimestamp = startTimestamp;
+        this.startNanos = System.nanoTime();
+
+        this.outputStream.writeInt(MAGIC);
+        this.outputStream.writeByte(VERSION);
+        this.outputStream.writeLong(startTimestamp);
+    }
+
+    /**
+     * Allocate an ID for a connection that is not assigned one by a MllpServerResource - i.e. a client connection.
+     *
+     * @return a new connection ID
+     */
+    public long nextConnectionId() {
+        return connectionIdCounter.incrementAndGet();
+    }
+
+    public void recordConnect(long connectionId) throws IOException {
+        write(MllpSessionEvent.Type.CONNECT, currentTimestampNanos(), connectionId, null, 0, 0);
+    }
+
+    public void recordDisconnect(long connectionId) throws IOException {
+        write(MllpSessionEvent.Type.DISCONNECT, currentTimestampNanos(), connectionId, null, 0, 0);
+    }
+
+    /**
+     * Record a frame.
+     *
+     * @param connectionId the ID of the connection
+     * @param toServer     true if the frame was sent by the client; false if it was sent by the server
+     * @param payload      the bytes containing the payload of the frame
+     * @param offset       the offset of the payload
+     * @param length       the length of the payload
+     *
+     * @throws IOException if the frame cannot be written
+     */
+    public void recordFrame(long connectionId, boolean toServer, byte[] payload, int offset, int length) throws IOException {
+        write(toServer ? MllpSessionEvent.Type.FRAME_TO_SERVER : MllpSessionEvent.Type.FRAME_TO_CLIENT, currentTimestampNanos(), connectionId, payload, offset, length);
+    }
+
+    /**
+     * Record an event with its own timestamp - used to write imported or generated sessions.
+     *
+     * @param event the event - its timestamp must not be earlier than the timestamp of the previous event
+     *
+     * @throws IOException if the event cannot be written
+     */
+    public synchronized void record(MllpSessionEvent event) throws IOException {
+        if (event.timestampNanos < lastTimestampNanos) {
+            throw new IllegalArgumentException(String.format("Events must be recorded in time order: %s is earlier than %dns", event, lastTimestampNanos));
+        }
+        byte[] payload = event.payload;
+        write(event.type, event.timestampNanos, event.connectionId, payload, 0, (null != payload) ? payload.length : 0);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the time the recording started.
+     *
+     * @return the start time, in milliseconds since the epoch
+     */
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Write the buffered events to the file.
+     *
+     * @throws IOException if the events cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            outputStream.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            outputStream.close();
+        }
+    }
+
+    private long currentTimestampNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    private synchronized void write(MllpSessionEvent.Type type, long timestampNanos, long connectionId, byte[] payload, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Recorder is closed: " + file);
+        }
+
+        // Events from different threads can take their timestamps out of order - keep the deltas positive
+        long eventNanos = Math.max(timestampNanos, lastTimestampNanos);
+
+        outputStream.writeByte(type.ordinal());
+        writeVarLong(outputStream, connectionId);
+        writeVarLong(outputStream, eventNanos - lastTimestampNanos);
+        if (type.isFrame()) {
+            writeVarLong(outputStream, length);
+            outputStream.write(payload, offset, length);
+        }
+
+        lastTimestampNanos = eventNanos;
+        ++eventCount;
+    }
+
+    static void writeVarLong(DataOutputStream outputStream, long value) throws IOException {
+        while (0 != (value & ~0x7fL)) {
+            outputStream.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream inputStream) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int nextByte = inputStream.read();
+            if (0 > nextByte) {
+                throw new EOFException("End of recording inside a variable-length integer");
+            }
+            value |= (long) (nextByte & 0x7f) << shift;
+            if (0 == (nextByte & 0x80)) {
+                return value;
+            }
+        }
+        throw new IOException("Variable-length integer is too long");
+    }
+}
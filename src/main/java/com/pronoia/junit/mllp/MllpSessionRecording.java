@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The events of recorded MLLP sessions, in time order.
+ *
+ * Recordings are read from the files written by a MllpSessionRecorder, or imported from packet captures.
+ */
+public class MllpSessionRecording implements Iterable<MllpSessionEvent> {
+    final long startTimestamp;
+    final List<MllpSessionEvent> events;
+
+    /**
+     * Create a recording from a list of events.
+     *
+     * @param startTimestamp the time the recording started, in milliseconds since the epoch
+     * @param events         the events, in time order
+     */
+    public MllpSessionRecording(long startTimestamp, List<MllpSessionEvent> events) {
+        this.startTimestamp = startTimestamp;
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    /**
+     * Read a file written by a MllpSessionRecorder.  A recording that was not closed is read up to its last complete
+     * event.
+     *
+     * @param file the recording file
+     *
+     * @return the recording
+     *
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public static MllpSessionRecording read(File file) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (MllpSessionRecorder.MAGIC != inputStream.readInt()) {
+                throw new IOException("Not a MLLP session recording: " + file);
+            }
+            int version = inputStream.readUnsignedByte();
+            if (MllpSessionRecorder.VERSION != version) {
+                throw new IOException(String.format("Unsupported MLLP session recording version %d: %s", version, file));
+            }
+            long startTimestamp = inputStream.readLong();
+
+            MllpSessionEvent.Type[] types = MllpSessionEvent.Type.values();
+            List<MllpSessionEvent> events = new ArrayList<>();
+            long timestampNanos = 0;
+            try {
+                for (int typeOrdinal = inputStream.read(); 0 <= typeOrdinal; typeOrdinal = inputStream.read()) {
+                    if (types.length <= typeOrdinal) {
+                        throw new IOException(String.format("Unknown event type %d after %d events: %s", typeOrdinal, events.size(), file));
+                    }
+                    MllpSessionEvent.Type type = types[typeOrdinal];
+                    long connectionId = MllpSessionRecorder.readVarLong(inputStream);
+                    timestampNanos += MllpSessionRecorder.readVarLong(inputStream);
+                    byte[] payload = null;
+                    if (type.isFrame()) {
+                        payload = new byte[(int) MllpSessionRecorder.readVarLong(inputStream)];
+                        inputStream.readFully(payload);
+                    }
+                    events.add(new MllpSessionEvent(type, timestampNanos, connectionId, payload));
+                }
+            } catch (EOFException truncatedEx) {
+                // The recorder was not closed - keep the complete events
+            }
+
+            return new MllpSessionRecording(startTimestamp, events);
+        }
+    }
+
+    /**
+     * Import the MLLP sessions in a pcap or pcapng capture.
+     *
+     * The TCP connections to the server port are reassembled and the MLLP frames in both directions are extracted,
+     * keeping the capture timestamps.  Connections already open when the capture started are included from the first
+     * captured segment.
+     *
+     * @param captureFile the capture file
+     * @param serverPort  the TCP port of the MLLP server
+     *
+     * @return the recording
+     *
+     * @throws IOException if the file cannot be read or is not a supported capture
+     */
+    public static MllpSessionRecording importCapture(File captureFile, int serverPort) throws IOException {
+        return new MllpPcapImporter(serverPort).importCapture(captureFile);
+    }
+
+    /**
+     * Write the recording to a file in the format written by a MllpSessionRecorder.
+     *
+     * @param file the file - replaced if it exists
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        try (MllpSessionRecorder recorder = new MllpSessionRecorder(file, new FileOutputStream(file), startTimestamp)) {
+            for (MllpSessionEvent event : events) {
+                recorder.record(event);
+            }
+        }
+    }
+
+    /**
+     * Get the time the recording started.
+     *
+     * @return the start time, in milliseconds since the epoch
+     */
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public List<MllpSessionEvent> getEvents() {
+        return events;
+    }
+
+    @Override
+    public Iterator<MllpSessionEvent> iterator() {
+        return events.iterator();
+    }
+
+    /**
+     * Get the time of the last event.
+     *
+     * @return the time between the start of the recording and the last event, in nanoseconds
+     */
+    public long getDurationNanos() {
+        return events.isEmpty() ? 0 : events.get(events.size() - 1).timestampNanos;
+    }
+
+    /**
+     * Get the IDs of the recorded connections.
+     *
+     * @return the connection IDs, in the order of their first event
+     */
+    public Set<Long> getConnectionIds() {
+        Set<Long> connectionIds = new LinkedHashSet<>();
+        for (MllpSessionEvent event : events) {
+            connectionIds.add(event.connectionId);
+        }
+        return connectionIds;
+    }
+
+    /**
+     * Count the events of a type.
+     *
+     * @param type the event type
+     *
+     * @return the number of events
+     */
+    public int count(MllpSessionEvent.Type type) {
+        int count = 0;
+        for (MllpSessionEvent event : events) {
+            if (type == event.type) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the client side of a MllpSessionRecording against a MLLP server.
+ *
+ * Each recorded connection is replayed on its own thread with its own MllpClientResource, so the connections overlap
+ * the way they did when they were recorded.  Connect, disconnect and client frame events are replayed at their
+ * recorded times, scaled by the speed; the frames recorded from the server are the responses to the replayed frames,
+ * so they are not sent.  When acknowledgements are read, a connection waits for the acknowledgement of each frame
+ * before sending its next frame, and the time until the acknowledgement is received is recorded.
+ */
+public class MllpSessionReplayer {
+    /**
+     * Replay every event as soon as the previous event of the connection has been replayed.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final MllpSessionRecording recording;
+
+    String mllpHost = "0.0.0.0";
+    int mllpPort;
+
+    double speed = 1.0;
+    boolean readAcknowledgements = true;
+    int acknowledgementTimeout = 15000;
+
+    public MllpSessionReplayer(MllpSessionRecording recording, int mllpPort) {
+        this.recording = recording;
+        this.mllpPort = mllpPort;
+    }
+
+    public MllpSessionReplayer(MllpSessionRecording recording, String mllpHost, int mllpPort) {
+        this.recording = recording;
+        this.mllpHost = mllpHost;
+        this.mllpPort = mllpPort;
+    }
+
+    public MllpSessionRecording getRecording() {
+        return recording;
+    }
+
+    public String getMllpHost() {
+        return mllpHost;
+    }
+
+    public void setMllpHost(String mllpHost) {
+        this.mllpHost = mllpHost;
+    }
+
+    public int getMllpPort() {
+        return mllpPort;
+    }
+
+    public void setMllpPort(int mllpPort) {
+        this.mllpPort = mllpPort;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Set the replay speed.
+     *
+     * @param speed the multiple of the recorded speed - 1 replays at the recorded speed, 10 replays ten times faster
+     *              and AS_FAST_AS_POSSIBLE (or any value less than or equal to 0) ignores the recorded times
+     */
+    public void setSpeed(double speed) {
+        if (0 > speed) {
+            this.speed = AS_FAST_AS_POSSIBLE;
+        } else {
+            this.speed = speed;
+        }
+    }
+
+    public boolean isReadAcknowledgements() {
+        return readAcknowledgements;
+    }
+
+    /**
+     * Enable/disable reading the acknowledgement of each replayed frame.
+     *
+     * @param readAcknowledgements true to wait for the acknowledgement of a frame before sending the next frame
+     */
+    public void setReadAcknowledgements(boolean readAcknowledgements) {
+        this.readAcknowledgements = readAcknowledgements;
+    }
+
+    public int getAcknowledgementTimeout() {
+        return acknowledgementTimeout;
+    }
+
+    public void setAcknowledgementTimeout(int acknowledgementTimeout) {
+        if (0 > acknowledgementTimeout) {
+            this.acknowledgementTimeout = 0;
+        } else {
+            this.acknowledgementTimeout = acknowledgementTimeout;
+        }
+    }
+
+    /**
+     * Replay the recording, and wait for every connection to finish.
+     *
+     * @return the outcome of the replay
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting for the connections
+     */
+    public Result replay() throws InterruptedException {
+        Map<Long, List<MllpSessionEvent>> connectionEvents = new LinkedHashMap<>();
+        for (MllpSessionEvent event : recording) {
+            connectionEvents.computeIfAbsent(event.connectionId, connectionId -> new ArrayList<>()).add(event);
+        }
+
+        Result result = new Result();
+        long firstEventNanos = recording.events.isEmpty() ? 0 : recording.events.get(0).timestampNanos;
+        long startNanos = System.nanoTime();
+
+        List<Thread> connectionThreads = new ArrayList<>(connectionEvents.size());
+        for (Map.Entry<Long, List<MllpSessionEvent>> entry : connectionEvents.entrySet()) {
+            List<MllpSessionEvent> events = entry.getValue();
+            Thread connectionThread = new Thread(() -> replayConnection(events, firstEventNanos, startNanos, result),
+                "MllpSessionReplayer$Connection-" + entry.getKey());
+            connectionThread.setDaemon(true);
+            connectionThreads.add(connectionThread);
+            connectionThread.start();
+        }
+
+        try {
+            for (Thread connectionThread : connectionThreads) {
+                connectionThread.join();
+            }
+        } catch (InterruptedException interruptedEx) {
+            for (Thread connectionThread : connectionThreads) {
+                connectionThread.interrupt();
+            }
+            throw interruptedEx;
+        }
+
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        log.info("Replayed {} connections: {}", connectionEvents.size(), result);
+
+        return result;
+    }
+
+    void replayConnection(List<MllpSessionEvent> events, long firstEventNanos, long startNanos, Result result) {
+        MllpClientResource client = new MllpClientResource(mllpHost, mllpPort);
+        client.setSoTimeout(acknowledgementTimeout);
+        try {
+            for (MllpSessionEvent event : events) {
+                if (AS_FAST_AS_POSSIBLE < speed && !awaitEventTime(startNanos + (long) ((event.timestampNanos - firstEventNanos) / speed))) {
+                    return;
+                }
+                switch (event.type) {
+                case CONNECT:
+                    client.connect();
+                    break;
+                case DISCONNECT:
+                    client.disconnect();
+                    break;
+                case FRAME_TO_SERVER:
+                    long sendNanos = System.nanoTime();
+                    client.sendFramedData(event.payload);
+                    result.framesSent.increment();
+                    if (readAcknowledgements) {
+                        if (null != client.receiveFramedBytes()) {
+                            result.acknowledgementLatency.record(System.nanoTime() - sendNanos);
+                            result.acknowledgementsReceived.increment();
+                        }
+                    }
+                    break;
+                default:
+                    // The responses of the server are not replayed
+                }
+            }
+        } catch (Exception replayEx) {
+            log.warn("Replay of connection {} failed", events.get(0).connectionId, replayEx);
+            result.addFailure(replayEx);
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    private static boolean awaitEventTime(long eventNanos) {
+        for (long remaining = eventNanos - System.nanoTime(); 0 < remaining; remaining = eventNanos - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Nested class that holds the outcome of a replay
+     */
+    public static class Result {
+        final LongAdder framesSent = new LongAdder();
+        final LongAdder acknowledgementsReceived = new LongAdder();
+        final MllpLatencyHistogram acknowledgementLatency = new MllpLatencyHistogram();
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+        long elapsedNanos;
+
+        void addFailure(Exception failure) {
+            failures.add(failure);
+        }
+
+        public long getFramesSent() {
+            return framesSent.sum();
+        }
+
+        public long getAcknowledgementsReceived() {
+            return acknowledgementsReceived.sum();
+        }
+
+        /**
+         * @return the time from sending each frame until its acknowledgement was received, in nanoseconds
+         */
+        public MllpLatencyHistogram getAcknowledgementLatency() {
+            return acknowledgementLatency;
+        }
+
+        /**
+         * @return the exceptions that ended the replay of a connection
+         */
+        public List<Exception> getFailures() {
+            synchronized (failures) {
+                return Collections.unmodifiableList(new ArrayList<>(failures));
+            }
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("framesSent=%d acknowledgementsReceived=%d failures=%d elapsed=%dms latency(ns)=[%s]",
+                getFramesSent(), getAcknowledgementsReceived(), failures.size(), getElapsedMillis(), acknowledgementLatency);
+        }
+    }
+}
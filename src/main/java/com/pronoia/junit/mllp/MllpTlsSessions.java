@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Tracks the TLS sessions negotiated by a MLLP resource, to tell full handshakes from resumed ones.
+ *
+ * JSSE does not report whether a handshake resumed a session, and a TLS 1.2 session resumed from a session ticket is
+ * a new SSLSession object, so the IDs of the sessions negotiated so far are remembered instead - a TLS 1.2
+ * resumption negotiates the ID of the resumed session again.  TLS 1.3 does not use session IDs, so a TLS 1.3
+ * resumption is counted as a full handshake - enable only TLSv1.2 to measure resumption.
+ */
+class MllpTlsSessions {
+    final Map<ByteBuffer, Boolean> sessionIds;
+
+    /**
+     * @param maximumSize the maximum number of session IDs to remember
+     */
+    MllpTlsSessions(final int maximumSize) {
+        this.sessionIds = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Record a completed handshake.
+     *
+     * @param session         the session negotiated by the handshake
+     * @param allowResumption false to invalidate the session, so it cannot be resumed
+     *
+     * @return true if the handshake resumed a session negotiated earlier
+     */
+    boolean recordHandshake(SSLSession session, boolean allowResumption) {
+        byte[] sessionId = session.getId();
+        boolean resumed = false;
+        if (null != sessionId && 0 < sessionId.length) {
+            synchronized (sessionIds) {
+                resumed = null != sessionIds.put(ByteBuffer.wrap(sessionId), Boolean.TRUE);
+            }
+        }
+        if (!allowResumption) {
+            session.invalidate();
+        }
+        return resumed;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+/**
+ * Token bucket used to limit the rate bytes are read or written.
+ *
+ * Tokens are added at the configured rate, up to the burst size.  The rate and burst size can be changed at any time;
+ * tokens that have already accumulated are kept, up to the new burst size.
+ */
+class MllpTokenBucket {
+    long bytesPerSecond;
+    long burstSize = 1;
+
+    double tokens;
+    long lastRefillNanos = System.nanoTime();
+
+    /**
+     * Set the rate and burst size.
+     *
+     * @param bytesPerSecond the rate - values less than or equal to 0 disable the limit
+     * @param burstSize      the maximum number of tokens - values less than 1 are interpreted as 1
+     */
+    synchronized void configure(long bytesPerSecond, long burstSize) {
+        if (this.bytesPerSecond != bytesPerSecond || this.burstSize != burstSize) {
+            refill();
+            if (0 >= this.bytesPerSecond) {
+                // Start a newly enabled limit with a full bucket
+                tokens = burstSize;
+            }
+            this.bytesPerSecond = bytesPerSecond;
+            this.burstSize = Math.max(1, burstSize);
+            tokens = Math.min(tokens, this.burstSize);
+        }
+    }
+
+    synchronized boolean isLimited() {
+        return 0 < bytesPerSecond;
+    }
+
+    synchronized long getBurstSize() {
+        return burstSize;
+    }
+
+    /**
+     * Get the time until a number of tokens are available.
+     *
+     * @param count the number of tokens - values greater than the burst size are interpreted as the burst size
+     *
+     * @return the time to wait, in nanoseconds
+     */
+    synchronized long nanosUntilAvailable(long count) {
+        if (0 >= bytesPerSecond) {
+            return 0;
+        }
+        refill();
+        double deficit = Math.min(count, burstSize) - tokens;
+        if (0 >= deficit) {
+            return 0;
+        }
+        return (long) Math.ceil(deficit * 1000000000.0 / bytesPerSecond);
+    }
+
+    /**
+     * Remove tokens from the bucket.  The bucket may be left in deficit, which delays the next use.
+     *
+     * @param count the number of tokens
+     */
+    synchronized void take(long count) {
+        if (0 < bytesPerSecond) {
+            refill();
+            tokens -= count;
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (0 < bytesPerSecond) {
+            tokens = Math.min(burstSize, tokens + (now - lastRefillNanos) * bytesPerSecond / 1000000000.0);
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+/**
+ * Starts connection handlers on virtual threads.
+ *
+ * Virtual threads are not available before Java 21, so this implementation reports that they are not supported and
+ * starts platform threads instead.  The Java 21 implementation is packaged in META-INF/versions/21 of the multi-release
+ * JAR.
+ */
+final class MllpVirtualThreads {
+    private MllpVirtualThreads() {
+    }
+
+    /**
+     * Determine if virtual threads are available in the running JVM.
+     *
+     * @return true if virtual threads are available
+     */
+    static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * Run a task on a new thread - a daemon platform thread, since virtual threads are not available.
+     *
+     * @param name the name of the thread
+     * @param task the task to run
+     *
+     * @return the started thread
+     */
+    static Thread start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
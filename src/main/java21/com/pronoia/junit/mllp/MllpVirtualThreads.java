@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+/**
+ * Starts connection handlers on virtual threads.
+ *
+ * This is the Java 21 implementation, packaged in META-INF/versions/21 of the multi-release JAR.
+ */
+final class MllpVirtualThreads {
+    private MllpVirtualThreads() {
+    }
+
+    /**
+     * Determine if virtual threads are available in the running JVM.
+     *
+     * @return true if virtual threads are available
+     */
+    static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Run a task on a new virtual thread.
+     *
+     * @param name the name of the virtual thread
+     * @param task the task to run
+     *
+     * @return the started virtual thread
+     */
+    static Thread start(String name, Runnable task) {
+        return Thread.ofVirtual().name(name).start(task);
+    }
+}
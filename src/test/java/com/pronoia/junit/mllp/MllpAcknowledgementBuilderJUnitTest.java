@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MllpAcknowledgementBuilderJUnitTest {
+    MllpAcknowledgementBuilder builder = new MllpAcknowledgementBuilder(16);
+
+    @Test
+    public void testAcknowledgement() throws Exception {
+        assertEquals("MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01^ADT_A01|00001|D|2.3|||||||\rMSA|AA|00001|\r",
+            build("MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01^ADT_A01|00001|D|2.3|||||||\rEVN|A01\r",
+                MllpAcknowledgementBuilder.APPLICATION_ACCEPT));
+    }
+
+    @Test
+    public void testApplicationErrorAcknowledgement() throws Exception {
+        assertEquals("MSH^~|\\&^APP_B^FAC_B^APP_A^FAC_A^20160902123950^^ACK|A01^00002^P^2.5\rMSA^AE^00002^\r",
+            build("MSH^~|\\&^APP_A^FAC_A^APP_B^FAC_B^20160902123950^^ADT|A01^00002^P^2.5\r",
+                MllpAcknowledgementBuilder.APPLICATION_ERROR));
+    }
+
+    @Test
+    public void testMissingSegmentDelimiter() throws Exception {
+        assertEquals("MSH|^~\\&|||||||NACK||P|2.2\rMSA|AR|\r",
+            build("MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00003|P|2.5",
+                MllpAcknowledgementBuilder.APPLICATION_ACCEPT));
+    }
+
+    @Test
+    public void testBuilderIsReused() throws Exception {
+        build("MSH|^~\\&|A|B|C|D|20160902123950||ADT^A01|00004|P|2.5\r", MllpAcknowledgementBuilder.APPLICATION_ACCEPT);
+        byte[] outputBuffer = builder.getBuffer();
+
+        build("MSH|^~\\&|A|B|C|D|20160902123950||ADT^A01|00005|P|2.5\r", MllpAcknowledgementBuilder.APPLICATION_ACCEPT);
+
+        assertEquals(outputBuffer, builder.getBuffer());
+    }
+
+    @Test
+    public void testTemplateCache() throws Exception {
+        MllpAcknowledgementTemplateCache templateCache = new MllpAcknowledgementTemplateCache(2);
+        MllpAcknowledgementBuilder uncachedBuilder = builder;
+        MllpAcknowledgementBuilder cachedBuilder = new MllpAcknowledgementBuilder(16, templateCache);
+
+        String[] messages = {
+            "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|P|2.3|||||||\r",
+            "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123951||ADT^A01|00002|P|2.3|||||||\r",
+            "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123952|SECURITY|ADT^A01|00003|P|2.3|||||||\r",
+            "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123953||ORU^R01|00004|P|2.5\r",
+            "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123954||ADT^A01|00005|P|2.3|||||||\r",
+            "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123955||ADT^A01\r"
+        };
+
+        for (String message : messages) {
+            builder = uncachedBuilder;
+            String expected = build(message, MllpAcknowledgementBuilder.APPLICATION_ACCEPT);
+            builder = cachedBuilder;
+            assertEquals(expected, build(message, MllpAcknowledgementBuilder.APPLICATION_ACCEPT));
+        }
+
+        // Message 2 reuses the template from message 1 - message 5 needs it again after it was evicted by messages 3 and 4
+        assertEquals(1, templateCache.getHits());
+        assertEquals(4, templateCache.getMisses());
+        assertEquals(2, templateCache.size());
+    }
+
+    String build(String hl7Message, byte[] acknowledgementCode) {
+        byte[] hl7Bytes = ("XX" + hl7Message).getBytes(StandardCharsets.ISO_8859_1);
+
+        builder.reset();
+        builder.appendAcknowledgement(hl7Bytes, 2, hl7Bytes.length - 2, acknowledgementCode);
+
+        return builder.toString(0, builder.getLength());
+    }
+}
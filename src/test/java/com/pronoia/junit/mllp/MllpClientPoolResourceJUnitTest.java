@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verify the MllpClientPoolResource shares its connections between threads
+ */
+public class MllpClientPoolResourceJUnitTest {
+    static final int POOL_SIZE = 4;
+    static final int SENDER_COUNT = 8;
+    static final int MESSAGES_PER_SENDER = 25;
+
+    @Rule
+    public MllpServerResource mllpServer = new MllpServerResource();
+
+    MllpClientPoolResource mllpClients = new MllpClientPoolResource();
+
+    ExecutorService senders = Executors.newFixedThreadPool(SENDER_COUNT);
+
+    @Before
+    public void setUp() throws Exception {
+        mllpClients.setMllpPort(mllpServer.getListenPort());
+        mllpClients.setSize(POOL_SIZE);
+        mllpClients.startup();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        senders.shutdownNow();
+        mllpClients.shutdown();
+    }
+
+    @Test
+    public void testParallelSenders() throws Exception {
+        List<Future<?>> results = new ArrayList<>();
+        for (int sender = 0; sender < SENDER_COUNT; ++sender) {
+            int senderNumber = sender;
+            results.add(senders.submit(() -> {
+                for (int i = 0; i < MESSAGES_PER_SENDER; ++i) {
+                    String controlId = String.format("%02d%03d", senderNumber, i);
+                    String acknowledgement = mllpClients.sendFramedDataAndWaitForAcknowledgement(message(controlId));
+                    assertTrue(acknowledgement, acknowledgement.contains("MSA|AA|" + controlId));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+
+        assertEquals(SENDER_COUNT * MESSAGES_PER_SENDER, mllpServer.getMetrics().getFramesReceived());
+        assertEquals(SENDER_COUNT * MESSAGES_PER_SENDER, mllpClients.getAcquireCount());
+        assertEquals(SENDER_COUNT * MESSAGES_PER_SENDER, mllpClients.getAcquireWait().getCount());
+        assertTrue("No more than the pool size should be in use", mllpClients.getMaxInUseCount() <= POOL_SIZE);
+        assertEquals(0, mllpClients.getInUseCount());
+        assertEquals(POOL_SIZE, mllpClients.getIdleCount());
+        assertEquals(POOL_SIZE, mllpServer.getMetrics().getConnectionsAccepted());
+    }
+
+    @Test
+    public void testAcquireTimeout() throws Exception {
+        mllpClients.setAcquireTimeout(200);
+        CountDownLatch allBusy = new CountDownLatch(POOL_SIZE);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            senders.submit(() -> mllpClients.execute(client -> {
+                allBusy.countDown();
+                return release.await(5, TimeUnit.SECONDS);
+            }));
+        }
+        assertTrue(allBusy.await(5, TimeUnit.SECONDS));
+
+        try {
+            mllpClients.sendFramedDataAndWaitForAcknowledgement(message("00001"));
+            fail("No connection should be idle");
+        } catch (MllpJUnitResourceTimeoutException expectedEx) {
+            // Expected
+        }
+        assertEquals(1, mllpClients.getAcquireTimeoutCount());
+        assertEquals(POOL_SIZE, mllpClients.getMaxInUseCount());
+
+        release.countDown();
+        assertTrue(mllpClients.sendFramedDataAndWaitForAcknowledgement(message("00002")).contains("MSA|AA|00002"));
+        assertTrue(mllpClients.getContendedAcquireCount() >= 1);
+    }
+
+    @Test
+    public void testBrokenConnectionIsReplaced() throws Exception {
+        MllpClientResource broken = mllpClients.execute(client -> {
+            client.disconnect();
+            return client;
+        });
+        awaitReplacements(1);
+
+        try {
+            mllpClients.execute(client -> {
+                throw new IllegalStateException("Unexpected acknowledgement");
+            });
+            fail("The exception of the callback should be thrown");
+        } catch (IllegalStateException expectedEx) {
+            // Expected
+        }
+        awaitReplacements(2);
+
+        for (int i = 0; i < POOL_SIZE; ++i) {
+            assertNotSame(broken, mllpClients.execute(client -> client));
+        }
+        assertEquals(0, mllpClients.getBrokenCount());
+        assertEquals(POOL_SIZE, mllpClients.getIdleCount());
+        assertTrue(mllpClients.sendFramedDataAndWaitForAcknowledgement(message("00003")).contains("MSA|AA|00003"));
+    }
+
+    void awaitReplacements(long replacementCount) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mllpClients.getReplacedConnectionCount() < replacementCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(replacementCount, mllpClients.getReplacedConnectionCount());
+    }
+
+    static String message(String controlId) {
+        return "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|" + controlId + "|D|2.3" + '\r'
+            + "PID|1||123456" + '\r';
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Verify the MllpClientResource frame reader keeps the bytes following a frame for the next receive
+ */
+public class MllpClientResourceFrameReaderJUnitTest {
+    static final String FIRST_ACKNOWLEDGEMENT = "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3" + '\r' + "MSA|AA|00001|" + '\r';
+    static final String SECOND_ACKNOWLEDGEMENT = "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00002|D|2.3" + '\r' + "MSA|AE|00002|" + '\r';
+
+    ServerSocket serverSocket;
+    Socket serverSide;
+    OutputStream serverOutput;
+
+    MllpClientResource mllpClient;
+
+    @Before
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(0));
+
+        mllpClient = new MllpClientResource(serverSocket.getLocalPort());
+        mllpClient.connect();
+
+        serverSide = serverSocket.accept();
+        serverOutput = serverSide.getOutputStream();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+        serverSide.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void testTwoFramesInOneSegment() throws Exception {
+        send(frame(FIRST_ACKNOWLEDGEMENT) + frame(SECOND_ACKNOWLEDGEMENT));
+
+        assertEquals(FIRST_ACKNOWLEDGEMENT, mllpClient.receiveFramedData());
+        assertEquals(SECOND_ACKNOWLEDGEMENT, mllpClient.receiveFramedData());
+    }
+
+    @Test
+    public void testFrameSplitAcrossSegments() throws Exception {
+        String frames = frame(FIRST_ACKNOWLEDGEMENT) + frame(SECOND_ACKNOWLEDGEMENT);
+        int split = frame(FIRST_ACKNOWLEDGEMENT).length() - 1;
+
+        // The END_OF_BLOCK and END_OF_DATA of the first frame arrive separately
+        send(frames.substring(0, split));
+        Thread.sleep(50);
+        send(frames.substring(split, split + 10));
+        Thread.sleep(50);
+        send(frames.substring(split + 10));
+
+        assertEquals(FIRST_ACKNOWLEDGEMENT, mllpClient.receiveFramedData());
+        assertEquals(SECOND_ACKNOWLEDGEMENT, mllpClient.receiveFramedData());
+    }
+
+    @Test
+    public void testReceiveIntoArray() throws Exception {
+        send(frame(FIRST_ACKNOWLEDGEMENT) + frame(SECOND_ACKNOWLEDGEMENT));
+
+        byte[] destination = new byte[1024];
+        int length = mllpClient.receiveFramedBytes(destination, 10, 5000);
+        assertEquals(FIRST_ACKNOWLEDGEMENT, new String(destination, 10, length, StandardCharsets.ISO_8859_1));
+
+        length = mllpClient.receiveFramedBytes(destination, 0, 5000);
+        assertEquals(SECOND_ACKNOWLEDGEMENT, new String(destination, 0, length, StandardCharsets.ISO_8859_1));
+
+        serverSide.close();
+        assertEquals(-1, mllpClient.receiveFramedBytes(destination, 0, 5000));
+    }
+
+    @Test
+    public void testReceiveIntoByteBuffer() throws Exception {
+        send(frame(FIRST_ACKNOWLEDGEMENT) + frame(SECOND_ACKNOWLEDGEMENT));
+
+        ByteBuffer destination = ByteBuffer.allocate(1024);
+        int firstLength = mllpClient.receiveFramedBytes(destination);
+        int secondLength = mllpClient.receiveFramedBytes(destination);
+
+        assertEquals(firstLength + secondLength, destination.position());
+        destination.flip();
+        assertEquals(FIRST_ACKNOWLEDGEMENT + SECOND_ACKNOWLEDGEMENT, StandardCharsets.ISO_8859_1.decode(destination).toString());
+    }
+
+    @Test
+    public void testFrameDoesNotFit() throws Exception {
+        send(frame(FIRST_ACKNOWLEDGEMENT) + frame(SECOND_ACKNOWLEDGEMENT));
+
+        try {
+            mllpClient.receiveFramedBytes(ByteBuffer.allocate(10));
+            fail("A frame larger than the buffer should not be received");
+        } catch (MllpJUnitResourceException expectedEx) {
+            // Expected
+        }
+
+        assertEquals(SECOND_ACKNOWLEDGEMENT, mllpClient.receiveFramedData());
+    }
+
+    @Test
+    public void testOutOfBandDataBeforeFrame() throws Exception {
+        send("X" + frame(FIRST_ACKNOWLEDGEMENT));
+
+        try {
+            mllpClient.receiveFramedData();
+            fail("Data before the START_OF_BLOCK should be reported");
+        } catch (MllpJUnitResourceCorruptFrameException expectedEx) {
+            // Expected
+        }
+
+        assertEquals(FIRST_ACKNOWLEDGEMENT, mllpClient.receiveFramedData());
+    }
+
+    @Test
+    public void testRawReadAfterFrame() throws Exception {
+        send(frame(FIRST_ACKNOWLEDGEMENT) + "raw bytes");
+
+        assertEquals(FIRST_ACKNOWLEDGEMENT, mllpClient.receiveFramedData());
+        Thread.sleep(50);
+        assertEquals("The bytes buffered after the frame should be returned", "raw bytes", mllpClient.receiveData());
+    }
+
+    @Test
+    public void testEndOfStream() throws Exception {
+        serverSide.close();
+
+        assertNull(mllpClient.receiveFramedData());
+    }
+
+    void send(String data) throws Exception {
+        serverOutput.write(data.getBytes(StandardCharsets.ISO_8859_1));
+        serverOutput.flush();
+    }
+
+    static String frame(String payload) {
+        return MllpServerResource.START_OF_BLOCK + payload + MllpServerResource.END_OF_BLOCK + MllpServerResource.END_OF_DATA;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Verify the MllpClientResource sends ByteBuffer payloads in a MLLP frame
+ */
+public class MllpClientResourceGatheringWriteJUnitTest {
+    static final String MESSAGE = "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3" + '\r' + "PID|1||123456" + '\r';
+
+    ServerSocket serverSocket;
+    Socket serverSide;
+    InputStream serverInput;
+
+    MllpClientResource mllpClient;
+
+    @Before
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(0));
+
+        mllpClient = new MllpClientResource(serverSocket.getLocalPort());
+        mllpClient.connect();
+
+        serverSide = serverSocket.accept();
+        serverSide.setSoTimeout(5000);
+        serverInput = serverSide.getInputStream();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+        serverSide.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void testPlainConnectionUsesChannel() throws Exception {
+        assertNotNull(mllpClient.clientChannel);
+    }
+
+    @Test
+    public void testDirectBuffer() throws Exception {
+        byte[] messageBytes = MESSAGE.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer payload = ByteBuffer.allocateDirect(messageBytes.length);
+        payload.put(messageBytes).flip();
+
+        mllpClient.sendFramedData(payload);
+
+        assertEquals(frame(MESSAGE), receive(frame(MESSAGE).length()));
+        assertEquals("The position of the buffer should not change", 0, payload.position());
+    }
+
+    @Test
+    public void testReadOnlyBufferCanBeSentAgain() throws Exception {
+        ByteBuffer payload = ByteBuffer.wrap(MESSAGE.getBytes(StandardCharsets.ISO_8859_1)).asReadOnlyBuffer();
+
+        mllpClient.sendFramedData(payload);
+        mllpClient.sendFramedData(payload);
+
+        assertEquals(frame(MESSAGE) + frame(MESSAGE), receive(2 * frame(MESSAGE).length()));
+    }
+
+    @Test
+    public void testSlice() throws Exception {
+        ByteBuffer payload = ByteBuffer.wrap(("XXXX" + MESSAGE + "YY").getBytes(StandardCharsets.ISO_8859_1));
+        payload.position(4).limit(4 + MESSAGE.length());
+
+        mllpClient.sendFramedData(payload.slice());
+
+        assertEquals(frame(MESSAGE), receive(frame(MESSAGE).length()));
+    }
+
+    @Test
+    public void testLargePayload() throws Exception {
+        StringBuilder builder = new StringBuilder(MESSAGE);
+        while (builder.length() < 100000) {
+            builder.append("OBX|1|TX|||").append(builder.length()).append('\r');
+        }
+        String largeMessage = builder.toString();
+
+        mllpClient.sendFramedData(ByteBuffer.wrap(largeMessage.getBytes(StandardCharsets.ISO_8859_1)));
+
+        assertEquals(frame(largeMessage), receive(frame(largeMessage).length()));
+    }
+
+    @Test
+    public void testUnflushedDataIsSentFirst() throws Exception {
+        mllpClient.sendData("X");
+        mllpClient.sendFramedData(ByteBuffer.wrap(MESSAGE.getBytes(StandardCharsets.ISO_8859_1)));
+
+        assertEquals("X" + frame(MESSAGE), receive(1 + frame(MESSAGE).length()));
+    }
+
+    @Test
+    public void testEnvelopeSettings() throws Exception {
+        mllpClient.setSendStartOfBlock(false);
+        mllpClient.setSendEndOfData(false);
+
+        mllpClient.sendFramedData(ByteBuffer.wrap(MESSAGE.getBytes(StandardCharsets.ISO_8859_1)));
+
+        assertEquals(MESSAGE + MllpClientResource.END_OF_BLOCK, receive(MESSAGE.length() + 1));
+    }
+
+    @Test
+    public void testNoTrailer() throws Exception {
+        mllpClient.setSendEndOfBlock(false);
+        mllpClient.setSendEndOfData(false);
+
+        mllpClient.sendFramedData(MESSAGE);
+
+        assertEquals(MllpClientResource.START_OF_BLOCK + MESSAGE, receive(MESSAGE.length() + 1));
+    }
+
+    @Test
+    public void testNoEnvelope() throws Exception {
+        mllpClient.setSendStartOfBlock(false);
+        mllpClient.setSendEndOfBlock(false);
+        mllpClient.setSendEndOfData(false);
+
+        mllpClient.sendFramedData(MESSAGE.getBytes(StandardCharsets.ISO_8859_1));
+
+        assertEquals(MESSAGE, receive(MESSAGE.length()));
+    }
+
+    String receive(int length) throws Exception {
+        byte[] received = new byte[length];
+        int count = 0;
+        while (count < length) {
+            int bytesRead = serverInput.read(received, count, length - count);
+            if (0 > bytesRead) {
+                break;
+            }
+            count += bytesRead;
+        }
+        return new String(received, 0, count, StandardCharsets.ISO_8859_1);
+    }
+
+    static String frame(String payload) {
+        return MllpClientResource.START_OF_BLOCK + payload + MllpClientResource.END_OF_BLOCK + MllpClientResource.END_OF_DATA;
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verify the MllpClientResource matches pipelined frames to their acknowledgements
+ */
+public class MllpClientResourcePipelineJUnitTest {
+    static final int MESSAGE_COUNT = 20;
+
+    MllpServerResource mllpServer;
+    ServerSocket serverSocket;
+    Socket serverSide;
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+        if (null != mllpServer) {
+            mllpServer.shutdown();
+        }
+        if (null != serverSide) {
+            serverSide.close();
+        }
+        if (null != serverSocket) {
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedAcknowledgements() throws Exception {
+        startServer();
+        mllpClient.setMaxInFlight(4);
+
+        List<CompletableFuture<String>> acknowledgements = new ArrayList<>();
+        for (int i = 1; i <= MESSAGE_COUNT; ++i) {
+            acknowledgements.add(mllpClient.sendFramedDataPipelined(message(i)));
+            assertTrue("No more than maxInFlight frames should be in flight", mllpClient.getInFlightCount() <= 4);
+        }
+
+        for (int i = 1; i <= MESSAGE_COUNT; ++i) {
+            String acknowledgement = acknowledgements.get(i - 1).get(5, TimeUnit.SECONDS);
+            assertTrue(acknowledgement, acknowledgement.contains(String.format("MSA|AA|%05d", i)));
+        }
+        assertEquals(0, mllpClient.getInFlightCount());
+        assertEquals(MESSAGE_COUNT, mllpServer.getMetrics().getFramesReceived());
+    }
+
+    @Test
+    public void testMissingAcknowledgementTimesOut() throws Exception {
+        startServer();
+        mllpServer.setExcludeAcknowledgementModulus(3);
+        mllpClient.setSoTimeout(500);
+
+        List<CompletableFuture<String>> acknowledgements = new ArrayList<>();
+        for (int i = 1; i <= 6; ++i) {
+            acknowledgements.add(mllpClient.sendFramedDataPipelined(message(i)));
+        }
+
+        for (int i = 1; i <= 6; ++i) {
+            CompletableFuture<String> acknowledgement = acknowledgements.get(i - 1);
+            if (0 == i % 3) {
+                assertTimedOut(acknowledgement);
+            } else {
+                assertTrue(acknowledgement.get(5, TimeUnit.SECONDS).contains(String.format("MSA|AA|%05d", i)));
+            }
+        }
+        assertEquals(0, mllpClient.getInFlightCount());
+    }
+
+    @Test
+    public void testOutOfOrderAcknowledgements() throws Exception {
+        startPeer();
+
+        List<CompletableFuture<String>> acknowledgements = new ArrayList<>();
+        for (int i = 1; i <= 3; ++i) {
+            acknowledgements.add(mllpClient.sendFramedDataPipelined(message(i)));
+        }
+        send(frame(acknowledgement(3)) + frame(acknowledgement(1)));
+
+        assertEquals(acknowledgement(3), acknowledgements.get(2).get(5, TimeUnit.SECONDS));
+        assertEquals(acknowledgement(1), acknowledgements.get(0).get(5, TimeUnit.SECONDS));
+        assertFalse(acknowledgements.get(1).isDone());
+
+        send(frame(acknowledgement(2)));
+        assertEquals(acknowledgement(2), acknowledgements.get(1).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRepeatedControlIdsAreAcknowledgedInOrder() throws Exception {
+        startPeer();
+
+        CompletableFuture<String> first = mllpClient.sendFramedDataPipelined(message(1));
+        CompletableFuture<String> second = mllpClient.sendFramedDataPipelined(message(1));
+        send(frame(acknowledgement(1)));
+
+        assertEquals(acknowledgement(1), first.get(5, TimeUnit.SECONDS));
+        assertFalse(second.isDone());
+        assertEquals(1, mllpClient.getInFlightCount());
+    }
+
+    @Test
+    public void testUnmatchedAcknowledgement() throws Exception {
+        startPeer();
+
+        CompletableFuture<String> pending = mllpClient.sendFramedDataPipelined(message(1));
+        send(frame(acknowledgement(7)) + frame(acknowledgement(1)));
+
+        assertEquals(acknowledgement(1), pending.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mllpClient.getUnmatchedAcknowledgementCount());
+    }
+
+    @Test
+    public void testConnectionClosedFailsFramesInFlight() throws Exception {
+        startPeer();
+
+        CompletableFuture<String> pending = mllpClient.sendFramedDataPipelined(message(1));
+        serverSide.close();
+
+        try {
+            pending.get(5, TimeUnit.SECONDS);
+            fail("The acknowledgement should not be received after the connection is closed");
+        } catch (ExecutionException expectedEx) {
+            assertTrue(expectedEx.getCause() instanceof MllpJUnitResourceException);
+        }
+    }
+
+    @Test
+    public void testZeroTimeoutWaitsForever() throws Exception {
+        startPeer();
+        mllpClient.setSoTimeout(0);
+        mllpClient.setMaxInFlight(1);
+
+        CompletableFuture<String> pending = mllpClient.sendFramedDataPipelined(message(1));
+        Thread.sleep(300);
+        assertFalse("A soTimeout of 0 should not expire the frame", pending.isDone());
+
+        send(frame(acknowledgement(1)));
+        assertEquals(acknowledgement(1), pending.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSynchronousReceiveIsRejectedWhilePipelining() throws Exception {
+        startPeer();
+
+        mllpClient.sendFramedDataPipelined(message(1));
+        assertReceiveRejected(() -> mllpClient.receiveFramedData());
+        assertReceiveRejected(() -> mllpClient.receiveFramedBytes(new byte[1024], 0, 1000));
+        assertReceiveRejected(() -> mllpClient.receiveData());
+        assertReceiveRejected(() -> mllpClient.receiveBytes());
+        assertReceiveRejected(() -> mllpClient.eatData());
+        assertReceiveRejected(() -> mllpClient.eatBytes());
+
+        // The reader has stopped using the frame decoder when disconnect returns
+        Thread reader = mllpClient.pipeline.readerThread;
+        mllpClient.disconnect();
+        assertFalse(reader.isAlive());
+
+        // A new connection is not pipelined
+        mllpClient.connect();
+        serverSide = serverSocket.accept();
+        send(frame(acknowledgement(2)));
+        assertEquals(acknowledgement(2), mllpClient.receiveFramedData());
+    }
+
+    @Test
+    public void testAcknowledgementControlId() throws Exception {
+        byte[] acknowledgement = acknowledgement(42).getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals("00042", MllpClientPipeline.acknowledgementControlId(acknowledgement, 0, acknowledgement.length));
+
+        byte[] noMsa = "MSH|^~\\&|APP_B|FAC_B\r".getBytes(StandardCharsets.ISO_8859_1);
+        assertNull(MllpClientPipeline.acknowledgementControlId(noMsa, 0, noMsa.length));
+
+        byte[] noMsa2 = "MSH|^~\\&|APP_B|FAC_B\rMSA|AA\r".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals("", MllpClientPipeline.acknowledgementControlId(noMsa2, 0, noMsa2.length));
+    }
+
+    void startServer() throws Exception {
+        mllpServer = new MllpServerResource(0);
+        mllpServer.startup();
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+    }
+
+    void startPeer() throws Exception {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(0));
+        mllpClient.setMllpPort(serverSocket.getLocalPort());
+        mllpClient.connect();
+        serverSide = serverSocket.accept();
+    }
+
+    void send(String data) throws Exception {
+        OutputStream serverOutput = serverSide.getOutputStream();
+        serverOutput.write(data.getBytes(StandardCharsets.ISO_8859_1));
+        serverOutput.flush();
+    }
+
+    static void assertReceiveRejected(Receive receive) throws Exception {
+        try {
+            receive.call();
+            fail("Frames should only be received by the pipeline");
+        } catch (IllegalStateException expectedEx) {
+            // Expected
+        }
+    }
+
+    static void assertTimedOut(CompletableFuture<String> acknowledgement) throws Exception {
+        try {
+            acknowledgement.get(5, TimeUnit.SECONDS);
+            fail("The acknowledgement should not be received");
+        } catch (ExecutionException expectedEx) {
+            assertTrue(expectedEx.getCause() instanceof MllpJUnitResourceTimeoutException);
+        }
+    }
+
+    static String message(int messageNumber) {
+        return String.format("MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|%05d|D|2.3" + '\r'
+            + "PID|1||123456" + '\r', messageNumber);
+    }
+
+    static String acknowledgement(int messageNumber) {
+        return String.format("MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|%05d|D|2.3" + '\r'
+            + "MSA|AA|%05d|" + '\r', messageNumber, messageNumber);
+    }
+
+    interface Receive {
+        Object call() throws Exception;
+    }
+
+    static String frame(String payload) {
+        return MllpClientResource.START_OF_BLOCK + payload + MllpClientResource.END_OF_BLOCK + MllpClientResource.END_OF_DATA;
+    }
+}
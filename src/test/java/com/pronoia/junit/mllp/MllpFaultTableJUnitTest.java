@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MllpFaultTableJUnitTest {
+    static final int MESSAGE_COUNT = 10000;
+
+    @Test
+    public void testEveryNthMatchesModulus() throws Exception {
+        MllpFaultTable table = new MllpFaultTable(0, Collections.singletonList(MllpFaultRule.everyNth(MllpFault.EXCLUDE_END_OF_DATA, 3)));
+
+        for (int messageCount = 1; messageCount <= 30; ++messageCount) {
+            assertEquals("Message " + messageCount, messageCount % 3 == 0, MllpFault.EXCLUDE_END_OF_DATA.isSet(table.evaluate(1, messageCount, 0, 0)));
+        }
+    }
+
+    @Test
+    public void testEveryMessageIsFoldedIntoConstantMask() throws Exception {
+        MllpFaultTable table = new MllpFaultTable(0, Collections.singletonList(MllpFaultRule.everyNth(MllpFault.EXCLUDE_ACKNOWLEDGEMENT, 1)));
+
+        assertEquals(0, table.ruleCount);
+        assertEquals(MllpFault.EXCLUDE_ACKNOWLEDGEMENT.mask, table.evaluate(1, 1, 0, 0));
+    }
+
+    @Test
+    public void testEveryNthBurst() throws Exception {
+        MllpFaultTable table = new MllpFaultTable(0, Collections.singletonList(MllpFaultRule.everyNth(MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT, 5).burst(2)));
+
+        StringBuilder pattern = new StringBuilder();
+        for (int messageCount = 1; messageCount <= 15; ++messageCount) {
+            pattern.append(0 == table.evaluate(1, messageCount, 0, 0) ? '.' : 'X');
+        }
+        assertEquals("....XX...XX...X", pattern.toString());
+    }
+
+    @Test
+    public void testProbabilityIsReproducible() throws Exception {
+        MllpFaultRule rule = MllpFaultRule.withProbability(MllpFault.SEND_APPLICATION_ERROR_ACKNOWLEDGEMENT, 0.1);
+        MllpFaultTable first = new MllpFaultTable(42, Collections.singletonList(rule));
+        MllpFaultTable second = new MllpFaultTable(42, Collections.singletonList(rule));
+        MllpFaultTable otherSeed = new MllpFaultTable(43, Collections.singletonList(rule));
+
+        int injected = 0;
+        boolean seedsDiffer = false;
+        for (int messageCount = 1; messageCount <= MESSAGE_COUNT; ++messageCount) {
+            int faults = first.evaluate(7, messageCount, 0, 0);
+            assertEquals(faults, second.evaluate(7, messageCount, 0, 0));
+            seedsDiffer |= faults != otherSeed.evaluate(7, messageCount, 0, 0);
+            if (0 != faults) {
+                ++injected;
+            }
+        }
+
+        assertTrue("Injected " + injected, injected > MESSAGE_COUNT * 0.08 && injected < MESSAGE_COUNT * 0.12);
+        assertTrue("A different seed should make different decisions", seedsDiffer);
+    }
+
+    @Test
+    public void testProbabilityDependsOnConnection() throws Exception {
+        MllpFaultTable table = new MllpFaultTable(42, Collections.singletonList(MllpFaultRule.withProbability(MllpFault.EXCLUDE_END_OF_BLOCK, 0.5)));
+
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        for (int messageCount = 1; messageCount <= 64; ++messageCount) {
+            first.append(table.evaluate(1, messageCount, 0, 0));
+            second.append(table.evaluate(2, messageCount, 0, 0));
+        }
+        assertNotEquals(first.toString(), second.toString());
+    }
+
+    @Test
+    public void testProbabilityBurst() throws Exception {
+        MllpFaultTable table = new MllpFaultTable(42, Collections.singletonList(MllpFaultRule.withProbability(MllpFault.EXCLUDE_END_OF_BLOCK, 0.3).burst(4)));
+
+        for (int messageCount = 1; messageCount <= MESSAGE_COUNT; messageCount += 4) {
+            int faults = table.evaluate(1, messageCount, 0, 0);
+            for (int i = 1; i < 4; ++i) {
+                assertEquals("Every message of a burst should get the same decision", faults, table.evaluate(1, messageCount + i, 0, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testTimeWindow() throws Exception {
+        MllpFaultTable table = new MllpFaultTable(0, Collections.singletonList(MllpFaultRule.everyNth(MllpFault.EXCLUDE_START_OF_BLOCK, 1).between(1000, 2000)));
+
+        assertTrue(table.usesTimeWindows);
+        assertEquals(0, table.evaluate(1, 1, 0, 999));
+        assertEquals(MllpFault.EXCLUDE_START_OF_BLOCK.mask, table.evaluate(1, 1, 0, 1000));
+        assertEquals(MllpFault.EXCLUDE_START_OF_BLOCK.mask, table.evaluate(1, 1, 0, 1999));
+        assertEquals(0, table.evaluate(1, 1, 0, 2000));
+    }
+
+    @Test
+    public void testServerScope() throws Exception {
+        MllpFaultTable table = new MllpFaultTable(0, Arrays.asList(
+            MllpFaultRule.everyNth(MllpFault.SEND_APPLICATION_REJECT_ACKNOWLEDGEMENT, 4).scope(MllpFaultRule.Scope.SERVER),
+            MllpFaultRule.everyNth(MllpFault.SEND_OUT_OF_BAND_DATA, 2)));
+
+        assertTrue(table.usesServerScope);
+        assertFalse(table.usesTimeWindows);
+        assertEquals(MllpFault.SEND_APPLICATION_REJECT_ACKNOWLEDGEMENT.mask, table.evaluate(3, 1, 4, 0));
+        assertEquals(MllpFault.SEND_OUT_OF_BAND_DATA.mask, table.evaluate(3, 2, 5, 0));
+        assertEquals(MllpFault.SEND_APPLICATION_REJECT_ACKNOWLEDGEMENT.mask | MllpFault.SEND_OUT_OF_BAND_DATA.mask, table.evaluate(3, 2, 8, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBurstLongerThanModulus() throws Exception {
+        MllpFaultRule.everyNth(MllpFault.EXCLUDE_END_OF_DATA, 2).burst(3);
+    }
+}
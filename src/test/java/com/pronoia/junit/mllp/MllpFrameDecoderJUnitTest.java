@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MllpFrameDecoderJUnitTest {
+
+    @Test
+    public void testFramesInOneRead() throws Exception {
+        MllpFrameDecoder decoder = new MllpFrameDecoder();
+        decoder.fill(stream("\u000bFIRST\u001c\r\u000bSECOND\u001c\r"));
+
+        assertEquals(MllpFrameDecoder.FRAME, decoder.decode());
+        assertEquals("FIRST", decoder.getFrameAsString());
+        assertEquals(MllpFrameDecoder.FRAME, decoder.decode());
+        assertEquals("SECOND", decoder.getFrameAsString());
+        assertEquals(MllpFrameDecoder.NEED_MORE_DATA, decoder.decode());
+        assertFalse(decoder.isInFrame());
+    }
+
+    @Test
+    public void testFrameSplitAcrossReads() throws Exception {
+        MllpFrameDecoder decoder = new MllpFrameDecoder(4);
+        InputStream stream = new OneByteInputStream("\u000bSPLIT-FRAME-PAYLOAD\u001c\r");
+
+        int decodeResult;
+        while (MllpFrameDecoder.FRAME != (decodeResult = decoder.decode())) {
+            assertEquals(MllpFrameDecoder.NEED_MORE_DATA, decodeResult);
+            assertTrue(0 < decoder.fill(stream));
+        }
+
+        assertEquals("SPLIT-FRAME-PAYLOAD", decoder.getFrameAsString());
+    }
+
+    @Test
+    public void testCorruptFrames() throws Exception {
+        MllpFrameDecoder decoder = new MllpFrameDecoder();
+        decoder.fill(stream("X\u000bFIRST\u000bSECOND\u001cY"));
+
+        assertEquals(MllpFrameDecoder.OUT_OF_BAND_DATA, decoder.decode());
+        assertEquals('X', decoder.getOutOfBandByte());
+        assertEquals(MllpFrameDecoder.START_OF_BLOCK_BEFORE_END_OF_BLOCK, decoder.decode());
+        assertEquals("FIRST", decoder.getFrameAsString());
+        for (char outOfBand : "SECOND".toCharArray()) {
+            assertEquals(MllpFrameDecoder.OUT_OF_BAND_DATA, decoder.decode());
+            assertEquals(outOfBand, decoder.getOutOfBandByte());
+        }
+        assertEquals(MllpFrameDecoder.OUT_OF_BAND_DATA, decoder.decode());
+        assertEquals(MllpFrameDecoder.OUT_OF_BAND_DATA, decoder.decode());
+        assertEquals('Y', decoder.getOutOfBandByte());
+    }
+
+    @Test
+    public void testMissingEndOfData() throws Exception {
+        MllpFrameDecoder decoder = new MllpFrameDecoder();
+        decoder.fill(stream("\u000bPAYLOAD\u001cZ"));
+
+        assertEquals(MllpFrameDecoder.MISSING_END_OF_DATA, decoder.decode());
+        assertEquals('Z', decoder.getOutOfBandByte());
+        assertEquals("PAYLOAD", decoder.getFrameAsString());
+    }
+
+    static InputStream stream(String data) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Simulate a socket that delivers one byte per read.
+     */
+    static class OneByteInputStream extends ByteArrayInputStream {
+        OneByteInputStream(String data) {
+            super(data.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(1, len));
+        }
+    }
+}
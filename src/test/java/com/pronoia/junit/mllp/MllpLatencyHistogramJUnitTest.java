@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MllpLatencyHistogramJUnitTest {
+
+    @Test
+    public void testBucketBoundaries() throws Exception {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = MllpLatencyHistogram.indexOf(value);
+            assertTrue("Index out of range for " + value, index < MllpLatencyHistogram.BUCKET_COUNT);
+            assertTrue(MllpLatencyHistogram.lowestValueOf(index) <= value);
+            assertTrue(MllpLatencyHistogram.highestValueOf(index) >= value);
+        }
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        MllpLatencyHistogram histogram = new MllpLatencyHistogram();
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertWithinPrecision(500000, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(990000, histogram.getValueAtPercentile(99));
+        assertWithinPrecision(1000000, histogram.getMaxValue());
+        assertWithinPrecision(1000, histogram.getMinValue());
+        assertWithinPrecision(500500, (long) histogram.getMean());
+
+        MllpLatencyHistogram copy = histogram.copy();
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(1000, copy.getCount());
+    }
+
+    static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("Expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / MllpLatencyHistogram.SUB_BUCKET_COUNT);
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the MllpLoadGenerator sends on schedule and measures latency from the scheduled send time
+ */
+public class MllpLoadGeneratorJUnitTest {
+    @Rule
+    public MllpServerResource mllpServer = new MllpServerResource();
+
+    ScheduledExecutorService backEnd = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() throws Exception {
+        backEnd.shutdownNow();
+    }
+
+    @Test
+    public void testFixedRate() throws Exception {
+        MllpLoadGenerator loadGenerator = new MllpLoadGenerator(mllpServer.getListenPort());
+        loadGenerator.setRate(500);
+        loadGenerator.setMessageCount(200);
+        loadGenerator.setConnectionCount(2);
+
+        MllpLoadGenerator.Result result = loadGenerator.run();
+
+        assertTrue(result.getFailures().toString(), result.getFailures().isEmpty());
+        assertEquals(200, result.getMessagesSent());
+        assertEquals(200, result.getAcknowledgementsReceived());
+        assertEquals(200, result.getLatency().getCount());
+        assertEquals(200, mllpServer.getMetrics().getFramesReceived());
+        assertEquals(2, mllpServer.getMetrics().getConnectionsAccepted());
+        assertTrue("The run should follow the schedule: " + result.getElapsedMillis(), result.getElapsedMillis() >= 390);
+    }
+
+    @Test
+    public void testStallIsChargedToScheduledMessages() throws Exception {
+        // The acknowledgement of message 10 is held for 500 milliseconds
+        mllpServer.setResponseHandler((hl7Message, connectionId) -> {
+            CompletableFuture<byte[]> response = new CompletableFuture<>();
+            String controlId = new String(hl7Message, StandardCharsets.ISO_8859_1).split("\\|")[9];
+            backEnd.schedule(() -> response.complete(acknowledgement(controlId)), "10".equals(controlId) ? 500 : 0, TimeUnit.MILLISECONDS);
+            return response;
+        });
+
+        MllpLoadGenerator loadGenerator = new MllpLoadGenerator(mllpServer.getListenPort());
+        loadGenerator.setRate(200);
+        loadGenerator.setMessageCount(100);
+        loadGenerator.setMaxInFlight(1);
+
+        MllpLoadGenerator.Result result = loadGenerator.run();
+
+        assertEquals(100, result.getAcknowledgementsReceived());
+        long stall = TimeUnit.MILLISECONDS.toNanos(100);
+        // About 100 messages were scheduled during the stall - each waited behind it
+        assertTrue("Latency should include the stall: " + result.getLatency(), result.getLatency().getValueAtPercentile(50) > stall);
+        assertTrue("Sends should fall behind the schedule: " + result.getSendLag(), result.getSendLag().getMaxValue() > stall);
+        // The wait for the only slot is lag, not service time - measured from the actual send, only the stalled message is slow
+        assertTrue("Service time hides the stall: " + result.getServiceTime(), result.getServiceTime().getValueAtPercentile(99) < stall);
+    }
+
+    @Test
+    public void testMissingAcknowledgementsTimeOut() throws Exception {
+        mllpServer.setExcludeAcknowledgementModulus(5);
+
+        MllpLoadGenerator loadGenerator = new MllpLoadGenerator(mllpServer.getListenPort());
+        loadGenerator.setRate(1000);
+        loadGenerator.setMessageCount(20);
+        loadGenerator.setAcknowledgementTimeout(300);
+
+        MllpLoadGenerator.Result result = loadGenerator.run();
+
+        assertEquals(20, result.getMessagesSent());
+        assertEquals(16, result.getAcknowledgementsReceived());
+        assertEquals(4, result.getAcknowledgementTimeouts());
+        assertEquals("Timed out messages should be in the latency histogram", 20, result.getLatency().getCount());
+        assertTrue("Timed out messages should be in the tail: " + result.getLatency(),
+            result.getLatency().getMaxValue() >= TimeUnit.MILLISECONDS.toNanos(300));
+        assertEquals(16, result.getServiceTime().getCount());
+    }
+
+    @Test
+    public void testFailedConnectionReportsMessagesNotSent() throws Exception {
+        int closedPort;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            closedPort = serverSocket.getLocalPort();
+        }
+
+        MllpLoadGenerator loadGenerator = new MllpLoadGenerator(closedPort);
+        loadGenerator.setRate(1000);
+        loadGenerator.setMessageCount(10);
+        loadGenerator.setConnectionCount(3);
+
+        MllpLoadGenerator.Result result = loadGenerator.run();
+
+        assertEquals(3, result.getFailures().size());
+        assertEquals(0, result.getMessagesSent());
+        assertEquals(10, result.getMessagesNotSent());
+        assertTrue(result.toString(), result.toString().contains("notSent=10"));
+    }
+
+    static byte[] acknowledgement(String controlId) {
+        return ("MSH|^~\\&|APP_B|FAC_B|LOAD|FAC_A|20160902123950||ACK^A01|" + controlId + "|P|2.3" + '\r'
+            + "MSA|AA|" + controlId + '\r').getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
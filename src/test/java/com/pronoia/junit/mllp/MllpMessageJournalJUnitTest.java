@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MllpMessageJournalJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|%05d|P|2.3" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSegmentedJournal() throws Exception {
+        File journalDirectory = temporaryFolder.newFolder();
+
+        try (MllpMessageJournal journal = new MllpMessageJournal(journalDirectory, 1024)) {
+            for (int i = 1; i <= 50; ++i) {
+                byte[] payload = String.format(TEST_MESSAGE, i).getBytes(MllpClientResource.DEFAULT_CHARSET);
+                journal.append(i % 3, 1000L + i, payload, 0, payload.length);
+            }
+            assertEquals(50, journal.getEntryCount());
+        }
+
+        int messageNumber = 0;
+        int lastSegment = 0;
+        for (MllpMessageJournalReader.Entry entry : new MllpMessageJournalReader(journalDirectory)) {
+            ++messageNumber;
+            assertEquals(messageNumber % 3, entry.getConnectionId());
+            assertEquals(1000L + messageNumber, entry.getReceiveTimestamp());
+            assertEquals(String.format("%05d", messageNumber), entry.getMessageControlId());
+            assertEquals(String.format(TEST_MESSAGE, messageNumber), new String(entry.getPayload(), MllpClientResource.DEFAULT_CHARSET));
+            lastSegment = entry.getSegment();
+        }
+        assertEquals(50, messageNumber);
+        assertTrue("Journal should roll to new segments", lastSegment > 0);
+    }
+
+    @Test
+    public void testServerJournal() throws Exception {
+        File journalDirectory = temporaryFolder.newFolder();
+        MllpServerResource mllpServer = new MllpServerResource();
+        mllpServer.setJournalDirectory(journalDirectory);
+        MllpClientResource mllpClient = new MllpClientResource();
+
+        mllpServer.startup();
+        try {
+            mllpClient.setMllpPort(mllpServer.getListenPort());
+            mllpClient.sendFramedDataAndWaitForAcknowledgement(String.format(TEST_MESSAGE, 1));
+            mllpClient.sendFramedDataAndWaitForAcknowledgement(String.format(TEST_MESSAGE, 2));
+        } finally {
+            mllpClient.disconnect();
+            mllpServer.shutdown();
+        }
+
+        Iterator<MllpMessageJournalReader.Entry> entries = new MllpMessageJournalReader(journalDirectory).iterator();
+        assertEquals("00001", entries.next().getMessageControlId());
+        assertEquals("00002", entries.next().getMessageControlId());
+        assertFalse(entries.hasNext());
+    }
+}
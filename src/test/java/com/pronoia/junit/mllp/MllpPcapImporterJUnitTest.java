@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class MllpPcapImporterJUnitTest {
+    static final int SERVER_PORT = 2575;
+    static final int CLIENT_PORT = 40000;
+
+    static final String MESSAGE = "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3" + '\r';
+    static final String ACKNOWLEDGEMENT = "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3" + '\r' + "MSA|AA|00001|" + '\r';
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPcapReassembly() throws Exception {
+        byte[] frame = frame(MESSAGE);
+        int split1 = 20;
+        int split2 = 40;
+
+        // Client ISN near the top of the sequence space, so the sequence numbers wrap
+        long clientSequence = 0xfffffff0L;
+        long serverSequence = 5000;
+
+        PcapWriter pcap = new PcapWriter(false);
+        pcap.ethernetIpv4(1000, true, clientSequence, 0x02, new byte[0]);
+        pcap.ethernetIpv4(1100, false, serverSequence, 0x12, new byte[0]);
+        long dataSequence = clientSequence + 1;
+        pcap.ethernetIpv4(2000, true, dataSequence, 0x18, slice(frame, 0, split1));
+        // Out of order, then the missing segment, then a retransmission
+        pcap.ethernetIpv4(2100, true, dataSequence + split2, 0x18, slice(frame, split2, frame.length));
+        pcap.ethernetIpv4(2200, true, dataSequence + split1, 0x18, slice(frame, split1, split2));
+        pcap.ethernetIpv4(2300, true, dataSequence + split1, 0x18, slice(frame, split1, split2));
+        pcap.ethernetIpv4(3000, false, serverSequence + 1, 0x18, frame(ACKNOWLEDGEMENT));
+        pcap.ethernetIpv4(4000, true, dataSequence + frame.length, 0x11, new byte[0]);
+        pcap.ethernetIpv4(4100, false, serverSequence + 1 + frame(ACKNOWLEDGEMENT).length, 0x11, new byte[0]);
+
+        File captureFile = temporaryFolder.newFile("capture.pcap");
+        pcap.write(captureFile);
+
+        List<MllpSessionEvent> events = MllpSessionRecording.importCapture(captureFile, SERVER_PORT).getEvents();
+
+        assertEquals(4, events.size());
+        assertEvent(events.get(0), MllpSessionEvent.Type.CONNECT, 0, null);
+        assertEvent(events.get(1), MllpSessionEvent.Type.FRAME_TO_SERVER, 1200, MESSAGE);
+        assertEvent(events.get(2), MllpSessionEvent.Type.FRAME_TO_CLIENT, 2000, ACKNOWLEDGEMENT);
+        assertEvent(events.get(3), MllpSessionEvent.Type.DISCONNECT, 3100, null);
+    }
+
+    @Test
+    public void testPcapConnectionOpenBeforeCapture() throws Exception {
+        byte[] frame = frame(MESSAGE);
+
+        PcapWriter pcap = new PcapWriter(true);
+        // Starts in the middle of a frame - the partial frame is discarded
+        pcap.ethernetIpv4(1000, true, 100, 0x18, slice(frame, 10, frame.length));
+        pcap.ethernetIpv4(2000, true, 100 + frame.length - 10, 0x18, frame);
+        pcap.ethernetIpv4(3000, false, 700, 0x14, new byte[0]);
+
+        File captureFile = temporaryFolder.newFile("open.pcap");
+        pcap.write(captureFile);
+
+        List<MllpSessionEvent> events = MllpSessionRecording.importCapture(captureFile, SERVER_PORT).getEvents();
+
+        assertEquals(3, events.size());
+        assertEvent(events.get(0), MllpSessionEvent.Type.CONNECT, 0, null);
+        assertEvent(events.get(1), MllpSessionEvent.Type.FRAME_TO_SERVER, 1000, MESSAGE);
+        assertEvent(events.get(2), MllpSessionEvent.Type.DISCONNECT, 2000, null);
+    }
+
+    @Test
+    public void testPcapngIpv6() throws Exception {
+        byte[] frame = frame(MESSAGE);
+
+        ByteArrayOutputStream packets = new ByteArrayOutputStream();
+        ByteBuffer block = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Section header
+        block.putInt(0x0a0d0d0a).putInt(28).putInt(0x1a2b3c4d).putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+        // Interface description - raw IP with nanosecond timestamps
+        block.putInt(1).putInt(32).putShort((short) 101).putShort((short) 0).putInt(0xffff)
+            .putShort((short) 9).putShort((short) 1).put((byte) 9).put(new byte[3]).putShort((short) 0).putShort((short) 0).putInt(32);
+        packets.write(block.array(), 0, block.position());
+
+        packets.write(enhancedPacket(1000000000L, ipv6Tcp(true, 10, 0x02, new byte[0])));
+        packets.write(enhancedPacket(1000000500L, ipv6Tcp(true, 11, 0x18, frame)));
+        packets.write(enhancedPacket(1000001000L, ipv6Tcp(false, 500, 0x04, new byte[0])));
+
+        File captureFile = temporaryFolder.newFile("capture.pcapng");
+        try (FileOutputStream outputStream = new FileOutputStream(captureFile)) {
+            packets.writeTo(outputStream);
+        }
+
+        MllpSessionRecording recording = MllpSessionRecording.importCapture(captureFile, SERVER_PORT);
+        List<MllpSessionEvent> events = recording.getEvents();
+
+        assertEquals(1000, recording.getStartTimestamp());
+        assertEquals(3, events.size());
+        assertEquals(MllpSessionEvent.Type.CONNECT, events.get(0).getType());
+        assertEquals(MllpSessionEvent.Type.FRAME_TO_SERVER, events.get(1).getType());
+        assertEquals(500, events.get(1).getTimestampNanos());
+        assertEquals(MESSAGE, events.get(1).getPayload(StandardCharsets.ISO_8859_1));
+        assertEquals(MllpSessionEvent.Type.DISCONNECT, events.get(2).getType());
+        assertEquals(1000, events.get(2).getTimestampNanos());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotACapture() throws Exception {
+        File file = temporaryFolder.newFile("not-a-capture");
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write("MSH|^~\\&|".getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        MllpSessionRecording.importCapture(file, SERVER_PORT);
+    }
+
+    static void assertEvent(MllpSessionEvent event, MllpSessionEvent.Type type, long timestampMicros, String payload) {
+        assertEquals(event.toString(), type, event.getType());
+        assertEquals(event.toString(), 1, event.getConnectionId());
+        assertEquals(event.toString(), timestampMicros * 1000, event.getTimestampNanos());
+        assertEquals(event.toString(), payload, event.getPayload(StandardCharsets.ISO_8859_1));
+    }
+
+    static byte[] frame(String payload) {
+        return (MllpServerResource.START_OF_BLOCK + payload + MllpServerResource.END_OF_BLOCK + MllpServerResource.END_OF_DATA).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static byte[] slice(byte[] bytes, int from, int to) {
+        byte[] slice = new byte[to - from];
+        System.arraycopy(bytes, from, slice, 0, slice.length);
+        return slice;
+    }
+
+    static ByteBuffer tcp(boolean toServer, long sequenceNumber, int flags, byte[] payload) {
+        ByteBuffer segment = ByteBuffer.allocate(20 + payload.length);
+        segment.putShort((short) (toServer ? CLIENT_PORT : SERVER_PORT)).putShort((short) (toServer ? SERVER_PORT : CLIENT_PORT));
+        segment.putInt((int) sequenceNumber).putInt(0).put((byte) 0x50).put((byte) flags).putShort((short) 0xffff).putInt(0);
+        segment.put(payload);
+        segment.flip();
+        return segment;
+    }
+
+    static byte[] ipv6Tcp(boolean toServer, long sequenceNumber, int flags, byte[] payload) {
+        ByteBuffer tcp = tcp(toServer, sequenceNumber, flags, payload);
+        ByteBuffer packet = ByteBuffer.allocate(40 + tcp.remaining());
+        byte[] client = new byte[16];
+        client[15] = 1;
+        byte[] server = new byte[16];
+        server[15] = 2;
+        packet.putInt(0x60000000).putShort((short) tcp.remaining()).put((byte) 6).put((byte) 64);
+        packet.put(toServer ? client : server).put(toServer ? server : client).put(tcp);
+        return packet.array();
+    }
+
+    static byte[] enhancedPacket(long timestampNanos, byte[] data) {
+        int padded = (data.length + 3) & ~3;
+        ByteBuffer block = ByteBuffer.allocate(32 + padded).order(ByteOrder.LITTLE_ENDIAN);
+        block.putInt(6).putInt(32 + padded).putInt(0).putInt((int) (timestampNanos >>> 32)).putInt((int) timestampNanos)
+            .putInt(data.length).putInt(data.length).put(data);
+        block.position(28 + padded);
+        block.putInt(32 + padded);
+        return block.array();
+    }
+
+    /**
+     * Nested class that writes a classic pcap capture of Ethernet frames
+     */
+    static class PcapWriter {
+        final ByteOrder order;
+        final ByteArrayOutputStream packets = new ByteArrayOutputStream();
+
+        PcapWriter(boolean bigEndian) {
+            this.order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        }
+
+        void ethernetIpv4(long timestampMicros, boolean toServer, long sequenceNumber, int flags, byte[] payload) {
+            ByteBuffer tcp = tcp(toServer, sequenceNumber, flags, payload);
+            ByteBuffer frame = ByteBuffer.allocate(14 + 20 + tcp.remaining());
+            frame.put(new byte[12]).putShort((short) 0x0800);
+            frame.put((byte) 0x45).put((byte) 0).putShort((short) (20 + tcp.remaining())).putInt(0).put((byte) 64).put((byte) 6).putShort((short) 0);
+            frame.put(new byte[] {10, 0, 0, (byte) (toServer ? 1 : 2)}).put(new byte[] {10, 0, 0, (byte) (toServer ? 2 : 1)});
+            frame.put(tcp);
+
+            ByteBuffer header = ByteBuffer.allocate(16).order(order);
+            header.putInt((int) (timestampMicros / 1000000)).putInt((int) (timestampMicros % 1000000)).putInt(frame.capacity()).putInt(frame.capacity());
+            packets.write(header.array(), 0, 16);
+            packets.write(frame.array(), 0, frame.capacity());
+        }
+
+        void write(File file) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(24).order(order);
+            header.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0).putInt(65535).putInt(1);
+            try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                outputStream.write(header.array());
+                packets.writeTo(outputStream);
+            }
+        }
+    }
+}
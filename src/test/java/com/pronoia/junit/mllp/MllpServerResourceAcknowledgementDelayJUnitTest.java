@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MllpServerResourceAcknowledgementDelayJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|%05d|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|%05d|D|2.3|||||||" + '\r'
+            + "MSA|AA|%05d|" + '\r';
+
+    @Rule
+    public MllpServerResource mllpServer = createServer();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    static MllpServerResource createServer() {
+        MllpServerResource server = new MllpServerResource();
+        server.setReceivedMessageCaptureCapacity(100);
+        return server;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+    }
+
+    @Test
+    public void testDelayDoesNotBlockReading() throws Exception {
+        mllpServer.setAcknowledgementDelay(MllpAcknowledgementDelay.fixed(1000));
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        long start = System.nanoTime();
+        mllpClient.sendFramedData(String.format(TEST_MESSAGE, 1));
+        mllpClient.sendFramedData(String.format(TEST_MESSAGE, 2));
+        assertTrue("The second message should be read while the first acknowledgement is delayed", mllpServer.awaitMessageCount(2, 500));
+
+        assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, 1, 1), mllpClient.receiveFramedData());
+        assertTrue("The acknowledgement should be delayed", System.nanoTime() - start >= 1000000000L);
+        assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, 2, 2), mllpClient.receiveFramedData());
+    }
+
+    @Test
+    public void testAcknowledgementOrder() throws Exception {
+        mllpServer.setAcknowledgementDelay(MllpAcknowledgementDelay.uniform(0, 50));
+        verifyAcknowledgementOrder();
+    }
+
+    @Test
+    public void testAcknowledgementOrderWithNioEngine() throws Exception {
+        mllpServer.shutdown();
+        mllpServer.setNioEngine(true);
+        mllpServer.setListenPort(0);
+        mllpServer.startup();
+
+        mllpServer.setAcknowledgementDelay(MllpAcknowledgementDelay.uniform(0, 50));
+        verifyAcknowledgementOrder();
+    }
+
+    @Test
+    public void testThrottledConnectionDoesNotDelayOtherConnections() throws Exception {
+        verifyThrottledConnectionDoesNotDelayOtherConnections();
+    }
+
+    @Test
+    public void testThrottledConnectionDoesNotDelayOtherConnectionsWithNioEngine() throws Exception {
+        mllpServer.shutdown();
+        mllpServer.setNioEngine(true);
+        mllpServer.setListenPort(0);
+        mllpServer.startup();
+
+        verifyThrottledConnectionDoesNotDelayOtherConnections();
+    }
+
+    @Test
+    public void testDisconnectAfterDelayedAcknowledgement() throws Exception {
+        mllpServer.setAcknowledgementDelay(MllpAcknowledgementDelay.fixed(100));
+        mllpServer.setDisconnectAfterAcknowledgementModulus(2);
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        mllpClient.sendFramedData(String.format(TEST_MESSAGE, 1));
+        mllpClient.sendFramedData(String.format(TEST_MESSAGE, 2));
+
+        assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, 1, 1), mllpClient.receiveFramedData());
+        assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, 2, 2), mllpClient.receiveFramedData());
+        assertEquals("Connection should be closed after the acknowledgement", null, mllpClient.receiveFramedData());
+    }
+
+    @Test
+    public void testDelayDistributions() throws Exception {
+        long[] samples = new long[10001];
+        MllpAcknowledgementDelay profile = MllpAcknowledgementDelay.percentiles(10, 100);
+        for (int i = 0; i < samples.length; ++i) {
+            samples[i] = profile.getDelayNanos(i);
+        }
+        Arrays.sort(samples);
+        assertWithin(10000000L, samples[5000], 0.1);
+        assertWithin(100000000L, samples[9900], 0.25);
+
+        MllpLatencyHistogram histogram = new MllpLatencyHistogram();
+        histogram.record(1000);
+        histogram.record(2000000);
+        MllpAcknowledgementDelay replay = MllpAcknowledgementDelay.replay(histogram);
+        boolean low = false;
+        boolean high = false;
+        for (int i = 0; i < 100; ++i) {
+            long delay = replay.getDelayNanos(i);
+            if (MllpLatencyHistogram.indexOf(delay) == MllpLatencyHistogram.indexOf(1000)) {
+                low = true;
+            } else if (MllpLatencyHistogram.indexOf(delay) == MllpLatencyHistogram.indexOf(2000000)) {
+                high = true;
+            } else {
+                assertFalse("Unexpected delay " + delay, true);
+            }
+        }
+        assertTrue(low && high);
+    }
+
+    void verifyThrottledConnectionDoesNotDelayOtherConnections() throws Exception {
+        mllpServer.setAcknowledgementDelay(MllpAcknowledgementDelay.fixed(50));
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+        MllpClientResource otherClient = new MllpClientResource(mllpServer.getListenPort());
+
+        try {
+            // Writing the acknowledgement to the throttled connection takes about 2 seconds
+            mllpClient.connect();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mllpServer.getMetrics().getConnections().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            MllpConnectionThrottle throttle = mllpServer.getConnectionThrottle(mllpServer.getMetrics().getConnections().get(0).getConnectionId());
+            throttle.setWriteBytesPerSecond(50);
+            throttle.setThrottleBurstSize(10);
+            throttle.setWritePacketSize(10);
+            mllpClient.sendFramedData(String.format(TEST_MESSAGE, 1));
+            Thread.sleep(100);
+
+            otherClient.connect();
+            for (int i = 2; i <= 5; ++i) {
+                long start = System.nanoTime();
+                assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, i, i), otherClient.sendFramedDataAndWaitForAcknowledgement(String.format(TEST_MESSAGE, i)));
+                long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+                assertTrue("The acknowledgement should only be delayed by its own delay: " + elapsedMillis + "ms", elapsedMillis < 500);
+            }
+
+            assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, 1, 1), mllpClient.receiveFramedData(5000));
+        } finally {
+            otherClient.disconnect();
+        }
+    }
+
+    void verifyAcknowledgementOrder() throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        for (int i = 1; i <= 20; ++i) {
+            mllpClient.sendFramedData(String.format(TEST_MESSAGE, i));
+        }
+        for (int i = 1; i <= 20; ++i) {
+            assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, i, i), mllpClient.receiveFramedData());
+        }
+    }
+
+    static void assertWithin(long expected, long actual, double tolerance) {
+        assertTrue("Expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected * tolerance);
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verify the MllpServerResource selects acknowledgement codes with acknowledgement rules and patterns
+ */
+public class MllpServerResourceAcknowledgementRuleJUnitTest {
+    static final String ADT_A01 =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|P|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String ADT_A08 =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A08|00002|P|2.3|||||||" + '\r'
+            + "EVN|A08|20160902123950" + '\r';
+
+    static final String ORU_R01 =
+        "MSH|^~\\&|LAB|FAC_L|APP_B|FAC_B|20160902123950||ORU^R01^ORU_R01|00003|T^A|2.5|||||||" + '\r'
+            + "OBX|1|TX|||ADT^A01" + '\r';
+
+    @Rule
+    public MllpServerResource mllpServer = new MllpServerResource();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+    }
+
+    @Test
+    public void testMessageTypeRule() throws Exception {
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationError().messageType("ADT^A08"));
+
+        assertEquals("AA", acknowledgementCode(ADT_A01));
+        assertEquals("AE", acknowledgementCode(ADT_A08));
+        assertEquals("AA", acknowledgementCode(ORU_R01));
+    }
+
+    @Test
+    public void testMessageCodeRule() throws Exception {
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationReject().messageType("ORU"));
+
+        assertEquals("AA", acknowledgementCode(ADT_A01));
+        assertEquals("AR", acknowledgementCode(ORU_R01));
+    }
+
+    @Test
+    public void testSenderAndProcessingIdRules() throws Exception {
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationReject().sendingApplication("LAB").sendingFacility("FAC_A"));
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationError().processingId("T"));
+
+        assertEquals("AA", acknowledgementCode(ADT_A01));
+        assertEquals("AE", acknowledgementCode(ORU_R01));
+
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationReject().sendingApplication("APP_A").sendingFacility("FAC_A"));
+        assertEquals("AR", acknowledgementCode(ADT_A01));
+    }
+
+    @Test
+    public void testMostSpecificRuleIsUsed() throws Exception {
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationError().messageType("ADT"));
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationReject().messageType("ADT^A01").sendingApplication("APP_A"));
+
+        assertEquals("AR", acknowledgementCode(ADT_A01));
+        assertEquals("AE", acknowledgementCode(ADT_A08));
+
+        mllpServer.clearAcknowledgementRules();
+        assertEquals("AA", acknowledgementCode(ADT_A01));
+    }
+
+    @Test
+    public void testFaultSettingsTakePrecedence() throws Exception {
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationReject().messageType("ADT"));
+        mllpServer.setSendApplicationErrorAcknowledgementModulus(2);
+
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+        assertEquals("AR", MllpServerResourceFaultPlanJUnitTest.acknowledgementCode(mllpClient.sendFramedDataAndWaitForAcknowledgement(ADT_A01)));
+        assertEquals("AE", MllpServerResourceFaultPlanJUnitTest.acknowledgementCode(mllpClient.sendFramedDataAndWaitForAcknowledgement(ADT_A01)));
+    }
+
+    @Test
+    public void testPatternsOnlyMatchTheMshSegment() throws Exception {
+        mllpServer.setSendApplicationRejectAcknowledgementPattern(Pattern.compile(".*\\|ADT\\^A01\\|.*"));
+        mllpServer.setSendApplicationErrorAcknowledgementPattern(Pattern.compile("MSH\\|\\^~\\\\&\\|LAB\\|.*"));
+
+        assertEquals("AR", acknowledgementCode(ADT_A01));
+        assertEquals("AA", acknowledgementCode(ADT_A08));
+        assertEquals("The OBX segment should not be matched", "AE", acknowledgementCode(ORU_R01));
+    }
+
+    @Test
+    public void testRulesTakePrecedenceOverPatterns() throws Exception {
+        mllpServer.setSendApplicationRejectAcknowledgementPattern(Pattern.compile("MSH.*"));
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationError().messageType("ADT^A08"));
+
+        assertEquals("AR", acknowledgementCode(ADT_A01));
+        assertEquals("AE", acknowledgementCode(ADT_A08));
+    }
+
+    String acknowledgementCode(String message) throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+        return MllpServerResourceFaultPlanJUnitTest.acknowledgementCode(mllpClient.sendFramedDataAndWaitForAcknowledgement(message));
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MllpServerResourceBatchAcknowledgementJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|%05d|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|%05d|D|2.3|||||||" + '\r'
+            + "MSA|%s|%05d|" + '\r';
+
+    @Rule
+    public MllpServerResource mllpServer = createServer();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    static MllpServerResource createServer() {
+        MllpServerResource server = new MllpServerResource();
+        server.setBatchAcknowledgements(true);
+        server.setSendApplicationRejectAcknowledgementModulus(3);
+        return server;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+    }
+
+    @Test
+    public void testPipelinedMessages() throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        // sendData only buffers the frames - they are sent together with the last frame when it is flushed
+        for (int i = 1; i < 5; ++i) {
+            mllpClient.sendData(MllpClientResource.START_OF_BLOCK + String.format(TEST_MESSAGE, i) + MllpClientResource.END_OF_BLOCK + MllpClientResource.END_OF_DATA);
+        }
+        mllpClient.sendFramedData(String.format(TEST_MESSAGE, 5));
+
+        for (int i = 1; i <= 5; ++i) {
+            String expectedCode = (i % 3 == 0) ? "AR" : "AA";
+            assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, i, expectedCode, i), mllpClient.receiveFramedData());
+        }
+        assertEquals(String.format(EXPECTED_ACKNOWLEDGEMENT, 6, "AR", 6), mllpClient.sendFramedDataAndWaitForAcknowledgement(String.format(TEST_MESSAGE, 6)));
+    }
+}
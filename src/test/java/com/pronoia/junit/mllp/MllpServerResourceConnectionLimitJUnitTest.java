@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the MllpServerResource connection registry and the maxConnections overflow policies
+ */
+public class MllpServerResourceConnectionLimitJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3|||||||" + '\r'
+            + "MSA|AA|00001|" + '\r';
+
+    @Rule
+    public MllpServerResource mllpServer = new MllpServerResource();
+
+    @Test
+    public void testHandlersAreReaped() throws Exception {
+        for (int i = 0; i < 50; ++i) {
+            MllpClientResource client = new MllpClientResource(mllpServer.getListenPort());
+            client.connect();
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, client.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+            client.disconnect();
+        }
+
+        awaitLiveConnectionCount(0);
+        assertEquals(50, mllpServer.getTotalConnectionCount());
+        assertEquals(0, mllpServer.getServerSocketThread().getClientSocketThreads().size());
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        verifyOverflow(MllpConnectionOverflowPolicy.REJECT);
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        verifyOverflow(MllpConnectionOverflowPolicy.RESET);
+    }
+
+    @Test
+    public void testRejectWithNioEngine() throws Exception {
+        mllpServer.shutdown();
+        mllpServer.setNioEngine(true);
+        mllpServer.setListenPort(0);
+        mllpServer.startup();
+
+        verifyOverflow(MllpConnectionOverflowPolicy.REJECT);
+    }
+
+    @Test
+    public void testQueue() throws Exception {
+        mllpServer.setMaxConnections(1);
+        mllpServer.setConnectionOverflowPolicy(MllpConnectionOverflowPolicy.QUEUE);
+
+        MllpClientResource first = new MllpClientResource(mllpServer.getListenPort());
+        MllpClientResource second = new MllpClientResource(mllpServer.getListenPort());
+        try {
+            first.connect();
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, first.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+
+            second.connect();
+            second.sendFramedData(TEST_MESSAGE);
+            awaitQueuedConnectionCount(1);
+            assertEquals(1, mllpServer.getLiveConnectionCount());
+
+            first.disconnect();
+            assertEquals("The queued connection should be handled after the first connection ends", EXPECTED_ACKNOWLEDGEMENT, second.receiveFramedData());
+            assertEquals(0, mllpServer.getQueuedConnectionCount());
+            assertEquals(1, mllpServer.getOverflowConnectionCount());
+        } finally {
+            first.disconnect();
+            second.disconnect();
+        }
+    }
+
+    void verifyOverflow(MllpConnectionOverflowPolicy policy) throws Exception {
+        mllpServer.setMaxConnections(1);
+        mllpServer.setConnectionOverflowPolicy(policy);
+
+        MllpClientResource first = new MllpClientResource(mllpServer.getListenPort());
+        MllpClientResource second = new MllpClientResource(mllpServer.getListenPort());
+        try {
+            first.connect();
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, first.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+
+            try {
+                // A reset can arrive before the client has finished setting the socket options
+                second.connect();
+                second.sendFramedData(TEST_MESSAGE);
+                assertNull("The connection should be closed", second.receiveFramedData());
+            } catch (MllpJUnitResourceException expectedEx) {
+                assertTrue("The connection should be reset", MllpConnectionOverflowPolicy.RESET == policy);
+            }
+            assertEquals(1, mllpServer.getOverflowConnectionCount());
+            assertEquals(2, mllpServer.getTotalConnectionCount());
+            assertEquals(1, mllpServer.getLiveConnectionCount());
+
+            assertEquals("The first connection should not be affected", EXPECTED_ACKNOWLEDGEMENT, first.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        } finally {
+            first.disconnect();
+            second.disconnect();
+        }
+    }
+
+    void awaitLiveConnectionCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mllpServer.getLiveConnectionCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, mllpServer.getLiveConnectionCount());
+    }
+
+    void awaitQueuedConnectionCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mllpServer.getQueuedConnectionCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, mllpServer.getQueuedConnectionCount());
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the MllpServerResource applies a fault plan
+ */
+public class MllpServerResourceFaultPlanJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    @Rule
+    public MllpServerResource mllpServer = new MllpServerResource();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+    }
+
+    @Test
+    public void testSeededPlanIsReplayed() throws Exception {
+        mllpServer.setFaultPlan(new MllpFaultPlan(1234)
+            .add(MllpFaultRule.withProbability(MllpFault.SEND_APPLICATION_ERROR_ACKNOWLEDGEMENT, 0.3))
+            .add(MllpFaultRule.withProbability(MllpFault.SEND_APPLICATION_REJECT_ACKNOWLEDGEMENT, 0.3).burst(2)));
+
+        String firstRun = collectAcknowledgementCodes(40);
+
+        mllpServer.shutdown();
+        mllpServer.startup();
+
+        assertEquals("The same plan and seed should produce the same faults", firstRun, collectAcknowledgementCodes(40));
+        assertTrue(firstRun, firstRun.contains("AE") && firstRun.contains("AR") && firstRun.contains("AA"));
+    }
+
+    @Test
+    public void testServerScopeCountsAcrossConnections() throws Exception {
+        mllpServer.setFaultPlan(new MllpFaultPlan()
+            .add(MllpFaultRule.everyNth(MllpFault.SEND_APPLICATION_ERROR_ACKNOWLEDGEMENT, 3).scope(MllpFaultRule.Scope.SERVER)));
+
+        StringBuilder codes = new StringBuilder();
+        for (int i = 0; i < 6; ++i) {
+            MllpClientResource client = new MllpClientResource(mllpServer.getListenPort());
+            try {
+                codes.append(acknowledgementCode(client.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE))).append(' ');
+            } finally {
+                client.disconnect();
+            }
+        }
+
+        assertEquals("AA AA AE AA AA AE ", codes.toString());
+    }
+
+    @Test
+    public void testPlanIsAppliedWithModulusSettings() throws Exception {
+        mllpServer.setSendApplicationRejectAcknowledgementModulus(2);
+        mllpServer.setFaultPlan(new MllpFaultPlan().add(MllpFaultRule.everyNth(MllpFault.SEND_APPLICATION_ERROR_ACKNOWLEDGEMENT, 3)));
+
+        assertEquals("AA AR AE AR AA AE ", collectAcknowledgementCodes(6));
+    }
+
+    @Test
+    public void testPlanWithNioEngine() throws Exception {
+        mllpServer.shutdown();
+        mllpServer.setNioEngine(true);
+        mllpServer.setListenPort(0);
+        mllpServer.startup();
+
+        mllpServer.setFaultPlan(new MllpFaultPlan().add(MllpFaultRule.everyNth(MllpFault.SEND_APPLICATION_ERROR_ACKNOWLEDGEMENT, 3).burst(2)));
+
+        assertEquals("AA AA AE AE AA AE ", collectAcknowledgementCodes(6));
+    }
+
+    String collectAcknowledgementCodes(int messageCount) throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+        StringBuilder codes = new StringBuilder();
+        try {
+            for (int i = 0; i < messageCount; ++i) {
+                codes.append(acknowledgementCode(mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE))).append(' ');
+            }
+        } finally {
+            mllpClient.disconnect();
+        }
+        return codes.toString();
+    }
+
+    static String acknowledgementCode(String acknowledgement) {
+        int msaIndex = acknowledgement.indexOf("MSA|");
+        return acknowledgement.substring(msaIndex + 4, msaIndex + 6);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify additional listeners of the MllpServerResource
+ */
+public class MllpServerResourceListenerJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3|||||||" + '\r'
+            + "MSA|AA|00001|" + '\r';
+
+    static final int LISTENER_COUNT = 20;
+
+    @Rule
+    public MllpServerResource mllpServer = createServer();
+
+    static MllpServerResource createServer() {
+        MllpServerResource server = new MllpServerResource();
+        server.setSelectorThreadCount(2);
+        for (int i = 0; i < LISTENER_COUNT; ++i) {
+            server.addListener(0);
+        }
+        server.getListeners().get(1).setSendApplicationErrorAcknowledgementModulus(1);
+        server.getListeners().get(2).setDisconnectAfterAcknowledgementModulus(1);
+        return server;
+    }
+
+    @Test
+    public void testEveryListenerAcknowledges() throws Exception {
+        assertEquals(EXPECTED_ACKNOWLEDGEMENT, sendAndReceive(mllpServer.getListenPort()));
+        assertEquals(EXPECTED_ACKNOWLEDGEMENT, sendAndReceive(mllpServer.getListeners().get(0).getListenPort()));
+        for (int i = 3; i < LISTENER_COUNT; ++i) {
+            MllpServerResource listener = mllpServer.getListeners().get(i);
+            assertNotEquals(mllpServer.getListenPort(), listener.getListenPort());
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, sendAndReceive(listener.getListenPort()));
+        }
+
+        assertEquals("Every listener should record to the same metrics", LISTENER_COUNT - 1, mllpServer.getMetricsSnapshot().getFramesReceived());
+    }
+
+    @Test
+    public void testListenerFaultSettings() throws Exception {
+        assertTrue(sendAndReceive(mllpServer.getListeners().get(1).getListenPort()).contains("MSA|AE|"));
+
+        MllpClientResource mllpClient = new MllpClientResource(mllpServer.getListeners().get(2).getListenPort());
+        try {
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+            assertEquals("Connection should be closed after the acknowledgement", null, mllpClient.receiveFramedData());
+        } finally {
+            mllpClient.disconnect();
+        }
+
+        assertEquals("The settings of the primary listener should not be affected", EXPECTED_ACKNOWLEDGEMENT, sendAndReceive(mllpServer.getListenPort()));
+    }
+
+    @Test
+    public void testThreadCountDoesNotGrowWithListeners() throws Exception {
+        int selectorThreads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("MllpServerResource$SelectorThread")) {
+                ++selectorThreads;
+            }
+        }
+
+        assertEquals(2, selectorThreads);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testListenerCannotBeStartedDirectly() throws Exception {
+        mllpServer.getListeners().get(0).startup();
+    }
+
+    String sendAndReceive(int port) throws Exception {
+        MllpClientResource mllpClient = new MllpClientResource(port);
+        try {
+            return mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE);
+        } finally {
+            mllpClient.disconnect();
+        }
+    }
+}
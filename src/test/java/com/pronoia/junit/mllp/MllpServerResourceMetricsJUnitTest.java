@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MllpServerResourceMetricsJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    @Rule
+    public MllpServerResource mllpServer = createServer();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    static MllpServerResource createServer() {
+        MllpServerResource server = new MllpServerResource();
+        server.setSendApplicationErrorAcknowledgementModulus(2);
+        return server;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        for (int i = 0; i < 4; ++i) {
+            mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE);
+        }
+        awaitLatencyCount(4);
+
+        MllpServerMetrics.Snapshot snapshot = mllpServer.getMetricsSnapshot();
+        assertEquals(1, snapshot.getConnectionsAccepted());
+        assertEquals(1, snapshot.getOpenConnections());
+        assertEquals(4, snapshot.getFramesReceived());
+        assertEquals(4 * (TEST_MESSAGE.length() + 3), snapshot.getBytesReceived());
+        assertEquals(2, snapshot.getApplicationAcceptSent());
+        assertEquals(2, snapshot.getApplicationErrorSent());
+        assertEquals(0, snapshot.getApplicationRejectSent());
+        assertEquals(0, snapshot.getCorruptFrames());
+        assertTrue(snapshot.getBytesSent() > 0);
+        assertTrue(snapshot.getAcknowledgementLatency().getMaxValue() > 0);
+
+        MllpConnectionMetrics connectionMetrics = snapshot.getConnections().get(0);
+        assertEquals(4, connectionMetrics.getFramesReceived());
+        assertEquals(snapshot.getBytesSent(), connectionMetrics.getBytesSent());
+    }
+
+    @Test
+    public void testCorruptFrame() throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        mllpClient.sendData(MllpClientResource.START_OF_BLOCK + TEST_MESSAGE + MllpClientResource.END_OF_BLOCK + "X");
+        mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE);
+        awaitLatencyCount(1);
+
+        assertEquals(1, mllpServer.getMetrics().getCorruptFrames());
+        assertEquals(1, mllpServer.getMetrics().getFramesReceived());
+    }
+
+    @Test
+    public void testConnectionCountersUpdatedFromSeveralThreads() throws Exception {
+        MllpServerMetrics serverMetrics = new MllpServerMetrics();
+        MllpConnectionMetrics connectionMetrics = new MllpConnectionMetrics(serverMetrics, 1, "local", "remote");
+
+        // The connection thread, the response writer and a reset can all update the same connection
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100000; ++j) {
+                    connectionMetrics.recordFlushed(2, System.nanoTime());
+                    connectionMetrics.recordReset();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threads.length * 200000, connectionMetrics.getBytesSent());
+        assertEquals(threads.length * 100000, connectionMetrics.getResets());
+        assertEquals(serverMetrics.getBytesSent(), connectionMetrics.getBytesSent());
+    }
+
+    @Test
+    public void testAcknowledgementTemplateCache() throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+        mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE);
+        mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE);
+
+        assertEquals("The template cache should be disabled by default", 0, mllpServer.getAcknowledgementTemplateCacheSize());
+        assertEquals(0, mllpServer.getAcknowledgementTemplateCacheHits());
+        assertEquals(0, mllpServer.getAcknowledgementTemplateCacheMisses());
+
+        MllpServerResource cachingServer = new MllpServerResource();
+        cachingServer.setAcknowledgementTemplateCacheSize(4);
+        MllpClientResource cachingClient = new MllpClientResource();
+        cachingServer.startup();
+        try {
+            cachingClient.setMllpPort(cachingServer.getListenPort());
+            String acknowledgement = cachingClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE);
+            assertEquals(acknowledgement, cachingClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+
+            assertEquals(1, cachingServer.getAcknowledgementTemplateCacheHits());
+            assertEquals(1, cachingServer.getAcknowledgementTemplateCacheMisses());
+        } finally {
+            cachingClient.disconnect();
+            cachingServer.shutdown();
+        }
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+        mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE);
+        awaitLatencyCount(1);
+
+        assertNotNull(mllpServer.getMetricsObjectName());
+        Object framesReceived = ManagementFactory.getPlatformMBeanServer().getAttribute(mllpServer.getMetricsObjectName(), "FramesReceived");
+        assertEquals(1L, framesReceived);
+    }
+
+    void awaitLatencyCount(long count) throws InterruptedException {
+        // The latency is recorded after the acknowledgement is flushed, so it may lag the client slightly
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mllpServer.getMetrics().getAcknowledgementLatencyCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
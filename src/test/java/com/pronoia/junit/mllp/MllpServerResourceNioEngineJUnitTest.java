@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the MllpServerResource responds the same way when the NIO engine is enabled
+ */
+public class MllpServerResourceNioEngineJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r'
+            + "PID|1||1234^^^MRN||DOE^JOHN" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3|||||||" + '\r'
+            + "MSA|AA|00001|" + '\r';
+
+    @Rule
+    public MllpServerResource mllpServer = createServer();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    static MllpServerResource createServer() {
+        MllpServerResource server = new MllpServerResource();
+        server.setNioEngine(true);
+        server.setSelectorThreadCount(2);
+        return server;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+    }
+
+    @Test
+    public void testAcknowledgement() throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        }
+    }
+
+    @Test
+    public void testApplicationErrorAcknowledgement() throws Exception {
+        mllpServer.setSendApplicationErrorAcknowledgementModulus(2);
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        assertTrue(mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE).contains("MSA|AA|"));
+        assertTrue(mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE).contains("MSA|AE|"));
+    }
+
+    @Test
+    public void testDisconnectAfterAcknowledgement() throws Exception {
+        mllpServer.setDisconnectAfterAcknowledgementModulus(1);
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        assertEquals("Connection should be closed after the acknowledgement", null, mllpClient.receiveFramedData());
+    }
+
+    @Test
+    public void testMultipleConnections() throws Exception {
+        MllpClientResource[] clients = new MllpClientResource[10];
+        try {
+            for (int i = 0; i < clients.length; ++i) {
+                clients[i] = new MllpClientResource(mllpServer.getListenPort());
+                clients[i].connect();
+            }
+            for (MllpClientResource client : clients) {
+                assertEquals(EXPECTED_ACKNOWLEDGEMENT, client.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+            }
+        } finally {
+            for (MllpClientResource client : clients) {
+                if (null != client) {
+                    client.disconnect();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MllpServerResourceReceivedMessageJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|%05d|P|2.3" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    @Rule
+    public MllpServerResource mllpServer = createServer();
+
+    MllpClientResource firstClient = new MllpClientResource();
+    MllpClientResource secondClient = new MllpClientResource();
+
+    static MllpServerResource createServer() {
+        MllpServerResource server = new MllpServerResource();
+        server.setReceivedMessageCaptureCapacity(4);
+        return server;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        firstClient.disconnect();
+        secondClient.disconnect();
+    }
+
+    @Test
+    public void testAwaitAndDrain() throws Exception {
+        firstClient.setMllpPort(mllpServer.getListenPort());
+        secondClient.setMllpPort(mllpServer.getListenPort());
+
+        firstClient.sendFramedData(String.format(TEST_MESSAGE, 1));
+        firstClient.sendFramedData(String.format(TEST_MESSAGE, 2));
+        secondClient.sendFramedData(String.format(TEST_MESSAGE, 3));
+
+        assertTrue("Messages should be captured", mllpServer.awaitMessageCount(3, 5000));
+
+        List<MllpReceivedMessage> received = mllpServer.drainReceived();
+        assertEquals(3, received.size());
+        assertEquals(0, mllpServer.getReceivedMessageCount());
+
+        // The connections are handled concurrently, so only the order of the messages on each connection is known
+        MllpReceivedMessage[] messages = new MllpReceivedMessage[3];
+        for (MllpReceivedMessage message : received) {
+            assertTrue(message.getReceiveTimestamp() > 0);
+            for (int i = 0; i < messages.length; ++i) {
+                if (String.format(TEST_MESSAGE, i + 1).equals(message.getPayload(MllpClientResource.DEFAULT_CHARSET))) {
+                    messages[i] = message;
+                }
+            }
+        }
+        assertEquals(messages[0].getConnectionId(), messages[1].getConnectionId());
+        assertNotEquals(messages[0].getConnectionId(), messages[2].getConnectionId());
+        assertTrue(received.indexOf(messages[0]) < received.indexOf(messages[1]));
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        firstClient.setMllpPort(mllpServer.getListenPort());
+
+        for (int i = 1; i <= 6; ++i) {
+            firstClient.sendFramedDataAndWaitForAcknowledgement(String.format(TEST_MESSAGE, i));
+        }
+
+        assertFalse("Only four messages should be captured", mllpServer.awaitMessageCount(5, 100));
+        assertEquals(2, mllpServer.getDroppedMessageCount());
+        assertEquals(String.format(TEST_MESSAGE, 1), mllpServer.drainReceived().get(0).getPayload(MllpClientResource.DEFAULT_CHARSET));
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify sessions recorded with the MllpClientResource and MllpServerResource can be replayed
+ */
+public class MllpServerResourceReplayJUnitTest {
+    static final String TEST_MESSAGE_FORMAT =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|%05d|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public MllpServerResource mllpServer = createServer();
+
+    static MllpServerResource createServer() {
+        MllpServerResource server = new MllpServerResource();
+        server.setReceivedMessageCaptureCapacity(100);
+        return server;
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        File clientRecording = temporaryFolder.newFile("client.mllp");
+        File serverRecording = temporaryFolder.newFile("server.mllp");
+
+        try (MllpSessionRecorder clientRecorder = new MllpSessionRecorder(clientRecording);
+             MllpSessionRecorder serverRecorder = new MllpSessionRecorder(serverRecording)) {
+            mllpServer.setSessionRecorder(serverRecorder);
+
+            MllpClientResource mllpClient = new MllpClientResource(mllpServer.getListenPort());
+            mllpClient.setSessionRecorder(clientRecorder);
+            for (int connection = 0; connection < 2; ++connection) {
+                mllpClient.connect();
+                for (int i = 1; i <= 3; ++i) {
+                    mllpClient.sendFramedDataAndWaitForAcknowledgement(String.format(TEST_MESSAGE_FORMAT, connection * 10 + i));
+                }
+                mllpClient.disconnect();
+            }
+            assertTrue(mllpServer.awaitMessageCount(6, 5000));
+            mllpServer.setSessionRecorder(null);
+        }
+
+        MllpSessionRecording recording = MllpSessionRecording.read(clientRecording);
+        assertEquals(Arrays.asList(1L, 2L), Arrays.asList(recording.getConnectionIds().toArray()));
+        assertEquals(2, recording.count(MllpSessionEvent.Type.CONNECT));
+        assertEquals(6, recording.count(MllpSessionEvent.Type.FRAME_TO_SERVER));
+        assertEquals(6, recording.count(MllpSessionEvent.Type.FRAME_TO_CLIENT));
+        assertEquals(2, recording.count(MllpSessionEvent.Type.DISCONNECT));
+        assertEquals(String.format(TEST_MESSAGE_FORMAT, 1), recording.getEvents().get(1).getPayload(StandardCharsets.ISO_8859_1));
+
+        MllpSessionRecording serverSide = MllpSessionRecording.read(serverRecording);
+        assertEquals(6, serverSide.count(MllpSessionEvent.Type.FRAME_TO_SERVER));
+        assertEquals(2, serverSide.count(MllpSessionEvent.Type.CONNECT));
+
+        mllpServer.drainReceived();
+        MllpSessionReplayer replayer = new MllpSessionReplayer(recording, mllpServer.getListenPort());
+        replayer.setSpeed(MllpSessionReplayer.AS_FAST_AS_POSSIBLE);
+        MllpSessionReplayer.Result result = replayer.replay();
+
+        assertEquals(result.getFailures().toString(), 0, result.getFailures().size());
+        assertEquals(6, result.getFramesSent());
+        assertEquals(6, result.getAcknowledgementsReceived());
+        assertEquals(6, result.getAcknowledgementLatency().getCount());
+
+        // The recorded connections are replayed concurrently
+        Set<String> received = new TreeSet<>();
+        for (MllpReceivedMessage message : mllpServer.drainReceived()) {
+            received.add(message.getPayload(StandardCharsets.ISO_8859_1));
+        }
+        Set<String> expected = new TreeSet<>();
+        for (int id : new int[] {1, 2, 3, 11, 12, 13}) {
+            expected.add(String.format(TEST_MESSAGE_FORMAT, id));
+        }
+        assertEquals(expected, received);
+    }
+
+    @Test
+    public void testReplaySpeed() throws Exception {
+        byte[] message = String.format(TEST_MESSAGE_FORMAT, 1).getBytes(StandardCharsets.ISO_8859_1);
+        long gap = TimeUnit.MILLISECONDS.toNanos(400);
+        MllpSessionRecording recording = new MllpSessionRecording(System.currentTimeMillis(), Arrays.asList(
+            new MllpSessionEvent(MllpSessionEvent.Type.CONNECT, 0, 1, null),
+            new MllpSessionEvent(MllpSessionEvent.Type.FRAME_TO_SERVER, 0, 1, message),
+            new MllpSessionEvent(MllpSessionEvent.Type.FRAME_TO_SERVER, gap, 1, message),
+            new MllpSessionEvent(MllpSessionEvent.Type.DISCONNECT, gap, 1, null)));
+
+        MllpSessionReplayer replayer = new MllpSessionReplayer(recording, mllpServer.getListenPort());
+        MllpSessionReplayer.Result recordedSpeed = replayer.replay();
+        assertEquals(2, recordedSpeed.getAcknowledgementsReceived());
+        assertTrue("The frames should be sent at the recorded times: " + recordedSpeed, 400 <= recordedSpeed.getElapsedMillis());
+
+        replayer.setSpeed(20);
+        MllpSessionReplayer.Result fastSpeed = replayer.replay();
+        assertEquals(2, fastSpeed.getAcknowledgementsReceived());
+        assertTrue("The recorded times should be scaled by the speed: " + fastSpeed, 400 > fastSpeed.getElapsedMillis());
+    }
+
+    @Test
+    public void testRecordingRoundTrip() throws Exception {
+        File file = temporaryFolder.newFile("round-trip.mllp");
+        byte[] payload = new byte[300];
+        for (int i = 0; i < payload.length; ++i) {
+            payload[i] = (byte) i;
+        }
+        MllpSessionRecording original = new MllpSessionRecording(1234567890L, Arrays.asList(
+            new MllpSessionEvent(MllpSessionEvent.Type.CONNECT, 5, 7, null),
+            new MllpSessionEvent(MllpSessionEvent.Type.FRAME_TO_SERVER, 1000000000L, 7, payload),
+            new MllpSessionEvent(MllpSessionEvent.Type.FRAME_TO_CLIENT, 1000000000L, 7, new byte[0]),
+            new MllpSessionEvent(MllpSessionEvent.Type.DISCONNECT, 5000000000L, 7, null)));
+
+        original.write(file);
+        MllpSessionRecording copy = MllpSessionRecording.read(file);
+
+        assertEquals(original.getStartTimestamp(), copy.getStartTimestamp());
+        assertEquals(original.getEvents().size(), copy.getEvents().size());
+        for (int i = 0; i < original.getEvents().size(); ++i) {
+            MllpSessionEvent expected = original.getEvents().get(i);
+            MllpSessionEvent actual = copy.getEvents().get(i);
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(expected.getTimestampNanos(), actual.getTimestampNanos());
+            assertEquals(expected.getConnectionId(), actual.getConnectionId());
+            assertTrue(Arrays.equals(expected.getPayload(), actual.getPayload()));
+        }
+        assertEquals(5000000000L, copy.getDurationNanos());
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the MllpServerResource sends the responses produced by a MllpResponseHandler
+ */
+public class MllpServerResourceResponseHandlerJUnitTest {
+    static final int MESSAGE_COUNT = 5;
+
+    @Rule
+    public MllpServerResource mllpServer = new MllpServerResource();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    ScheduledExecutorService backEnd = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+        backEnd.shutdownNow();
+    }
+
+    @Test
+    public void testHandlerResponse() throws Exception {
+        mllpServer.setResponseHandler((hl7Message, connectionId) -> CompletableFuture.completedFuture(response(hl7Message)));
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        assertEquals("RSP|00001", mllpClient.sendFramedDataAndWaitForAcknowledgement(message(1)));
+        assertEquals("RSP|00002", mllpClient.sendFramedDataAndWaitForAcknowledgement(message(2)));
+    }
+
+    @Test
+    public void testResponsesAreSentInOrder() throws Exception {
+        verifyResponsesAreSentInOrder();
+    }
+
+    @Test
+    public void testResponsesAreSentInOrderWithNioEngine() throws Exception {
+        mllpServer.shutdown();
+        mllpServer.setNioEngine(true);
+        mllpServer.setListenPort(0);
+        mllpServer.startup();
+
+        verifyResponsesAreSentInOrder();
+    }
+
+    @Test
+    public void testReadsAreNotBlockedByHandler() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger handled = new AtomicInteger();
+        mllpServer.setResponseHandler((hl7Message, connectionId) -> {
+            handled.incrementAndGet();
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException interruptedEx) {
+                    Thread.currentThread().interrupt();
+                }
+                return response(hl7Message);
+            });
+        });
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        for (int i = 1; i <= MESSAGE_COUNT; ++i) {
+            mllpClient.sendFramedData(message(i));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.get() < MESSAGE_COUNT && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Every message should be handed to the handler before any response is sent", MESSAGE_COUNT, handled.get());
+
+        release.countDown();
+        for (int i = 1; i <= MESSAGE_COUNT; ++i) {
+            assertEquals(String.format("RSP|%05d", i), mllpClient.receiveFramedData());
+        }
+    }
+
+    @Test
+    public void testHandlerFailure() throws Exception {
+        mllpServer.setResponseHandler((hl7Message, connectionId) -> {
+            throw new IllegalStateException("Back-end unavailable");
+        });
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        assertTrue(mllpClient.sendFramedDataAndWaitForAcknowledgement(message(1)).contains("MSA|AE|00001"));
+
+        CompletableFuture<byte[]> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("Lookup failed"));
+        mllpServer.setResponseHandler((hl7Message, connectionId) -> failed);
+
+        assertTrue(mllpClient.sendFramedDataAndWaitForAcknowledgement(message(2)).contains("MSA|AE|00002"));
+    }
+
+    @Test
+    public void testEnvelopeFaultsApplyToHandlerResponses() throws Exception {
+        mllpServer.setResponseHandler((hl7Message, connectionId) -> CompletableFuture.completedFuture(response(hl7Message)));
+        mllpServer.setDisconnectAfterAcknowledgementModulus(2);
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        assertEquals("RSP|00001", mllpClient.sendFramedDataAndWaitForAcknowledgement(message(1)));
+        assertEquals("RSP|00002", mllpClient.sendFramedDataAndWaitForAcknowledgement(message(2)));
+        assertEquals("Connection should be closed after the response", null, mllpClient.receiveFramedData());
+    }
+
+    void verifyResponsesAreSentInOrder() throws Exception {
+        // The earliest messages take the longest to handle
+        mllpServer.setResponseHandler((hl7Message, connectionId) -> {
+            CompletableFuture<byte[]> result = new CompletableFuture<>();
+            int messageNumber = Integer.parseInt(controlId(hl7Message));
+            backEnd.schedule(() -> result.complete(response(hl7Message)), (MESSAGE_COUNT - messageNumber) * 50L, TimeUnit.MILLISECONDS);
+            return result;
+        });
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        for (int i = 1; i <= MESSAGE_COUNT; ++i) {
+            mllpClient.sendFramedData(message(i));
+        }
+        for (int i = 1; i <= MESSAGE_COUNT; ++i) {
+            assertEquals(String.format("RSP|%05d", i), mllpClient.receiveFramedData());
+        }
+    }
+
+    static String message(int messageNumber) {
+        return String.format("MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||QRY^A19|%05d|D|2.3|||||||" + '\r'
+            + "QRD|20160902123950|R|I|Q1||||1^RD|123456" + '\r', messageNumber);
+    }
+
+    static String controlId(byte[] hl7Message) {
+        return new String(hl7Message, StandardCharsets.ISO_8859_1).split("\\|")[9];
+    }
+
+    static byte[] response(byte[] hl7Message) {
+        return ("RSP|" + controlId(hl7Message)).getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
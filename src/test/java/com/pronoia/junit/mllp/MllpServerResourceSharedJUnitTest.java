@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the shared MllpServerResource keeps its listener open between tests and resets the fault-injection and runtime
+ * settings
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MllpServerResourceSharedJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3|||||||" + '\r'
+            + "MSA|AA|00001|" + '\r';
+
+    @ClassRule
+    public static MllpServerResource sharedServer = MllpServerResource.shared();
+
+    static int firstListenPort;
+    static MllpSessionRecorder sessionRecorder;
+    static File sessionFile;
+
+    @Rule
+    public MllpServerResource mllpServer = MllpServerResource.shared();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        if (null != sessionRecorder) {
+            sessionRecorder.close();
+            sessionFile.delete();
+        }
+    }
+
+    @Test
+    public void test1SharedInstance() throws Exception {
+        assertSame(sharedServer, mllpServer);
+        assertTrue(mllpServer.isShared());
+        assertEquals("Both the class rule and the method rule should hold a reference", 2, mllpServer.getSharedReferenceCount());
+
+        firstListenPort = mllpServer.getListenPort();
+        mllpClient.setMllpPort(firstListenPort);
+        assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+    }
+
+    @Test
+    public void test2FaultSettings() throws Exception {
+        assertEquals("The listener should not be rebound between tests", firstListenPort, mllpServer.getListenPort());
+
+        mllpServer.setSendApplicationErrorAcknowledgementModulus(1);
+        mllpServer.addAcknowledgementRule(MllpAcknowledgementRule.applicationReject().messageType("ADT^A01"));
+        mllpServer.setFaultPlan(new MllpFaultPlan(1).add(MllpFaultRule.everyNth(MllpFault.DISCONNECT_AFTER_ACKNOWLEDGEMENT, 1)));
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        assertEquals("AE", MllpServerResourceFaultPlanJUnitTest.acknowledgementCode(mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE)));
+    }
+
+    @Test
+    public void test2RuntimeSettings() throws Exception {
+        sessionFile = File.createTempFile("mllp-session", ".log");
+        sessionRecorder = new MllpSessionRecorder(sessionFile);
+
+        mllpServer.setMaxConnections(1);
+        mllpServer.setConnectionOverflowPolicy(MllpConnectionOverflowPolicy.QUEUE);
+        mllpServer.setBatchAcknowledgements(true);
+        mllpServer.setSessionRecorder(sessionRecorder);
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+    }
+
+    @Test
+    public void test3FaultSettingsReset() throws Exception {
+        assertEquals("The listener should not be rebound between tests", firstListenPort, mllpServer.getListenPort());
+        assertEquals("The metrics should be reset between tests", 0, mllpServer.getMetrics().getFramesReceived());
+        assertEquals("The connection limit should be reset between tests", 0, mllpServer.getMaxConnections());
+        assertEquals(MllpConnectionOverflowPolicy.REJECT, mllpServer.getConnectionOverflowPolicy());
+        assertFalse("Acknowledgement batching should be reset between tests", mllpServer.isBatchAcknowledgements());
+        assertNull("The session recorder should be reset between tests", mllpServer.getSessionRecorder());
+
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        }
+    }
+}
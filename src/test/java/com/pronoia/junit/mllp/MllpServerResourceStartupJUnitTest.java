@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.File;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verify the MllpServerResource readiness signalling and bind retries
+ */
+public class MllpServerResourceStartupJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3|||||||" + '\r'
+            + "MSA|AA|00001|" + '\r';
+
+    MllpServerResource mllpServer = new MllpServerResource();
+
+    @After
+    public void tearDown() throws Exception {
+        mllpServer.shutdown();
+    }
+
+    @Test
+    public void testReadyAfterBefore() throws Throwable {
+        mllpServer.before();
+
+        assertTrue("The listener should be accepting connections when before() returns", mllpServer.isReady());
+    }
+
+    @Test
+    public void testReadyAfterBeforeWithNioEngine() throws Throwable {
+        mllpServer.setNioEngine(true);
+        mllpServer.before();
+
+        assertTrue("The listener should be accepting connections when before() returns", mllpServer.isReady());
+    }
+
+    @Test
+    public void testBindTimeout() throws Exception {
+        try (ServerSocket blocker = new ServerSocket()) {
+            blocker.bind(new InetSocketAddress(0));
+            mllpServer.setListenPort(blocker.getLocalPort());
+            mllpServer.setBindTimeout(300);
+
+            long start = System.currentTimeMillis();
+            try {
+                mllpServer.startup();
+                fail("The bind should fail when the port is in use");
+            } catch (BindException expectedEx) {
+                long elapsed = System.currentTimeMillis() - start;
+                assertTrue("The bind should give up after the bind timeout - took " + elapsed + " milliseconds", elapsed < 5000);
+            }
+        }
+    }
+
+    @Test
+    public void testFailedBindReleasesResources() throws Throwable {
+        verifyFailedBindReleasesResources();
+    }
+
+    @Test
+    public void testFailedBindReleasesResourcesWithNioEngine() throws Throwable {
+        mllpServer.setNioEngine(true);
+        verifyFailedBindReleasesResources();
+    }
+
+    @Test
+    public void testBindRetry() throws Throwable {
+        verifyBindRetry();
+    }
+
+    @Test
+    public void testBindRetryWithNioEngine() throws Throwable {
+        mllpServer.setNioEngine(true);
+        verifyBindRetry();
+    }
+
+    @Test
+    public void testVirtualThreadsOnAnyJava() throws Throwable {
+        // Before Java 21 the connection handlers fall back to platform threads
+        mllpServer.setVirtualThreads(true);
+        mllpServer.before();
+
+        MllpClientResource mllpClient = new MllpClientResource(mllpServer.getListenPort());
+        try {
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        } finally {
+            mllpClient.disconnect();
+        }
+    }
+
+    @Test
+    public void testReuseAddress() throws Throwable {
+        mllpServer.setReuseAddress(true);
+        mllpServer.setBindTimeout(0);
+        mllpServer.before();
+        int listenPort = mllpServer.getListenPort();
+
+        MllpClientResource mllpClient = new MllpClientResource(listenPort);
+        assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        mllpServer.shutdown();
+        mllpClient.disconnect();
+
+        mllpServer.before();
+        assertEquals(listenPort, mllpServer.getListenPort());
+        assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        mllpClient.disconnect();
+    }
+
+    void verifyFailedBindReleasesResources() throws Throwable {
+        File journalDirectory = Files.createTempDirectory("mllp-journal").toFile();
+        try (ServerSocket blocker = new ServerSocket()) {
+            blocker.bind(new InetSocketAddress(0));
+            mllpServer.setListenPort(blocker.getLocalPort());
+            mllpServer.setBindTimeout(100);
+            mllpServer.setJournalDirectory(journalDirectory);
+
+            try {
+                mllpServer.before();
+                fail("The bind should fail when the port is in use");
+            } catch (BindException expectedEx) {
+                // Expected
+            }
+
+            // JUnit does not call after() when before() fails
+            assertFalse(mllpServer.isActive());
+            assertNull("The response scheduler should be shut down", mllpServer.responseScheduler);
+            assertNull("The response handler executor should be shut down", mllpServer.defaultResponseHandlerExecutor);
+            assertNull("The journal should be closed", mllpServer.journal);
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                assertFalse("No threads of the resource should be left: " + thread.getName(),
+                    thread.isAlive() && thread.getName().startsWith("MllpServerResource$Response"));
+            }
+        } finally {
+            File[] journalFiles = journalDirectory.listFiles();
+            if (null != journalFiles) {
+                for (File journalFile : journalFiles) {
+                    journalFile.delete();
+                }
+            }
+            journalDirectory.delete();
+        }
+    }
+
+    void verifyBindRetry() throws Throwable {
+        ServerSocket blocker = new ServerSocket();
+        blocker.bind(new InetSocketAddress(0));
+        mllpServer.setListenPort(blocker.getLocalPort());
+        mllpServer.setBindRetryInitialInterval(10);
+        mllpServer.setBindRetryMaxInterval(50);
+        mllpServer.setBindTimeout(5000);
+
+        Thread releaser = new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(200);
+                blocker.close();
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        releaser.start();
+
+        mllpServer.before();
+        releaser.join();
+
+        MllpClientResource mllpClient = new MllpClientResource(mllpServer.getListenPort());
+        try {
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        } finally {
+            mllpClient.disconnect();
+        }
+    }
+}
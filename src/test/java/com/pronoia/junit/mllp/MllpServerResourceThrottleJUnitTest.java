@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MllpServerResourceThrottleJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3|||||||" + '\r'
+            + "MSA|AA|00001|" + '\r';
+
+    // The acknowledgement is framed, so it is 3 bytes longer
+    static final int ACKNOWLEDGEMENT_SIZE = EXPECTED_ACKNOWLEDGEMENT.length() + 3;
+
+    @Rule
+    public MllpServerResource mllpServer = createServer();
+
+    MllpClientResource mllpClient = new MllpClientResource();
+
+    static MllpServerResource createServer() {
+        MllpServerResource server = new MllpServerResource();
+        server.setReceivedMessageCaptureCapacity(10);
+        return server;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mllpClient.disconnect();
+    }
+
+    @Test
+    public void testWriteThrottle() throws Exception {
+        mllpServer.setWriteBytesPerSecond(200);
+        mllpServer.setThrottleBurstSize(20);
+        mllpServer.setWritePacketSize(10);
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        assertMinimumElapsed(minimumNanos(ACKNOWLEDGEMENT_SIZE, 200, 20), () -> {
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        });
+    }
+
+    @Test
+    public void testWriteThrottleWithNioEngine() throws Exception {
+        mllpServer.shutdown();
+        mllpServer.setNioEngine(true);
+        mllpServer.setListenPort(0);
+        mllpServer.startup();
+
+        testWriteThrottle();
+    }
+
+    @Test
+    public void testReadThrottle() throws Exception {
+        mllpServer.setReadBytesPerSecond(500);
+        mllpServer.setThrottleBurstSize(50);
+        mllpServer.disableResponse();
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+
+        int totalBytes = 3 * (TEST_MESSAGE.length() + 3);
+        assertMinimumElapsed(minimumNanos(totalBytes, 500, 50), () -> {
+            for (int i = 0; i < 3; ++i) {
+                mllpClient.sendFramedData(TEST_MESSAGE);
+            }
+            assertTrue(mllpServer.awaitMessageCount(3, 5000));
+        });
+    }
+
+    @Test
+    public void testReadThrottleWithNioEngine() throws Exception {
+        mllpServer.shutdown();
+        mllpServer.setNioEngine(true);
+        mllpServer.setListenPort(0);
+        mllpServer.startup();
+
+        testReadThrottle();
+    }
+
+    @Test
+    public void testConnectionThrottleAtRuntime() throws Exception {
+        mllpClient.setMllpPort(mllpServer.getListenPort());
+        assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+
+        long connectionId = mllpServer.getMetrics().getConnections().get(0).getConnectionId();
+        MllpConnectionThrottle throttle = mllpServer.getConnectionThrottle(connectionId);
+        assertNotNull(throttle);
+        throttle.setWriteBytesPerSecond(200);
+        throttle.setThrottleBurstSize(20);
+
+        assertMinimumElapsed(minimumNanos(ACKNOWLEDGEMENT_SIZE, 200, 20), () -> {
+            assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        });
+        assertEquals("The resource limit should not be changed", 0, mllpServer.getWriteBytesPerSecond());
+    }
+
+    static long minimumNanos(int bytes, long bytesPerSecond, int burstSize) {
+        return TimeUnit.SECONDS.toNanos(bytes - burstSize) / bytesPerSecond;
+    }
+
+    static void assertMinimumElapsed(long minimumNanos, ThrottledExchange exchange) throws Exception {
+        long start = System.nanoTime();
+        exchange.run();
+        long elapsed = System.nanoTime() - start;
+        assertTrue(String.format("Expected at least %dms but took %dms", TimeUnit.NANOSECONDS.toMillis(minimumNanos), TimeUnit.NANOSECONDS.toMillis(elapsed)),
+            elapsed >= minimumNanos);
+    }
+
+    interface ThrottledExchange {
+        void run() throws Exception;
+    }
+}
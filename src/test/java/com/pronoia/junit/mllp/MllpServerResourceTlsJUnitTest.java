@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verify the MllpServerResource and MllpClientResource exchange messages over TLS and count resumed sessions
+ */
+public class MllpServerResourceTlsJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3|||||||" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    static final String EXPECTED_ACKNOWLEDGEMENT =
+        "MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3|||||||" + '\r'
+            + "MSA|AA|00001|" + '\r';
+
+    static final char[] STORE_PASSWORD = "changeit".toCharArray();
+
+    @ClassRule
+    public static TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    static KeyStore keyStore;
+
+    MllpServerResource mllpServer = new MllpServerResource();
+
+    /**
+     * Generate a self-signed key pair with keytool, so the test does not depend on a checked-in key store.
+     */
+    @BeforeClass
+    public static void createKeyStore() throws Exception {
+        File keyStoreFile = new File(temporaryFolder.getRoot(), "mllp.p12");
+        File keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool");
+
+        Process process = new ProcessBuilder(keytool.getPath(), "-genkeypair", "-alias", "mllp", "-keyalg", "RSA", "-keysize", "2048",
+            "-dname", "CN=localhost", "-validity", "2", "-storetype", "PKCS12", "-keystore", keyStoreFile.getPath(),
+            "-storepass", new String(STORE_PASSWORD), "-keypass", new String(STORE_PASSWORD))
+            .redirectErrorStream(true)
+            .redirectOutput(new File(temporaryFolder.getRoot(), "keytool.log"))
+            .start();
+        assertTrue("keytool should finish", process.waitFor(60, TimeUnit.SECONDS));
+        assertEquals("keytool exit code", 0, process.exitValue());
+
+        keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream keyStoreStream = new FileInputStream(keyStoreFile)) {
+            keyStore.load(keyStoreStream, STORE_PASSWORD);
+        }
+    }
+
+    static SSLContext createServerContext() throws Exception {
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, STORE_PASSWORD);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    static SSLContext createClientContext() throws Exception {
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mllpServer.shutdown();
+    }
+
+    @Test
+    public void testAcknowledgement() throws Exception {
+        mllpServer.setSslContext(createServerContext());
+        mllpServer.startup();
+
+        MllpClientResource mllpClient = new MllpClientResource(mllpServer.getListenPort());
+        mllpClient.setSslContext(createClientContext());
+        mllpClient.connect();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+            }
+        } finally {
+            mllpClient.disconnect();
+        }
+
+        assertEquals(1, mllpServer.getFullHandshakeCount());
+        assertEquals(0, mllpServer.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void testSessionResumption() throws Exception {
+        mllpServer.setSslContext(createServerContext());
+        mllpServer.setSslEnabledProtocols("TLSv1.2");
+        mllpServer.startup();
+
+        MllpClientResource mllpClient = new MllpClientResource(mllpServer.getListenPort());
+        mllpClient.setSslContext(createClientContext());
+        mllpClient.setSslEnabledProtocols("TLSv1.2");
+        for (int i = 0; i < 5; ++i) {
+            mllpClient.connect();
+            try {
+                assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+            } finally {
+                mllpClient.disconnect();
+            }
+        }
+
+        assertEquals(1, mllpClient.getFullHandshakeCount());
+        assertEquals(4, mllpClient.getResumedHandshakeCount());
+        assertEquals(1, mllpServer.getFullHandshakeCount());
+        assertEquals(4, mllpServer.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void testSessionResumptionDisabled() throws Exception {
+        mllpServer.setSslContext(createServerContext());
+        mllpServer.setSslEnabledProtocols("TLSv1.2");
+        mllpServer.setSslSessionResumption(false);
+        mllpServer.startup();
+
+        MllpClientResource mllpClient = new MllpClientResource(mllpServer.getListenPort());
+        mllpClient.setSslContext(createClientContext());
+        mllpClient.setSslSessionResumption(false);
+        for (int i = 0; i < 3; ++i) {
+            mllpClient.connect();
+            try {
+                assertEquals(EXPECTED_ACKNOWLEDGEMENT, mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+            } finally {
+                mllpClient.disconnect();
+            }
+        }
+
+        assertEquals(3, mllpClient.getFullHandshakeCount());
+        assertEquals(0, mllpClient.getResumedHandshakeCount());
+        assertEquals(3, mllpServer.getFullHandshakeCount());
+        assertEquals(0, mllpServer.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void testNioEngineRejected() throws Exception {
+        mllpServer.setSslContext(createServerContext());
+        mllpServer.setNioEngine(true);
+
+        try {
+            mllpServer.startup();
+            fail("TLS should not be accepted with the NIO engine");
+        } catch (IllegalStateException expectedEx) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pronoia.junit.mllp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compare the thread count and heap use of platform and virtual connection handlers.
+ *
+ * Virtual threads are only available from the multi-release JAR on Java 21 or later, so this test is run by the
+ * maven-failsafe-plugin in the java21 profile.  The number of connections can be set with the
+ * mllp.junit.connections system property - each connection uses two file descriptors.
+ */
+public class MllpServerResourceVirtualThreadJUnitTest {
+    static final String TEST_MESSAGE =
+        "MSH|^~\\&|APP_A|FAC_A|APP_B|FAC_B|20160902123950||ADT^A01|00001|D|2.3" + '\r'
+            + "EVN|A01|20160902123950" + '\r';
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    // Generous - a virtual thread parked in a socket read keeps a stack of a few KB on the heap
+    static final long MAXIMUM_VIRTUAL_THREAD_HEAP = 16 * 1024;
+
+    int connectionCount = Integer.getInteger("mllp.junit.connections", 10000);
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue("Virtual threads are not supported", MllpVirtualThreads.isSupported());
+    }
+
+    @Test
+    public void testThreadCountAndHeapUse() throws Exception {
+        Measurement platform = measure(false);
+        Measurement virtual = measure(true);
+
+        log.info("{} connections using platform threads: {}", connectionCount, platform);
+        log.info("{} connections using virtual threads: {}", connectionCount, virtual);
+
+        assertTrue("Platform threads should be started for every connection", platform.threadCount >= connectionCount);
+        assertTrue("Virtual threads should not start a platform thread for every connection", virtual.threadCount < connectionCount / 10);
+
+        // The stack of a virtual thread is kept on the heap while it waits for data - the stack of a platform thread is
+        // not, so the virtual connections are allowed more heap, but only a few stack frames worth per connection
+        long heapAllowance = platform.heapUsed + connectionCount * MAXIMUM_VIRTUAL_THREAD_HEAP;
+        assertTrue(String.format("Virtual threads used %d bytes of heap - more than %d bytes", virtual.heapUsed, heapAllowance),
+            virtual.heapUsed <= heapAllowance);
+    }
+
+    /**
+     * Open the connections, and measure the live platform threads and the heap used while they are open.
+     *
+     * @param virtualThreads true to run the connection handlers on virtual threads
+     *
+     * @return the measurement
+     */
+    Measurement measure(boolean virtualThreads) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+        MllpServerResource mllpServer = new MllpServerResource(0, 1000);
+        mllpServer.setVirtualThreads(virtualThreads);
+        MllpClientResource[] clients = new MllpClientResource[connectionCount];
+
+        mllpServer.startup();
+        try {
+            for (int i = 0; i < connectionCount; ++i) {
+                clients[i] = new MllpClientResource(mllpServer.getListenPort());
+                clients[i].connect();
+                assertTrue(clients[i].sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE).contains("MSA|AA|00001|"));
+            }
+
+            return new Measurement(threadMXBean.getThreadCount(), usedHeapAfterGc());
+        } finally {
+            for (MllpClientResource client : clients) {
+                if (null != client) {
+                    client.disconnect();
+                }
+            }
+            mllpServer.shutdown();
+        }
+    }
+
+    /**
+     * Collect the garbage until the used heap stops shrinking, so only live objects are measured.
+     *
+     * @return the used heap in bytes
+     */
+    static long usedHeapAfterGc() throws InterruptedException {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; ++i) {
+            memoryMXBean.gc();
+            Thread.sleep(50);
+            long collected = memoryMXBean.getHeapMemoryUsage().getUsed();
+            if (collected >= used) {
+                return collected;
+            }
+            used = collected;
+        }
+        return used;
+    }
+
+    @Test
+    public void testAcknowledgement() throws Exception {
+        MllpServerResource mllpServer = new MllpServerResource();
+        mllpServer.setVirtualThreads(true);
+        MllpClientResource mllpClient = new MllpClientResource();
+
+        mllpServer.startup();
+        try {
+            mllpClient.setMllpPort(mllpServer.getListenPort());
+            assertEquals("MSH|^~\\&|APP_B|FAC_B|APP_A|FAC_A|20160902123950||ACK^A01|00001|D|2.3" + '\r' + "MSA|AA|00001|" + '\r',
+                mllpClient.sendFramedDataAndWaitForAcknowledgement(TEST_MESSAGE));
+        } finally {
+            mllpClient.disconnect();
+            mllpServer.shutdown();
+        }
+    }
+
+    /**
+     * Nested class that holds the thread count and heap use measured with the connections open
+     */
+    static class Measurement {
+        final int threadCount;
+        final long heapUsed;
+
+        Measurement(int threadCount, long heapUsed) {
+            this.threadCount = threadCount;
+            this.heapUsed = heapUsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d threads, %d bytes heap", threadCount, heapUsed);
+        }
+    }
+}